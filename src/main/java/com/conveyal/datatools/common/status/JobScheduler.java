@@ -0,0 +1,315 @@
+package com.conveyal.datatools.common.status;
+
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.jobs.JobQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs jobs in pools by kind of work, so that e.g. a batch of feed fetches does not hold up email notifications, and
+ * within each pool by priority, so that a user waiting on an upload does not wait behind a nightly project fetch.
+ *
+ * - Each pool has a fixed number of threads, sized from the available cores and memory unless configured with
+ *   application.jobs.[pool]_threads (e.g., application.jobs.processing_threads).
+ * - Waiting jobs are started in priority order. Within a priority, jobs are queued per user and project and the queues
+ *   take turns, so that one user (or scheduled project fetch) submitting many jobs does not delay everyone else.
+ * - Some threads of each pool (application.jobs.reserved_interactive_threads, one by default) only run interactive
+ *   jobs, so interactive jobs start promptly even while a batch of scheduled jobs is running.
+ * - Jobs with the same conflict key (e.g., jobs on the same feed source, see {@link MonitorableJob#getConflictKey()})
+ *   run one at a time, in the order they were submitted. A job that duplicates one already queued or running under
+ *   its key is not run at all; its owner follows the earlier job instead.
+ */
+public class JobScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(JobScheduler.class);
+
+    /** Memory a processing job (e.g., loading and validating a large feed) can be expected to need */
+    private static final long PROCESSING_JOB_MEMORY_BYTES = 2L * 1024 * 1024 * 1024;
+
+    public enum Priority {
+        /** Started by a user who is waiting for the result */
+        INTERACTIVE,
+        /** Started on a schedule, e.g. auto-fetching project feeds */
+        SCHEDULED,
+        /** Maintenance work that can wait */
+        BACKGROUND
+    }
+
+    public enum Pool {
+        /** Long-lived CPU and memory intensive jobs (e.g., feed loading and validation, network builds, deployments) */
+        PROCESSING,
+        /** Jobs that mostly wait on the network or disk (e.g., fetching feeds, uploads to s3) */
+        IO,
+        /** Jobs that should finish quickly (e.g., email notifications) */
+        LIGHT
+    }
+
+    private final Map<Pool, JobPool> pools = new EnumMap<>(Pool.class);
+    /** For each conflict key, the job running (or queued to run) under it, followed by the jobs waiting for it */
+    private final Map<String, ArrayDeque<MonitorableJob>> conflicts = new HashMap<>();
+
+    public JobScheduler() {
+        this(getIntConfigProperty("application.jobs.processing_threads", defaultProcessingThreads()),
+                getIntConfigProperty("application.jobs.io_threads",
+                        Math.max(4, Runtime.getRuntime().availableProcessors() * 2)),
+                getIntConfigProperty("application.jobs.light_threads",
+                        Math.max(2, Runtime.getRuntime().availableProcessors() / 2)),
+                getIntConfigProperty("application.jobs.reserved_interactive_threads", 1));
+    }
+
+    JobScheduler(int processingThreads, int ioThreads, int lightThreads, int reservedThreads) {
+        pools.put(Pool.PROCESSING, new JobPool(Pool.PROCESSING, processingThreads, reservedThreads));
+        pools.put(Pool.IO, new JobPool(Pool.IO, ioThreads, reservedThreads));
+        pools.put(Pool.LIGHT, new JobPool(Pool.LIGHT, lightThreads, reservedThreads));
+    }
+
+    /**
+     * One thread per core, as far as memory allows. At least two, so that one can be reserved for interactive jobs and
+     * scheduled jobs can still run, even on small machines (where a large feed may then run out of memory, as it would
+     * have before jobs were pooled).
+     */
+    private static int defaultProcessingThreads() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        return (int) Math.max(2, Math.min(cores, maxMemory / PROCESSING_JOB_MEMORY_BYTES));
+    }
+
+    /**
+     * Queue a job to run in the pool for its type. Jobs started by a job inherit the job's priority, see
+     * {@link MonitorableJob#priority}. Jobs that can be recreated are recorded in the {@link JobQueue}, so that they
+     * are run again if this server stops before they finish.
+     * @return the job that will do the work: the given job, or the job it duplicates (see {@link MonitorableJob#duplicates})
+     */
+    public MonitorableJob submit(MonitorableJob job, Priority priority) {
+        job.priority = priority;
+        String conflictKey = job.getConflictKey();
+        boolean wait = false;
+        if (conflictKey != null) {
+            synchronized (conflicts) {
+                ArrayDeque<MonitorableJob> jobs = conflicts.get(conflictKey);
+                if (jobs == null) {
+                    jobs = new ArrayDeque<>();
+                    conflicts.put(conflictKey, jobs);
+                } else {
+                    for (MonitorableJob other : jobs) {
+                        if (!other.status.completed && !other.status.cancelled && job.duplicates(other)) {
+                            LOG.info("{} job {} duplicates job {} on {}, following it instead", job.type, job.jobId,
+                                    other.jobId, conflictKey);
+                            job.follow(other);
+                            return other;
+                        }
+                    }
+                    wait = true;
+                }
+                jobs.add(job);
+            }
+        }
+        JobQueue.enqueued(job, priority);
+        if (wait) LOG.info("{} job {} waiting for earlier jobs on {}", job.type, job.jobId, conflictKey);
+        else start(job);
+        return job;
+    }
+
+    private void start(MonitorableJob job) {
+        submit(() -> {
+            try {
+                job.run();
+            } finally {
+                released(job);
+            }
+        }, poolFor(job.type), job.priority, job.fairnessKey());
+    }
+
+    /** Start the next job waiting under the conflict key of a job that has finished. */
+    private void released(MonitorableJob job) {
+        String conflictKey = job.getConflictKey();
+        if (conflictKey == null) return;
+        MonitorableJob next;
+        synchronized (conflicts) {
+            ArrayDeque<MonitorableJob> jobs = conflicts.get(conflictKey);
+            jobs.remove(job);
+            next = jobs.peek();
+            if (next == null) conflicts.remove(conflictKey);
+        }
+        if (next != null) start(next);
+    }
+
+    /**
+     * Queue a task that is not a MonitorableJob (e.g., notifications or maintenance) to run in the given pool.
+     * @param key tasks with the same key are run in turn with tasks with other keys of the same priority
+     */
+    public void submit(Runnable task, Pool pool, Priority priority, String key) {
+        pools.get(pool).submit(new Task(task, priority, key));
+    }
+
+    public static Pool poolFor(MonitorableJob.JobType type) {
+        switch (type) {
+            case FETCH_PROJECT_FEEDS:
+            case FETCH_SINGLE_FEED:
+            case MAKE_PROJECT_PUBLIC:
+                return Pool.IO;
+            case UNKNOWN_TYPE:
+                return Pool.LIGHT;
+            default:
+                return Pool.PROCESSING;
+        }
+    }
+
+    /**
+     * @return for each pool, its number of threads, the number of running and waiting jobs (total and by priority),
+     * the number of jobs completed and the average time jobs waited to start
+     */
+    public Map<String, Map<String, Object>> metrics() {
+        Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+        for (JobPool pool : pools.values()) metrics.put(pool.pool.name().toLowerCase(), pool.metrics());
+        return metrics;
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final Priority priority;
+        final String key;
+        final long submittedNanos = System.nanoTime();
+
+        Task(Runnable runnable, Priority priority, String key) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.key = key != null ? key : "";
+        }
+    }
+
+    /**
+     * A fixed set of threads taking tasks from queues per priority and key. All state is guarded by the pool's lock.
+     */
+    private static class JobPool {
+        final Pool pool;
+        final int threads;
+        /** Threads that may run non-interactive tasks */
+        final int sharedThreads;
+        /** For each priority, queues by key, in the order the keys take turns */
+        final Map<Priority, LinkedHashMap<String, ArrayDeque<Task>>> queues = new EnumMap<>(Priority.class);
+        final Map<Priority, Integer> waiting = new EnumMap<>(Priority.class);
+        final Map<Priority, Integer> running = new EnumMap<>(Priority.class);
+        int nonInteractiveRunning = 0;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong totalWaitNanos = new AtomicLong();
+
+        JobPool(Pool pool, int threads, int reservedThreads) {
+            this.pool = pool;
+            this.threads = Math.max(1, threads);
+            // Keep at least one thread for non-interactive tasks, or they would never run.
+            this.sharedThreads = Math.max(1, this.threads - Math.max(0, reservedThreads));
+            if (this.threads - sharedThreads < reservedThreads) {
+                LOG.warn("Cannot reserve {} of the {} threads of the {} job pool for interactive jobs, reserving {}",
+                        reservedThreads, this.threads, pool, this.threads - sharedThreads);
+            }
+            for (Priority priority : Priority.values()) {
+                queues.put(priority, new LinkedHashMap<>());
+                waiting.put(priority, 0);
+                running.put(priority, 0);
+            }
+            for (int i = 0; i < this.threads; i++) {
+                Thread thread = new Thread(this::work, String.format("jobs-%s-%d", pool.name().toLowerCase(), i));
+                // Do not keep the JVM running once the application has stopped (jobs are resumed on restart, see
+                // JobQueue).
+                thread.setDaemon(true);
+                thread.start();
+            }
+            LOG.info("Started {} job pool with {} threads ({} for interactive jobs only)", pool, this.threads,
+                    this.threads - sharedThreads);
+        }
+
+        synchronized void submit(Task task) {
+            queues.get(task.priority).computeIfAbsent(task.key, key -> new ArrayDeque<>()).add(task);
+            waiting.merge(task.priority, 1, Integer::sum);
+            notifyAll();
+        }
+
+        /** Wait for the next task this thread may run: the first in priority order, taking turns between keys. */
+        private synchronized Task take() throws InterruptedException {
+            while (true) {
+                for (Priority priority : Priority.values()) {
+                    if (priority != Priority.INTERACTIVE && nonInteractiveRunning >= sharedThreads) break;
+                    LinkedHashMap<String, ArrayDeque<Task>> byKey = queues.get(priority);
+                    Iterator<Map.Entry<String, ArrayDeque<Task>>> iterator = byKey.entrySet().iterator();
+                    if (!iterator.hasNext()) continue;
+                    Map.Entry<String, ArrayDeque<Task>> next = iterator.next();
+                    Task task = next.getValue().poll();
+                    // Move this key to the back of the line (or drop it if it has nothing left).
+                    iterator.remove();
+                    if (!next.getValue().isEmpty()) byKey.put(next.getKey(), next.getValue());
+                    waiting.merge(priority, -1, Integer::sum);
+                    running.merge(priority, 1, Integer::sum);
+                    if (priority != Priority.INTERACTIVE) nonInteractiveRunning++;
+                    return task;
+                }
+                wait();
+            }
+        }
+
+        private synchronized void finished(Task task) {
+            running.merge(task.priority, -1, Integer::sum);
+            if (task.priority != Priority.INTERACTIVE) nonInteractiveRunning--;
+            // A shared thread may have been freed up for a waiting non-interactive task.
+            notifyAll();
+        }
+
+        private void work() {
+            while (true) {
+                Task task;
+                try {
+                    task = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                totalWaitNanos.addAndGet(System.nanoTime() - task.submittedNanos);
+                try {
+                    task.runnable.run();
+                } catch (Throwable t) {
+                    // MonitorableJobs record their own errors, so this is only reached by other tasks.
+                    LOG.error("Uncaught error in {} job pool", pool, t);
+                } finally {
+                    completed.incrementAndGet();
+                    finished(task);
+                }
+            }
+        }
+
+        synchronized Map<String, Object> metrics() {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("threads", threads);
+            metrics.put("interactiveOnlyThreads", threads - sharedThreads);
+            int totalRunning = 0;
+            int totalWaiting = 0;
+            for (Priority priority : Priority.values()) {
+                totalRunning += running.get(priority);
+                totalWaiting += waiting.get(priority);
+            }
+            metrics.put("running", totalRunning);
+            metrics.put("waiting", totalWaiting);
+            metrics.put("runningByPriority", new EnumMap<>(running));
+            metrics.put("waitingByPriority", new EnumMap<>(waiting));
+            List<String> waitingKeys = new ArrayList<>();
+            for (LinkedHashMap<String, ArrayDeque<Task>> byKey : queues.values()) waitingKeys.addAll(byKey.keySet());
+            metrics.put("waitingKeys", waitingKeys);
+            long done = completed.get();
+            metrics.put("completed", done);
+            metrics.put("averageWaitMillis", done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / done));
+            return metrics;
+        }
+    }
+
+    private static int getIntConfigProperty(String name, int defaultValue) {
+        return DataManager.hasConfigProperty(name) ? DataManager.getConfigProperty(name).asInt() : defaultValue;
+    }
+}
@@ -0,0 +1,188 @@
+package com.conveyal.datatools.common.status;
+
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.utils.json.JsonUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Response;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.conveyal.datatools.common.utils.SparkUtils.haltWithError;
+
+/**
+ * Pushes the progress of a user's jobs to a client as server-sent events, so that clients can follow their jobs
+ * without polling secure/status/jobs. Two kinds of events are sent:
+ *
+ * - job: the whole job (as returned by secure/status/jobs), when the stream starts or the job is created
+ * - status: the jobId and the fields of the job's status that changed since the last event for the job
+ *
+ * Changes are coalesced: a stream sends at most one event per job per interval (application.jobs.stream_interval_millis,
+ * 500 by default), carrying everything that changed in the meantime. As with polling, a completed job is removed once
+ * its final state has been sent. Each open stream holds a server thread, so the number of open streams is limited
+ * (application.jobs.max_streams); clients that are turned away should poll instead.
+ */
+public class JobStatusStream {
+    private static final Logger LOG = LoggerFactory.getLogger(JobStatusStream.class);
+
+    /** Longest a stream waits before checking for changes made without {@link #statusChanged()} */
+    private static final long MAX_WAIT_MILLIS = 2000;
+    /** A comment is sent when nothing else has been for this long, so that closed connections are noticed */
+    private static final long KEEPALIVE_MILLIS = 15000;
+
+    private static final AtomicInteger openStreams = new AtomicInteger();
+    /** Notified on each status change. Guards changeCount. */
+    private static final Object changeLock = new Object();
+    private static long changeCount = 0;
+
+    private final String userId;
+    /** If not null, only this job is followed, and the stream ends when the job completes */
+    private final String jobId;
+    private final Writer out;
+    /** The last status sent for each job */
+    private final Map<String, JsonNode> sentStatuses = new HashMap<>();
+    private long lastWriteMillis = System.currentTimeMillis();
+
+    private JobStatusStream(String userId, String jobId, Writer out) {
+        this.userId = userId;
+        this.jobId = jobId;
+        this.out = out;
+    }
+
+    /** Wake up the open streams to send a status change. Called by {@link MonitorableJob.Status} update methods. */
+    static void statusChanged() {
+        synchronized (changeLock) {
+            changeCount++;
+            changeLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stream the progress of the user's jobs (or only the given job) on the response until the client disconnects
+     * (or the given job completes).
+     */
+    public static Object stream(String userId, String jobId, Response res) {
+        if (jobId != null && findJob(userId, jobId) == null) {
+            haltWithError(404, "Job not found");
+        }
+        int maxStreams = DataManager.hasConfigProperty("application.jobs.max_streams")
+                ? DataManager.getConfigProperty("application.jobs.max_streams").asInt()
+                : 50;
+        long intervalMillis = DataManager.hasConfigProperty("application.jobs.stream_interval_millis")
+                ? DataManager.getConfigProperty("application.jobs.stream_interval_millis").asLong()
+                : 500;
+        if (openStreams.incrementAndGet() > maxStreams) {
+            openStreams.decrementAndGet();
+            haltWithError(503, "Too many job status streams are open, poll for job status instead");
+        }
+        HttpServletResponse raw = res.raw();
+        try {
+            raw.setContentType("text/event-stream");
+            raw.setCharacterEncoding("UTF-8");
+            raw.setHeader("Cache-Control", "no-cache");
+            // Keep proxies (e.g., nginx) from holding back events.
+            raw.setHeader("X-Accel-Buffering", "no");
+            Writer out = new OutputStreamWriter(raw.getOutputStream(), StandardCharsets.UTF_8);
+            new JobStatusStream(userId, jobId, out).run(intervalMillis);
+            out.close();
+        } catch (IOException e) {
+            LOG.debug("Job status stream for {} closed by client", userId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            openStreams.decrementAndGet();
+        }
+        return raw;
+    }
+
+    private void run(long intervalMillis) throws IOException, InterruptedException {
+        long seenChanges;
+        synchronized (changeLock) {
+            seenChanges = changeCount;
+        }
+        while (true) {
+            if (!sendChanges()) return;
+            if (System.currentTimeMillis() - lastWriteMillis >= KEEPALIVE_MILLIS) {
+                out.write(": keepalive\n\n");
+                out.flush();
+                lastWriteMillis = System.currentTimeMillis();
+            }
+            // Changes made while this stream waits out the interval are sent together in the next round.
+            Thread.sleep(intervalMillis);
+            synchronized (changeLock) {
+                if (changeCount == seenChanges) changeLock.wait(MAX_WAIT_MILLIS);
+                seenChanges = changeCount;
+            }
+        }
+    }
+
+    /**
+     * Send an event for each job that is new or has changed.
+     * @return false if the stream should end, because the one job followed has completed or is gone
+     */
+    private boolean sendChanges() throws IOException {
+        Set<MonitorableJob> userJobs = DataManager.userJobsMap.get(userId);
+        if (userJobs == null) userJobs = Collections.emptySet();
+        Set<String> currentJobIds = new HashSet<>();
+        boolean wrote = false;
+        boolean followedJobCompleted = false;
+        for (MonitorableJob job : userJobs) {
+            if (jobId != null && !jobId.equals(job.jobId)) continue;
+            currentJobIds.add(job.jobId);
+            MonitorableJob.Status status = job.status.copy();
+            ObjectNode statusNode = JsonUtil.objectMapper.valueToTree(status);
+            JsonNode previous = sentStatuses.get(job.jobId);
+            if (previous == null) {
+                send("job", JsonUtil.objectMapper.writeValueAsString(job));
+            } else {
+                ObjectNode delta = JsonUtil.objectMapper.createObjectNode();
+                for (Iterator<Map.Entry<String, JsonNode>> fields = statusNode.fields(); fields.hasNext(); ) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    if (!field.getValue().equals(previous.get(field.getKey()))) delta.set(field.getKey(), field.getValue());
+                }
+                if (delta.size() == 0) continue;
+                delta.put("jobId", job.jobId);
+                send("status", delta.toString());
+            }
+            wrote = true;
+            sentStatuses.put(job.jobId, statusNode);
+            if (status.completed) {
+                // The client has now seen the final state of the job.
+                userJobs.remove(job);
+                if (jobId != null) followedJobCompleted = true;
+            }
+        }
+        // Forget jobs that are gone (completed, or removed when polled).
+        sentStatuses.keySet().retainAll(currentJobIds);
+        if (wrote) out.flush();
+        return jobId == null || (!followedJobCompleted && !currentJobIds.isEmpty());
+    }
+
+    private void send(String event, String data) throws IOException {
+        out.write("event: " + event + "\n");
+        out.write("data: " + data + "\n\n");
+        lastWriteMillis = System.currentTimeMillis();
+    }
+
+    private static MonitorableJob findJob(String userId, String jobId) {
+        Set<MonitorableJob> userJobs = DataManager.userJobsMap.get(userId);
+        if (userJobs == null) return null;
+        for (MonitorableJob job : userJobs) {
+            if (job.jobId.equals(jobId)) return job;
+        }
+        return null;
+    }
+}
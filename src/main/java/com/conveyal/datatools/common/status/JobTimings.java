@@ -0,0 +1,85 @@
+package com.conveyal.datatools.common.status;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Histograms of how long jobs of each type take to run (including their sub-jobs), kept since the server started.
+ * Sub-jobs are also recorded under their own types, so that e.g. the time spent processing feeds can be broken down
+ * into loading, validation and network builds.
+ */
+public class JobTimings {
+
+    /** Upper bounds of the histogram buckets, in milliseconds. The last bucket counts everything slower. */
+    private static final long[] BUCKET_MILLIS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000, 300000, 600000, 1800000, 3600000
+    };
+
+    private static final Map<MonitorableJob.JobType, Histogram> histograms = new EnumMap<>(MonitorableJob.JobType.class);
+
+    /** Record the run time of a job that has finished (successfully or not). */
+    static synchronized void record(MonitorableJob.JobType type, long durationMillis, boolean error) {
+        histograms.computeIfAbsent(type, t -> new Histogram()).record(durationMillis, error);
+    }
+
+    /**
+     * @return for each job type that has run, the number of jobs (and how many errored), their total, mean and maximum
+     * run time, approximate percentiles and the number of jobs per bucket (keyed on the bucket's upper bound)
+     */
+    public static synchronized Map<String, Map<String, Object>> metrics() {
+        Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+        for (Map.Entry<MonitorableJob.JobType, Histogram> entry : histograms.entrySet()) {
+            metrics.put(entry.getKey().name(), entry.getValue().metrics());
+        }
+        return metrics;
+    }
+
+    private static class Histogram {
+        final long[] counts = new long[BUCKET_MILLIS.length + 1];
+        long count;
+        long errors;
+        long totalMillis;
+        long maxMillis;
+
+        void record(long durationMillis, boolean error) {
+            int bucket = 0;
+            while (bucket < BUCKET_MILLIS.length && durationMillis > BUCKET_MILLIS[bucket]) bucket++;
+            counts[bucket]++;
+            count++;
+            if (error) errors++;
+            totalMillis += durationMillis;
+            maxMillis = Math.max(maxMillis, durationMillis);
+        }
+
+        /** @return the upper bound of the bucket holding the given fraction of jobs (the maximum for the last bucket) */
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_MILLIS.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) return Math.min(BUCKET_MILLIS[bucket], maxMillis);
+            }
+            return maxMillis;
+        }
+
+        Map<String, Object> metrics() {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("count", count);
+            metrics.put("errors", errors);
+            metrics.put("totalMillis", totalMillis);
+            metrics.put("meanMillis", count == 0 ? 0 : totalMillis / count);
+            metrics.put("maxMillis", maxMillis);
+            metrics.put("p50Millis", percentile(0.5));
+            metrics.put("p90Millis", percentile(0.9));
+            metrics.put("p99Millis", percentile(0.99));
+            Map<String, Long> buckets = new LinkedHashMap<>();
+            for (int bucket = 0; bucket < BUCKET_MILLIS.length; bucket++) {
+                buckets.put(String.valueOf(BUCKET_MILLIS[bucket]), counts[bucket]);
+            }
+            buckets.put("+Inf", counts[BUCKET_MILLIS.length]);
+            metrics.put("buckets", buckets);
+            return metrics;
+        }
+    }
+}
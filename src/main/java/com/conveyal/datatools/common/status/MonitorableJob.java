@@ -1,6 +1,11 @@
 package com.conveyal.datatools.common.status;
 
 import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.jobs.JobHistory;
+import com.conveyal.datatools.manager.jobs.JobQueue;
+import com.conveyal.datatools.manager.models.JobRecord;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,7 +13,12 @@ import org.slf4j.LoggerFactory;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Created by landon on 6/13/16.
@@ -26,12 +36,25 @@ public abstract class MonitorableJob implements Runnable {
     // Not final to allow some jobs to have extra status fields.
     public Status status = new Status();
     public final String jobId = UUID.randomUUID().toString();
+    /** Set when the job is submitted to the {@link JobScheduler}, and passed on to any jobs it submits in turn */
+    @JsonIgnore
+    public JobScheduler.Priority priority = JobScheduler.Priority.INTERACTIVE;
 
     /**
-     * Additional jobs that will be run after the main logic of this job has completed.
+     * Additional jobs that will be run after the main logic of this job has completed, in the order they were added
+     * but concurrently where their dependencies allow (see {@link #addSubJob}).
      * This job is not considered entirely completed until its sub-jobs have all completed.
      */
     protected List<MonitorableJob> subJobs = new ArrayList<>();
+    /** For each sub-job, the sub-jobs that must complete successfully before it can start */
+    private final Map<MonitorableJob, List<MonitorableJob>> subJobDependencies = new HashMap<>();
+    /** The thread running this job, interrupted when the job is cancelled. Guarded by this. */
+    private Thread runningThread;
+    /** How long the job's own logic (without its sub-jobs) ran */
+    private volatile long logicMillis;
+    /** When the job completed (successfully or not), or 0 if it has not. Used to evict old jobs (see JobHistory). */
+    @JsonIgnore
+    public volatile long finishedAtMillis;
 
     public enum JobType {
         UNKNOWN_TYPE,
@@ -45,7 +68,8 @@ public abstract class MonitorableJob implements Runnable {
         FETCH_SINGLE_FEED,
         MAKE_PROJECT_PUBLIC,
         PROCESS_FEED,
-        MERGE_PROJECT_FEEDS
+        MERGE_PROJECT_FEEDS,
+        PROCESS_GIS_UPLOAD
     }
 
     public MonitorableJob(String owner, String name, JobType type) {
@@ -64,13 +88,16 @@ public abstract class MonitorableJob implements Runnable {
      * It is a standard start-up stage for all monitorable jobs.
      */
     private void registerJob() {
-        ConcurrentHashSet<MonitorableJob> userJobs = DataManager.userJobsMap.get(this.owner);
-        if (userJobs == null) {
-            userJobs = new ConcurrentHashSet<>();
-        }
-        userJobs.add(this);
+        register(this.owner, this);
+    }
 
-        DataManager.userJobsMap.put(this.owner, userJobs);
+    private static void register(String owner, MonitorableJob job) {
+        // Added within compute, so that the set cannot be dropped as empty (see JobHistory) before the job is in it.
+        DataManager.userJobsMap.compute(owner, (key, userJobs) -> {
+            if (userJobs == null) userJobs = new ConcurrentHashSet<>();
+            userJobs.add(job);
+            return userJobs;
+        });
     }
 
     /**
@@ -83,6 +110,70 @@ public abstract class MonitorableJob implements Runnable {
         if (userJobs != null) userJobs.remove(this);
     }
 
+    /** The user this job runs for */
+    @JsonIgnore
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * What is needed to recreate this job if the server running it stops before it finishes (see JobQueue), or null
+     * if the job cannot be recreated. The parameters should identify the objects the job works on, as the job is
+     * recreated by looking them up. This is recorded when the job is submitted and again after each sub-job completes.
+     */
+    public JobRecord durableState() {
+        return null;
+    }
+
+    /**
+     * Jobs with the same key take turns with jobs with other keys in the {@link JobScheduler}. By default jobs are
+     * queued per user; jobs that belong to a project should include it, so that projects take turns as well.
+     */
+    public String fairnessKey() {
+        return owner;
+    }
+
+    /**
+     * Jobs with the same conflict key are never run at the same time: the {@link JobScheduler} holds back a job until
+     * the jobs with its key submitted before it have finished. Jobs that create versions of a feed source return the
+     * feed source ID, so that e.g. a fetch and an upload do not both number and store a version at once. Null (the
+     * default) means the job does not conflict with any other. Only applies to jobs submitted to the scheduler, as
+     * sub-jobs run under their parent job.
+     */
+    @JsonIgnore
+    public String getConflictKey() {
+        return null;
+    }
+
+    /**
+     * Whether this job would do the same work as the given job with the same conflict key, which is queued or running.
+     * If so, this job is not run and its owner follows the other job instead (see {@link #follow}).
+     */
+    public boolean duplicates(MonitorableJob other) {
+        return false;
+    }
+
+    /**
+     * Drop this job, which duplicates the given job, and show the given job to this job's owner in its place. Called
+     * by the {@link JobScheduler} instead of running this job.
+     */
+    void follow(MonitorableJob leader) {
+        unRegisterJob();
+        register(this.owner, leader);
+    }
+
+    /** @return a copy of the sub-jobs of this job, in the order they were added */
+    @JsonIgnore
+    public synchronized List<MonitorableJob> getSubJobs() {
+        return new ArrayList<>(subJobs);
+    }
+
+    /** @return how long the job's own logic (without its sub-jobs) ran, in milliseconds */
+    @JsonIgnore
+    public long getLogicMillis() {
+        return logicMillis;
+    }
+
     /**
      * This method must be overridden by subclasses to perform the core steps of the job.
      */
@@ -90,12 +181,52 @@ public abstract class MonitorableJob implements Runnable {
 
     /**
      * This method may be overridden in the event that you want to perform a special final step after this job and
-     * all sub-jobs have completed.
+     * all sub-jobs have completed. It is not run if the job is cancelled.
      */
     public void jobFinished () {
         // do nothing by default.
     }
 
+    /**
+     * This method may be overridden to clean up what the job had stored (e.g., temp files, partially loaded feeds)
+     * when the job is cancelled. It is run after all sub-jobs have stopped.
+     */
+    public void jobCancelled () {
+        // do nothing by default.
+    }
+
+    /**
+     * Ask this job and its sub-jobs to stop. A job that has not started yet will not run. A running job stops at its
+     * next call to {@link Status#checkCancelled()}; its thread is also interrupted, which aborts blocking waits such
+     * as s3 transfers (see {@link #await}). Work that cannot be interrupted (e.g., loading a feed into the database)
+     * runs to completion before the job stops.
+     * @return false if the job had already completed
+     */
+    public synchronized boolean requestCancellation () {
+        if (status.completed) return false;
+        LOG.info("Cancelling {} job {}", type, jobId);
+        status.cancelled = true;
+        for (MonitorableJob subJob : subJobs) subJob.requestCancellation();
+        if (runningThread != null) runningThread.interrupt();
+        return true;
+    }
+
+    /**
+     * Wait for an asynchronous operation (e.g., an s3 transfer) in a way that can be cancelled: if the job is
+     * cancelled while waiting, the operation is cancelled as well. Failures are rethrown as with
+     * {@link CompletableFuture#join()}.
+     */
+    public static <T> T await (CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw new CancelledException();
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+    }
+
     /**
      * This implements Runnable.  All monitorable jobs should use this exact sequence of steps. Don't override this method;
      * override jobLogic and jobFinished method(s).
@@ -105,40 +236,31 @@ public abstract class MonitorableJob implements Runnable {
         boolean subTaskErrored = false;
         String cancelMessage = "";
         long startTimeNanos = System.nanoTime();
+        status.startTime = System.currentTimeMillis();
+        synchronized (this) {
+            runningThread = Thread.currentThread();
+        }
+        JobQueue.started(this);
         try {
+            // Jobs cancelled while queued do not start.
+            status.checkCancelled();
             // First execute the core logic of the specific MonitorableJob subclass
             jobLogic();
+            logicMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos);
+            status.checkCancelled();
             if (status.error) {
                 parentJobErrored = true;
                 cancelMessage = String.format("Task cancelled due to error in %s task", getClass().getSimpleName());
             }
-            // Immediately run any sub-jobs in sequence in the current thread.
-            // This hogs the current thread pool thread but makes execution order predictable.
-            int subJobNumber = 1;
-            int subJobsTotal = subJobs.size() + 1;
-
-            for (MonitorableJob subJob : subJobs) {
-                if (!parentJobErrored && !subTaskErrored) {
-                    // Run sub-task if no error has errored during parent job or previous sub-task execution.
-                    // FIXME this will overwrite a message if message is set somewhere else.
-                    // FIXME If a subtask fails, cancel the parent task and cancel or remove subsequent sub-tasks.
-//                status.message = String.format("Finished %d/%d sub-tasks", subJobNumber, subJobsTotal);
-                    status.percentComplete = subJobNumber * 100D / subJobsTotal;
-                    status.error = false; // FIXME: remove this error=false assignment
-                    subJob.run();
-
-                    // Record if there has been an error in the execution of the sub-task. (Note: this will not
-                    // incorrectly overwrite a 'true' value with 'false' because the sub-task is only run if
-                    // jobHasErrored is false.
-                    if (subJob.status.error) {
-                        subTaskErrored = true;
-                        cancelMessage = String.format("Task cancelled due to error in %s task", subJob.getClass().getSimpleName());
-                    }
-                } else {
-                    // Cancel (fail) next sub-task and continue.
-                    subJob.cancel(cancelMessage);
+            if (parentJobErrored) {
+                // Cancel (fail) all sub-tasks.
+                for (MonitorableJob subJob : subJobs) subJob.cancel(cancelMessage);
+            } else if (!subJobs.isEmpty()) {
+                String subTaskError = runSubJobs();
+                if (subTaskError != null) {
+                    subTaskErrored = true;
+                    cancelMessage = subTaskError;
                 }
-                subJobNumber += 1;
             }
             // FIXME: should jobFinished be run if task or any sub-task fails?
             if (subTaskErrored) {
@@ -146,6 +268,7 @@ public abstract class MonitorableJob implements Runnable {
                 // because the error presumably already occurred and has a better error message.
                 cancel(cancelMessage);
             }
+            status.checkCancelled();
 
             // Run final steps of job pending completion or error. Note: any tasks that depend on job success should
             // check job status to determine if final step should be executed (e.g., storing feed version in MongoDB).
@@ -156,15 +279,39 @@ public abstract class MonitorableJob implements Runnable {
 
             // We retain finished or errored jobs on the server until they are fetched via the API, which implies they
             // could be displayed by the client.
+        } catch (CancelledException e) {
+            // Handled below, as jobs may also stop in other ways after being cancelled.
         } catch (Exception ex) {
             // Set job status to failed
             // Note that when an exception occurs during job execution we do not call unRegisterJob,
             // so the job continues to exist in the failed state and the user can see it.
             status.update(true, ex.getMessage(), 100, true);
         }
-        status.startTime = TimeUnit.NANOSECONDS.toMillis(startTimeNanos);
+        synchronized (this) {
+            runningThread = null;
+            // Clear any interrupt meant for this job, so that it does not affect the next job run by this thread.
+            Thread.interrupted();
+        }
+        if (status.cancelled) {
+            // Sub-jobs that never started (e.g., added after cancellation) are completed as cancelled as well.
+            for (MonitorableJob subJob : subJobs) {
+                if (!subJob.status.completed) subJob.cancel("Job cancelled");
+            }
+            try {
+                jobCancelled();
+            } catch (Exception e) {
+                LOG.error("Error cleaning up cancelled {} job {}", type, jobId, e);
+            }
+            status.update(true, "Job cancelled", 100, true);
+        }
+        JobQueue.finished(this);
         status.duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos);
+        // Jobs that stopped in their own logic have no separate timing for it.
+        if (logicMillis == 0) logicMillis = status.duration;
+        finishedAtMillis = System.currentTimeMillis();
         LOG.info("{} {} {} in {} ms", type, jobId, status.error ? "errored" : "completed", status.duration);
+        JobTimings.record(type, status.duration, status.error);
+        JobHistory.finished(this);
     }
 
     /**
@@ -175,18 +322,126 @@ public abstract class MonitorableJob implements Runnable {
     private void cancel(String message) {
         // Updating the job status with error is all we need to do in order to move the job into completion. Once the
         // user fetches the errored job, it will be automatically removed from the system.
-        status.update(true, message, 100);
-        status.completed = true;
+        status.update(true, message, 100, true);
+        finishedAtMillis = System.currentTimeMillis();
         // FIXME: Do we need to run any clean up here?
     }
 
     /**
-     * Enqueues a sub-job to be run when the main logic of this job has finished.
+     * Enqueues a sub-job to be run when the main logic of this job and all previously added sub-jobs have finished.
      */
     public void addNextJob(MonitorableJob job) {
+        if (subJobs.isEmpty()) addSubJob(job);
+        else addSubJob(job, subJobs.get(subJobs.size() - 1));
+    }
+
+    /**
+     * Enqueues a sub-job to be run when the main logic of this job and the given sub-jobs (which must already have
+     * been added) have finished. Sub-jobs that do not depend on each other run at the same time. If a sub-job fails,
+     * the sub-jobs depending on it are cancelled, while the others run to completion.
+     */
+    public synchronized void addSubJob(MonitorableJob job, MonitorableJob... dependsOn) {
+        for (MonitorableJob dependency : dependsOn) {
+            if (!subJobDependencies.containsKey(dependency)) {
+                throw new IllegalArgumentException("Sub-jobs can only depend on sub-jobs added before them");
+            }
+        }
         job.parentJobId = this.jobId;
         job.parentJobType = this.type;
         subJobs.add(job);
+        subJobDependencies.put(job, Arrays.asList(dependsOn));
+    }
+
+    /**
+     * Run the sub-jobs once their dependencies have completed. This thread runs one ready sub-job at a time, and
+     * hands the others to the job scheduler so that they can run in parallel. A handed-off sub-job that has not
+     * started by the time this thread is free is run here instead, so that sub-jobs never wait on a busy pool.
+     * While sub-jobs run, this job's progress is the average progress of its sub-jobs (counting its own logic as
+     * complete).
+     * @return a message describing the first sub-job error, or null if all sub-jobs succeeded
+     */
+    private String runSubJobs() throws InterruptedException {
+        Object lock = new Object();
+        // All guarded by lock: sub-jobs whose dependencies have not finished, sub-jobs that are ready to run (and may
+        // already be running elsewhere), and finished (or cancelled) sub-jobs.
+        List<MonitorableJob> waiting = new ArrayList<>(subJobs);
+        List<MonitorableJob> ready = new ArrayList<>();
+        Set<MonitorableJob> finished = new HashSet<>();
+        // Sub-jobs that a thread has claimed to run, so that each runs exactly once.
+        Set<MonitorableJob> claimed = ConcurrentHashMap.newKeySet();
+        String[] firstError = { null };
+
+        Consumer<MonitorableJob> runSubJob = subJob -> {
+            try {
+                subJob.run();
+                if (!subJob.status.error) JobQueue.checkpoint(this, subJob);
+            } finally {
+                synchronized (lock) {
+                    finished.add(subJob);
+                    ready.remove(subJob);
+                    if (subJob.status.error && firstError[0] == null) {
+                        firstError[0] = String.format("Task cancelled due to error in %s task", subJob.getClass().getSimpleName());
+                    }
+                    lock.notifyAll();
+                }
+            }
+        };
+
+        while (true) {
+            MonitorableJob next = null;
+            synchronized (lock) {
+                // Sub-jobs were added after their dependencies, so one pass in order also cancels indirect dependents.
+                List<MonitorableJob> newlyReady = new ArrayList<>();
+                for (Iterator<MonitorableJob> iterator = waiting.iterator(); iterator.hasNext(); ) {
+                    MonitorableJob subJob = iterator.next();
+                    List<MonitorableJob> dependencies = subJobDependencies.get(subJob);
+                    Optional<MonitorableJob> failed = dependencies.stream()
+                            .filter(dependency -> finished.contains(dependency) && dependency.status.error)
+                            .findFirst();
+                    if (failed.isPresent()) {
+                        iterator.remove();
+                        subJob.cancel(String.format("Task cancelled due to error in %s task", failed.get().getClass().getSimpleName()));
+                        finished.add(subJob);
+                    } else if (finished.containsAll(dependencies)) {
+                        iterator.remove();
+                        newlyReady.add(subJob);
+                    }
+                }
+                ready.addAll(newlyReady);
+                for (MonitorableJob subJob : ready) {
+                    if (claimed.add(subJob)) {
+                        next = subJob;
+                        break;
+                    }
+                }
+                if (DataManager.jobScheduler != null) {
+                    for (MonitorableJob subJob : newlyReady) {
+                        if (subJob == next) continue;
+                        subJob.priority = priority;
+                        DataManager.jobScheduler.submit(() -> {
+                            if (claimed.add(subJob)) runSubJob.accept(subJob);
+                        }, JobScheduler.poolFor(subJob.type), priority, subJob.fairnessKey());
+                    }
+                }
+                if (next == null) {
+                    if (finished.size() == subJobs.size()) return firstError[0];
+                    double progress = 100;
+                    for (MonitorableJob subJob : subJobs) {
+                        progress += finished.contains(subJob) ? 100 : subJob.status.percentComplete;
+                    }
+                    status.percentComplete = progress / (subJobs.size() + 1);
+                    // Wake up now and then to report progress.
+                    try {
+                        lock.wait(1000);
+                    } catch (InterruptedException e) {
+                        // When cancelled, wait for the sub-jobs (cancelled along with this job) to stop.
+                        if (!status.cancelled) throw e;
+                    }
+                    continue;
+                }
+            }
+            runSubJob.accept(next);
+        }
     }
 
     /**
@@ -207,6 +462,9 @@ public abstract class MonitorableJob implements Runnable {
         /** What was the error (null if no error)? */
         public boolean error = false;
 
+        /** Has the job been cancelled (see {@link MonitorableJob#requestCancellation()})? */
+        public volatile boolean cancelled = false;
+
         /** Is the item currently being uploaded to the server? */
         public boolean uploading;
 
@@ -228,18 +486,66 @@ public abstract class MonitorableJob implements Runnable {
         // Name of file/item once completed
         public String completedName;
 
-        public void update (boolean isError, String message, double percentComplete) {
+        /*
+         * Status should be changed with the methods below, which can be called from any thread and push the change to
+         * clients following the job (see JobStatusStream). Changes made directly to fields reach those clients too,
+         * but only once the stream next checks for changes.
+         */
+
+        public synchronized void update (String message, double percentComplete) {
+            update(error, message, percentComplete);
+        }
+
+        public synchronized void update (boolean isError, String message, double percentComplete) {
             this.error = isError;
             this.message = message;
             this.percentComplete = percentComplete;
+            changed();
         }
 
-        public void update (boolean isError, String message, double percentComplete, boolean isComplete) {
+        public synchronized void update (boolean isError, String message, double percentComplete, boolean isComplete) {
             this.error = isError;
             this.message = message;
             this.percentComplete = percentComplete;
             this.completed = isComplete;
+            changed();
         }
 
+        /** Complete the job with an error caused by the given exception, keeping its details for support requests. */
+        public synchronized void fail (String message, Exception e) {
+            this.exceptionType = e.getMessage();
+            this.exceptionDetails = ExceptionUtils.getStackTrace(e);
+            update(true, message, 100, true);
+        }
+
+        /** @return a consistent copy of this status, e.g. for comparing with a later state */
+        public synchronized Status copy () {
+            try {
+                return (Status) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private void changed () {
+            modified = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
+            JobStatusStream.statusChanged();
+        }
+
+        /**
+         * Stop the job if it has been cancelled. Long-running work should call this between steps, outside any catch
+         * of general exceptions.
+         */
+        public void checkCancelled () {
+            if (cancelled) throw new CancelledException();
+        }
+
+    }
+
+    /** Thrown to stop a job that has been cancelled. */
+    public static class CancelledException extends RuntimeException {
+        public CancelledException() {
+            super("Job cancelled");
+        }
     }
 }
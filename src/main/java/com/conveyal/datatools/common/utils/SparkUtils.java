@@ -1,12 +1,23 @@
 package com.conveyal.datatools.common.utils;
 
+import org.eclipse.jetty.server.HttpOutput;
 import spark.HaltException;
+import spark.Request;
 import spark.Response;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static spark.Spark.halt;
 
@@ -15,29 +26,137 @@ import static spark.Spark.halt;
  */
 public class SparkUtils {
 
-    public static Object downloadFile(File file, String filename, Response res) {
-        if(file == null) haltWithError(404, "File is null");
+    /** A single byte range, e.g. "bytes=0-499", "bytes=500-" or "bytes=-500" (the last 500 bytes) */
+    private static final Pattern BYTE_RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
 
-        res.raw().setContentType("application/octet-stream");
-        res.raw().setHeader("Content-Disposition", "attachment; filename=" + filename);
+    /**
+     * Serve a file as an attachment. Length, Last-Modified and ETag headers are set, so that clients can skip
+     * downloading a file they already have (If-None-Match) and resume an interrupted download with a Range request.
+     * Only single byte ranges are supported; a request for multiple ranges gets the whole file (see byteRange).
+     *
+     * The file is written straight from the file system to the connection where possible, without copying it through
+     * the heap.
+     */
+    public static Object downloadFile(File file, String filename, Request req, Response res) {
+        if(file == null || !file.exists()) haltWithError(404, "File not found");
 
-        try {
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(res.raw().getOutputStream());
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
+        HttpServletResponse raw = res.raw();
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        String eTag = String.format("\"%x-%x\"", lastModified, fileLength);
+
+        raw.setHeader("ETag", eTag);
+        raw.setDateHeader("Last-Modified", lastModified);
+        raw.setHeader("Accept-Ranges", "bytes");
+        if (matchesETag(req.headers("If-None-Match"), eTag)) {
+            halt(304);
+        }
+
+        long start = 0;
+        long end = fileLength - 1;
+        long[] range = byteRange(req.headers("Range"), req.headers("If-Range"), fileLength, eTag, lastModified);
+        if (range == UNSATISFIABLE) {
+            raw.setHeader("Content-Range", "bytes */" + fileLength);
+            haltWithError(416, "Requested range not satisfiable");
+        } else if (range != null) {
+            start = range[0];
+            end = range[1];
+            raw.setStatus(206);
+            raw.setHeader("Content-Range", String.format("bytes %d-%d/%d", start, end, fileLength));
+        }
+        long length = end - start + 1;
 
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = bufferedInputStream.read(buffer)) > 0) {
-                bufferedOutputStream.write(buffer, 0, len);
+        raw.setContentType("application/octet-stream");
+        raw.setHeader("Content-Disposition", "attachment; filename=" + filename);
+        raw.setContentLengthLong(length);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ServletOutputStream out = raw.getOutputStream();
+            if (out instanceof HttpOutput && length <= Integer.MAX_VALUE) {
+                // Jetty writes a memory-mapped buffer directly to the socket.
+                ((HttpOutput) out).sendContent(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+            } else {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = start;
+                while (position <= end) {
+                    long transferred = channel.transferTo(position, end - position + 1, target);
+                    // The file is not expected to shrink while it is served, but don't spin if it does.
+                    if (transferred <= 0) throw new IOException("Unable to read " + file + " at byte " + position);
+                    position += transferred;
+                }
+                out.flush();
             }
+            out.close();
+        } catch (IOException e) {
+            halt(500, "Error serving file");
+        }
+
+        return raw;
+    }
+
+    /** Returned by byteRange when the requested range does not overlap the file */
+    static final long[] UNSATISFIABLE = new long[0];
 
-            bufferedOutputStream.flush();
-            bufferedOutputStream.close();
-        } catch (Exception e) {
-            halt(500, "Error serving GTFS file");
+    /**
+     * Work out which part of a file to send for a Range request.
+     * @param range the Range header, or null
+     * @param ifRange the If-Range header (an entity tag or an HTTP date), or null. The range is only honored if it
+     *                matches the file's current ETag or modification time, otherwise the whole file is sent.
+     * @return the first and last byte to send (inclusive), null to send the whole file, or UNSATISFIABLE
+     */
+    static long[] byteRange(String range, String ifRange, long fileLength, String eTag, long lastModified) {
+        if (range == null) return null;
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            // Entity tags are quoted, anything else is a date. HTTP dates have a resolution of a second.
+            boolean current = ifRange.startsWith("\"") || ifRange.startsWith("W/")
+                    ? ifRange.equals(eTag)
+                    : httpDateMillis(ifRange) == lastModified / 1000 * 1000;
+            if (!current) return null;
         }
+        Matcher matcher = BYTE_RANGE.matcher(range.trim());
+        // Multiple ranges and malformed ranges are ignored.
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) return null;
+        long start;
+        long end = fileLength - 1;
+        try {
+            if (matcher.group(1).isEmpty()) {
+                // suffix range: the last n bytes
+                start = Math.max(0, fileLength - Long.parseLong(matcher.group(2)));
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    long last = Long.parseLong(matcher.group(2));
+                    // a range ending before it starts is invalid, so it is ignored rather than unsatisfiable
+                    if (last < start) return null;
+                    end = Math.min(end, last);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // too many digits for a long
+            return null;
+        }
+        if (start >= fileLength) return UNSATISFIABLE;
+        return new long[] { start, end };
+    }
 
-        return res.raw();
+    /** @return the time of an HTTP date (e.g., "Sun, 06 Nov 1994 08:49:37 GMT"), or -1 if it can't be parsed */
+    private static long httpDateMillis(String date) {
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /** @return whether an If-None-Match header value matches the given entity tag */
+    static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(eTag) || tag.equals("W/" + eTag)) return true;
+        }
+        return false;
     }
 
     public static String formatJSON(String message, int code, Exception e) {
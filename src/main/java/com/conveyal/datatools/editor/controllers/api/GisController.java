@@ -0,0 +1,126 @@
+package com.conveyal.datatools.editor.controllers.api;
+
+import com.conveyal.datatools.common.status.JobScheduler;
+import com.conveyal.datatools.editor.jobs.GisExport;
+import com.conveyal.datatools.editor.jobs.ProcessGisUpload;
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.auth.Auth0UserProfile;
+import com.conveyal.datatools.manager.persistence.Persistence;
+import com.conveyal.datatools.manager.utils.json.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.conveyal.datatools.common.utils.SparkUtils.haltWithError;
+import static com.conveyal.datatools.manager.controllers.api.FeedSourceController.checkFeedSourcePermissions;
+import static spark.Spark.get;
+import static spark.Spark.post;
+
+/**
+ * Exports editor feeds to GIS formats, and imports stops into them from zipped shapefiles.
+ */
+public class GisController {
+    private static final Logger LOG = LoggerFactory.getLogger(GisController.class);
+
+    /**
+     * Export the routes or stops (?type=routes or stops) of the given feeds (?feedId=...&feedId=...) as a zipped
+     * shapefile (the default), GeoPackage or newline-delimited GeoJSON (?format=shapefile, geopackage or geojson_seq).
+     * The zip is written into the response as it is produced rather than stored first.
+     */
+    private static Object exportGis (Request req, Response res) {
+        GisExport.Type type = parseEnum(GisExport.Type.class, req.queryParams("type"), null);
+        GisExport.Format format = parseEnum(GisExport.Format.class, req.queryParams("format"), GisExport.Format.SHAPEFILE);
+        String[] feedIds = req.queryParamsValues("feedId");
+        if (feedIds == null || feedIds.length == 0) {
+            haltWithError(400, "Please specify at least one feedId");
+        }
+        for (String feedId : feedIds) {
+            checkFeedSourcePermissions(req, Persistence.feedSources.getById(feedId), "view");
+        }
+
+        HttpServletResponse raw = res.raw();
+        raw.setContentType("application/zip");
+        raw.setHeader("Content-Disposition", String.format("attachment; filename=\"%s.zip\"", type.name().toLowerCase()));
+        try {
+            OutputStream out = raw.getOutputStream();
+            new GisExport(type, format, null, Arrays.asList(feedIds)).export(out);
+            out.close();
+        } catch (IllegalArgumentException e) {
+            // A feed missing from the editor is found before anything is written, so the zip headers can be dropped.
+            if (raw.isCommitted()) throw e;
+            raw.reset();
+            haltWithError(404, e.getMessage());
+        } catch (Exception e) {
+            LOG.error("Could not export {} for feeds {}", type, feedIds, e);
+            // Once the zip has started the status can't change, and the client sees a truncated download instead.
+            if (!raw.isCommitted()) {
+                raw.reset();
+                haltWithError(500, "Could not export " + type.name().toLowerCase());
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * Import the points of a zipped shapefile, sent as the request body, as stops of the given feed (?feedId=...).
+     * The stop name, ID and description are formatted from the feature attributes given by the fieldName, fieldId and
+     * fieldDescription parameters (see FeatureAttributeFormatter).
+     *
+     * @return the ID of the job importing the stops, which allows monitoring its progress
+     */
+    private static Object uploadGis (Request req, Response res) {
+        Auth0UserProfile userProfile = req.attribute("user");
+        String feedId = req.queryParams("feedId");
+        if (feedId == null) {
+            haltWithError(400, "Please specify a feedId");
+        }
+        checkFeedSourcePermissions(req, Persistence.feedSources.getById(feedId), "edit");
+
+        File zipFile = null;
+        try {
+            zipFile = File.createTempFile("gis-upload", ".zip");
+            // Bypass Spark's request wrapper, which caches the whole body in memory, and copy the zip straight to disk.
+            ServletInputStream inputStream = ((ServletRequestWrapper) req.raw()).getRequest().getInputStream();
+            Files.copy(inputStream, zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            LOG.error("Unable to save uploaded shapefile", e);
+            if (zipFile != null) zipFile.delete();
+            haltWithError(400, "Unable to read uploaded shapefile");
+        }
+
+        // The job deletes the zip when it is done with it.
+        ProcessGisUpload processGisUpload = new ProcessGisUpload(zipFile, feedId, req.queryParams("fieldName"),
+                req.queryParams("fieldId"), req.queryParams("fieldDescription"), userProfile.getUser_id());
+        DataManager.jobScheduler.submit(processGisUpload, JobScheduler.Priority.INTERACTIVE);
+
+        return Collections.singletonMap("jobId", processGisUpload.jobId);
+    }
+
+    /** Parse a query parameter naming an enum value (in any case), halting if it is not one. */
+    private static <E extends Enum<E>> E parseEnum (Class<E> enumClass, String value, E defaultValue) {
+        if (value == null && defaultValue != null) return defaultValue;
+        try {
+            return Enum.valueOf(enumClass, String.valueOf(value).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            haltWithError(400, String.format("Please specify %s as one of %s", enumClass.getSimpleName().toLowerCase(),
+                    Arrays.toString(enumClass.getEnumConstants()).toLowerCase()));
+            return null;
+        }
+    }
+
+    public static void register (String apiPrefix) {
+        get(apiPrefix + "secure/gis/export", GisController::exportGis);
+        post(apiPrefix + "secure/gis/upload", GisController::uploadGis, JsonUtil.objectMapper::writeValueAsString);
+    }
+}
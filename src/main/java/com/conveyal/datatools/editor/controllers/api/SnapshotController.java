@@ -2,10 +2,8 @@ package com.conveyal.datatools.editor.controllers.api;
 
 
 import com.conveyal.datatools.common.utils.SparkUtils;
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.policy.Statement;
 import com.amazonaws.auth.policy.actions.S3Actions;
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.conveyal.datatools.editor.controllers.Base;
 import com.conveyal.datatools.editor.datastore.GlobalTx;
 import com.conveyal.datatools.editor.datastore.VersionedDataStore;
@@ -13,6 +11,7 @@ import com.conveyal.datatools.editor.jobs.ProcessGtfsSnapshotExport;
 import com.conveyal.datatools.editor.jobs.ProcessGtfsSnapshotMerge;
 import com.conveyal.datatools.editor.models.Snapshot;
 import com.conveyal.datatools.editor.models.transit.Stop;
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
 import com.conveyal.datatools.manager.controllers.api.FeedSourceController;
@@ -20,6 +19,7 @@ import com.conveyal.datatools.manager.models.FeedDownloadToken;
 import com.conveyal.datatools.manager.models.FeedSource;
 import com.conveyal.datatools.manager.models.FeedVersion;
 import com.conveyal.datatools.manager.models.JsonViews;
+import com.conveyal.datatools.manager.persistence.BlobStore;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import com.conveyal.datatools.manager.persistence.Persistence;
 import com.conveyal.datatools.manager.utils.json.JsonManager;
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 import spark.HaltException;
@@ -154,7 +155,7 @@ public class SnapshotController {
         ProcessGtfsSnapshotMerge processGtfsSnapshotMergeJob =
                 new ProcessGtfsSnapshotMerge(feedVersion, userProfile.getUser_id());
 
-        DataManager.heavyExecutor.execute(processGtfsSnapshotMergeJob);
+        DataManager.jobScheduler.submit(processGtfsSnapshotMergeJob, JobScheduler.Priority.INTERACTIVE);
 
         halt(200, "{status: \"ok\"}");
         return null;
@@ -282,7 +283,8 @@ public class SnapshotController {
         // this needs to be completed before the credentials are delivered, so that the client has
         // an actual object to download.
         if (DataManager.useS3) {
-            if (!FeedStore.s3Client.doesObjectExist(DataManager.feedBucket, key)) {
+            BlobStore blobStore = FeedStore.blobStore(DataManager.feedBucket);
+            if (blobStore.head(key).join() == null) {
                 File file;
                 try {
                     File tDir = new File(System.getProperty("java.io.tmpdir"));
@@ -291,11 +293,10 @@ public class SnapshotController {
                     writeSnapshotAsGtfs(snapshot.id, file);
                     try {
                         LOG.info("Uploading snapshot to S3 {}", key);
-                        FeedStore.s3Client.putObject(new PutObjectRequest(
-                                DataManager.feedBucket, key, file));
+                        blobStore.put(key, file).join();
                         file.delete();
-                    } catch (AmazonServiceException ase) {
-                        LOG.error("Error uploading snapshot to S3", ase);
+                    } catch (CompletionException e) {
+                        LOG.error("Error uploading snapshot to S3", e.getCause());
                     }
                 } catch (Exception e) {
                     LOG.error("Unable to create temp file for snapshot", e);
@@ -353,7 +354,7 @@ public class SnapshotController {
             LOG.error(message);
         }
         Persistence.tokens.removeById(token.id);
-        return downloadFile(file, snapshot.feedId + "_" + snapshot.snapshotTime + ".zip", res);
+        return downloadFile(file, snapshot.feedId + "_" + snapshot.snapshotTime + ".zip", req, res);
     }
 
     public static void register (String apiPrefix) {
@@ -6,11 +6,14 @@ import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DB.BTreeMapMaker;
 import org.mapdb.Fun.Tuple2;
+import org.mapdb.Pump;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.conveyal.datatools.editor.models.Model;
 import com.conveyal.datatools.editor.utils.ClassLoaderSerializer;
 
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.NavigableSet;
@@ -30,6 +33,11 @@ public class DatabaseTx {
 
     /** Convenience function to retrieve a map */
     protected final <T1, T2> BTreeMap<T1, T2> getMap (String name) {
+        return getMap(tx, name);
+    }
+
+    /** Retrieve a map from the specified database, creating it if needed */
+    protected static <T1, T2> BTreeMap<T1, T2> getMap (DB tx, String name) {
         try {
             return getMapMaker(tx, name)
                     .makeOrGet();
@@ -126,6 +134,22 @@ public class DatabaseTx {
         return valueTuples;
     }
 
+    /** Number of models sorted in memory at once when pumping models into a map, see pumpSourceForModels */
+    private static final int PUMP_SORT_BATCH_SIZE = 10000;
+
+    /**
+     * Retrieve a pump source for models that are not yet in any map. The data pump requires its source in descending
+     * key order, and model IDs are random UUIDs, so the models are sorted first. Up to PUMP_SORT_BATCH_SIZE models are
+     * sorted in memory; larger inputs are sorted in batches that are spilled to temporary files and merged, so the
+     * models need not all be on the heap at once (they may come from a ModelSpill).
+     */
+    protected static Iterator<Tuple2<String, Model>> pumpSourceForModels(Iterable<? extends Model> models) {
+        Comparator<Model> descendingIds = (m1, m2) -> m2.id.compareTo(m1.id);
+        Iterator<? extends Model> sorted = Pump.sort(models.iterator(), false, PUMP_SORT_BATCH_SIZE, descendingIds,
+                new ClassLoaderSerializer());
+        return Iterators.transform(sorted, m -> new Tuple2<String, Model>(m.id, m));
+    }
+
     protected final void finalize () {
         if (!closed) {
             LOG.error("DB transaction left unclosed, this signifies a memory leak!");
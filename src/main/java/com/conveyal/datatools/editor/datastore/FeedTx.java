@@ -1,5 +1,6 @@
 package com.conveyal.datatools.editor.datastore;
 
+import com.conveyal.datatools.editor.models.Model;
 import com.conveyal.datatools.editor.models.transit.*;
 import com.google.common.base.Function;
 import com.google.common.collect.Iterators;
@@ -13,9 +14,12 @@ import org.mapdb.Fun.Tuple2;
 import com.conveyal.datatools.editor.utils.BindUtils;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
@@ -300,6 +304,102 @@ public class FeedTx extends DatabaseTx {
         return newId;
     }
 
+    /**
+     * Replace ALL the data in a feed database with the given models, e.g. when importing a GTFS feed into the editor.
+     * Adding entities one at a time through the maps is slow for large feeds, as every put updates a dozen secondary
+     * indices and rebalances the BTree. Instead, every collection (except the snapshot version counter) is dropped,
+     * each primary map is filled in one pass by the data pump, and the indices are built afterwards when the
+     * returned FeedTx is constructed, as when restoring a snapshot.
+     *
+     * The caller must commit (or roll back) the returned transaction.
+     *
+     * @param models primary map name (e.g. "stops") to the models that map should contain. Model IDs must be unique.
+     *               The models are read in a single pass each (plus one for the trips' histogram) and sorted in
+     *               batches, so large collections need not be held in memory (see ModelSpill).
+     */
+    public static FeedTx bulkLoad (String feedId, Map<String, ? extends Iterable<? extends Model>> models) {
+        DB tx = VersionedDataStore.getRawFeedTx(feedId);
+        try {
+            for (String obj : tx.getAll().keySet()) {
+                // don't reset the counter that keeps track of snapshot versions
+                if (!obj.equals("snapshotVersion")) tx.delete(obj);
+            }
+
+            for (Map.Entry<String, ? extends Iterable<? extends Model>> entry : models.entrySet()) {
+                int count = pump(tx, entry.getKey(), pumpSourceForModels(entry.getValue()));
+                LOG.info("Loaded {} {}", count, entry.getKey());
+            }
+
+            // Bind.histogram does not fill an existing map when bound (mapdb ticket 453), so this histogram is
+            // computed here. The multiHistograms in BindUtils fill themselves.
+            Iterable<? extends Model> trips = models.get("trips");
+            if (trips != null) {
+                TreeMap<Tuple2<String, String>, Long> tripCounts = new TreeMap<>();
+                for (Model model : trips) {
+                    Trip trip = (Trip) model;
+                    tripCounts.merge(new Tuple2<>(trip.patternId, trip.calendarId), 1L, Long::sum);
+                }
+                pump(tx, "tripCountByPatternAndCalendar", tripCounts.descendingMap().entrySet().stream()
+                        .map(count -> new Tuple2<Tuple2<String, String>, Long>(count.getKey(), count.getValue()))
+                        .iterator());
+            }
+        } catch (RuntimeException e) {
+            tx.rollback();
+            throw e;
+        }
+
+        LOG.info("Building indices");
+        return new FeedTx(tx);
+    }
+
+    /**
+     * Secondary index sets on each primary map that can be rebuilt by dropping them. Maps with histograms (trips and
+     * exceptions) are absent, as the histograms are only maintained by listeners (mapdb ticket 453).
+     */
+    private static final Map<String, String[]> REBUILDABLE_INDICES = new HashMap<>();
+    static {
+        REBUILDABLE_INDICES.put("agencies", new String[0]);
+        REBUILDABLE_INDICES.put("routes", new String[0]);
+        REBUILDABLE_INDICES.put("calendars", new String[0]);
+        REBUILDABLE_INDICES.put("fares", new String[0]);
+        REBUILDABLE_INDICES.put("stops", new String[] { "majorStops", "stopsGix" });
+        REBUILDABLE_INDICES.put("tripPatterns", new String[] { "tripPatternsByRoute", "tripPatternsByStop" });
+    }
+
+    /**
+     * Add a large batch of models to one of the primary maps of a feed, keeping the existing data. The puts happen
+     * without any secondary indices bound, so indices are not updated on every put. Instead, the indices on that map
+     * are dropped and rebuilt in a single pass when the returned FeedTx is constructed.
+     *
+     * The caller must commit (or roll back) the returned transaction.
+     */
+    public static FeedTx bulkAdd (String feedId, String mapName, Collection<? extends Model> models) {
+        String[] indices = REBUILDABLE_INDICES.get(mapName);
+        if (indices == null) {
+            throw new IllegalArgumentException("Cannot bulk add to " + mapName);
+        }
+
+        DB tx = VersionedDataStore.getRawFeedTx(feedId);
+        try {
+            BTreeMap<String, Model> map = getMap(tx, mapName);
+            for (Model model : models) {
+                map.put(model.id, model);
+            }
+            LOG.info("Added {} {}", models.size(), mapName);
+
+            // indices are filled from scratch when they are empty at bind time
+            for (String index : indices) {
+                if (tx.exists(index)) tx.delete(index);
+            }
+        } catch (RuntimeException e) {
+            tx.rollback();
+            throw e;
+        }
+
+        LOG.info("Rebuilding indices");
+        return new FeedTx(tx);
+    }
+
     /** copy a feed database */
     static void copy (FeedTx feedTx, DB newDb, final String newFeedId) {
         // copy everything
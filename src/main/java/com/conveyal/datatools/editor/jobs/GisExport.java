@@ -1,7 +1,6 @@
 package com.conveyal.datatools.editor.jobs;
 
 import com.conveyal.datatools.editor.datastore.FeedTx;
-import com.conveyal.datatools.manager.models.FeedSource;
 import com.google.common.io.Files;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -9,208 +8,367 @@ import com.vividsolutions.jts.geom.LineString;
 import com.conveyal.datatools.editor.datastore.GlobalTx;
 import com.conveyal.datatools.editor.datastore.VersionedDataStore;
 import com.conveyal.datatools.editor.models.transit.*;
+import org.geotools.data.DataStore;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureWriter;
 import org.geotools.data.Transaction;
-import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.shapefile.ShapefileDataStoreFactory;
-import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureSource;
-import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.SchemaException;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geojson.feature.FeatureJSON;
+import org.geotools.geopkg.GeoPkgDataStoreFactory;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import com.conveyal.datatools.editor.utils.DirectoryZip;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-
-/** Export routes or stops as a shapefile */
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Export routes or stops as a zipped shapefile, GeoPackage or newline-delimited GeoJSON, either to a file (run) or
+ * to a stream such as an HTTP response (export, see GisController).
+ *
+ * Features are written as they are read from each feed rather than collected in memory first, and the feeds are
+ * read in parallel. Newline-delimited GeoJSON goes straight into the zip stream; shapefiles and GeoPackages need
+ * random access to their files, so they are staged in a temporary directory and copied into the zip at the end. If
+ * the export fails, no partial shapefile or GeoPackage is zipped.
+ */
 public class GisExport implements Runnable {
+    public static final Logger LOG = LoggerFactory.getLogger(GisExport.class);
+
     File file;
     Type type;
+    Format format;
     Collection<String> agencyIds;
 
     public GisExport(Type type, File file, Collection<String> agencyIds) {
+        this(type, Format.SHAPEFILE, file, agencyIds);
+    }
+
+    public GisExport(Type type, Format format, File file, Collection<String> agencyIds) {
         this.type = type;
+        this.format = format;
         this.file = file;
         this.agencyIds = agencyIds;
     }
 
     @Override
     public void run() {
-        File outDir = Files.createTempDir();
-        File outShp = new File(outDir, file.getName().replaceAll("\\.zip", "") + ".shp");
+        try {
+            try (OutputStream fileOut = new FileOutputStream(file)) {
+                export(fileOut);
+            }
+        } catch (Exception e) {
+            LOG.error("Could not export {} for feeds {}", type, agencyIds);
+            e.printStackTrace();
+            // don't leave a truncated zip behind
+            file.delete();
+        }
+    }
 
+    /**
+     * Write the zipped export to the output stream. The stream is finished but not closed.
+     * @throws IllegalArgumentException if a feed is not in the editor, before anything is written
+     */
+    public void export(OutputStream outputStream) throws Exception {
+        SimpleFeatureType featureType = type.equals(Type.STOPS) ? stopType() : routeType();
+        String baseName = file != null ? file.getName().replaceAll("\\.zip", "") : type.name().toLowerCase();
+
+        // read what we need from the global database up front, so the feeds can be exported in parallel without
+        // sharing a transaction
+        Map<String, EditorFeed> feeds = new HashMap<>();
+        Map<String, String> routeTypeNames = new HashMap<>();
         GlobalTx gtx = VersionedDataStore.getGlobalTx();
-        FeedTx atx = null;
         try {
-            ShapefileDataStoreFactory dataStoreFactory = new ShapefileDataStoreFactory();
-
-            Map<String, Serializable> params = new HashMap<String, Serializable>();
-            params.put("url", outShp.toURI().toURL());
-            params.put("create spatial index", Boolean.TRUE);
-
-            ShapefileDataStore datastore = (ShapefileDataStore) dataStoreFactory.createNewDataStore(params);
-            datastore.forceSchemaCRS(DefaultGeographicCRS.WGS84);
-
-            SimpleFeatureType STOP_TYPE = DataUtilities.createType(
-                    "Stop",
-                    "the_geom:Point:srid=4326," +
-                    "name:String," +
-                    "code:String," +
-                    "desc:String," +
-                    "id:String," +
-                    "agency:String"
-            );
-
-            SimpleFeatureType ROUTE_TYPE = DataUtilities.createType(
-                    "Route",                   // <- the name for our feature type
-                    "the_geom:LineString:srid=4326," +
-                    "patternName:String," +
-                    "shortName:String," +
-                    "longName:String," +
-                    "desc:String," +
-                    "type:String," +
-                    "url:String," +
-                    "routeColor:String," +
-                    "routeTextColor:String," +
-                    "agency:String"
-            );
-
-            SimpleFeatureCollection collection;
-
-            SimpleFeatureType collectionType;
-
-            SimpleFeatureBuilder featureBuilder = null;
-            
-            List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+            for (String feedId : agencyIds) {
+                EditorFeed feed = gtx.feeds.get(feedId);
+                if (feed == null) throw new IllegalArgumentException("No feed " + feedId + " in the editor");
+                feeds.put(feedId, feed);
+            }
+            for (RouteType routeType : gtx.routeTypes.values()) routeTypeNames.put(routeType.id, routeType.toString());
+        } finally {
+            gtx.rollback();
+        }
 
-            if (type.equals(Type.STOPS)) {
-                collectionType = STOP_TYPE;
-                datastore.createSchema(STOP_TYPE);
-                featureBuilder = new SimpleFeatureBuilder(STOP_TYPE);
-
-                for (String feedId : agencyIds) {
-                    EditorFeed fs = gtx.feeds.get(feedId);
-
-                    atx = VersionedDataStore.getFeedTx(feedId);
-                    for (Stop s : atx.stops.values()) {
-                        featureBuilder.add(s.location);
-                        featureBuilder.add(s.stopName);
-                        featureBuilder.add(s.stopCode);
-                        featureBuilder.add(s.stopDesc);
-                        featureBuilder.add(s.getGtfsId());
-                        featureBuilder.add(fs.feedPublisherName);
-                        SimpleFeature feature = featureBuilder.buildFeature(null);
-                        features.add(feature);
+        writeZip(format, featureType, baseName, agencyIds,
+                (feedId, sink) -> exportFeed(feedId, feeds.get(feedId), featureType, routeTypeNames, sink), outputStream);
+    }
+
+    /**
+     * Write the features of the given feeds, in parallel, to a zip in the given format. The stream is finished but
+     * not closed.
+     */
+    static void writeZip (Format format, SimpleFeatureType featureType, String baseName, Collection<String> feedIds,
+                          FeedWriter feedWriter, OutputStream outputStream) throws Exception {
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        FeatureSink sink = format.equals(Format.GEOJSON_SEQ)
+                ? new GeoJsonSeqSink(zip, baseName)
+                : new DataStoreSink(format, featureType, baseName, zip);
+        try {
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(feedIds.size(), Runtime.getRuntime().availableProcessors())));
+            try {
+                pool.submit(() -> feedIds.parallelStream().forEach(feedId -> {
+                    try {
+                        feedWriter.write(feedId, sink);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+                })).get();
+            } finally {
+                pool.shutdown();
+            }
+        } catch (Exception e) {
+            sink.abort();
+            throw e;
+        }
+        sink.close();
+        zip.finish();
+    }
 
-                    atx.rollback();
+    /** Write the stops or trip patterns of a single feed to the sink. */
+    private void exportFeed (String feedId, EditorFeed fs, SimpleFeatureType featureType,
+                             Map<String, String> routeTypeNames, FeatureSink sink) throws IOException {
+        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureType);
+        FeedTx atx = VersionedDataStore.getFeedTx(feedId);
+        try {
+            if (type.equals(Type.STOPS)) {
+                for (Stop s : atx.stops.values()) {
+                    featureBuilder.add(s.location);
+                    featureBuilder.add(s.stopName);
+                    featureBuilder.add(s.stopCode);
+                    featureBuilder.add(s.stopDesc);
+                    featureBuilder.add(s.getGtfsId());
+                    featureBuilder.add(fs.feedPublisherName);
+                    sink.write(featureBuilder.buildFeature(null));
                 }
             } else if (type.equals(Type.ROUTES)) {
-                collectionType = ROUTE_TYPE;
-                datastore.createSchema(ROUTE_TYPE);
-                featureBuilder = new SimpleFeatureBuilder(ROUTE_TYPE);
-
                 GeometryFactory gf = new GeometryFactory();
 
-                for (String feedId : agencyIds) {
-                    EditorFeed fs = gtx.feeds.get(feedId);
-
-                    atx = VersionedDataStore.getFeedTx(feedId);
+                // we loop over trip patterns. Note that this will yield several lines for routes that have
+                // multiple patterns. There's no real good way to reconcile the shapes of multiple patterns.
+                for (TripPattern tp : atx.tripPatterns.values()) {
+                    LineString shape;
+                    if (tp.shape != null) {
+                        shape = tp.shape;
+                    } else {
+                        // build the shape from the stops
+                        Coordinate[] coords = new Coordinate[tp.patternStops.size()];
+
+                        for (int i = 0; i < coords.length; i++) {
+                            coords[i] = atx.stops.get(tp.patternStops.get(i).stopId).location.getCoordinate();
+                        }
 
-                    // we loop over trip patterns. Note that this will yield several lines for routes that have
-                    // multiple patterns. There's no real good way to reconcile the shapes of multiple patterns.
-                    for (TripPattern tp : atx.tripPatterns.values()) {
-                        LineString shape;
-                        if (tp.shape != null) {
-                            shape = tp.shape;
-                        } else {
-                            // build the shape from the stops
-                            Coordinate[] coords = new Coordinate[tp.patternStops.size()];
+                        shape = gf.createLineString(coords);
+                    }
 
-                            for (int i = 0; i < coords.length; i++) {
-                                coords[i] = atx.stops.get(tp.patternStops.get(i).stopId).location.getCoordinate();
-                            }
+                    Route r = atx.routes.get(tp.routeId);
 
-                            shape = gf.createLineString(coords);
-                        }
+                    featureBuilder.add(shape);
+                    featureBuilder.add(tp.name);
+                    featureBuilder.add(r.routeShortName);
+                    featureBuilder.add(r.routeLongName);
+                    featureBuilder.add(r.routeDesc);
 
-                        Route r = atx.routes.get(tp.routeId);
-
-                        featureBuilder.add(shape);
-                        featureBuilder.add(tp.name);
-                        featureBuilder.add(r.routeShortName);
-                        featureBuilder.add(r.routeLongName);
-                        featureBuilder.add(r.routeDesc);
-
-                        if (r.routeTypeId != null)
-                            featureBuilder.add(gtx.routeTypes.get(r.routeTypeId).toString());
-                        else
-                            featureBuilder.add("");
-
-                        featureBuilder.add(r.routeUrl);
-                        featureBuilder.add(r.routeColor);
-                        featureBuilder.add(r.routeTextColor);
-                        featureBuilder.add(fs.feedPublisherName);
-                        SimpleFeature feature = featureBuilder.buildFeature(null);
-                        features.add(feature);
-                    }
+                    if (r.routeTypeId != null)
+                        featureBuilder.add(routeTypeNames.get(r.routeTypeId));
+                    else
+                        featureBuilder.add("");
 
-                    atx.rollback();
+                    featureBuilder.add(r.routeUrl);
+                    featureBuilder.add(r.routeColor);
+                    featureBuilder.add(r.routeTextColor);
+                    featureBuilder.add(fs.feedPublisherName);
+                    sink.write(featureBuilder.buildFeature(null));
                 }
             }
             else
                 throw new IllegalStateException("Invalid type");
+        } finally {
+            atx.rollbackIfOpen();
+        }
+    }
 
-            // save the file
-            collection = new ListFeatureCollection(collectionType, features);
+    static SimpleFeatureType stopType () throws SchemaException {
+        return DataUtilities.createType(
+                "Stop",
+                "the_geom:Point:srid=4326," +
+                "name:String," +
+                "code:String," +
+                "desc:String," +
+                "id:String," +
+                "agency:String"
+        );
+    }
+
+    static SimpleFeatureType routeType () throws SchemaException {
+        return DataUtilities.createType(
+                "Route",                   // <- the name for our feature type
+                "the_geom:LineString:srid=4326," +
+                "patternName:String," +
+                "shortName:String," +
+                "longName:String," +
+                "desc:String," +
+                "type:String," +
+                "url:String," +
+                "routeColor:String," +
+                "routeTextColor:String," +
+                "agency:String"
+        );
+    }
 
-            Transaction transaction = new DefaultTransaction("create");
+    /** Writes the features of one feed to the sink. Called for several feeds at once. */
+    interface FeedWriter {
+        void write (String feedId, FeatureSink sink) throws IOException;
+    }
 
-            String typeName = datastore.getTypeNames()[0];
-            SimpleFeatureSource featureSource = datastore.getFeatureSource(typeName);
+    /**
+     * Accepts features from any number of threads and writes them out as they arrive. Closing the sink completes the
+     * output; if the export fails, the sink is aborted instead.
+     */
+    interface FeatureSink extends Closeable {
+        void write (SimpleFeature feature) throws IOException;
 
-            if (featureSource instanceof SimpleFeatureStore)
-            {
-                SimpleFeatureStore featureStore = (SimpleFeatureStore) featureSource;
+        /** Discard the output and release any resources. */
+        void abort ();
+    }
 
-                featureStore.setTransaction(transaction);
+    /** Writes one GeoJSON feature per line directly into a zip entry. */
+    private static class GeoJsonSeqSink implements FeatureSink {
+        private final ZipOutputStream zip;
+        private final Writer writer;
 
-                featureStore.addFeatures(collection);
-                transaction.commit();
+        GeoJsonSeqSink (ZipOutputStream zip, String baseName) throws IOException {
+            this.zip = zip;
+            zip.putNextEntry(new ZipEntry(baseName + ".geojsonl"));
+            writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+        }
 
-                transaction.close();
+        @Override
+        public void write (SimpleFeature feature) throws IOException {
+            // encode on the calling thread, only the write itself needs to be serialized
+            String json = new FeatureJSON().toString(feature);
+            synchronized (this) {
+                writer.write(json);
+                writer.write('\n');
             }
-            else
-            {
-                throw new Exception(typeName + " does not support read/write access");
+        }
+
+        @Override
+        public void close () throws IOException {
+            // don't close the writer, that would close the zip stream
+            writer.flush();
+            zip.closeEntry();
+        }
+
+        @Override
+        public void abort () {
+            // nothing to release; the caller abandons the zip stream
+        }
+    }
+
+    /**
+     * Writes features through a GeoTools data store (shapefile or GeoPackage). These formats need random access to
+     * their files, so they are written to a temporary directory and copied into the zip when the sink is closed.
+     */
+    private static class DataStoreSink implements FeatureSink {
+        private final File outDir = Files.createTempDir();
+        private final ZipOutputStream zip;
+        private final DataStore datastore;
+        private final Transaction transaction = new DefaultTransaction("create");
+        private final FeatureWriter<SimpleFeatureType, SimpleFeature> writer;
+
+        DataStoreSink (Format format, SimpleFeatureType featureType, String baseName, ZipOutputStream zip) throws IOException {
+            this.zip = zip;
+            Map<String, Serializable> params = new HashMap<>();
+            if (format.equals(Format.SHAPEFILE)) {
+                params.put("url", new File(outDir, baseName + ".shp").toURI().toURL());
+                params.put("create spatial index", Boolean.TRUE);
+                ShapefileDataStore shapefile = (ShapefileDataStore) new ShapefileDataStoreFactory().createNewDataStore(params);
+                shapefile.forceSchemaCRS(DefaultGeographicCRS.WGS84);
+                datastore = shapefile;
+            } else {
+                params.put(GeoPkgDataStoreFactory.DBTYPE.key, "geopkg");
+                params.put(GeoPkgDataStoreFactory.DATABASE.key, new File(outDir, baseName + ".gpkg").getAbsolutePath());
+                datastore = new GeoPkgDataStoreFactory().createDataStore(params);
             }
+            datastore.createSchema(featureType);
+            writer = datastore.getFeatureWriterAppend(datastore.getTypeNames()[0], transaction);
+        }
 
-            // zip the file
-            DirectoryZip.zip(outDir, file);
+        @Override
+        public synchronized void write (SimpleFeature feature) throws IOException {
+            SimpleFeature next = writer.next();
+            next.setAttributes(feature.getAttributes());
+            writer.write();
+        }
 
-            // clean up
-            for (File f : outDir.listFiles()) {
-                f.delete();
+        @Override
+        public void close () throws IOException {
+            try {
+                try {
+                    writer.close();
+                    transaction.commit();
+                } finally {
+                    transaction.close();
+                    datastore.dispose();
+                }
+
+                // copy the files into the zip
+                for (File f : outDir.listFiles()) {
+                    zip.putNextEntry(new ZipEntry(f.getName()));
+                    Files.copy(f, zip);
+                    zip.closeEntry();
+                }
+            } finally {
+                deleteOutDir();
             }
-            outDir.delete();
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (gtx != null) gtx.rollback();
-            if (atx != null) atx.rollbackIfOpen();
+        @Override
+        public void abort () {
+            try {
+                try {
+                    writer.close();
+                    transaction.rollback();
+                } finally {
+                    transaction.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not roll back aborted export", e);
+            } finally {
+                datastore.dispose();
+                deleteOutDir();
+            }
+        }
+
+        private void deleteOutDir () {
+            File[] files = outDir.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
+            }
+            outDir.delete();
         }
     }
 
     public static enum Type { ROUTES, STOPS };
+
+    public static enum Format { SHAPEFILE, GEOPACKAGE, GEOJSON_SEQ };
 }
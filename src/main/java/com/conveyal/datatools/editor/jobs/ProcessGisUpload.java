@@ -1,245 +1,241 @@
 package com.conveyal.datatools.editor.jobs;
 
-public class ProcessGisUpload implements Runnable {
-    @Override
-    public void run() {
-
+import com.conveyal.datatools.common.status.MonitorableJob;
+import com.conveyal.datatools.editor.datastore.FeedTx;
+import com.conveyal.datatools.editor.datastore.GlobalTx;
+import com.conveyal.datatools.editor.datastore.VersionedDataStore;
+import com.conveyal.datatools.editor.models.transit.EditorFeed;
+import com.conveyal.datatools.editor.models.transit.Stop;
+import com.conveyal.datatools.editor.utils.FeatureAttributeFormatter;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.data.FileDataStore;
+import org.geotools.data.FileDataStoreFinder;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Import the points in a zipped shapefile (e.g., a stop inventory from a GIS department) as stops in an editor feed.
+ *
+ * Features are read in batches, each batch is reprojected and converted to stops in parallel, and all stops are then
+ * added to the feed in a single transaction, with the stop indices rebuilt once at the end (see FeedTx.bulkAdd).
+ * The uploaded zip is deleted when the job finishes (see GisController).
+ */
+public class ProcessGisUpload extends MonitorableJob {
+    public static final Logger LOG = LoggerFactory.getLogger(ProcessGisUpload.class);
+
+    /** Number of features to read from the shapefile before converting them */
+    private static final int BATCH_SIZE = 1000;
+
+    /** Files in the zip that make up a shapefile, anything else is skipped */
+    private static final Set<String> SHAPEFILE_EXTENSIONS = Sets.newHashSet("shp", "shx", "dbf", "prj", "cpg");
+
+    private final File zipFile;
+    private final String feedId;
+
+    /** Formats for the stop name, ID and description, referring to feature attributes by position, e.g. "#2" */
+    private final String fieldName;
+    private final String fieldId;
+    private final String fieldDescription;
+
+    public ProcessGisUpload(File zipFile, String feedId, String fieldName, String fieldId, String fieldDescription, String owner) {
+        super(owner, "Importing stops from " + zipFile.getName(), JobType.PROCESS_GIS_UPLOAD);
+        this.zipFile = zipFile;
+        this.feedId = feedId;
+        this.fieldName = fieldName;
+        this.fieldId = fieldId;
+        this.fieldDescription = fieldDescription;
+        status.update(false, "Waiting to begin job...", 0);
     }
-    /*
-    private Long _gisUploadId;
 
-    public ProcessGisUpload(Long gisUploadId)
-    {
-        this._gisUploadId = gisUploadId;
+    /** Imports into the same feed (e.g., a second upload, a snapshot restore) must not run at once. */
+    @Override
+    public String getConflictKey() {
+        return feedId;
     }
 
-    public void doJob() {
-
-        String uploadName = "gis_" + this._gisUploadId;
-
-        File uploadedFile = new File(Play.configuration.getProperty("application.publicGisDataDirectory"), uploadName + ".zip");
-
-        File outputPath = new File(Play.configuration.getProperty("application.publicGisDataDirectory"), uploadName);
-       
-       
-        try
-        {
-            GisUpload gisUpload = null;
-
-            while(gisUpload == null)
-            {
-                gisUpload = GisUpload.findById(this._gisUploadId);
-                Thread.sleep(1000);
-
-                LOG.info("Waiting for gisUpload object...");
-            }
-
-            File shapeFile = null;
-
-            // unpack the zip if needed
-            if(!outputPath.exists())
-            {
-                outputPath.mkdir();
-
-                FileInputStream fileInputStream = new FileInputStream(uploadedFile);
-                ZipInputStream zipInput = new ZipInputStream(fileInputStream);
-
-                ZipEntry zipEntry = null;
-
-                while ((zipEntry = zipInput.getNextEntry()) != null)
-                {
-                    if(zipEntry.isDirectory())
-                    {
-                        LOG.info("Unexpected directory: ", zipEntry.getName());
-                    }
-                    else
-                    {
-                        LOG.info("Unzipping", zipEntry.getName());
-
-                        File entryFile = new File(outputPath, zipEntry.getName());
-
-                        FileOutputStream unzippedFileOut = new FileOutputStream(entryFile);
-
-                        int length;
-                        byte[] buffer = new byte[1000];
-
-                        while ((length = zipInput.read(buffer))>0)
-                        {
-                            unzippedFileOut.write(buffer, 0, length);
-                        }
-
-                        zipInput.closeEntry();
-                        unzippedFileOut.close();
-                    }
-                }
-
-                zipInput.close();
+    @Override
+    public void jobLogic() {
+        FeedTx feedTx = null;
+        try {
+            EditorFeed feed;
+            GlobalTx gtx = VersionedDataStore.getGlobalTx();
+            try {
+                feed = gtx.feeds.get(feedId);
+            } finally {
+                gtx.rollback();
             }
-
-            // find the shapefile
-            for(File dirFile : outputPath.listFiles())
-            {
-                if(FilenameUtils.getExtension(dirFile.getName()).toLowerCase().equals("shp"))
-                {
-                    if(shapeFile == null)
-                        shapeFile = dirFile;
-                    else
-                        LOG.warn("Zip contains more than one shapefile--ignoring others.");
-                }
+            if (feed == null) {
+                status.update(true, "Feed " + feedId + " does not exist in the editor.", 100);
+                return;
             }
-            
-            // (re)load the shapefile data
-            if(shapeFile != null)
-            {
-
-                // remove existing imports
-                if(gisUpload.type == GisUploadType.ROUTES)
-                {
-                    List<GisRoute> routes = GisRoute.find("gisUpload = ?", gisUpload).fetch();
-
-                    for(GisRoute route : routes)
-                    {
-                        route.clear();
-                        route.delete();
-                    }
-                }
-                else if(gisUpload.type == GisUploadType.STOPS)
-                    GisStop.delete("gisUpload = ?", gisUpload);
 
-                // remove existing updload field mappings
-                GisUploadField.delete("gisUpload = ?", gisUpload);
+            List<Stop> stops = readStops(feed);
+
+            status.update(false, "Saving " + stops.size() + " stops...", 90);
+            feedTx = FeedTx.bulkAdd(feedId, "stops", stops);
+            feedTx.commit();
+            LOG.info("Imported {} stops from {} into feed {}", stops.size(), zipFile.getName(), feedId);
+            status.update(false, "Imported " + stops.size() + " stops.", 100);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid GIS upload: {}", e.getMessage());
+            status.update(true, e.getMessage(), 100);
+        } catch (Exception e) {
+            LOG.error("Unable to process GIS upload", e);
+            status.update(true, "Unable to process GIS upload: " + e.getMessage(), 100);
+        } finally {
+            if (feedTx != null) feedTx.rollbackIfOpen();
+            // the upload was stored for this job only
+            zipFile.delete();
+        }
+    }
 
-                FileDataStore store = FileDataStoreFinder.getDataStore(shapeFile);
+    /**
+     * Read the points in the zipped shapefile as stops of the given feed, without storing them.
+     * @throws IllegalArgumentException if the zip does not contain a shapefile of points
+     */
+    List<Stop> readStops (EditorFeed feed) throws Exception {
+        File outDir = Files.createTempDir();
+        try {
+            status.update(false, "Unpacking shapefile...", 5);
+            File shapeFile = unzipShapefile(outDir);
+            if (shapeFile == null) throw new IllegalArgumentException("Zip didn't contain a valid shapefile.");
+
+            List<Stop> stops = new ArrayList<>();
+            FileDataStore store = FileDataStoreFinder.getDataStore(shapeFile);
+            try {
                 SimpleFeatureSource featureSource = store.getFeatureSource();
-
-                SimpleFeatureCollection featureCollection = featureSource.getFeatures();
-                SimpleFeatureIterator featureIterator = featureCollection.features();
-
-                List<AttributeDescriptor> attributeDescriptors = featureSource.getSchema().getAttributeDescriptors();
-
-                // update field listing
-                Long position = new Long(0);
-
-                for(AttributeDescriptor attribute : attributeDescriptors)
-                {
-                    GisUploadField field = new GisUploadField();
-                    field.fieldName = attribute.getName().toString();
-                    field.fieldType = attribute.getType().getName().getLocalPart();
-                    field.fieldPosition = position;
-
-                    field.gisUpload = gisUpload;
-
-                    field.save();
-           
-                    position++;
+                SimpleFeatureType schema = featureSource.getSchema();
+                Class<?> geometryType = schema.getGeometryDescriptor().getType().getBinding();
+                if (geometryType != Point.class) {
+                    throw new IllegalArgumentException("Shapefile must contain points, found " + geometryType.getSimpleName());
                 }
 
-
-                CoordinateReferenceSystem dataCRS = featureSource.getSchema().getCoordinateReferenceSystem();
-
-                String code = "EPSG:4326";
-                CRSAuthorityFactory crsAuthorityFactory = CRS.getAuthorityFactory(true);
-                CoordinateReferenceSystem mapCRS = crsAuthorityFactory.createCoordinateReferenceSystem(code);
-
-
+                // A shapefile without a .prj is assumed to be in WGS84 already.
+                CoordinateReferenceSystem sourceCRS = schema.getCoordinateReferenceSystem() != null
+                        ? schema.getCoordinateReferenceSystem()
+                        : DefaultGeographicCRS.WGS84;
                 boolean lenient = true; // allow for some error due to different datums
-                MathTransform transform = CRS.findMathTransform(dataCRS, mapCRS, lenient);
-
-                while (featureIterator.hasNext())
-                {
-                    SimpleFeature feature = featureIterator.next();
-    
-                    GeometryType geomType = feature.getFeatureType().getGeometryDescriptor().getType();
-
-                    // handle appropriate shape/upload type
-                    if(gisUpload.type == GisUploadType.ROUTES)
-                    {
-                        if(geomType.getBinding() != MultiLineString.class)
-                        {
-                            LOG.error("Unexpected geometry type: ", geomType);
-                            continue;
-                        }
-
-                        MultiLineString multiLineString = (MultiLineString)JTS.transform((Geometry)feature.getDefaultGeometry(), transform);
-
-
-                        GisRoute route = new GisRoute();
-
-                        route.gisUpload = gisUpload;
-                        route.agency = gisUpload.agency;
-                        route.oid = feature.getID();
-                        route.originalShape = multiLineString;
-                        route.originalShape.setSRID(4326);
-
-                        if(gisUpload.fieldName != null)
-                        {
-                            FeatureAttributeFormatter attribFormatter = new FeatureAttributeFormatter(gisUpload.fieldName);
-                            route.routeName =  attribFormatter.format(feature);
-
-                        }
-                        if(gisUpload.fieldId != null)
-                        {
-                            FeatureAttributeFormatter attribFormatter = new FeatureAttributeFormatter(gisUpload.fieldId);
-                            route.routeId =  attribFormatter.format(feature);
-                        }
-                        if(gisUpload.fieldDescription != null)
-                        {
-                            FeatureAttributeFormatter attribFormatter = new FeatureAttributeFormatter(gisUpload.fieldDescription);
-                            route.description =  attribFormatter.format(feature);
-                        }
-
-                        route.save();
-
-                        route.processSegments();
-
-                       }
-                    else if(gisUpload.type == GisUploadType.STOPS)
-                    {
-                        if(geomType.getBinding() != Point.class)
-                        {
-                            LOG.error("Unexpected geometry type: ", geomType);
-                            continue;
+                MathTransform transform = CRS.findMathTransform(sourceCRS, DefaultGeographicCRS.WGS84, lenient);
+
+                SimpleFeatureCollection features = featureSource.getFeatures();
+                int featureCount = features.size();
+                List<SimpleFeature> batch = new ArrayList<>(BATCH_SIZE);
+                int featuresRead = 0;
+                SimpleFeatureIterator featureIterator = features.features();
+                try {
+                    while (featureIterator.hasNext()) {
+                        batch.add(featureIterator.next());
+                        featuresRead++;
+                        if (batch.size() == BATCH_SIZE || !featureIterator.hasNext()) {
+                            stops.addAll(toStops(batch, transform, feed));
+                            batch.clear();
+                            status.update(false, String.format("Read %d / %d features", featuresRead, featureCount),
+                                    10 + 75D * featuresRead / Math.max(featureCount, featuresRead));
                         }
-
-                        GisStop stop = new GisStop();
-
-                        stop.gisUpload = gisUpload;
-                        stop.agency = gisUpload.agency;
-                        stop.oid = feature.getID();
-                        stop.shape = (Point)JTS.transform((Geometry)feature.getDefaultGeometry(), transform);
-                        stop.shape.setSRID(4326);
-
-                        if(gisUpload.fieldName != null)
-                        {
-                            FeatureAttributeFormatter attribFormatter = new FeatureAttributeFormatter(gisUpload.fieldName);
-                            stop.stopName =  attribFormatter.format(feature);
-                        }
-                        if(gisUpload.fieldId != null)
-                        {
-                            FeatureAttributeFormatter attribFormatter = new FeatureAttributeFormatter(gisUpload.fieldId);
-                            stop.stopId =  attribFormatter.format(feature);
-                        }
-                        if(gisUpload.fieldDescription != null)
-                        {
-                            FeatureAttributeFormatter attribFormatter = new FeatureAttributeFormatter(gisUpload.fieldDescription);
-                            stop.description =  attribFormatter.format(feature);
-                        }
-
-                        stop.save();
                     }
+                } finally {
+                    featureIterator.close();
                 }
+            } finally {
+                store.dispose();
             }
-            else
-            {
-                LOG.error("Zip didn't contain a valid shapefile.");
+            return stops;
+        } finally {
+            File[] files = outDir.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
             }
+            outDir.delete();
         }
-        catch(Exception e)
-        {
-            LOG.error("Unable to process GIS Upload: ", e.toString());
-            e.printStackTrace();
+    }
+
+    /**
+     * Extract the shapefile components from the zip in a single streaming pass. The shapefile reader needs random
+     * access to the .shp, .shx and .dbf files, so they can't be read straight from the zip stream.
+     * @return the .shp file, or null if there is none
+     */
+    private File unzipShapefile (File outDir) throws IOException {
+        File shapeFile = null;
+        try (ZipInputStream zipInput = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile)))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInput.getNextEntry()) != null) {
+                // flatten any directories in the zip, which also keeps entries from escaping the output directory
+                String name = new File(zipEntry.getName()).getName();
+                String extension = FilenameUtils.getExtension(name).toLowerCase();
+                if (zipEntry.isDirectory() || !SHAPEFILE_EXTENSIONS.contains(extension)) continue;
+
+                File entryFile = new File(outDir, name);
+                java.nio.file.Files.copy(zipInput, entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+                if ("shp".equals(extension)) {
+                    if (shapeFile == null) shapeFile = entryFile;
+                    else LOG.warn("Zip contains more than one shapefile--ignoring others.");
+                }
+            }
         }
+        return shapeFile;
     }
-    */
-}
 
+    /** Reproject a batch of point features and convert them to stops, in parallel. */
+    private List<Stop> toStops (List<SimpleFeature> features, MathTransform transform, EditorFeed feed) {
+        FeatureAttributeFormatter nameFormatter = fieldName != null ? new FeatureAttributeFormatter(fieldName) : null;
+        FeatureAttributeFormatter idFormatter = fieldId != null ? new FeatureAttributeFormatter(fieldId) : null;
+        FeatureAttributeFormatter descriptionFormatter = fieldDescription != null ? new FeatureAttributeFormatter(fieldDescription) : null;
+
+        return features.parallelStream()
+                .map(feature -> {
+                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    if (geometry == null) {
+                        LOG.warn("Feature {} has no geometry, skipping", feature.getID());
+                        return null;
+                    }
+                    Point point;
+                    try {
+                        point = (Point) JTS.transform(geometry, transform);
+                    } catch (TransformException e) {
+                        LOG.warn("Could not reproject feature {}, skipping", feature.getID());
+                        return null;
+                    }
+
+                    Stop stop = new Stop(feed,
+                            nameFormatter != null ? nameFormatter.format(feature) : null,
+                            null,
+                            null,
+                            descriptionFormatter != null ? descriptionFormatter.format(feature) : null,
+                            point.getY(),
+                            point.getX());
+                    if (idFormatter != null) stop.gtfsStopId = idFormatter.format(feature);
+                    return stop;
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+}
@@ -2,6 +2,7 @@ package com.conveyal.datatools.editor.jobs;
 
 import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.editor.datastore.FeedTx;
+import com.conveyal.datatools.editor.models.Model;
 import com.conveyal.datatools.editor.models.Snapshot;
 import com.conveyal.datatools.editor.models.transit.Agency;
 import com.conveyal.datatools.editor.models.transit.EditorFeed;
@@ -10,11 +11,22 @@ import com.conveyal.datatools.editor.models.transit.Route;
 import com.conveyal.datatools.editor.models.transit.RouteType;
 import com.conveyal.datatools.editor.models.transit.ServiceCalendar;
 import com.conveyal.datatools.editor.models.transit.Stop;
+import com.conveyal.datatools.editor.models.transit.StopTime;
+import com.conveyal.datatools.editor.models.transit.Trip;
+import com.conveyal.datatools.editor.models.transit.TripDirection;
+import com.conveyal.datatools.editor.models.transit.TripPattern;
+import com.conveyal.datatools.editor.models.transit.TripPatternStop;
+import com.conveyal.datatools.editor.utils.ModelSpill;
+import com.conveyal.datatools.editor.utils.SqlTableStream;
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.models.FeedValidationResultSummary;
 import com.conveyal.datatools.manager.models.FeedVersion;
-import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.model.Entity;
 import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.PrecisionModel;
 import com.conveyal.datatools.editor.datastore.GlobalTx;
 import com.conveyal.datatools.editor.datastore.VersionedDataStore;
@@ -28,9 +40,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ProcessGtfsSnapshotMerge extends MonitorableJob {
     public static final Logger LOG = LoggerFactory.getLogger(ProcessGtfsSnapshotMerge.class);
+    /** How often the progress of work spread over several threads is reported */
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
     /** map from GTFS agency IDs to Agencies */
     private Map<String, Agency> agencyIdMap = new HashMap<>();
     private Map<String, Route> routeIdMap = new HashMap<>();
@@ -38,7 +61,6 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
     private Map<Tuple2<String, String>, Stop> stopIdMap = Maps.newHashMap();
     private TIntObjectMap<String> routeTypeIdMap = new TIntObjectHashMap<>();
 
-    private Feed inputFeedTables;
     private EditorFeed editorFeed;
 
     public FeedVersion feedVersion;
@@ -66,12 +88,13 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
 
         GlobalTx gtx = VersionedDataStore.getGlobalTx();
 
-        // create a new feed based on this version
-        FeedTx feedTx = VersionedDataStore.getFeedTx(feedVersion.feedSourceId);
+        // the feed database is replaced wholesale by a bulk load once all entities have been read, see below
+        FeedTx feedTx = null;
 
         editorFeed = new EditorFeed();
         editorFeed.setId(feedVersion.feedSourceId);
-        Rectangle2D bounds = feedVersion.validationResult.fullBounds.toRectangle2D();
+        FeedValidationResultSummary summary = feedVersion.validationSummary();
+        Rectangle2D bounds = summary != null && summary.bounds != null ? summary.bounds.toRectangle2D() : null;
         if (bounds != null) {
             editorFeed.defaultLat = bounds.getCenterY();
             editorFeed.defaultLon = bounds.getCenterX();
@@ -79,35 +102,24 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
 
 
         try {
-            synchronized (status) {
-                status.message = "Wiping old data...";
-                status.percentComplete = 2;
-            }
-            // clear the existing data
-            for(String key : feedTx.agencies.keySet()) feedTx.agencies.remove(key);
-            for(String key : feedTx.routes.keySet()) feedTx.routes.remove(key);
-            for(String key : feedTx.stops.keySet()) feedTx.stops.remove(key);
-            for(String key : feedTx.calendars.keySet()) feedTx.calendars.remove(key);
-            for(String key : feedTx.exceptions.keySet()) feedTx.exceptions.remove(key);
-            for(String key : feedTx.fares.keySet()) feedTx.fares.remove(key);
-            for(String key : feedTx.tripPatterns.keySet()) feedTx.tripPatterns.remove(key);
-            for(String key : feedTx.trips.keySet()) feedTx.trips.remove(key);
-            LOG.info("Cleared old data");
-
-            synchronized (status) {
-                status.message = "Loading GTFS file...";
-                status.percentComplete = 5;
-            }
-
-            // retrieveById Feed connection to SQL tables for the feed version
-            inputFeedTables = feedVersion.retrieveFeed();
-            if(inputFeedTables == null) return;
+            status.update("Loading GTFS file...", 5);
+
+            // SQL namespace holding the tables for the feed version
+            if (feedVersion.feedLoadResult == null) return;
+            String namespace = feedVersion.feedLoadResult.uniqueIdentifier;
+
+            // Entities are collected here rather than put into the feed database one at a time, which is slow for
+            // large feeds because every put updates the secondary indices. See FeedTx.bulkLoad.
+            Map<String, Iterable<? extends Model>> entities = new HashMap<>();
+            List<Agency> agencies = new ArrayList<>();
+            List<Stop> stops = new ArrayList<>();
+            List<Route> routes = new ArrayList<>();
+            entities.put("agencies", agencies);
+            entities.put("stops", stops);
+            entities.put("routes", routes);
 
             LOG.info("GtfsImporter: importing feed...");
-            synchronized (status) {
-                status.message = "Beginning feed import...";
-                status.percentComplete = 8;
-            }
+            status.update("Beginning feed import...", 8);
             // load feed_info.txt
             // FIXME add back in feed info!!
 //            if(inputFeedTables.feedInfo.size() > 0) {
@@ -122,9 +134,7 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
             gtx.feeds.put(feedVersion.feedSourceId, editorFeed);
 
             // load the GTFS agencies
-            Iterator<com.conveyal.gtfs.model.Agency> agencyIterator = inputFeedTables.agencies.iterator();
-            while (agencyIterator.hasNext()) {
-                com.conveyal.gtfs.model.Agency gtfsAgency = agencyIterator.next();
+            for (com.conveyal.gtfs.model.Agency gtfsAgency : readTable(namespace, "agency", com.conveyal.gtfs.model.Agency.class)) {
                 Agency agency = new Agency(gtfsAgency, editorFeed);
 
                 // don't save the agency until we've come up with the stop centroid, below.
@@ -132,20 +142,14 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
 
                 // we do want to use the modified agency ID here, because everything that refers to it has a reference
                 // to the agency object we updated.
-                feedTx.agencies.put(agency.id, agency);
+                agencies.add(agency);
                 agencyIdMap.put(gtfsAgency.agency_id, agency);
             }
-            synchronized (status) {
-                status.message = "Agencies loaded: " + agencyCount;
-                status.percentComplete = 10;
-            }
+            status.update("Agencies loaded: " + agencyCount, 10);
             LOG.info("Agencies loaded: " + agencyCount);
 
             LOG.info("GtfsImporter: importing stops...");
-            synchronized (status) {
-                status.message = "Importing stops...";
-                status.percentComplete = 15;
-            }
+            status.update("Importing stops...", 15);
             // TODO: remove stop ownership inference entirely?
             // infer agency ownership of stops, if there are multiple feeds
 //            SortedSet<Tuple2<String, String>> stopsByAgency = inferAgencyStopOwnership();
@@ -159,25 +163,20 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
             }
 
             GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
-            for (com.conveyal.gtfs.model.Stop gtfsStop : inputFeedTables.stops) {
+            SqlTableStream.forEach(DataManager.GTFS_DATA_SOURCE, namespace, "stops", null,
+                    com.conveyal.gtfs.model.Stop.class, gtfsStop -> {
                 Stop stop = new Stop(gtfsStop, geometryFactory, editorFeed);
-                feedTx.stops.put(stop.id, stop);
+                stops.add(stop);
                 stopIdMap.put(new Tuple2(gtfsStop.stop_id, editorFeed.id), stop);
-                stopCount++;
-            }
+            });
+            stopCount = stops.size();
 
             LOG.info("Stops loaded: " + stopCount);
-            synchronized (status) {
-                status.message = "Stops loaded: " + stopCount;
-                status.percentComplete = 25;
-            }
+            status.update("Stops loaded: " + stopCount, 25);
             LOG.info("GtfsImporter: importing routes...");
-            synchronized (status) {
-                status.message = "Importing routes...";
-                status.percentComplete = 30;
-            }
+            status.update("Importing routes...", 30);
             // import routes
-            for (com.conveyal.gtfs.model.Route gtfsRoute : inputFeedTables.routes) {
+            for (com.conveyal.gtfs.model.Route gtfsRoute : readTable(namespace, "routes", com.conveyal.gtfs.model.Route.class)) {
                 Agency agency = agencyIdMap.get(gtfsRoute.agency_id);
 
                 if (!routeTypeIdMap.containsKey(gtfsRoute.route_type)) {
@@ -189,28 +188,27 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
 
                 Route route = new Route(gtfsRoute, editorFeed, agency);
 
-                feedTx.routes.put(route.id, route);
+                routes.add(route);
                 routeIdMap.put(gtfsRoute.route_id, route);
                 routeCount++;
             }
 
             LOG.info("Routes loaded: " + routeCount);
-            synchronized (status) {
-                status.message = "Routes loaded: " + routeCount;
-                status.percentComplete = 35;
-            }
+            status.update("Routes loaded: " + routeCount, 35);
 
             LOG.info("GtfsImporter: importing Service Calendars...");
-            synchronized (status) {
-                status.message = "Importing service calendars...";
-                status.percentComplete = 38;
-            }
+            status.update("Importing service calendars...", 38);
             // we don't put service calendars in the database just yet, because we don't know what agency they're associated with
             // we copy them into the agency database as needed
             // GTFS service ID -> ServiceCalendar
             Map<String, ServiceCalendar> calendars = Maps.newHashMap();
+            for (com.conveyal.gtfs.model.Calendar gtfsCalendar : readTable(namespace, "calendar", com.conveyal.gtfs.model.Calendar.class)) {
+                calendars.put(gtfsCalendar.service_id, new ServiceCalendar(gtfsCalendar, editorFeed));
+                serviceCalendarCount++;
+            }
+            entities.put("calendars", calendars.values());
 
-            // FIXME: add back in services!
+            // FIXME: add back in inference of calendars for services defined only in calendar_dates!
 //            for (Service svc : input.services.values()) {
 //
 //                ServiceCalendar cal;
@@ -304,105 +302,78 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
 //            }
 
             LOG.info("Service calendars loaded: " + serviceCalendarCount);
-            synchronized (status) {
-                status.message = "Service calendars loaded: " + serviceCalendarCount;
-                status.percentComplete = 45;
-            }
+            status.update("Service calendars loaded: " + serviceCalendarCount, 45);
             LOG.info("GtfsImporter: importing trips...");
-            synchronized (status) {
-                status.message = "Importing trips...";
-                status.percentComplete = 50;
-            }
-            // FIXME need to load patterns and trips
+            status.update("Importing trips...", 50);
             // import trips, stop times and patterns all at once
-//            Map<String, Pattern> patterns = input.patterns;
-//            Set<String> processedTrips = new HashSet<>();
-//            for (Entry<String, Pattern> pattern : patterns.entrySet()) {
-//                // it is possible, though unlikely, for two routes to have the same stopping pattern
-//                // we want to ensure they retrieveById different trip patterns
-//                Map<String, TripPattern> tripPatternsByRoute = Maps.newHashMap();
-//                for (String tripId : pattern.getValue().associatedTrips) {
-//
-//                    // TODO: figure out why trips are being added twice. This check prevents that.
-//                    if (processedTrips.contains(tripId)) {
-//                        continue;
-//                    }
-//                    synchronized (status) {
-//                        status.message = "Importing trips... (id: " + tripId + ") " + tripCount + "/" + input.trips.size();
-//                        status.percentComplete = 50 + 45 * tripCount / input.trips.size();
-//                    }
-//                    com.conveyal.gtfs.model.Trip gtfsTrip = input.trips.retrieveById(tripId);
-//
-//                    if (!tripPatternsByRoute.containsKey(gtfsTrip.route_id)) {
-//                        TripPattern pat = createTripPatternFromTrip(gtfsTrip, feedTx);
-//                        feedTx.tripPatterns.put(pat.id, pat);
-//                        tripPatternsByRoute.put(gtfsTrip.route_id, pat);
-//                    }
-//
-//                    // there is more than one pattern per route, but this map is specific to only this pattern
-//                    // generally it will contain exactly one entry, unless there are two routes with identical
-//                    // stopping patterns.
-//                    // (in DC, suppose there were trips on both the E2/weekday and E3/weekend from Friendship Heights
-//                    //  that short-turned at Missouri and 3rd).
-//                    TripPattern pat = tripPatternsByRoute.retrieveById(gtfsTrip.route_id);
-//
-//                    ServiceCalendar cal = calendars.retrieveById(gtfsTrip.service_id);
-//
-//                    // if the service calendar has not yet been imported, import it
-//                    if (feedTx.calendars != null && !feedTx.calendars.containsKey(cal.id)) {
-//                        // no need to clone as they are going into completely separate mapdbs
-//                        feedTx.calendars.put(cal.id, cal);
-//                    }
-//
-//                    Trip trip = new Trip(gtfsTrip, routeIdMap.retrieveById(gtfsTrip.route_id), pat, cal);
-//
-//                    // TODO: query ordered stopTimes for a given trip id
-//                    // FIXME: add back in stopTimes
-//                    Collection<com.conveyal.gtfs.model.StopTime> stopTimes = new ArrayList<>();
-//                            input.stopTimes.subMap(new Tuple2(gtfsTrip.trip_id, null), new Tuple2(gtfsTrip.trip_id, Fun.HI)).values();
-//
-//                    for (com.conveyal.gtfs.model.StopTime st : stopTimes) {
-//                        trip.stopTimes.add(new StopTime(st, stopIdMap.retrieveById(new Tuple2<>(st.stop_id, feed.id)).id));
-//                        stopTimeCount++;
-//                    }
-//
-//                    feedTx.trips.put(trip.id, trip);
-//                    processedTrips.add(tripId);
-//                    tripCount++;
-//
-//                    // FIXME add back in total number of trips for QC
-//                    if (tripCount % 1000 == 0) {
-//                        LOG.info("Loaded {} / {} trips", tripCount); // input.trips.size()
-//                    }
-//                }
-//            }
-
-            LOG.info("Trips loaded: " + tripCount);
-            synchronized (status) {
-                status.message = "Trips loaded: " + tripCount;
-                status.percentComplete = 90;
-            }
-
-            LOG.info("GtfsImporter: importing fares...");
-            // FIXME add in fares
+            try (ModelSpill<Trip> trips = new ModelSpill<>()) {
+                Map<String, LineString> shapes = readShapes(namespace, geometryFactory);
+                Map<String, com.conveyal.gtfs.model.Trip> gtfsTrips = new HashMap<>();
+                for (com.conveyal.gtfs.model.Trip gtfsTrip : readTable(namespace, "trips", com.conveyal.gtfs.model.Trip.class)) {
+                    gtfsTrips.put(gtfsTrip.trip_id, gtfsTrip);
+                }
+                Map<String, Stop> stopsById = stops.stream().collect(Collectors.toMap(stop -> stop.id, stop -> stop));
+                List<TripPattern> tripPatterns = new ArrayList<>();
+                TripPatternGrouper grouper = new TripPatternGrouper();
+                // Stop times are streamed in trip order, so only the stop times of the trip being read (and of the
+                // first trip of each pattern) are held at once.
+                StopTimesByTrip stopTimesByTrip = new StopTimesByTrip((tripId, stopTimes) -> {
+                    com.conveyal.gtfs.model.Trip gtfsTrip = gtfsTrips.get(tripId);
+                    // skip trips referring to anything that was not imported
+                    if (gtfsTrip == null
+                            || !routeIdMap.containsKey(gtfsTrip.route_id)
+                            || !calendars.containsKey(gtfsTrip.service_id)
+                            || !stopTimes.stream().allMatch(st -> stopIdMap.containsKey(new Tuple2<>(st.stop_id, editorFeed.id)))) {
+                        return;
+                    }
+                    int patternIndex = grouper.add(tripId, gtfsTrip.route_id, stopTimes);
+                    // The pattern is only created here (to give it an ID); it is filled in from its first trip below.
+                    if (patternIndex == tripPatterns.size()) tripPatterns.add(new TripPattern());
+                    Trip trip = new Trip(gtfsTrip, routeIdMap.get(gtfsTrip.route_id), tripPatterns.get(patternIndex), calendars.get(gtfsTrip.service_id));
+                    for (com.conveyal.gtfs.model.StopTime st : stopTimes) {
+                        trip.stopTimes.add(new StopTime(st, stopIdMap.get(new Tuple2<>(st.stop_id, editorFeed.id)).id));
+                    }
+                    trips.add(trip);
+                });
+                stopTimeCount = SqlTableStream.forEach(DataManager.GTFS_DATA_SOURCE, namespace, "stop_times",
+                        "trip_id, stop_sequence", com.conveyal.gtfs.model.StopTime.class, stopTimesByTrip);
+                stopTimesByTrip.finish();
+                status.update("Stop times loaded: " + stopTimeCount, 55);
+                if (trips.size() < gtfsTrips.size()) {
+                    LOG.warn("Skipping {} trips with no stop times or unknown route, calendar or stops", gtfsTrips.size() - trips.size());
+                }
+                LOG.info("Grouped {} trips into {} trip patterns", trips.size(), tripPatterns.size());
+                status.update("Creating " + tripPatterns.size() + " trip patterns...", 60);
+                createTripPatterns(tripPatterns, grouper, gtfsTrips, shapes, stopsById);
+                entities.put("tripPatterns", tripPatterns);
+                // Trips and their stop times are the bulk of a feed, so they are kept on disk until they are loaded.
+                entities.put("trips", trips);
+                tripCount = trips.size();
+                shapePointCount = shapes.values().stream().mapToLong(LineString::getNumPoints).sum();
+                LOG.info("Trip patterns created: " + tripPatterns.size());
+
+                LOG.info("Trips loaded: " + tripCount);
+                status.update("Trips loaded: " + tripCount, 90);
+
+                LOG.info("GtfsImporter: importing fares...");
+                // FIXME add in fares
 //            Map<String, com.conveyal.gtfs.model.Fare> fares = input.fares;
 //            for (com.conveyal.gtfs.model.Fare f : fares.values()) {
 //                Fare fare = new Fare(f.fare_attribute, f.fare_rules, feed);
 //                feedTx.fares.put(fare.id, fare);
 //                fareCount++;
 //            }
-            LOG.info("Fares loaded: " + fareCount);
-            synchronized (status) {
-                status.message = "Fares loaded: " + fareCount;
-                status.percentComplete = 92;
-            }
-            LOG.info("Saving snapshot...");
-            synchronized (status) {
-                status.message = "Saving snapshot...";
-                status.percentComplete = 95;
+                LOG.info("Fares loaded: " + fareCount);
+                status.update("Fares loaded: " + fareCount, 92);
+                LOG.info("Writing editor database...");
+                status.update("Writing editor database...", 93);
+                feedTx = FeedTx.bulkLoad(feedVersion.feedSourceId, entities);
+
+                LOG.info("Saving snapshot...");
+                status.update("Saving snapshot...", 95);
+                // commit the feed TXs first, so that we have orphaned data rather than inconsistent data on a commit failure
+                feedTx.commit();
             }
-            // commit the feed TXs first, so that we have orphaned data rather than inconsistent data on a commit failure
-            feedTx.commit();
             gtx.commit();
             Snapshot.deactivateSnapshots(feedVersion.feedSourceId, null);
             // create an initial snapshot for this FeedVersion
@@ -410,20 +381,14 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
 
 
             LOG.info("Imported GTFS file: " + agencyCount + " agencies; " + routeCount + " routes;" + stopCount + " stops; " +  stopTimeCount + " stopTimes; " + tripCount + " trips;" + shapePointCount + " shapePoints");
-            synchronized (status) {
-                status.message = "Import complete!";
-                status.percentComplete = 100;
-            }
+            status.update("Import complete!", 100);
         }
         catch (Exception e) {
             e.printStackTrace();
-            synchronized (status) {
-                status.message = "Failed to process GTFS snapshot.";
-                status.error = true;
-            }
+            status.update(true, "Failed to process GTFS snapshot.", status.percentComplete);
         }
         finally {
-            feedTx.rollbackIfOpen();
+            if (feedTx != null) feedTx.rollbackIfOpen();
             gtx.rollbackIfOpen();
 
             // FIXME: anything we need to do at the end of using Feed?
@@ -432,6 +397,13 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
         }
     }
 
+    /** Read all rows of a (small) table in the given feed namespace. */
+    private static <T extends com.conveyal.gtfs.model.Entity> List<T> readTable (String namespace, String table, Class<T> entityClass) {
+        List<T> entities = new ArrayList<>();
+        SqlTableStream.forEach(DataManager.GTFS_DATA_SOURCE, namespace, table, null, entityClass, entities::add);
+        return entities;
+    }
+
     /** infer the ownership of stops based on what stops there
      * Returns a set of tuples stop ID, agency ID with GTFS IDs */
 //    private SortedSet<Tuple2<String, String>> inferAgencyStopOwnership() {
@@ -451,87 +423,223 @@ public class ProcessGtfsSnapshotMerge extends MonitorableJob {
 //        return ret;
 //    }
 
+    /** Read shapes.txt into one line string per shape ID. */
+    private static Map<String, LineString> readShapes (String namespace, GeometryFactory geometryFactory) {
+        Map<String, List<Coordinate>> coordinatesByShape = new HashMap<>();
+        SqlTableStream.forEach(DataManager.GTFS_DATA_SOURCE, namespace, "shapes", "shape_id, shape_pt_sequence",
+                com.conveyal.gtfs.model.ShapePoint.class, point -> coordinatesByShape
+                        .computeIfAbsent(point.shape_id, k -> new ArrayList<>())
+                        .add(new Coordinate(point.shape_pt_lon, point.shape_pt_lat)));
+
+        Map<String, LineString> shapes = new HashMap<>();
+        for (Map.Entry<String, List<Coordinate>> entry : coordinatesByShape.entrySet()) {
+            List<Coordinate> coordinates = entry.getValue();
+            // a line string needs at least two points
+            if (coordinates.size() < 2) continue;
+            shapes.put(entry.getKey(), geometryFactory.createLineString(coordinates.toArray(new Coordinate[coordinates.size()])));
+        }
+        return shapes;
+    }
+
     /**
-     * Create a trip pattern from the given trip.
+     * Fill in each trip pattern from the first trip grouped into it. Snapping the stops to the shape and inferring
+     * travel times is the expensive part of the import and each pattern is independent, so this runs as a parallel
+     * stream (on the common fork-join pool).
+     */
+    private void createTripPatterns (List<TripPattern> tripPatterns,
+                                     TripPatternGrouper grouper,
+                                     Map<String, com.conveyal.gtfs.model.Trip> gtfsTrips,
+                                     Map<String, LineString> shapes,
+                                     Map<String, Stop> stopsById) throws InterruptedException, ExecutionException {
+        // The workers only count the patterns they have created. Progress is reported from this thread, so that the
+        // status is not updated concurrently (and possibly out of order) by every worker.
+        AtomicInteger patternsCreated = new AtomicInteger();
+        CompletableFuture<Void> creation = CompletableFuture.runAsync(() ->
+                IntStream.range(0, tripPatterns.size()).parallel().forEach(i -> {
+                    com.conveyal.gtfs.model.Trip firstTrip = gtfsTrips.get(grouper.firstTripIds.get(i));
+                    populateTripPattern(tripPatterns.get(i), firstTrip, grouper.firstTripStopTimes.get(i), shapes, stopsById);
+                    patternsCreated.incrementAndGet();
+                }));
+        while (true) {
+            try {
+                creation.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                int created = patternsCreated.get();
+                status.update("Creating trip patterns... " + created + "/" + tripPatterns.size(), 60 + 30D * created / tripPatterns.size());
+            }
+        }
+    }
+
+    /**
+     * Groups trips into trip patterns: trips on the same route that serve the same stops in the same order share a
+     * pattern. Patterns are keyed on the route ID followed by the stop IDs. It is possible, though unlikely, for two
+     * routes to have the same stopping pattern; including the route ensures they get different trip patterns.
+     *
+     * Route and stop IDs are interned as small integers, so that the key of a trip is an array of ints with its hash
+     * computed once, rather than a list of strings that is hashed and compared string by string.
+     *
+     * Only the stop times of the first trip of each pattern are kept, as the pattern is built from that trip.
+     */
+    public static class TripPatternGrouper {
+        /** Route and stop IDs to the integers standing in for them in pattern keys */
+        private final Map<String, Integer> idIndexes = new HashMap<>();
+        private final Map<PatternKey, Integer> patternIndexes = new HashMap<>();
+        /** The ID of the first trip of each pattern, by pattern index */
+        public final List<String> firstTripIds = new ArrayList<>();
+        /** The stop times of the first trip of each pattern, by pattern index */
+        public final List<List<com.conveyal.gtfs.model.StopTime>> firstTripStopTimes = new ArrayList<>();
+
+        /**
+         * @return the index of the trip's pattern: that of an earlier trip with the same route and stops, or the next
+         * index if there is none
+         */
+        public int add (String tripId, String routeId, List<com.conveyal.gtfs.model.StopTime> stopTimes) {
+            int[] ids = new int[stopTimes.size() + 1];
+            ids[0] = intern(routeId);
+            for (int i = 0; i < stopTimes.size(); i++) ids[i + 1] = intern(stopTimes.get(i).stop_id);
+            PatternKey key = new PatternKey(ids);
+            Integer index = patternIndexes.get(key);
+            if (index == null) {
+                index = firstTripIds.size();
+                patternIndexes.put(key, index);
+                firstTripIds.add(tripId);
+                firstTripStopTimes.add(stopTimes);
+            }
+            return index;
+        }
+
+        public int patternCount () {
+            return firstTripIds.size();
+        }
+
+        private int intern (String id) {
+            return idIndexes.computeIfAbsent(id, k -> idIndexes.size());
+        }
+    }
+
+    /** The interned route ID and stop IDs of a trip, see TripPatternGrouper */
+    private static final class PatternKey {
+        private final int[] ids;
+        private final int hash;
+
+        PatternKey (int[] ids) {
+            this.ids = ids;
+            this.hash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public int hashCode () {
+            return hash;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            return other instanceof PatternKey && Arrays.equals(ids, ((PatternKey) other).ids);
+        }
+    }
+
+    /**
+     * Collects stop times streamed in trip order into one list per trip, passing each trip's stop times on once the
+     * stream moves on to the next trip. {@link #finish()} must be called after the last stop time.
+     */
+    private static class StopTimesByTrip implements Consumer<com.conveyal.gtfs.model.StopTime> {
+        private final BiConsumer<String, List<com.conveyal.gtfs.model.StopTime>> tripConsumer;
+        private String tripId;
+        private List<com.conveyal.gtfs.model.StopTime> stopTimes = new ArrayList<>();
+
+        StopTimesByTrip (BiConsumer<String, List<com.conveyal.gtfs.model.StopTime>> tripConsumer) {
+            this.tripConsumer = tripConsumer;
+        }
+
+        @Override
+        public void accept (com.conveyal.gtfs.model.StopTime stopTime) {
+            if (tripId != null && !tripId.equals(stopTime.trip_id)) finish();
+            tripId = stopTime.trip_id;
+            stopTimes.add(stopTime);
+        }
+
+        void finish () {
+            if (tripId == null) return;
+            tripConsumer.accept(tripId, stopTimes);
+            tripId = null;
+            stopTimes = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Fill in a trip pattern from the given trip.
      * Neither the TripPattern nor the TripPatternStops are saved.
      */
-//    public TripPattern createTripPatternFromTrip (com.conveyal.gtfs.model.Trip gtfsTrip, FeedTx tx) {
-//        TripPattern patt = new TripPattern();
-//        com.conveyal.gtfs.model.Route gtfsRoute = input.routes.retrieveById(gtfsTrip.route_id);
-//        patt.routeId = routeIdMap.retrieveById(gtfsTrip.route_id).id;
-//        patt.feedId = feed.id;
-//
-//        String patternId = input.tripPatternMap.retrieveById(gtfsTrip.trip_id);
-//        Pattern gtfsPattern = input.patterns.retrieveById(patternId);
-//        patt.shape = gtfsPattern.geometry;
-//        patt.id = gtfsPattern.pattern_id;
-//
-//        patt.patternStops = new ArrayList<>();
-//        patt.patternDirection = TripDirection.fromGtfs(gtfsTrip.direction_id);
-//
-//        com.conveyal.gtfs.model.StopTime[] stopTimes =
-//                input.stop_times.subMap(new Tuple2(gtfsTrip.trip_id, 0), new Tuple2(gtfsTrip.trip_id, Fun.HI)).values().toArray(new com.conveyal.gtfs.model.StopTime[0]);
-//
-//        if (gtfsTrip.trip_headsign != null && !gtfsTrip.trip_headsign.isEmpty())
-//            patt.name = gtfsTrip.trip_headsign;
-//        else
-//            patt.name = gtfsPattern.name;
-//
-//        for (com.conveyal.gtfs.model.StopTime st : stopTimes) {
-//            TripPatternStop tps = new TripPatternStop();
-//
-//            Stop stop = stopIdMap.retrieveById(new Tuple2(st.stop_id, patt.feedId));
-//            tps.stopId = stop.id;
-//
-//            // set timepoint according to first gtfs value and then whether arrival and departure times are present
-//            if (st.timepoint != Entity.INT_MISSING)
-//                tps.timepoint = st.timepoint == 1;
-//            else if (st.arrival_time != Entity.INT_MISSING && st.departure_time != Entity.INT_MISSING) {
-//                tps.timepoint = true;
-//            }
-//            else
-//                tps.timepoint = false;
-//
-//            if (st.departure_time != Entity.INT_MISSING && st.arrival_time != Entity.INT_MISSING)
-//                tps.defaultDwellTime = st.departure_time - st.arrival_time;
-//            else
-//                tps.defaultDwellTime = 0;
-//
-//            patt.patternStops.add(tps);
-//        }
-//
-//        patt.calcShapeDistTraveled(tx);
-//
-//        // infer travel times
-//        if (stopTimes.length >= 2) {
-//            int startOfBlock = 0;
-//            // start at one because the first stop has no travel time
-//            // but don't put nulls in the data
-//            patt.patternStops.retrieveById(0).defaultTravelTime = 0;
-//            for (int i = 1; i < stopTimes.length; i++) {
-//                com.conveyal.gtfs.model.StopTime current = stopTimes[i];
-//
-//                if (current.arrival_time != Entity.INT_MISSING) {
-//                    // interpolate times
-//
-//                    int timeSinceLastSpecifiedTime = current.arrival_time - stopTimes[startOfBlock].departure_time;
-//
-//                    double blockLength = patt.patternStops.retrieveById(i).shapeDistTraveled - patt.patternStops.retrieveById(startOfBlock).shapeDistTraveled;
-//
-//                    // go back over all of the interpolated stop times and interpolate them
-//                    for (int j = startOfBlock + 1; j <= i; j++) {
-//                        TripPatternStop tps = patt.patternStops.retrieveById(j);
-//                        double distFromLastStop = patt.patternStops.retrieveById(j).shapeDistTraveled - patt.patternStops.retrieveById(j - 1).shapeDistTraveled;
-//                        tps.defaultTravelTime = (int) Math.round(timeSinceLastSpecifiedTime * distFromLastStop / blockLength);
-//                    }
-//
-//                    startOfBlock = i;
-//                }
-//            }
-//        }
-//
-//        return patt;
-//    }
+    private void populateTripPattern (TripPattern patt,
+                                      com.conveyal.gtfs.model.Trip gtfsTrip,
+                                      List<com.conveyal.gtfs.model.StopTime> stopTimes,
+                                      Map<String, LineString> shapes,
+                                      Map<String, Stop> stopsById) {
+        patt.routeId = routeIdMap.get(gtfsTrip.route_id).id;
+        patt.feedId = editorFeed.id;
+        patt.shape = gtfsTrip.shape_id != null ? shapes.get(gtfsTrip.shape_id) : null;
+        patt.patternStops = new ArrayList<>();
+        patt.patternDirection = TripDirection.fromGtfs(gtfsTrip.direction_id);
+
+        for (com.conveyal.gtfs.model.StopTime st : stopTimes) {
+            TripPatternStop tps = new TripPatternStop();
+
+            Stop stop = stopIdMap.get(new Tuple2<>(st.stop_id, patt.feedId));
+            tps.stopId = stop.id;
+
+            // set timepoint according to first gtfs value and then whether arrival and departure times are present
+            if (st.timepoint != Entity.INT_MISSING)
+                tps.timepoint = st.timepoint == 1;
+            else
+                tps.timepoint = st.arrival_time != Entity.INT_MISSING && st.departure_time != Entity.INT_MISSING;
+
+            if (st.departure_time != Entity.INT_MISSING && st.arrival_time != Entity.INT_MISSING)
+                tps.defaultDwellTime = st.departure_time - st.arrival_time;
+            else
+                tps.defaultDwellTime = 0;
+
+            patt.patternStops.add(tps);
+        }
+
+        if (gtfsTrip.trip_headsign != null && !gtfsTrip.trip_headsign.isEmpty()) {
+            patt.name = gtfsTrip.trip_headsign;
+        } else {
+            Stop lastStop = stopsById.get(patt.patternStops.get(patt.patternStops.size() - 1).stopId);
+            patt.name = String.format("%d stops to %s", patt.patternStops.size(), lastStop.stopName);
+        }
+        patt.headsign = gtfsTrip.trip_headsign;
+
+        patt.calcShapeDistTraveled(stopsById);
+
+        // infer travel times
+        if (stopTimes.size() >= 2) {
+            int startOfBlock = 0;
+            // start at one because the first stop has no travel time
+            // but don't put nulls in the data
+            patt.patternStops.get(0).defaultTravelTime = 0;
+            for (int i = 1; i < stopTimes.size(); i++) {
+                com.conveyal.gtfs.model.StopTime current = stopTimes.get(i);
+
+                if (current.arrival_time != Entity.INT_MISSING) {
+                    // interpolate times
+
+                    int timeSinceLastSpecifiedTime = current.arrival_time - stopTimes.get(startOfBlock).departure_time;
+
+                    double blockLength = patt.patternStops.get(i).shapeDistTraveled - patt.patternStops.get(startOfBlock).shapeDistTraveled;
+
+                    // go back over all of the interpolated stop times and interpolate them
+                    for (int j = startOfBlock + 1; j <= i; j++) {
+                        TripPatternStop tps = patt.patternStops.get(j);
+                        double distFromLastStop = patt.patternStops.get(j).shapeDistTraveled - patt.patternStops.get(j - 1).shapeDistTraveled;
+                        tps.defaultTravelTime = (int) Math.round(timeSinceLastSpecifiedTime * distFromLastStop / blockLength);
+                    }
+
+                    startOfBlock = i;
+                }
+            }
+        }
+    }
 
 }
 
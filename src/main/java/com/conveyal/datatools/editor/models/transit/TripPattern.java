@@ -344,6 +344,15 @@ public class TripPattern extends Model implements Cloneable, Serializable {
      * 6. on the second pass, just snap to the closest point on the subsection of the shape defined by the previous and next stop positions.
      */
     public void calcShapeDistTraveled(final FeedTx tx) {
+        calcShapeDistTraveled(tx.stops);
+    }
+
+    /**
+     * Calculate shape dist traveled, looking up stops in the given map rather than a feed transaction. This allows
+     * patterns that are not yet in the database to be processed in parallel, e.g. during GTFS import.
+     * @param stops map from stop ID to stop, containing at least all the stops in this pattern
+     */
+    public void calcShapeDistTraveled(final Map<String, Stop> stops) {
         if (patternStops.size() == 0)
             return;
 
@@ -354,7 +363,7 @@ public class TripPattern extends Model implements Cloneable, Serializable {
         useStraightLineDistances = false;
 
         if (shape == null) {
-            calcShapeDistTraveledStraightLine(tx);
+            calcShapeDistTraveledStraightLine(stops);
             return;
         }
 
@@ -385,7 +394,7 @@ public class TripPattern extends Model implements Cloneable, Serializable {
 
         double lastPos = -1;
         for (TripPatternStop tps : patternStops) {
-            Stop stop = tx.stops.get(tps.stopId);
+            Stop stop = stops.get(tps.stopId);
             double pos = getDist(shapeDist, shapeIdx.project(stop.location.getCoordinate()));
 
             if (lastPos > 0) {
@@ -401,7 +410,7 @@ public class TripPattern extends Model implements Cloneable, Serializable {
         if (backwards > 0) {
             LOG.warn("Detected likely backwards shape for trip pattern {} ({}) on route {}, reversing", id, name, routeId);
             this.shape = (LineString) this.shape.reverse();
-            calcShapeDistTraveled(tx);
+            calcShapeDistTraveled(stops);
             return;
         }
         else if (backwards == 0) {
@@ -411,7 +420,7 @@ public class TripPattern extends Model implements Cloneable, Serializable {
         // first pass: fix the obvious stops
         for (int i = 0; i < shapeDistTraveled.length; i++) {
             TripPatternStop tps = patternStops.get(i);
-            Stop stop = tx.stops.get(tps.stopId);
+            Stop stop = stops.get(tps.stopId);
             LinearLocation candidateLoc = subIdx.project(stop.location.getCoordinate());
             Coordinate candidatePt = subIdx.extractPoint(candidateLoc);
 
@@ -423,7 +432,7 @@ public class TripPattern extends Model implements Cloneable, Serializable {
             // don't snap stops more than 1km
             if (dist > 1000) {
                 LOG.warn("Stop is more than 1km from its shape, using straight-line distances");
-                this.calcShapeDistTraveledStraightLine(tx);
+                this.calcShapeDistTraveledStraightLine(stops);
                 return;
             }
 
@@ -453,7 +462,7 @@ public class TripPattern extends Model implements Cloneable, Serializable {
         lastShapeDistTraveled = 0;
         for (int i = 0; i < shapeDistTraveled.length; i++) {
             TripPatternStop tps = patternStops.get(i);
-            Stop stop = tx.stops.get(tps.stopId);
+            Stop stop = stops.get(tps.stopId);
 
             if (shapeDistTraveled[i] >= 0) {
                 lastShapeDistTraveled = shapeDistTraveled[i];
@@ -496,14 +505,19 @@ public class TripPattern extends Model implements Cloneable, Serializable {
 
     /** Calculate distances using straight line geometries */
     public void calcShapeDistTraveledStraightLine(FeedTx tx) {
+        calcShapeDistTraveledStraightLine(tx.stops);
+    }
+
+    /** Calculate distances using straight line geometries, looking up stops in the given map */
+    public void calcShapeDistTraveledStraightLine(Map<String, Stop> stops) {
         useStraightLineDistances = true;
         GeodeticCalculator gc = new GeodeticCalculator();
-        Stop prev = tx.stops.get(patternStops.get(0).stopId);
+        Stop prev = stops.get(patternStops.get(0).stopId);
         patternStops.get(0).shapeDistTraveled = 0D;
         double previousDistance = 0;
         for (int i = 1; i < patternStops.size(); i++) {
             TripPatternStop ps = patternStops.get(i);
-            Stop stop = tx.stops.get(ps.stopId);
+            Stop stop = stops.get(ps.stopId);
             gc.setStartingGeographicPoint(prev.location.getX(), prev.location.getY());
             gc.setDestinationGeographicPoint(stop.location.getX(), stop.location.getY());
             previousDistance = ps.shapeDistTraveled = previousDistance + gc.getOrthodromicDistance();
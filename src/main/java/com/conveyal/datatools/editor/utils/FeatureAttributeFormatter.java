@@ -9,21 +9,20 @@ import java.util.regex.Pattern;
 
 public class FeatureAttributeFormatter {
     public static final Logger LOG = LoggerFactory.getLogger(FeatureAttributeFormatter.class);
+    private static final Pattern FIELD_PATTERN = Pattern.compile("#([0-9]+)");
     String formatString;
-    Matcher matches;
 
     public FeatureAttributeFormatter(String format)
     {
         this.formatString = format;
-
-        Pattern pattern = Pattern.compile("#([0-9]+)");
-
-        this.matches = pattern.matcher(format);
     }
 
+    /** Substitute the feature's attributes into the format string. Safe to call from several threads at once. */
     public String format(SimpleFeature feature)
     {
         String output = new String(formatString);
+        // a fresh matcher for each feature, as matchers are stateful
+        Matcher matches = FIELD_PATTERN.matcher(formatString);
 
         while(matches.find())
         {
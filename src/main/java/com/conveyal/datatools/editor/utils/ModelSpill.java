@@ -0,0 +1,91 @@
+package com.conveyal.datatools.editor.utils;
+
+import com.conveyal.datatools.editor.models.Model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An append-only sequence of models kept in a temporary file rather than on the heap, for entities of a large feed
+ * that are produced in one pass and read back later (e.g., trips and their stop times when importing a feed into the
+ * editor). Models are written with the same Java serialization as the editor database, see ClassLoaderSerializer.
+ *
+ * Each call to iterator() reads the file from the start. The file is deleted on close.
+ */
+public class ModelSpill<T extends Model> implements Iterable<T>, Closeable {
+    private final ClassLoaderSerializer serializer = new ClassLoaderSerializer();
+    private final File file;
+    private final DataOutputStream out;
+    private int size;
+
+    public ModelSpill () throws IOException {
+        file = File.createTempFile("models", ".spill");
+        file.deleteOnExit();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    public void add (T model) {
+        try {
+            serializer.serialize(out, model);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        size++;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    @Override
+    public Iterator<T> iterator () {
+        if (size == 0) return Collections.emptyIterator();
+        DataInputStream in;
+        try {
+            out.flush();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Only the models added so far are read, and the file is closed once they have all been read.
+        int count = size;
+        return new Iterator<T>() {
+            private int read;
+
+            @Override
+            public boolean hasNext () {
+                return read < count;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next () {
+                if (!hasNext()) throw new NoSuchElementException();
+                try {
+                    T model = (T) serializer.deserialize(in, -1);
+                    if (++read == count) in.close();
+                    return model;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close () throws IOException {
+        out.close();
+        file.delete();
+    }
+}
@@ -0,0 +1,138 @@
+package com.conveyal.datatools.editor.utils;
+
+import com.conveyal.gtfs.model.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Streams the rows of a table in a loaded GTFS feed (i.e., one Postgres namespace) into gtfs-lib model objects.
+ *
+ * Unlike the JDBC table readers in gtfs-lib, which materialize a whole result set before returning, this uses a
+ * server-side cursor (autocommit off plus a fetch size), so memory use is bounded by the fetch size rather than the
+ * size of the table. This matters for stop_times, which can have tens of millions of rows in a large feed.
+ *
+ * Columns are mapped onto the public fields of the model class with the same name. Columns without a matching field
+ * (e.g., the synthetic id column) are ignored.
+ */
+public class SqlTableStream {
+    private static final Logger LOG = LoggerFactory.getLogger(SqlTableStream.class);
+
+    /** Number of rows to fetch from the server in each round trip. */
+    public static final int FETCH_SIZE = 10000;
+
+    private static final DateTimeFormatter GTFS_DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /** Unquoted Postgres identifiers: the namespaces gtfs-lib generates and the GTFS table and column names */
+    private static final Pattern IDENTIFIER = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    /**
+     * Call the consumer once for every row in the given table, in the order specified.
+     * @param namespace the feed namespace (schema) the table belongs to
+     * @param table unqualified table name, e.g. "stop_times"
+     * @param orderBy comma-separated column list to sort by, or null for database order
+     * @return the number of rows read
+     * @throws IllegalArgumentException if the namespace, table or a sort column is not a plain identifier
+     */
+    public static <T extends Entity> int forEach (DataSource dataSource, String namespace, String table, String orderBy,
+                                                  Class<T> entityClass, Consumer<T> consumer) {
+        // Identifiers can't be bound as statement parameters, so they are checked and quoted instead.
+        StringBuilder sql = new StringBuilder("select * from ")
+                .append(quoteIdentifier(namespace)).append('.').append(quoteIdentifier(table));
+        if (orderBy != null) {
+            List<String> columns = new ArrayList<>();
+            for (String column : orderBy.split(",")) columns.add(quoteIdentifier(column.trim()));
+            sql.append(" order by ").append(String.join(", ", columns));
+        }
+        int count = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            // Postgres only uses a cursor (honoring the fetch size) inside a transaction.
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.setFetchSize(FETCH_SIZE);
+                ResultSet resultSet = statement.executeQuery(sql.toString());
+                Field[] fields = mapColumnsToFields(resultSet.getMetaData(), entityClass);
+                while (resultSet.next()) {
+                    T entity = entityClass.getDeclaredConstructor().newInstance();
+                    for (int i = 0; i < fields.length; i++) {
+                        if (fields[i] != null) setField(entity, fields[i], resultSet, i + 1);
+                    }
+                    consumer.accept(entity);
+                    count++;
+                }
+            }
+            connection.rollback();
+        } catch (SQLException | ReflectiveOperationException e) {
+            LOG.error("Could not read table {}.{}", namespace, table);
+            throw new RuntimeException(e);
+        }
+        LOG.info("Streamed {} rows from {}.{}", count, namespace, table);
+        return count;
+    }
+
+    /** Quote a table or column name for use in SQL, after checking that it is a plain identifier. */
+    private static String quoteIdentifier (String identifier) {
+        if (identifier == null || !IDENTIFIER.matcher(identifier).matches()) {
+            throw new IllegalArgumentException("Not a valid SQL identifier: " + identifier);
+        }
+        return '"' + identifier + '"';
+    }
+
+    /** Find the model field for each result set column (zero-based), or null if the model has no such field. */
+    private static Field[] mapColumnsToFields (ResultSetMetaData metaData, Class<?> entityClass) throws SQLException {
+        List<Field> fields = new ArrayList<>();
+        for (int col = 1; col <= metaData.getColumnCount(); col++) {
+            Field field;
+            try {
+                field = entityClass.getField(metaData.getColumnName(col));
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) field = null;
+            } catch (NoSuchFieldException e) {
+                field = null;
+            }
+            fields.add(field);
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+
+    private static void setField (Object entity, Field field, ResultSet resultSet, int col)
+            throws SQLException, IllegalAccessException {
+        Class<?> type = field.getType();
+        if (type == int.class) {
+            int value = resultSet.getInt(col);
+            field.setInt(entity, resultSet.wasNull() ? Entity.INT_MISSING : value);
+        } else if (type == double.class) {
+            double value = resultSet.getDouble(col);
+            field.setDouble(entity, resultSet.wasNull() ? Double.NaN : value);
+        } else {
+            String value = resultSet.getString(col);
+            if (value == null || value.isEmpty()) return;
+            if (type == String.class) {
+                field.set(entity, value);
+            } else if (type == LocalDate.class) {
+                field.set(entity, LocalDate.parse(value, GTFS_DATE));
+            } else if (type == URL.class) {
+                try {
+                    field.set(entity, new URL(value));
+                } catch (MalformedURLException e) {
+                    LOG.warn("Skipping malformed URL {} in field {}", value, field.getName());
+                }
+            }
+        }
+    }
+}
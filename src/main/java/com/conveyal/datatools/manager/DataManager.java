@@ -11,7 +11,12 @@ import com.conveyal.datatools.manager.extensions.ExternalFeedResource;
 import com.conveyal.datatools.manager.extensions.mtc.MtcFeedResource;
 import com.conveyal.datatools.manager.extensions.transitfeeds.TransitFeedsFeedResource;
 import com.conveyal.datatools.manager.extensions.transitland.TransitLandFeedResource;
+import com.conveyal.datatools.manager.jobs.JobHistory;
+import com.conveyal.datatools.manager.jobs.JobQueue;
+import com.conveyal.datatools.manager.jobs.StorageGarbageCollector;
+import com.conveyal.datatools.manager.jobs.ValidationSummaryBackfill;
 
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.models.Project;
 import com.conveyal.datatools.manager.persistence.FeedStore;
@@ -38,7 +43,6 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -65,10 +69,8 @@ public class DataManager {
     private static final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
 
 
-    // heavy executor should contain long-lived CPU-intensive tasks (e.g., feed loading/validation)
-    public static Executor heavyExecutor = Executors.newFixedThreadPool(4); // Runtime.getRuntime().availableProcessors()
-    // light executor is for tasks for things that should finish quickly (e.g., email notifications)
-    public static Executor lightExecutor = Executors.newSingleThreadExecutor();
+    // runs jobs in pools by kind of work (e.g., CPU-intensive feed loading/validation, quick email notifications)
+    public static JobScheduler jobScheduler;
 
     public static String feedBucket;
     public static String awsRole;
@@ -92,6 +94,7 @@ public class DataManager {
 
         // load config
         loadConfig(args);
+        jobScheduler = new JobScheduler();
 
         // FIXME: initialize feedStore here instaed of FeedVersion?
 //        feedStore = new FeedStore();
@@ -120,6 +123,18 @@ public class DataManager {
 
         Persistence.initialize();
 
+        // Periodically reconcile stored files with the database, removing those no longer referenced.
+        StorageGarbageCollector.schedule();
+
+        // Resume jobs interrupted when this (or another) server stopped.
+        JobQueue.initialize();
+
+        // Remove finished jobs from memory after a while, keeping their summaries in the database.
+        JobHistory.schedule();
+
+        // Store the validation summaries of feed versions validated before they were stored.
+        ValidationSummaryBackfill.schedule();
+
         // initialize map of auto fetched projects
         for (Project project : Persistence.projects.getAll()) {
             if (project.autoFetchFeeds) {
@@ -164,7 +179,7 @@ public class DataManager {
             SnapshotController.register(EDITOR_API_PREFIX);
             FeedInfoController.register(EDITOR_API_PREFIX);
             FareController.register(EDITOR_API_PREFIX);
-//            GisController.register(EDITOR_API_PREFIX);
+            GisController.register(EDITOR_API_PREFIX);
         }
 
         // log all exceptions to system.out
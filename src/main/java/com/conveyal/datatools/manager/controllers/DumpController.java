@@ -13,6 +13,7 @@ import com.conveyal.datatools.manager.utils.json.JsonManager;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.model.Projections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
@@ -20,11 +21,16 @@ import spark.Response;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import static com.mongodb.client.model.Filters.in;
 import static spark.Spark.*;
 
 /**
@@ -145,10 +151,7 @@ public class DumpController {
 //                    FeedSource.commit();
 //                    break;
 //                case "feedVersions":
-//                    for(int i=0; i< entry.getValue().size(); i++) {
-//                        loadLegacyFeedVersion(entry.getValue().get(i));
-//                    }
-//                    FeedVersion.commit();
+//                    loadLegacyFeedVersions(entry.getValue());
 //                    break;
 //                default:
 //                    break;
@@ -209,22 +212,36 @@ public class DumpController {
 //
 //    }
 //
-    private static void loadLegacyFeedVersion (JsonNode node) throws Exception {
-        String id = node.findValue("id").asText();
-        if (Persistence.feedVersions.getById(id) == null) {
+    /**
+     * Load an array of legacy feed versions, skipping any that already exist. Existing versions are found with a
+     * single query and the new ones are inserted in a single batch.
+     */
+    private static void loadLegacyFeedVersions (JsonNode nodes) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (JsonNode node : nodes) ids.add(node.findValue("id").asText());
+        Set<String> existingIds = Persistence.feedVersions
+                .getFiltered(in("_id", ids), null, Projections.include("_id")).stream()
+                .map(version -> version.id)
+                .collect(Collectors.toSet());
+
+        List<FeedVersion> newVersions = new ArrayList<>();
+        for (JsonNode node : nodes) {
+            String id = node.findValue("id").asText();
+            if (existingIds.contains(id)) {
+                LOG.warn("legacy FeedVersion {} already exists... skipping", id);
+                continue;
+            }
             LOG.info("load legacy FeedVersion " + node.findValue("id"));
             FeedVersion version = new FeedVersion();
-            version.id = node.findValue("id").asText();
+            version.id = id;
             version.version = node.findValue("version").asInt();
             version.feedSourceId = node.findValue("feedSourceId").asText();
             version.hash = node.findValue("hash").asText();
             version.updated = new Date(node.findValue("updated").asLong());
             LOG.info("updated= " + node.findValue("updated").asText());
-            Persistence.feedVersions.create(version);
-        }
-        else {
-            LOG.warn("legacy FeedVersion {} already exists... skipping", id);
+            newVersions.add(version);
         }
+        Persistence.feedVersions.bulkInsert(newVersions);
     }
 //
     public static boolean validateAll (Request req, Response res) throws Exception {
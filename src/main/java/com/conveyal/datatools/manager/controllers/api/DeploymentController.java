@@ -1,5 +1,6 @@
 package com.conveyal.datatools.manager.controllers.api;
 
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.common.utils.SparkUtils;
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
@@ -283,7 +284,7 @@ public class DeploymentController {
         DeployJob job = new DeployJob(d, userProfile.getUser_id(), targetUrls, otpServer.publicUrl, otpServer.s3Bucket, otpServer.s3Credentials);
         deploymentJobsByServer.put(target, job);
 
-        DataManager.heavyExecutor.execute(job);
+        DataManager.jobScheduler.submit(job, JobScheduler.Priority.INTERACTIVE);
 
         halt(200, "{status: \"ok\"}");
         return null;
@@ -1,6 +1,7 @@
 package com.conveyal.datatools.manager.controllers.api;
 
 import com.conveyal.datatools.common.utils.SparkUtils;
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
 import com.conveyal.datatools.manager.jobs.FetchSingleFeedJob;
@@ -15,6 +16,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
@@ -26,7 +28,9 @@ import java.util.*;
 import static com.conveyal.datatools.common.utils.SparkUtils.haltWithError;
 import static com.conveyal.datatools.manager.auth.Auth0Users.getUserById;
 import static com.conveyal.datatools.manager.models.ExternalFeedSourceProperty.constructId;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.ne;
 import static spark.Spark.*;
 
 /**
@@ -51,15 +55,15 @@ public class FeedSourceController {
         String userId = req.queryParams("userId");
 
         if (projectId != null) {
-            for (FeedSource source: Persistence.feedSources.getAll()) {
+            // if requesting public sources, only fetch public sources
+            Bson filter = publicFilter
+                    ? and(eq("projectId", projectId), eq("isPublic", true))
+                    : eq("projectId", projectId);
+            for (FeedSource source: Persistence.feedSources.getFiltered(filter)) {
                 String orgId = source.organizationId();
                 if (
-                    source != null && source.projectId != null && source.projectId.equals(projectId)
-                    && requestingUser != null && (requestingUser.canManageFeed(orgId, source.projectId, source.id) || requestingUser.canViewFeed(orgId, source.projectId, source.id))
+                    requestingUser != null && (requestingUser.canManageFeed(orgId, source.projectId, source.id) || requestingUser.canViewFeed(orgId, source.projectId, source.id))
                 ) {
-                    // if requesting public sources and source is not public; skip source
-                    if (publicFilter && !source.isPublic)
-                        continue;
                     sources.add(source);
                 }
             }
@@ -69,10 +73,9 @@ public class FeedSourceController {
             Auth0UserProfile user = getUserById(userId);
             if (user == null) return sources;
 
-            for (FeedSource source: Persistence.feedSources.getAll()) {
+            for (FeedSource source: Persistence.feedSources.getFiltered(ne("projectId", null))) {
                 String orgId = source.organizationId();
                 if (
-                    source != null && source.projectId != null &&
                     (user.canManageFeed(orgId, source.projectId, source.id) || user.canViewFeed(orgId, source.projectId, source.id))
                 ) {
 
@@ -82,19 +85,21 @@ public class FeedSourceController {
         }
         // request feed sources that are public
         else {
-            for (FeedSource source: Persistence.feedSources.getAll()) {
+            // if requesting public sources, only fetch public sources
+            List<FeedSource> candidates = publicFilter
+                    ? Persistence.feedSources.getFiltered(eq("isPublic", true))
+                    : Persistence.feedSources.getAll();
+            for (FeedSource source: candidates) {
                 String orgId = source.organizationId();
                 // if user is logged in and cannot view feed; skip source
                 if ((requestingUser != null && !requestingUser.canManageFeed(orgId, source.projectId, source.id) && !requestingUser.canViewFeed(orgId, source.projectId, source.id)))
                     continue;
 
-                // if requesting public sources and source is not public; skip source
-                if (publicFilter && !source.isPublic)
-                    continue;
                 sources.add(source);
             }
         }
 
+        FeedSource.loadComputedFields(sources);
         return sources;
     }
 
@@ -130,10 +135,10 @@ public class FeedSourceController {
 
         // notify users after successful save
         NotifyUsersForSubscriptionJob notifyFeedJob = new NotifyUsersForSubscriptionJob("feed-updated", source.id, "Feed property updated for " + source.name);
-        DataManager.lightExecutor.execute(notifyFeedJob);
+        DataManager.jobScheduler.submit(notifyFeedJob, JobScheduler.Pool.LIGHT, JobScheduler.Priority.BACKGROUND, "notifications");
 
         NotifyUsersForSubscriptionJob notifyProjectJob = new NotifyUsersForSubscriptionJob("project-updated", source.projectId, "Project updated (feed source property for " + source.name + ")");
-        DataManager.lightExecutor.execute(notifyProjectJob);
+        DataManager.jobScheduler.submit(notifyProjectJob, JobScheduler.Pool.LIGHT, JobScheduler.Priority.BACKGROUND, "notifications");
 
         return source;
     }
@@ -195,9 +200,10 @@ public class FeedSourceController {
         LOG.info("Fetching feed for source {}", s.name);
 
         Auth0UserProfile userProfile = req.attribute("user");
-        // Run in heavyExecutor because ProcessSingleFeedJob is chained to this job (if update finds new version).
+        // ProcessSingleFeedJob is submitted separately by this job (if update finds new version), so the fetch itself
+        // runs in the IO pool.
         FetchSingleFeedJob job = new FetchSingleFeedJob(s, userProfile.getUser_id(), false);
-        DataManager.lightExecutor.execute(job);
+        DataManager.jobScheduler.submit(job, JobScheduler.Priority.INTERACTIVE);
 
         // WARNING: infinite 2D bounds Jackson error when returning job.result, so this method now returns true
         // because we don't need to return the feed immediately anyways.
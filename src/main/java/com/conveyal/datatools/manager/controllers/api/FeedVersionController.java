@@ -3,6 +3,7 @@ package com.conveyal.datatools.manager.controllers.api;
 import com.amazonaws.auth.policy.Statement;
 import com.amazonaws.auth.policy.actions.S3Actions;
 import com.conveyal.datatools.common.utils.SparkUtils;
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
 import com.conveyal.datatools.manager.jobs.BuildTransportNetworkJob;
@@ -15,7 +16,6 @@ import com.conveyal.datatools.manager.models.FeedVersion;
 import com.conveyal.datatools.manager.models.JsonViews;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import com.conveyal.datatools.manager.persistence.Persistence;
-import com.conveyal.datatools.manager.utils.HashUtils;
 import com.conveyal.datatools.manager.utils.json.JsonManager;
 import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.cluster.AnalystClusterRequest;
@@ -41,7 +41,6 @@ import java.util.*;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.io.ByteStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
@@ -87,8 +86,7 @@ public class FeedVersionController  {
     public static Collection<FeedVersion> getAllFeedVersionsForFeedSource(Request req, Response res) throws JsonProcessingException {
         // Check permissions and get the FeedSource whose FeedVersions we want.
         FeedSource feedSource = requestFeedSourceById(req, "view");
-        Collection<FeedVersion> feedVersions = feedSource.retrieveFeedVersions();
-        return feedVersions;
+        return feedSource.retrieveFeedVersions();
     }
 
     private static FeedSource requestFeedSourceById(Request req, String action) {
@@ -119,23 +117,18 @@ public class FeedVersionController  {
         newFeedVersion.retrievalMethod = FeedSource.FeedRetrievalMethod.MANUALLY_UPLOADED;
 
 
-        // FIXME: Make the creation of new GTFS files generic to handle other feed creation methods, including fetching
-        // by URL and loading from the editor.
-        File newGtfsFile = new File(DataManager.getConfigPropertyAsText("application.data.gtfs"), newFeedVersion.id);
+        File newGtfsFile = null;
         try {
             // Bypass Spark's request wrapper which always caches the request body in memory that may be a very large
             // GTFS file. Also, the body of the request is the GTFS file instead of using multipart form data because
             // multipart form handling code also caches the request body.
             ServletInputStream inputStream = ((ServletRequestWrapper) req.raw()).getRequest().getInputStream();
-            FileOutputStream fileOutputStream = new FileOutputStream(newGtfsFile);
-            // Guava's ByteStreams.copy uses a 4k buffer (no need to wrap output stream), but does not close streams.
-            ByteStreams.copy(inputStream, fileOutputStream);
-            fileOutputStream.close();
-            inputStream.close();
             // Set last modified based on value of query param. This is determined/supplied by the client
             // request because this data gets lost in the uploadStream otherwise.
             Long lastModified = req.queryParams("lastModified") != null ? Long.valueOf(req.queryParams("lastModified")) : null;
-            if (lastModified != null) newGtfsFile.setLastModified(lastModified);
+            // The feed store hashes the feed on the way to disk (so that it does not need to be read again to check
+            // whether it has changed) and closes the stream.
+            newGtfsFile = newFeedVersion.newGtfsFile(inputStream, lastModified);
             LOG.info("Last modified: {}", new Date(newGtfsFile.lastModified()));
             LOG.info("Saving feed from upload {}", feedSource);
         } catch (Exception e) {
@@ -143,10 +136,6 @@ public class FeedVersionController  {
             haltWithError(400, "Unable to read uploaded feed");
         }
 
-        // TODO: fix FeedVersion.hash() call when called in this context. Nothing gets hashed because the file has not been saved yet.
-        // newFeedVersion.hash();
-        newFeedVersion.hash = HashUtils.hashFile(newGtfsFile);
-
         // Check that the hashes of the feeds don't match, i.e. that the feed has changed since the last version.
         // (as long as there is a latest version, i.e. the feed source is not completely new)
         if (latestVersion != null && latestVersion.hash.equals(newFeedVersion.hash)) {
@@ -164,7 +153,7 @@ public class FeedVersionController  {
 
         // Must be handled by executor because it takes a long time.
         ProcessSingleFeedJob processSingleFeedJob = new ProcessSingleFeedJob(newFeedVersion, userProfile.getUser_id());
-        DataManager.heavyExecutor.execute(processSingleFeedJob);
+        DataManager.jobScheduler.submit(processSingleFeedJob, JobScheduler.Priority.INTERACTIVE);
 
         return processSingleFeedJob.jobId;
     }
@@ -177,7 +166,7 @@ public class FeedVersionController  {
         FeedVersion feedVersion = new FeedVersion(feedSource);
         CreateFeedVersionFromSnapshotJob createFromSnapshotJob =
                 new CreateFeedVersionFromSnapshotJob(feedVersion, req.queryParams("snapshotId"), userProfile.getUser_id());
-        DataManager.heavyExecutor.execute(createFromSnapshotJob);
+        DataManager.jobScheduler.submit(createFromSnapshotJob, JobScheduler.Priority.INTERACTIVE);
 
         return true;
     }
@@ -245,7 +234,7 @@ public class FeedVersionController  {
                 try {
 //                    version.transportNetwork = TransportNetwork.read(is);
                     ReadTransportNetworkJob rtnj = new ReadTransportNetworkJob(version, userProfile.getUser_id());
-                    DataManager.heavyExecutor.execute(rtnj);
+                    DataManager.jobScheduler.submit(rtnj, JobScheduler.Priority.INTERACTIVE);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -258,7 +247,7 @@ public class FeedVersionController  {
                 LOG.warn("Transport network not found. Beginning build.", e);
                 readingNetworkVersionList.add(version.id);
                 BuildTransportNetworkJob btnj = new BuildTransportNetworkJob(version, userProfile.getUser_id());
-                DataManager.heavyExecutor.execute(btnj);
+                DataManager.jobScheduler.submit(btnj, JobScheduler.Priority.INTERACTIVE);
             }
             halt(202, "Try again later. Building transport network");
         }
@@ -335,7 +324,7 @@ public class FeedVersionController  {
 
     private static Object downloadFeedVersionDirectly(Request req, Response res) {
         FeedVersion version = requestFeedVersion(req, "view");
-        return downloadFile(version.retrieveGtfsFile(), version.id, res);
+        return downloadFile(version.retrieveGtfsFile(), version.id, req, res);
     }
 
     /**
@@ -399,7 +388,7 @@ public class FeedVersionController  {
         // Remove token so that it cannot be used again for feed download
         Persistence.tokens.removeById(tokenValue);
         File file = version.retrieveGtfsFile();
-        return downloadFile(file, version.id, res);
+        return downloadFile(file, version.id, req, res);
     }
 
     public static void register (String apiPrefix) {
@@ -1,9 +1,8 @@
 package com.conveyal.datatools.manager.controllers.api;
 
-import com.amazonaws.services.s3.model.ObjectListing;
-import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.persistence.BlobInfo;
+import com.conveyal.datatools.manager.persistence.BlobStore;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import com.conveyal.datatools.manager.jobs.FeedUpdater;
 import com.conveyal.gtfs.api.ApiMain;
@@ -13,10 +12,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -88,12 +86,12 @@ public class GtfsApiController {
         }
         Map<String, String> newTags = new HashMap<>();
         // iterate over feeds in download_prefix folder and register to gtfsApi (MTC project)
-        ObjectListing gtfsList = FeedStore.s3Client.listObjects(bucket, dir);
-        for (S3ObjectSummary objSummary : gtfsList.getObjectSummaries()) {
+        BlobStore blobStore = FeedStore.blobStore(bucket);
+        for (BlobInfo blob : blobStore.list(dir).join()) {
 
-            String eTag = objSummary.getETag();
+            String eTag = blob.eTag;
             if (!eTags.containsValue(eTag)) {
-                String keyName = objSummary.getKey();
+                String keyName = blob.key;
 
                 // don't add object if it is a dir
                 if (keyName.equals(dir)){
@@ -103,20 +101,14 @@ public class GtfsApiController {
                 String feedId = filename.replace(".zip", "");
                 try {
                     LOG.warn("New version found for " + keyName + ". Downloading from s3...");
-                    S3Object object = FeedStore.s3Client.getObject(bucket, keyName);
-                    InputStream in = object.getObjectContent();
-                    byte[] buf = new byte[1024];
-                    File file = new File(FeedStore.basePath, filename);
-                    OutputStream out = new FileOutputStream(file);
-                    int count;
-                    while((count = in.read(buf)) != -1) {
-                        if(Thread.interrupted()) {
-                            throw new InterruptedException();
-                        }
-                        out.write(buf, 0, count);
+                    File download = blobStore.get(keyName).join();
+                    if (download == null) continue;
+                    if(Thread.interrupted()) {
+                        throw new InterruptedException();
                     }
-                    out.close();
-                    in.close();
+                    // copy, as the downloaded file belongs to the blob store
+                    File file = new File(FeedStore.basePath, filename);
+                    Files.copy(download.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
                     // delete old mapDB files
                     String[] dbFiles = {".db", ".db.p"};
@@ -18,7 +18,6 @@ import spark.Response;
 
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
 import java.io.*;
 import java.util.*;
@@ -26,6 +25,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+import static com.conveyal.datatools.common.utils.SparkUtils.downloadFile;
 import static spark.Spark.get;
 import static spark.Spark.halt;
 import static spark.Spark.post;
@@ -37,7 +37,7 @@ public class GtfsPlusController {
 
     public static final Logger LOG = LoggerFactory.getLogger(GtfsPlusController.class);
 
-    private static FeedStore gtfsPlusStore = new FeedStore("gtfsplus");
+    public static FeedStore gtfsPlusStore = new FeedStore("gtfsplus");
 
 
     public static Boolean uploadGtfsPlusFile (Request req, Response res) throws IOException, ServletException {
@@ -67,20 +67,20 @@ public class GtfsPlusController {
         return true;
     }
 
-    private static HttpServletResponse getGtfsPlusFile(Request req, Response res) {
+    private static Object getGtfsPlusFile(Request req, Response res) {
         String feedVersionId = req.params("versionid");
         LOG.info("Downloading GTFS+ file for FeedVersion " + feedVersionId);
 
         // check for saved
         File file = gtfsPlusStore.getFeed(feedVersionId);
         if(file == null) {
-            return getGtfsPlusFromGtfs(feedVersionId, res);
+            return getGtfsPlusFromGtfs(feedVersionId, req, res);
         }
         LOG.info("Returning updated GTFS+ data");
-        return downloadGtfsPlusFile(file, res);
+        return downloadFile(file, file.getName() + ".zip", req, res);
     }
 
-    private static HttpServletResponse getGtfsPlusFromGtfs(String feedVersionId, Response res) {
+    private static Object getGtfsPlusFromGtfs(String feedVersionId, Request req, Response res) {
         LOG.info("Extracting GTFS+ data from main GTFS feed");
         FeedVersion version = Persistence.feedVersions.getById(feedVersionId);
 
@@ -124,30 +124,7 @@ public class GtfsPlusController {
             halt(500, "Error getting GTFS+ file from GTFS");
         }
 
-        return downloadGtfsPlusFile(gtfsPlusFile, res);
-    }
-
-    private static HttpServletResponse downloadGtfsPlusFile(File file, Response res) {
-        res.raw().setContentType("application/octet-stream");
-        res.raw().setHeader("Content-Disposition", "attachment; filename=" + file.getName() + ".zip");
-
-        try {
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(res.raw().getOutputStream());
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
-
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = bufferedInputStream.read(buffer)) > 0) {
-                bufferedOutputStream.write(buffer, 0, len);
-            }
-
-            bufferedOutputStream.flush();
-            bufferedOutputStream.close();
-        } catch (Exception e) {
-            halt(500, "Error serving GTFS+ file");
-        }
-
-        return res.raw();
+        return downloadFile(gtfsPlusFile, gtfsPlusFile.getName() + ".zip", req, res);
     }
 
     private static Long getGtfsPlusFileTimestamp(Request req, Response res) {
@@ -251,10 +228,11 @@ public class GtfsPlusController {
             halt(500, "Error creating new FeedVersion from combined GTFS/GTFS+");
         }
 
-        newFeedVersion.hash();
+        // newFeedVersion.hash was computed while the merged feed was written in newGtfsFile.
 
         // validation for the main GTFS content hasn't changed
         newFeedVersion.validationResult = feedVersion.validationResult;
+        newFeedVersion.validationSummary = feedVersion.validationSummary();
         newFeedVersion.storeUser(profile);
         Persistence.feedVersions.create(newFeedVersion);
 
@@ -1,5 +1,6 @@
 package com.conveyal.datatools.manager.controllers.api;
 
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
 import com.conveyal.datatools.manager.jobs.NotifyUsersForSubscriptionJob;
@@ -16,7 +17,6 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Date;
 
-import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Updates.push;
 import static spark.Spark.*;
 import static spark.Spark.get;
@@ -136,14 +136,14 @@ public class NoteController {
 
             // TODO: figure out a cleaner way to handle this update
             if (objectWithNote instanceof FeedSource) {
-                Persistence.feedSources.getMongoCollection().updateOne(eq(objectWithNote.id), push("noteIds", note.id));
+                Persistence.feedSources.update(objectWithNote.id, push("noteIds", note.id));
             } else {
-                Persistence.feedVersions.getMongoCollection().updateOne(eq(objectWithNote.id), push("noteIds", note.id));
+                Persistence.feedVersions.update(objectWithNote.id, push("noteIds", note.id));
             }
 
             // send notifications
             NotifyUsersForSubscriptionJob notifyFeedJob = new NotifyUsersForSubscriptionJob("feed-commented-on", feedSource.id, note.userEmail + " commented on " + feedSource.name + " at " + note.date.toString() + ":<blockquote>" + note.body + "</blockquote>");
-            DataManager.lightExecutor.execute(notifyFeedJob);
+            DataManager.jobScheduler.submit(notifyFeedJob, JobScheduler.Pool.LIGHT, JobScheduler.Priority.BACKGROUND, "notifications");
 
             return note;
         }
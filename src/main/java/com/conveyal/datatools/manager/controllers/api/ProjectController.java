@@ -3,12 +3,14 @@ package com.conveyal.datatools.manager.controllers.api;
 import com.amazonaws.auth.policy.Statement;
 import com.amazonaws.auth.policy.actions.S3Actions;
 import com.conveyal.datatools.common.utils.SparkUtils;
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
 import com.conveyal.datatools.manager.jobs.FetchProjectFeedsJob;
 import com.conveyal.datatools.manager.jobs.MakePublicJob;
 import com.conveyal.datatools.manager.jobs.MergeProjectFeedsJob;
 import com.conveyal.datatools.manager.models.FeedDownloadToken;
+import com.conveyal.datatools.manager.models.FeedSource;
 import com.conveyal.datatools.manager.models.FeedVersion;
 import com.conveyal.datatools.manager.models.JsonViews;
 import com.conveyal.datatools.manager.models.Project;
@@ -227,6 +229,7 @@ public class ProjectController {
             project.feedSources = project.retrieveProjectFeedSources().stream()
                     .filter(fs -> fs.isPublic)
                     .collect(Collectors.toList());
+            FeedSource.loadComputedFields(project.feedSources);
         } else {
             project.feedSources = null;
             if (!authorized) {
@@ -243,7 +246,7 @@ public class ProjectController {
         Auth0UserProfile userProfile = req.attribute("user");
         // TODO: make this an authenticated call?
         MergeProjectFeedsJob mergeProjectFeedsJob = new MergeProjectFeedsJob(project, userProfile.getUser_id());
-        DataManager.heavyExecutor.execute(mergeProjectFeedsJob);
+        DataManager.jobScheduler.submit(mergeProjectFeedsJob, JobScheduler.Priority.INTERACTIVE);
 
         return true;
     }
@@ -355,6 +358,8 @@ public class ProjectController {
 
             // system is defined as owner because owner field must not be null
             FetchProjectFeedsJob fetchProjectFeedsJob = new FetchProjectFeedsJob(project, "system");
+            // The feed fetches it submits run after any interactive jobs.
+            fetchProjectFeedsJob.priority = JobScheduler.Priority.SCHEDULED;
             return DataManager.scheduler.scheduleAtFixedRate(fetchProjectFeedsJob,
                     delayInMinutes, TimeUnit.DAYS.toMinutes(intervalInDays), minutes);
         } catch (Exception e) {
@@ -408,7 +413,7 @@ public class ProjectController {
 
         Persistence.tokens.removeById(token.id);
         String fileName = project.id + ".zip";
-        return downloadFile(FeedVersion.feedStore.getFeed(fileName), fileName, res);
+        return downloadFile(FeedVersion.feedStore.getFeed(fileName), fileName, req, res);
     }
 
 }
@@ -2,10 +2,16 @@ package com.conveyal.datatools.manager.controllers.api;
 
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
+import com.conveyal.datatools.common.status.JobStatusStream;
+import com.conveyal.datatools.common.status.JobTimings;
 import com.conveyal.datatools.common.status.MonitorableJob;
+import com.conveyal.datatools.manager.jobs.JobHistory;
+import com.conveyal.datatools.manager.jobs.StorageGarbageCollector;
+import com.conveyal.datatools.manager.models.JobSummary;
 import com.conveyal.datatools.manager.models.JsonViews;
+import com.conveyal.datatools.manager.persistence.Persistence;
 import com.conveyal.datatools.manager.utils.json.JsonManager;
-import org.eclipse.jetty.util.ConcurrentHashSet;
+import com.conveyal.datatools.manager.utils.json.JsonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
@@ -14,6 +20,7 @@ import spark.Response;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -42,6 +49,73 @@ public class StatusController {
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * Admin API route that returns hit/miss counts for the persistence caches on this server.
+     */
+    private static Map<String, Map<String, Object>> getCacheMetricsRoute(Request req, Response res) {
+        Auth0UserProfile userProfile = req.attribute("user");
+        if (!userProfile.canAdministerApplication()) {
+            haltWithError(401, "User not authorized to view cache metrics");
+        }
+        return Persistence.cacheMetrics();
+    }
+
+    /**
+     * Admin API route that returns the number of running and waiting jobs in each job pool.
+     */
+    private static Map<String, Map<String, Object>> getJobQueueMetricsRoute(Request req, Response res) {
+        Auth0UserProfile userProfile = req.attribute("user");
+        if (!userProfile.canAdministerApplication()) {
+            haltWithError(401, "User not authorized to view job queues");
+        }
+        return DataManager.jobScheduler.metrics();
+    }
+
+    /**
+     * Admin API route that returns run time histograms per job type (see JobTimings).
+     */
+    private static Map<String, Map<String, Object>> getJobTimingsRoute(Request req, Response res) {
+        Auth0UserProfile userProfile = req.attribute("user");
+        if (!userProfile.canAdministerApplication()) {
+            haltWithError(401, "User not authorized to view job timings");
+        }
+        return JobTimings.metrics();
+    }
+
+    /**
+     * API route that returns summaries of the current user's recently finished jobs (most recent first), including
+     * jobs no longer returned by the routes above. The number returned is set with the limit query parameter (20 by
+     * default, at most 100).
+     */
+    private static List<JobSummary> getJobHistoryRoute(Request req, Response res) {
+        Auth0UserProfile userProfile = req.attribute("user");
+        int limit = 20;
+        String limitParam = req.queryParams("limit");
+        if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException e) {
+                haltWithError(400, "limit must be a number");
+            }
+            if (limit < 1 || limit > 100) {
+                haltWithError(400, "limit must be between 1 and 100");
+            }
+        }
+        return JobHistory.recentSummaries(userProfile.getUser_id(), limit);
+    }
+
+    /**
+     * Admin API route that returns storage usage per category, as found by the last run of the storage garbage
+     * collector (null if it has not completed a run yet).
+     */
+    private static StorageGarbageCollector.Report getStorageReportRoute(Request req, Response res) {
+        Auth0UserProfile userProfile = req.attribute("user");
+        if (!userProfile.canAdministerApplication()) {
+            haltWithError(401, "User not authorized to view storage usage");
+        }
+        return StorageGarbageCollector.lastReport;
+    }
+
     /**
      * API route that returns single job by ID from among the jobs for the currently authenticated user.
      */
@@ -53,6 +127,44 @@ public class StatusController {
         return getJobById(userId, jobId, true);
     }
 
+    /**
+     * API route that pushes progress of the current user's jobs (or only of the job given with the jobId query
+     * parameter) as server-sent events, as an alternative to polling the routes above. See JobStatusStream.
+     */
+    private static Object streamJobsRoute(Request req, Response res) {
+        Auth0UserProfile userProfile = req.attribute("user");
+        return JobStatusStream.stream(userProfile.getUser_id(), req.queryParams("jobId"), res);
+    }
+
+    /**
+     * API route that cancels a queued or running job of the currently authenticated user (application admins may
+     * cancel any user's job). The job stops at its next cancellation check, cleans up what it had stored and is
+     * reported as errored with the message "Job cancelled".
+     */
+    private static MonitorableJob cancelJobRoute(Request req, Response res) {
+        String jobId = req.params("jobId");
+        Auth0UserProfile userProfile = req.attribute("user");
+        MonitorableJob job = getJobById(userProfile.getUser_id(), jobId, false);
+        if (job == null && userProfile.canAdministerApplication()) {
+            job = DataManager.userJobsMap.values().stream()
+                    .flatMap(Collection::stream)
+                    .filter(userJob -> userJob.jobId.equals(jobId))
+                    .findFirst()
+                    .orElse(null);
+        }
+        if (job == null) {
+            haltWithError(404, "Job not found");
+        }
+        // Users following a job started by someone else (see JobScheduler) may not cancel it.
+        if (!job.getOwner().equals(userProfile.getUser_id()) && !userProfile.canAdministerApplication()) {
+            haltWithError(403, "User not authorized to cancel job started by another user");
+        }
+        if (!job.requestCancellation()) {
+            haltWithError(400, "Job has already completed");
+        }
+        return job;
+    }
+
     /**
      * Gets a job by user ID and job ID.
      * @param clearCompleted if true, remove requested job if it has completed or errored
@@ -100,13 +212,11 @@ public class StatusController {
         if (clearCompleted) {
             // Any active jobs will still have their status updated, so they need to be retrieved again with any status
             // updates. All completed or errored jobs are in their final state and will not be updated any longer, so we
-            // remove them once the client has seen them.
-            ConcurrentHashSet<MonitorableJob> jobsStillActive = new ConcurrentHashSet<>();
-            allJobsForUser.stream()
-                    .filter(job -> !job.status.completed && !job.status.error)
-                    .forEach(jobsStillActive::add);
-
-            DataManager.userJobsMap.put(userId, jobsStillActive);
+            // remove them once the client has seen them. They are removed in place, so that jobs registered meanwhile
+            // are not lost.
+            Set<MonitorableJob> jobs = new HashSet<>(allJobsForUser);
+            allJobsForUser.removeIf(job -> job.status.completed || job.status.error);
+            return jobs;
         }
         return allJobsForUser;
     }
@@ -117,6 +227,13 @@ public class StatusController {
         get(apiPrefix + "secure/status/jobs", StatusController::getUserJobsRoute, json::write);
         // FIXME Change endpoint for all jobs (to avoid overlap with jobId param)?
         get(apiPrefix + "secure/status/jobs/all", StatusController::getAllJobsRoute, json::write);
+        get(apiPrefix + "secure/status/jobs/stream", StatusController::streamJobsRoute);
+        get(apiPrefix + "secure/status/jobs/history", StatusController::getJobHistoryRoute, JsonUtil.objectMapper::writeValueAsString);
         get(apiPrefix + "secure/status/jobs/:jobId", StatusController::getOneJobRoute, json::write);
+        delete(apiPrefix + "secure/status/jobs/:jobId", StatusController::cancelJobRoute, json::write);
+        get(apiPrefix + "secure/status/cache", StatusController::getCacheMetricsRoute, JsonUtil.objectMapper::writeValueAsString);
+        get(apiPrefix + "secure/status/queues", StatusController::getJobQueueMetricsRoute, JsonUtil.objectMapper::writeValueAsString);
+        get(apiPrefix + "secure/status/timings", StatusController::getJobTimingsRoute, JsonUtil.objectMapper::writeValueAsString);
+        get(apiPrefix + "secure/status/storage", StatusController::getStorageReportRoute, JsonUtil.objectMapper::writeValueAsString);
     }
 }
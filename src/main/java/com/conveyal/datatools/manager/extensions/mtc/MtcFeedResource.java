@@ -1,6 +1,5 @@
 package com.conveyal.datatools.manager.extensions.mtc;
 
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.extensions.ExternalFeedResource;
 import com.conveyal.datatools.manager.models.ExternalFeedSourceProperty;
@@ -209,8 +208,7 @@ public class MtcFeedResource implements ExternalFeedResource {
 
         File file = feedVersion.retrieveGtfsFile();
 
-        FeedStore.s3Client.putObject(new PutObjectRequest(
-                s3Bucket, keyName, file));
+        FeedStore.blobStore(s3Bucket).put(keyName, file).join();
     }
 
     private void writeCarrierToRtd(RtdCarrier carrier, boolean createNew, String authHeader) {
@@ -1,12 +1,16 @@
 package com.conveyal.datatools.manager.jobs;
 
 import com.conveyal.datatools.common.status.MonitorableJob;
+import com.conveyal.datatools.manager.models.FeedValidationResultSummary;
 import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
+import com.conveyal.datatools.manager.models.LoadStatus;
 import com.conveyal.r5.transit.TransportNetwork;
-import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -23,14 +27,26 @@ public class BuildTransportNetworkJob extends MonitorableJob {
         status.message = "Waiting to begin job...";
     }
 
+    @Override
+    public JobRecord durableState() {
+        return new JobRecord(Collections.singletonMap("feedVersionId", feedVersion.id));
+    }
+
     @Override
     public void jobLogic() {
         TransportNetwork transportNetwork = null;
         LOG.info("Building transport network");
         try {
-            if (feedVersion.validationResult != null && feedVersion.validationResult.fatalException == null) {
-                // Build network if validation result is OK.
-                feedVersion.buildTransportNetwork(status);
+            FeedValidationResultSummary validationSummary = feedVersion.validationSummary();
+            if (validationSummary != null && validationSummary.loadStatus == LoadStatus.SUCCESS) {
+                File networkFile = feedVersion.transportNetworkPath();
+                if (networkFile.length() > 0) {
+                    // Built by an earlier attempt at this job that was interrupted (see JobQueue).
+                    LOG.info("Transport network already built at {}", networkFile);
+                } else {
+                    // Build network if validation result is OK.
+                    feedVersion.buildTransportNetwork(status);
+                }
             }
             else {
                 // If there were validation problems, don't bother building network because it will likely have a bad
@@ -43,9 +59,7 @@ public class BuildTransportNetworkJob extends MonitorableJob {
         } catch (Exception e) {
             String message = "Transport network build failed!";
             LOG.error(message, e);
-            status.update(true, message, 100, true);
-            status.exceptionType = e.getMessage();
-            status.exceptionDetails = ExceptionUtils.getStackTrace(e);
+            status.fail(message, e);
             return;
         }
 
@@ -4,12 +4,13 @@ import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.editor.models.Snapshot;
 import com.conveyal.datatools.manager.models.FeedSource;
 import com.conveyal.datatools.manager.models.FeedVersion;
-import com.conveyal.datatools.manager.utils.HashUtils;
+import com.conveyal.datatools.manager.models.JobRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.Collections;
 
 import static com.conveyal.datatools.editor.models.Snapshot.writeSnapshotAsGtfs;
 
@@ -29,6 +30,18 @@ public class CreateFeedVersionFromSnapshotJob extends MonitorableJob {
         status.message = "Initializing...";
     }
 
+    @Override
+    public JobRecord durableState() {
+        JobRecord record = new JobRecord(Collections.singletonMap("snapshotId", snapshotId));
+        record.feedVersion = feedVersion;
+        return record;
+    }
+
+    @Override
+    public String getConflictKey() {
+        return feedVersion.feedSourceId;
+    }
+
     @Override
     public void jobLogic() {
         // Process feed version once GTFS file written.
@@ -57,7 +70,6 @@ public class CreateFeedVersionFromSnapshotJob extends MonitorableJob {
 
         feedVersion.retrievalMethod = FeedSource.FeedRetrievalMethod.PRODUCED_IN_HOUSE;
         feedVersion.setName(Snapshot.get(snapshotId).name + " Snapshot Export");
-        feedVersion.hash = HashUtils.hashFile(feedVersion.retrieveGtfsFile());
 
         status.update(false, "Version created successfully.", 100, true);
 
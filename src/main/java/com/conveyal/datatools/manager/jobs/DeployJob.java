@@ -1,11 +1,5 @@
 package com.conveyal.datatools.manager.jobs;
 
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.event.ProgressListener;
-import com.amazonaws.services.s3.model.CopyObjectRequest;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
-import com.amazonaws.services.s3.transfer.Upload;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -17,11 +11,15 @@ import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.models.Deployment;
+import com.conveyal.datatools.manager.models.JobRecord;
+import com.conveyal.datatools.manager.persistence.BlobStore;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,12 +65,25 @@ public class DeployJob extends MonitorableJob {
         this.s3CredentialsFilename = s3CredentialsFilename;
         // Use a special subclass of status here that has additional fields
         this.status = new DeployStatus();
+        // Share it with the parent class, which checks it for errors and cancellation.
+        super.status = this.status;
         status.message = "Initializing...";
         status.built = false;
         status.numServersCompleted = 0;
         status.totalServers = targets == null ? 0 : targets.size();
     }
 
+    @Override
+    public JobRecord durableState () {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("deploymentId", deployment.id);
+        parameters.put("targets", targets == null ? "" : String.join(",", targets));
+        parameters.put("publicUrl", publicUrl);
+        parameters.put("s3Bucket", s3Bucket);
+        parameters.put("s3CredentialsFilename", s3CredentialsFilename);
+        return new JobRecord(parameters);
+    }
+
     public void jobLogic () {
         int targetCount = targets != null ? targets.size() : 0;
         int totalTasks = 1 + targetCount;
@@ -93,9 +104,11 @@ public class DeployJob extends MonitorableJob {
 
         // dump the deployment bundle
         try {
-            status.message = "Creating OTP Bundle";
-            this.deployment.dump(deploymentTempFile, true, true, true);
+            status.update("Creating OTP Bundle", status.percentComplete);
+            this.deployment.dump(deploymentTempFile, true, true, true, status);
             tasksCompleted++;
+        } catch (CancelledException e) {
+            throw e;
         } catch (Exception e) {
             statusMessage = "Error dumping deployment";
             LOG.error(statusMessage);
@@ -104,41 +117,25 @@ public class DeployJob extends MonitorableJob {
             return;
         }
 
-        status.percentComplete = 100.0 * (double) tasksCompleted / totalTasks;
+        status.update(status.message, 100.0 * (double) tasksCompleted / totalTasks);
         System.out.println("pctComplete = " + status.percentComplete);
         status.built = true;
 
         // upload to S3, if applicable
         if(this.s3Bucket != null) {
-            status.message = "Uploading to S3";
+            status.update("Uploading to S3", status.percentComplete);
             status.uploadingS3 = true;
             LOG.info("Uploading deployment {} to s3", deployment.name);
-            String key = null;
+            String key = bundlePrefix + deployment.parentProject().id + "/" + deployment.name + ".zip";
+            // copy to [name]-latest.zip
+            String copyKey = bundlePrefix + deployment.parentProject().id + "/" + deployment.parentProject().name.toLowerCase() + "-latest.zip";
+            BlobStore blobStore = FeedStore.blobStore(this.s3Bucket);
             try {
-                TransferManager tx = TransferManagerBuilder.standard().withS3Client(FeedStore.s3Client).build();
-                key = bundlePrefix + deployment.parentProject().id + "/" + deployment.name + ".zip";
-                final Upload upload = tx.upload(this.s3Bucket, key, deploymentTempFile);
-
-                upload.addProgressListener((ProgressListener) progressEvent -> {
-                    status.percentUploaded = upload.getProgress().getPercentTransferred();
-                });
-
-                upload.waitForCompletion();
-
-                // Shutdown the Transfer Manager, but don't shut down the underlying S3 client.
-                // The default behavior for shutdownNow shut's down the underlying s3 client
-                // which will cause any following s3 operations to fail.
-                tx.shutdownNow(false);
-
-                // copy to [name]-latest.zip
-                String copyKey = bundlePrefix + deployment.parentProject().id + "/" + deployment.parentProject().name.toLowerCase() + "-latest.zip";
-                CopyObjectRequest copyObjRequest = new CopyObjectRequest(
-                    this.s3Bucket, key, this.s3Bucket, copyKey);
-                FeedStore.s3Client.copyObject(copyObjRequest);
-            } catch (AmazonClientException|InterruptedException e) {
+                await(blobStore.put(key, deploymentTempFile, null, percentUploaded -> status.percentUploaded = percentUploaded)
+                        .thenCompose(uploaded -> blobStore.copy(key, copyKey)));
+            } catch (CompletionException e) {
                 statusMessage = String.format("Error uploading (or copying) deployment bundle to s3://%s/%s", s3Bucket, key);
-                LOG.error(statusMessage);
-                e.printStackTrace();
+                LOG.error(statusMessage, e.getCause());
                 status.update(true, statusMessage, 100, true);
                 return;
             }
@@ -157,7 +154,9 @@ public class DeployJob extends MonitorableJob {
 
         // load it to OTP
         for (String rawUrl : this.targets) {
-            status.message = "Deploying to " + rawUrl;
+            // Do not take down any more servers once cancelled.
+            status.checkCancelled();
+            status.update("Deploying to " + rawUrl, status.percentComplete);
             status.uploading = true;
 
             URL url;
@@ -169,8 +168,7 @@ public class DeployJob extends MonitorableJob {
 
                 // do not set percentComplete to 100 because we continue to the next server
                 // TODO: should this return instead so that the job is cancelled?
-                status.error = true;
-                status.message = statusMessage;
+                status.update(true, statusMessage, status.percentComplete);
                 continue;
             }
 
@@ -184,8 +182,7 @@ public class DeployJob extends MonitorableJob {
 
                 // do not set percentComplete to 100 because we continue to the next server
                 // TODO: should this return instead so that the job is cancelled?
-                status.error = true;
-                status.message = statusMessage;
+                status.update(true, statusMessage, status.percentComplete);
                 continue;
             }
 
@@ -274,7 +271,7 @@ public class DeployJob extends MonitorableJob {
 
             status.numServersCompleted++;
             tasksCompleted++;
-            status.percentComplete = 100.0 * (double) tasksCompleted / totalTasks;
+            status.update(status.message, 100.0 * (double) tasksCompleted / totalTasks);
         }
 
         status.completed = true;
@@ -296,6 +293,13 @@ public class DeployJob extends MonitorableJob {
         }
     }
 
+    @Override
+    public void jobCancelled () {
+        if (deploymentTempFile != null && deploymentTempFile.exists() && !deploymentTempFile.delete()) {
+            LOG.error("Deployment {} not deleted! Disk space in danger of filling up.", deployment.id);
+        }
+    }
+
     /**
      * Represents the current status of this job.
      */
@@ -4,6 +4,7 @@ import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.models.FeedSource;
 import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
 import com.conveyal.datatools.manager.models.Project;
 import com.conveyal.datatools.manager.persistence.Persistence;
 import org.slf4j.Logger;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,6 +29,16 @@ public class FetchProjectFeedsJob extends MonitorableJob {
         this.projectId = project.id;
     }
 
+    @Override
+    public JobRecord durableState() {
+        return new JobRecord(Collections.singletonMap("projectId", projectId));
+    }
+
+    @Override
+    public String fairnessKey() {
+        return owner + "/" + projectId;
+    }
+
     @Override
     public void jobLogic() {
         Project project = Persistence.projects.getById(projectId);
@@ -39,11 +51,11 @@ public class FetchProjectFeedsJob extends MonitorableJob {
             }
             // No need to track overall status on this FetchProjectFeedsJob. All "child" jobs execute in threadpool,
             // so we don't know their status.
-            FetchSingleFeedJob fetchSingleFeedJob = new FetchSingleFeedJob(feedSource, owner, true);
-            // Run this in a heavy executor with continueThread = true, so that fetch/process jobs for each
-            // feed source execute in order (i.e., fetch feed source A, then process; next, fetch feed source b, then
-            // process).
-            DataManager.heavyExecutor.execute(fetchSingleFeedJob);
+            // Run this with continueThread = false, so that the IO pool only fetches (many feeds at once, see
+            // FeedFetcher) and new versions are processed in the processing pool. Processing a feed source's new
+            // version still runs before any later job on the feed source (see FetchSingleFeedJob#getConflictKey).
+            FetchSingleFeedJob fetchSingleFeedJob = new FetchSingleFeedJob(feedSource, owner, false);
+            DataManager.jobScheduler.submit(fetchSingleFeedJob, priority);
         }
     }
 
@@ -4,8 +4,10 @@ import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.models.FeedSource;
 import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
 import com.conveyal.datatools.manager.persistence.Persistence;
 
+import java.util.HashMap;
 import java.util.Map;
 
 public class FetchSingleFeedJob extends MonitorableJob {
@@ -29,6 +31,30 @@ public class FetchSingleFeedJob extends MonitorableJob {
         status.uploading = true;
     }
 
+    @Override
+    public JobRecord durableState () {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("feedSourceId", feedSource.id);
+        parameters.put("continueThread", String.valueOf(continueThread));
+        return new JobRecord(parameters);
+    }
+
+    @Override
+    public String fairnessKey () {
+        return owner + "/" + feedSource.projectId;
+    }
+
+    @Override
+    public String getConflictKey () {
+        return feedSource.id;
+    }
+
+    /** A fetch of the feed source that has not finished would find the same feed. */
+    @Override
+    public boolean duplicates (MonitorableJob other) {
+        return other instanceof FetchSingleFeedJob;
+    }
+
     @Override
     public void jobLogic () {
         // TODO: fetch automatically vs. manually vs. in-house
@@ -37,19 +63,20 @@ public class FetchSingleFeedJob extends MonitorableJob {
         // Null result indicates that a fetch was not needed (GTFS has not been modified)
         // True failures will throw exceptions.
         if (result != null) {
-            // FetchSingleFeedJob should typically be run in a lightExecutor because it is a fairly lightweight task.
+            // FetchSingleFeedJob runs in the IO pool because it is a fairly lightweight task.
             // ProcessSingleFeedJob often follows a fetch and requires significant time to complete,
-            // so FetchSingleFeedJob ought to be run in the heavyExecutor. Technically, the "fetch" completes
+            // so it ought to be run in the processing pool. Technically, the "fetch" completes
             // quickly and the "processing" happens over time. So, we run the processing in a separate thread in order
             // to match this user and system expectation.
             //
             // The exception (continueThread = true) is provided for FetchProjectFeedsJob, when we want the feeds to
             // fetch and then process in sequence.
+            // Either way, processing runs before any later job on the feed source (see getConflictKey).
             ProcessSingleFeedJob processSingleFeedJob = new ProcessSingleFeedJob(result, this.owner);
             if (continueThread) {
                 addNextJob(processSingleFeedJob);
             } else {
-                DataManager.heavyExecutor.execute(processSingleFeedJob);
+                DataManager.jobScheduler.submit(processSingleFeedJob, priority);
             }
         }
     }
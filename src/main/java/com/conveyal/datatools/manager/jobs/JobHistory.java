@@ -0,0 +1,166 @@
+package com.conveyal.datatools.manager.jobs;
+
+import com.conveyal.datatools.common.status.MonitorableJob;
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.models.JobSummary;
+import com.conveyal.datatools.manager.persistence.Persistence;
+import com.mongodb.client.model.Indexes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+
+/**
+ * Bounds the jobs kept in memory (DataManager.userJobsMap) and keeps a summary of each finished job in the database.
+ *
+ * Finished jobs used to stay in memory until their owner polled for them, which never happens for jobs started by
+ * the server itself (e.g., scheduled feed fetches) or by clients that go away. Now, for each owner, only the
+ * application.jobs.history_size (20 by default) most recently finished jobs are kept, and only for
+ * application.jobs.history_ttl_minutes (60 by default). Active jobs are never removed.
+ *
+ * The summary of each finished top-level job, with the timing of each of its stages, is kept for
+ * application.jobs.history_days (30 by default). Run times are also aggregated per job type (see JobTimings).
+ */
+public class JobHistory {
+    private static final Logger LOG = LoggerFactory.getLogger(JobHistory.class);
+
+    private static final long SWEEP_INTERVAL_MINUTES = 1;
+    private static final long PRUNE_INTERVAL_HOURS = 1;
+
+    private static boolean enabled = false;
+    private static int historySize;
+    private static long ttlMillis;
+    private static long retentionMillis;
+
+    /**
+     * Start removing old jobs from memory and old summaries from the database, and start recording summaries. Must be
+     * called after Persistence is initialized.
+     */
+    public static void schedule() {
+        historySize = (int) getLongConfigProperty("application.jobs.history_size", 20);
+        ttlMillis = TimeUnit.MINUTES.toMillis(getLongConfigProperty("application.jobs.history_ttl_minutes", 60));
+        retentionMillis = TimeUnit.DAYS.toMillis(getLongConfigProperty("application.jobs.history_days", 30));
+        Persistence.jobSummaries.createIndex(Indexes.compoundIndex(Indexes.ascending("owner"), Indexes.descending("finished")));
+        Persistence.jobSummaries.createIndex(Indexes.ascending("finished"));
+        enabled = true;
+        DataManager.scheduler.scheduleWithFixedDelay(JobHistory::sweep, SWEEP_INTERVAL_MINUTES, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        DataManager.scheduler.scheduleWithFixedDelay(JobHistory::prune, 0, PRUNE_INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    /** Record the summary of a job that has finished. Called by MonitorableJob for every job, including sub-jobs. */
+    public static void finished(MonitorableJob job) {
+        // Sub-jobs are recorded as stages of their top-level job.
+        if (!enabled || job.parentJobId != null) return;
+        try {
+            Persistence.jobSummaries.create(summarize(job));
+        } catch (Exception e) {
+            LOG.error("Could not record summary of {} job {}", job.type, job.jobId, e);
+        }
+    }
+
+    /** @return the summaries of the user's most recently finished jobs, most recent first */
+    public static List<JobSummary> recentSummaries(String owner, int limit) {
+        return Persistence.jobSummaries.getFiltered(eq("owner", owner), Indexes.descending("finished"), limit);
+    }
+
+    private static JobSummary summarize(MonitorableJob job) {
+        MonitorableJob.Status status = job.status.copy();
+        JobSummary summary = new JobSummary();
+        summary.id = job.jobId;
+        summary.type = job.type.name();
+        summary.name = job.name;
+        summary.owner = job.getOwner();
+        summary.userId = job.getOwner();
+        summary.error = status.error;
+        summary.cancelled = status.cancelled;
+        summary.message = status.message;
+        summary.exceptionType = status.exceptionType;
+        summary.started = new Date(status.startTime);
+        summary.finished = new Date(job.finishedAtMillis);
+        summary.durationMillis = status.duration;
+        JobSummary.Stage logic = new JobSummary.Stage();
+        logic.type = job.type.name();
+        logic.name = job.name;
+        logic.started = summary.started;
+        logic.durationMillis = job.getLogicMillis();
+        summary.stages.add(logic);
+        addStages(job, summary.stages);
+        return summary;
+    }
+
+    /** Add a stage for each sub-job of the job, and (depth first) of their sub-jobs. */
+    private static void addStages(MonitorableJob job, List<JobSummary.Stage> stages) {
+        for (MonitorableJob subJob : job.getSubJobs()) {
+            MonitorableJob.Status status = subJob.status.copy();
+            JobSummary.Stage stage = new JobSummary.Stage();
+            stage.type = subJob.type.name();
+            stage.name = subJob.name;
+            stage.error = status.error;
+            // Sub-jobs cancelled before they started have no timing.
+            stage.started = status.startTime == 0 ? null : new Date(status.startTime);
+            stage.durationMillis = status.duration;
+            stages.add(stage);
+            addStages(subJob, stages);
+        }
+    }
+
+    /** Remove finished jobs beyond each owner's history size or older than the TTL from memory. */
+    private static void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            int removed = 0;
+            for (String owner : DataManager.userJobsMap.keySet()) {
+                int[] removedForOwner = { 0 };
+                // Jobs are registered with compute as well, so none are added to a set that is being dropped.
+                DataManager.userJobsMap.computeIfPresent(owner, (key, jobs) -> {
+                    removedForOwner[0] = evict(jobs, now);
+                    return jobs.isEmpty() ? null : jobs;
+                });
+                removed += removedForOwner[0];
+            }
+            if (removed > 0) LOG.info("Removed {} finished jobs from memory", removed);
+        } catch (Exception e) {
+            LOG.error("Could not remove finished jobs from memory", e);
+        }
+    }
+
+    private static int evict(Set<MonitorableJob> jobs, long now) {
+        List<MonitorableJob> finished = new ArrayList<>();
+        for (MonitorableJob job : jobs) {
+            if (!job.status.completed) continue;
+            // Jobs completed without running (e.g., cancelled sub-jobs) have no finish time; start their TTL now.
+            if (job.finishedAtMillis == 0) job.finishedAtMillis = now;
+            finished.add(job);
+        }
+        finished.sort(Comparator.comparingLong((MonitorableJob job) -> job.finishedAtMillis).reversed());
+        int removed = 0;
+        for (int i = 0; i < finished.size(); i++) {
+            MonitorableJob job = finished.get(i);
+            if (i >= historySize || now - job.finishedAtMillis > ttlMillis) {
+                if (jobs.remove(job)) removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Remove summaries older than the retention period from the database. */
+    private static void prune() {
+        try {
+            Persistence.jobSummaries.removeFiltered(lt("finished", new Date(System.currentTimeMillis() - retentionMillis)));
+        } catch (Exception e) {
+            LOG.error("Could not remove old job summaries", e);
+        }
+    }
+
+    private static long getLongConfigProperty(String name, long defaultValue) {
+        return DataManager.hasConfigProperty(name) ? DataManager.getConfigProperty(name).asLong() : defaultValue;
+    }
+}
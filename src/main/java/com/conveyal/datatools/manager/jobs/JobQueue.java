@@ -0,0 +1,280 @@
+package com.conveyal.datatools.manager.jobs;
+
+import com.conveyal.datatools.common.status.JobScheduler;
+import com.conveyal.datatools.common.status.MonitorableJob;
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.models.Deployment;
+import com.conveyal.datatools.manager.models.FeedSource;
+import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
+import com.conveyal.datatools.manager.models.Project;
+import com.conveyal.datatools.manager.persistence.Persistence;
+import com.mongodb.client.model.Indexes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.push;
+import static com.mongodb.client.model.Updates.set;
+
+/**
+ * Keeps a record in the database of each queued or running job that can be recreated (see
+ * {@link MonitorableJob#durableState()}), so that jobs are not lost when the server running them stops, e.g. during
+ * a deploy or rolling restart.
+ *
+ * Each server updates a heartbeat on the records of its jobs. Records whose heartbeat has stopped (because their
+ * server stopped) are claimed by another server, or by the same server when it starts again, and their jobs are
+ * recreated and queued again. Jobs skip the work recorded as done in completed steps (see e.g. LoadFeedJob), and a
+ * job that keeps failing to finish is given up after a few attempts.
+ *
+ * A job on a feed version that is not stored yet needs the feed's file, which is only on the disk of the server that
+ * received it. Such a job is only recreated by a server on the same host, and is given up if that host does not come
+ * back within a day.
+ *
+ * This can be turned off with application.jobs.durable: false.
+ */
+public class JobQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(JobQueue.class);
+
+    /** Identifies the records of the jobs run by this server */
+    private static final String SERVER_ID = UUID.randomUUID().toString();
+    private static final long HEARTBEAT_INTERVAL_SECONDS = 60;
+    /** Jobs whose heartbeat is older than this are considered to have been stopped along with their server */
+    private static final long STALE_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** Jobs tied to another host (see JobRecord#host) are given up when their heartbeat is older than this */
+    private static final long ABANDONED_AFTER_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static boolean enabled = false;
+    /** IDs of the jobs recorded by this server that have not finished */
+    private static final Set<String> recordedJobIds = ConcurrentHashMap.newKeySet();
+    private static final String HOST = hostName();
+    /**
+     * Runs the heartbeat and recovery on threads of their own, so that they are not held up by other scheduled tasks
+     * (e.g., auto-fetches), which would let the heartbeat go stale and another server run the same job again. Each task
+     * has its own thread, as tasks scheduled with a fixed delay never overlap themselves.
+     */
+    private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "job-queue");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queue again the jobs that were interrupted when their server stopped, and keep the records of this server's jobs
+     * alive. Must be called after Persistence and the job scheduler are initialized.
+     */
+    public static void initialize() {
+        enabled = !DataManager.hasConfigProperty("application.jobs.durable")
+                || DataManager.getConfigProperty("application.jobs.durable").asBoolean();
+        if (!enabled) return;
+        Persistence.jobs.createIndex(Indexes.ascending("serverId"));
+        executor.scheduleWithFixedDelay(JobQueue::heartbeat, 0, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        // Also picks up jobs from other servers that have stopped, e.g. the previous server in a rolling restart.
+        executor.scheduleWithFixedDelay(JobQueue::recoverJobs, 0, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        // When stopping normally, let the next server take over this server's jobs right away.
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                Persistence.jobs.updateMany(eq("serverId", SERVER_ID), set("heartbeat", new Date(0)))));
+    }
+
+    /** Record a job submitted to the scheduler, if it can be recreated. */
+    public static void enqueued(MonitorableJob job, JobScheduler.Priority priority) {
+        if (!enabled || job.parentJobId != null) return;
+        JobRecord record;
+        try {
+            record = job.durableState();
+        } catch (Exception e) {
+            LOG.warn("Could not record state of {} job {}", job.type, job.jobId, e);
+            return;
+        }
+        if (record == null) return;
+        record.id = job.jobId;
+        record.type = job.type.name();
+        record.name = job.name;
+        record.owner = job.getOwner();
+        record.priority = priority.name();
+        record.state = JobRecord.State.QUEUED;
+        record.serverId = SERVER_ID;
+        record.host = hostFor(record);
+        record.heartbeat = new Date();
+        Persistence.jobs.create(record);
+        recordedJobIds.add(job.jobId);
+    }
+
+    /** Record that the job has started running (again). */
+    public static void started(MonitorableJob job) {
+        if (!recordedJobIds.contains(job.jobId)) return;
+        Persistence.jobs.update(job.jobId, combine(set("state", JobRecord.State.RUNNING.name()), inc("attempts", 1)));
+    }
+
+    /** Record that a sub-job of the job completed, along with the job's current state. */
+    public static void checkpoint(MonitorableJob job, MonitorableJob subJob) {
+        if (!recordedJobIds.contains(job.jobId)) return;
+        try {
+            JobRecord record = job.durableState();
+            if (record == null) return;
+            Persistence.jobs.update(job.jobId, combine(
+                    set("parameters", record.parameters),
+                    set("feedVersion", record.feedVersion),
+                    set("host", hostFor(record)),
+                    push("completedSteps", subJob.type.name())));
+        } catch (Exception e) {
+            // The job can still be recreated from its last checkpoint.
+            LOG.warn("Could not checkpoint {} job {}", job.type, job.jobId, e);
+        }
+    }
+
+    /** Remove the record of a job that has finished (successfully or not). */
+    public static void finished(MonitorableJob job) {
+        if (!recordedJobIds.remove(job.jobId)) return;
+        Persistence.jobs.removeById(job.jobId);
+    }
+
+    private static void heartbeat() {
+        try {
+            Persistence.jobs.updateMany(eq("serverId", SERVER_ID), set("heartbeat", new Date()));
+        } catch (Exception e) {
+            LOG.error("Could not update job heartbeat", e);
+        }
+    }
+
+    /**
+     * Claim the records of jobs whose server has stopped, one at a time so that servers starting together do not
+     * claim the same job, and queue their jobs again.
+     */
+    private static void recoverJobs() {
+        try {
+            Date abandonedBefore = new Date(System.currentTimeMillis() - ABANDONED_AFTER_MILLIS);
+            for (JobRecord record : Persistence.jobs.getFiltered(and(lt("heartbeat", abandonedBefore), ne("host", null)))) {
+                LOG.error("Giving up on {} job {} ({}), its files are on host {}, which has not come back", record.type,
+                        record.id, record.name, record.host);
+                Persistence.jobs.removeById(record.id);
+            }
+            while (true) {
+                Date staleBefore = new Date(System.currentTimeMillis() - STALE_AFTER_MILLIS);
+                JobRecord record = Persistence.jobs.findOneAndUpdate(
+                        and(lt("heartbeat", staleBefore), or(eq("host", null), eq("host", HOST))),
+                        combine(set("serverId", SERVER_ID), set("heartbeat", new Date())));
+                if (record == null) return;
+                recover(record);
+            }
+        } catch (Exception e) {
+            LOG.error("Could not recover interrupted jobs", e);
+        }
+    }
+
+    private static void recover(JobRecord record) {
+        if (record.attempts >= MAX_ATTEMPTS) {
+            LOG.error("Giving up on {} job {} ({}) after {} attempts", record.type, record.id, record.name, record.attempts);
+            Persistence.jobs.removeById(record.id);
+            return;
+        }
+        MonitorableJob job;
+        try {
+            job = recreate(record);
+        } catch (Exception e) {
+            LOG.error("Could not recreate {} job {} ({})", record.type, record.id, record.name, e);
+            job = null;
+        }
+        // The record is replaced by that of the recreated job, which has a new ID.
+        Persistence.jobs.removeById(record.id);
+        if (job == null) return;
+        LOG.info("Resuming {} job {} ({}), interrupted in state {} after steps {}", record.type, record.id,
+                record.name, record.state, record.completedSteps);
+        JobScheduler.Priority priority = record.priority != null
+                ? JobScheduler.Priority.valueOf(record.priority)
+                : JobScheduler.Priority.INTERACTIVE;
+        DataManager.jobScheduler.submit(job, priority);
+        // Carry over the attempts, so that a job that keeps taking its server down is eventually given up.
+        if (record.attempts > 0) Persistence.jobs.update(job.jobId, inc("attempts", record.attempts));
+    }
+
+    /**
+     * Recreate a job from its record. The objects a job works on are looked up again, so a job on an object that has
+     * since been deleted is dropped.
+     */
+    private static MonitorableJob recreate(JobRecord record) {
+        Map<String, String> parameters = record.parameters;
+        String owner = record.owner;
+        switch (MonitorableJob.JobType.valueOf(record.type)) {
+            case FETCH_PROJECT_FEEDS: {
+                Project project = Persistence.projects.getById(parameters.get("projectId"));
+                return project == null ? null : new FetchProjectFeedsJob(project, owner);
+            }
+            case FETCH_SINGLE_FEED: {
+                FeedSource feedSource = Persistence.feedSources.getById(parameters.get("feedSourceId"));
+                return feedSource == null ? null
+                        : new FetchSingleFeedJob(feedSource, owner, Boolean.parseBoolean(parameters.get("continueThread")));
+            }
+            case PROCESS_FEED: {
+                FeedVersion feedVersion = feedVersionOf(record);
+                return feedVersion == null ? null : new ProcessSingleFeedJob(feedVersion, owner);
+            }
+            case CREATE_FEEDVERSION_FROM_SNAPSHOT: {
+                FeedVersion feedVersion = feedVersionOf(record);
+                return feedVersion == null ? null
+                        : new CreateFeedVersionFromSnapshotJob(feedVersion, parameters.get("snapshotId"), owner);
+            }
+            case BUILD_TRANSPORT_NETWORK: {
+                FeedVersion feedVersion = Persistence.feedVersions.getById(parameters.get("feedVersionId"));
+                return feedVersion == null ? null : new BuildTransportNetworkJob(feedVersion, owner);
+            }
+            case MERGE_PROJECT_FEEDS: {
+                Project project = Persistence.projects.getById(parameters.get("projectId"));
+                return project == null ? null : new MergeProjectFeedsJob(project, owner);
+            }
+            case MAKE_PROJECT_PUBLIC: {
+                Project project = Persistence.projects.getById(parameters.get("projectId"));
+                return project == null ? null : new MakePublicJob(project, owner);
+            }
+            case DEPLOY_TO_OTP: {
+                Deployment deployment = Persistence.deployments.getById(parameters.get("deploymentId"));
+                String targets = parameters.get("targets");
+                return deployment == null ? null : new DeployJob(deployment, owner,
+                        targets == null || targets.isEmpty() ? null : Arrays.asList(targets.split(",")),
+                        parameters.get("publicUrl"), parameters.get("s3Bucket"), parameters.get("s3CredentialsFilename"));
+            }
+            default:
+                throw new IllegalArgumentException("Jobs of type " + record.type + " cannot be recreated");
+        }
+    }
+
+    /** The host whose disk holds files the job needs, i.e. this one if it works on a version not yet stored. */
+    private static String hostFor(JobRecord record) {
+        return record.feedVersion != null ? HOST : null;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            // Jobs tied to this host are then only recovered by a server that fails the same way.
+            LOG.warn("Could not determine host name", e);
+            return "unknown";
+        }
+    }
+
+    /** The version a job was processing: the recorded copy if it was not yet stored, otherwise the stored version. */
+    private static FeedVersion feedVersionOf(JobRecord record) {
+        if (record.feedVersion != null) return record.feedVersion;
+        return Persistence.feedVersions.getById(record.parameters.get("feedVersionId"));
+    }
+}
@@ -35,6 +35,11 @@ public class LoadFeedJob extends MonitorableJob {
     @Override
     public void jobLogic () {
         LOG.info("Running LoadFeedJob for {}", feedVersion.id);
+        if (feedVersion.loadedIntoDatabase()) {
+            // The feed was loaded by an earlier attempt at processing this version (see JobQueue).
+            LOG.info("Version {} already loaded into {}, skipping load", feedVersion.id, feedVersion.namespace);
+            return;
+        }
         feedVersion.load(status);
     }
 
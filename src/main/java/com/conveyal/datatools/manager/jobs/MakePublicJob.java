@@ -1,10 +1,11 @@
 package com.conveyal.datatools.manager.jobs;
 
-import com.amazonaws.services.s3.model.CannedAccessControlList;
 import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
 import com.conveyal.datatools.manager.models.Project;
+import com.conveyal.datatools.manager.persistence.BlobStore;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -13,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -29,6 +31,11 @@ public class MakePublicJob extends MonitorableJob {
         status.update(false, "Waiting to begin validation...", 0);
     }
 
+    @Override
+    public JobRecord durableState () {
+        return new JobRecord(Collections.singletonMap("projectId", project.id));
+    }
+
     @Override
     public void jobLogic () {
         LOG.info("Generating new html for public feeds");
@@ -90,8 +97,10 @@ public class MakePublicJob extends MonitorableJob {
             e.printStackTrace();
         }
 
-        FeedStore.s3Client.putObject(DataManager.feedBucket, folder + fileName, file);
-        FeedStore.s3Client.setObjectAcl(DataManager.feedBucket, folder + fileName, CannedAccessControlList.PublicRead);
+        BlobStore blobStore = FeedStore.blobStore(DataManager.feedBucket);
+        blobStore.put(folder + fileName, file)
+                .thenCompose(v -> blobStore.setPublic(folder + fileName, true))
+                .join();
 
         LOG.info("Public page updated on s3");
     }
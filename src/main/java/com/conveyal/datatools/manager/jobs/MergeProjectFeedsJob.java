@@ -6,6 +6,7 @@ import com.conveyal.datatools.common.utils.SparkUtils;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.models.FeedSource;
 import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
 import com.conveyal.datatools.manager.models.Project;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -25,6 +26,7 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -43,6 +45,8 @@ public class MergeProjectFeedsJob extends MonitorableJob {
 
     private static final Logger LOG = LoggerFactory.getLogger(MonitorableJob.class);
     public final Project project;
+    /** Temp file the merged feed is written to before being stored */
+    private File mergedFile;
 
     public MergeProjectFeedsJob(Project project, String owner) {
         super(owner, "Merging project feeds for " + project.name, JobType.MERGE_PROJECT_FEEDS);
@@ -50,13 +54,17 @@ public class MergeProjectFeedsJob extends MonitorableJob {
         status.message = "Merging feeds...";
     }
 
+    @Override
+    public JobRecord durableState () {
+        return new JobRecord(Collections.singletonMap("projectId", project.id));
+    }
+
     @Override
     public void jobLogic () {
         // get feed sources in project
         Collection<FeedSource> feeds = project.retrieveProjectFeedSources();
 
         // create temp merged zip file to add feed content to
-        File mergedFile = null;
         try {
             mergedFile = File.createTempFile(project.id + "-merged", ".zip");
             mergedFile.deleteOnExit();
@@ -108,16 +116,13 @@ public class MergeProjectFeedsJob extends MonitorableJob {
         int numberOfTables = DataManager.gtfsConfig.size();
         for(int i = 0; i < numberOfTables; i++) {
             JsonNode tableNode = DataManager.gtfsConfig.get(i);
-            byte[] tableOut = mergeTables(tableNode, feedSourceMap);
+            byte[] tableOut = mergeTables(tableNode, feedSourceMap, status);
 
             // if at least one feed has the table, include it
             if (tableOut != null) {
 
                 String tableName = tableNode.get("name").asText();
-                synchronized (status) {
-                    status.message = "Merging " + tableName;
-                    status.percentComplete = Math.round((double) i / numberOfTables * 10000d) / 100d;
-                }
+                status.update("Merging " + tableName, Math.round((double) i / numberOfTables * 10000d) / 100d);
                 // create entry for zip file
                 ZipEntry tableEntry = new ZipEntry(tableName);
                 try {
@@ -137,15 +142,12 @@ public class MergeProjectFeedsJob extends MonitorableJob {
             LOG.error("Error closing zip file");
             e.printStackTrace();
         }
-        synchronized (status) {
-            status.message = "Saving merged feed.";
-            status.percentComplete = 95.0;
-        }
+        status.update("Saving merged feed.", 95.0);
         // Store the project merged zip locally or on s3
         if (DataManager.useS3) {
             String s3Key = "project/" + project.id + ".zip";
-            FeedStore.s3Client.putObject(DataManager.feedBucket, s3Key, mergedFile);
             LOG.info("Storing merged project feed at s3://{}/{}", DataManager.feedBucket, s3Key);
+            await(FeedStore.blobStore(DataManager.feedBucket).put(s3Key, mergedFile));
         } else {
             try {
                 FeedVersion.feedStore.newFeed(project.id + ".zip", new FileInputStream(mergedFile), null);
@@ -157,20 +159,17 @@ public class MergeProjectFeedsJob extends MonitorableJob {
         // delete temp file
         mergedFile.delete();
 
-        synchronized (status) {
-            status.message = "Merged feed created successfully.";
-            status.completed = true;
-            status.percentComplete = 100.0;
-        }
+        status.update(false, "Merged feed created successfully.", 100.0, true);
     }
 
     /**
      * Merge the specified table for multiple GTFS feeds.
      * @param tableNode tableNode to merge
      * @param feedSourceMap map of feedSources to zipFiles from which to extract the .txt tables
+     * @param status status of the merge job, checked for cancellation as rows are merged
      * @return single merged table for feeds
      */
-    private static byte[] mergeTables(JsonNode tableNode, Map<FeedSource, ZipFile> feedSourceMap) {
+    private static byte[] mergeTables(JsonNode tableNode, Map<FeedSource, ZipFile> feedSourceMap, Status status) {
 
         String tableName = tableNode.get("name").asText();
         ByteArrayOutputStream tableOut = new ByteArrayOutputStream();
@@ -213,6 +212,7 @@ public class MergeProjectFeedsJob extends MonitorableJob {
 
                         // iterate over rows in table
                         while((line = in.readLine()) != null) {
+                            status.checkCancelled();
                             String[] newValues = new String[fieldsNode.size()];
                             String[] values = line.split(Consts.COLUMN_SPLIT, -1);
                             if (values.length == 1) {
@@ -262,4 +262,9 @@ public class MergeProjectFeedsJob extends MonitorableJob {
         }
         return tableOut.toByteArray();
     }
+
+    @Override
+    public void jobCancelled () {
+        if (mergedFile != null) mergedFile.delete();
+    }
 }
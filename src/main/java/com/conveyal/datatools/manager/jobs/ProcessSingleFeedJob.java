@@ -5,11 +5,13 @@ import com.conveyal.datatools.editor.jobs.ProcessGtfsSnapshotMerge;
 import com.conveyal.datatools.editor.models.Snapshot;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
 import com.conveyal.datatools.manager.persistence.Persistence;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -20,6 +22,9 @@ import java.util.Map;
 public class ProcessSingleFeedJob extends MonitorableJob {
     private FeedVersion feedVersion;
     private String owner;
+    private String projectId;
+    /** Whether the feed turned out to be identical to the latest version, so it was not processed */
+    private boolean duplicate = false;
     private static final Logger LOG = LoggerFactory.getLogger(ProcessSingleFeedJob.class);
 
     /**
@@ -28,6 +33,7 @@ public class ProcessSingleFeedJob extends MonitorableJob {
     public ProcessSingleFeedJob (FeedVersion feedVersion, String owner) {
         super(owner, "Processing GTFS for " + feedVersion.parentFeedSource().name, JobType.PROCESS_FEED);
         this.feedVersion = feedVersion;
+        this.projectId = feedVersion.parentFeedSource().projectId;
         this.owner = owner;
         status.update(false,  "Processing...", 0);
         status.uploading = true;
@@ -48,32 +54,72 @@ public class ProcessSingleFeedJob extends MonitorableJob {
         return feedVersion.parentFeedSource().id;
     }
 
+    /**
+     * Until validation has stored the version, the version itself is recorded, as it cannot be looked up. Its load
+     * result is recorded along with it once the feed is loaded, so that the feed is not loaded again.
+     */
+    @Override
+    public JobRecord durableState () {
+        JobRecord record = new JobRecord(Collections.singletonMap("feedVersionId", feedVersion.id));
+        if (feedVersion.validationResult == null) record.feedVersion = feedVersion;
+        return record;
+    }
+
+    @Override
+    public String fairnessKey () {
+        return owner + "/" + projectId;
+    }
+
+    @Override
+    public String getConflictKey () {
+        return feedVersion.feedSourceId;
+    }
+
     @Override
     public void jobLogic () {
         LOG.info("Processing feed for {}", feedVersion.id);
 
+        // The feed was compared with the latest version when it was fetched or uploaded, but a version stored since
+        // (e.g., by another upload of the same file) was missed. Jobs on a feed source now run one at a time, so
+        // comparing again here is reliable.
+        if (parentJobId == null && Persistence.feedVersions.getById(feedVersion.id) == null) {
+            FeedVersion latest = feedVersion.parentFeedSource().retrieveLatest();
+            if (latest != null && feedVersion.hash != null && feedVersion.hash.equals(latest.hash)) {
+                LOG.warn("Version {} is identical to latest version {}, not processing it", feedVersion.id, latest.id);
+                feedVersion.deleteUnsaved();
+                duplicate = true;
+                status.update(false, "Feed is identical to the latest version.", 100, true);
+                return;
+            }
+        }
+
         // First, load the feed into database.
-        addNextJob(new LoadFeedJob(feedVersion, owner));
+        LoadFeedJob loadFeedJob = new LoadFeedJob(feedVersion, owner);
+        addSubJob(loadFeedJob);
 
         // Next, validate the feed.
-        addNextJob(new ValidateFeedJob(feedVersion, owner));
+        ValidateFeedJob validateFeedJob = new ValidateFeedJob(feedVersion, owner);
+        addSubJob(validateFeedJob, loadFeedJob);
 
+        // The snapshot and the network both need the validation result (feed bounds), but not each other, so they
+        // run at the same time once validation is done.
         // Use this FeedVersion to seed Editor DB (provided no snapshots for feed already exist).
         if(DataManager.isModuleEnabled("editor")) {
             // chain snapshot-creation job if no snapshots currently exist for feed
             if (Snapshot.getSnapshots(feedVersion.feedSourceId).size() == 0) {
-                addNextJob(new ProcessGtfsSnapshotMerge(feedVersion, owner));
+                addSubJob(new ProcessGtfsSnapshotMerge(feedVersion, owner), validateFeedJob);
             }
         }
 
         // chain on a network builder job, if applicable
         if(DataManager.isModuleEnabled("r5_network")) {
-            addNextJob(new BuildTransportNetworkJob(feedVersion, owner));
+            addSubJob(new BuildTransportNetworkJob(feedVersion, owner), validateFeedJob);
         }
     }
 
     @Override
     public void jobFinished () {
+        if (duplicate) return;
         if (!status.error) {
             // Note: storing a new feed version in database is handled at completion of the ValidateFeedJob subtask.
             status.update(false, "New version saved.", 100, true);
@@ -86,4 +132,13 @@ public class ProcessSingleFeedJob extends MonitorableJob {
         }
     }
 
+    /**
+     * If the version was not yet stored when processing was cancelled, nothing refers to its file or loaded feed, so
+     * remove them. A version cancelled after validation (e.g., while building its network) is kept.
+     */
+    @Override
+    public void jobCancelled () {
+        if (Persistence.feedVersions.getById(feedVersion.id) == null) feedVersion.deleteUnsaved();
+    }
+
 }
@@ -39,11 +39,7 @@ public class ReadTransportNetworkJob extends MonitorableJob {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        synchronized (status) {
-            status.message = "Transport network read successfully!";
-            status.percentComplete = 100;
-            status.completed = true;
-        }
+        status.update(false, "Transport network read successfully!", 100, true);
     }
 
 }
@@ -0,0 +1,311 @@
+package com.conveyal.datatools.manager.jobs;
+
+import com.conveyal.datatools.common.status.JobScheduler;
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.controllers.api.GtfsApiController;
+import com.conveyal.datatools.manager.controllers.api.GtfsPlusController;
+import com.conveyal.datatools.manager.models.Deployment;
+import com.conveyal.datatools.manager.models.FeedSource;
+import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.Project;
+import com.conveyal.datatools.manager.persistence.BlobInfo;
+import com.conveyal.datatools.manager.persistence.BlobStore;
+import com.conveyal.datatools.manager.persistence.FeedStore;
+import com.conveyal.datatools.manager.persistence.Persistence;
+import com.conveyal.datatools.manager.persistence.StorageUsage;
+import com.mongodb.client.model.Projections;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import static com.mongodb.client.model.Filters.in;
+
+/**
+ * Periodically reconciles the files this application stores (feeds on disk and on s3, feed contents, r5 networks, OSM
+ * extracts and temporary files) with the feed sources, feed versions, projects and deployments in the database.
+ *
+ * Usage is reported per category (see {@link #lastReport}). Files that are no longer referenced by any record are
+ * reported as orphaned, and deleted when application.data.gc.delete_orphans is true (for s3 objects,
+ * application.data.gc.delete_s3_orphans). Unreferenced feed contents are always deleted, as before.
+ */
+public class StorageGarbageCollector implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(StorageGarbageCollector.class);
+
+    /** Files left in the temporary directory by deployments, snapshot exports, GTFS+ edits and project merges */
+    private static final Pattern TEMP_FILE_PATTERN =
+            Pattern.compile("^(deployment|snapshot|.+_gtfsplus|.+_new|.+-merged).*\\.zip$");
+    private static final String PROJECT_S3_PREFIX = "project/";
+
+    /** The report of the last completed run, or null if none has completed yet */
+    public static volatile Report lastReport;
+
+    private final boolean deleteOrphans = getBooleanConfigProperty("application.data.gc.delete_orphans", false);
+    private final boolean deleteS3Orphans = getBooleanConfigProperty("application.data.gc.delete_s3_orphans", false);
+    /** Files younger than this are never orphaned, as the records referring to them may not have been saved yet */
+    private final long minAgeMillis =
+            TimeUnit.HOURS.toMillis(getLongConfigProperty("application.data.gc.min_age_hours", 24));
+    /** OSM extracts are kept this long after they were last written, even if no version has their bounds */
+    private final long osmMaxAgeMillis =
+            TimeUnit.DAYS.toMillis(getLongConfigProperty("application.data.gc.osm_max_age_days", 30));
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public static class Report {
+        public long startTime;
+        public long durationMillis;
+        /** Whether orphaned files on disk were deleted, rather than only reported */
+        public boolean deletedOrphans;
+        public Map<String, StorageUsage> categories = new LinkedHashMap<>();
+    }
+
+    /**
+     * Run the collector in the background at the interval set by application.data.gc.interval_hours (6 by default),
+     * unless application.data.gc.enabled is false.
+     */
+    public static void schedule() {
+        if (!getBooleanConfigProperty("application.data.gc.enabled", true)) {
+            LOG.info("Storage garbage collection is disabled");
+            return;
+        }
+        long intervalHours = getLongConfigProperty("application.data.gc.interval_hours", 6);
+        StorageGarbageCollector collector = new StorageGarbageCollector();
+        DataManager.scheduler.scheduleAtFixedRate(() -> DataManager.jobScheduler.submit(collector,
+                JobScheduler.Pool.IO, JobScheduler.Priority.BACKGROUND, "storage"), 1, intervalHours, TimeUnit.HOURS);
+    }
+
+    public void run() {
+        // Runs can take a while on large stores, so don't start one while another is still going.
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            lastReport = collect();
+        } catch (Exception e) {
+            LOG.error("Storage garbage collection failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private Report collect() {
+        Report report = new Report();
+        report.startTime = System.currentTimeMillis();
+
+        Set<String> feedSourceIds = new HashSet<>();
+        for (FeedSource feedSource : Persistence.feedSources.getFiltered(null, null, Projections.include("_id"))) {
+            feedSourceIds.add(feedSource.id);
+        }
+        Set<String> projectIds = new HashSet<>();
+        for (Project project : Persistence.projects.getFiltered(null, null, Projections.include("_id"))) {
+            projectIds.add(project.id);
+        }
+        Set<String> versionIds = new HashSet<>();
+        Set<String> osmDirectories = new HashSet<>();
+        List<FeedVersion> versions = Persistence.feedVersions
+                .getFiltered(null, null, Projections.include("_id", "validationSummary.bounds"));
+        List<String> versionsWithoutSummaryBounds = new ArrayList<>();
+        for (FeedVersion version : versions) {
+            versionIds.add(version.id);
+            if (version.validationSummary != null && version.validationSummary.bounds != null) {
+                osmDirectories.add(FeedVersion.osmExtractDirectory(version.validationSummary.bounds.toRectangle2D()).getName());
+            } else {
+                versionsWithoutSummaryBounds.add(version.id);
+            }
+        }
+        // Versions validated before summaries were stored (and not yet migrated) only have bounds in the full result.
+        if (!versionsWithoutSummaryBounds.isEmpty()) {
+            for (FeedVersion version : Persistence.feedVersions.getFiltered(in("_id", versionsWithoutSummaryBounds),
+                    null, Projections.include("validationResult.fullBounds"))) {
+                if (version.validationResult != null && version.validationResult.fullBounds != null) {
+                    osmDirectories.add(FeedVersion.osmExtractDirectory(version.validationResult.fullBounds.toRectangle2D()).getName());
+                }
+            }
+        }
+        // Never remove a feed a deployment refers to, even if its version record is gone.
+        for (Deployment deployment : Persistence.deployments.getFiltered(null, null, Projections.include("feedVersionIds"))) {
+            if (deployment.feedVersionIds != null) versionIds.addAll(deployment.feedVersionIds);
+        }
+
+        // With no versions recorded (e.g., a new database pointed at old data), everything would look orphaned.
+        report.deletedOrphans = deleteOrphans && !versionIds.isEmpty();
+        if (deleteOrphans && !report.deletedOrphans) {
+            LOG.warn("No feed versions found in the database, only reporting orphaned files");
+        }
+
+        Set<String> feedIds = new HashSet<>(versionIds);
+        for (String id : feedSourceIds) feedIds.add(id + ".zip");
+        for (String id : projectIds) feedIds.add(id + ".zip");
+
+        report.categories.put("feeds", FeedVersion.feedStore.reconcile(feedIds, minAgeMillis, report.deletedOrphans));
+        report.categories.put("gtfsPlusFeeds",
+                GtfsPlusController.gtfsPlusStore.reconcile(versionIds, minAgeMillis, report.deletedOrphans));
+        // Collect contents after feeds, so that the contents of feeds deleted above are collected in the same run.
+        StorageUsage contents = FeedVersion.feedStore.collectGarbage(true);
+        contents.add(GtfsPlusController.gtfsPlusStore.collectGarbage(true));
+        report.categories.put("feedContents", contents);
+        report.categories.put("networks", collectNetworks(feedSourceIds, versionIds, report.deletedOrphans));
+        report.categories.put("osmExtracts", collectOsmExtracts(osmDirectories, report.deletedOrphans));
+        report.categories.put("tempFiles", collectTempFiles(report.deletedOrphans));
+        if (DataManager.useS3) {
+            if ("mtc".equals(GtfsApiController.extensionType)) {
+                // Feeds for the GTFS API are pushed to the same bucket without records of their own.
+                LOG.info("Skipping reconciliation of s3 feeds, which are shared with the GTFS API");
+            } else {
+                report.categories.put("s3Feeds", collectS3(FeedStore.s3Prefix, feedIds, report.deletedOrphans && deleteS3Orphans));
+                Set<String> projectKeys = new HashSet<>();
+                for (String id : projectIds) projectKeys.add(id + ".zip");
+                report.categories.put("s3Projects", collectS3(PROJECT_S3_PREFIX, projectKeys, report.deletedOrphans && deleteS3Orphans));
+            }
+        }
+
+        report.durationMillis = System.currentTimeMillis() - report.startTime;
+        for (Map.Entry<String, StorageUsage> category : report.categories.entrySet()) {
+            StorageUsage usage = category.getValue();
+            LOG.info("Storage {}: {} files ({} MB), {} orphaned ({} MB), {} deleted ({} MB)", category.getKey(),
+                    usage.files, usage.bytes / 1024 / 1024, usage.orphanedFiles, usage.orphanedBytes / 1024 / 1024,
+                    usage.deletedFiles, usage.deletedBytes / 1024 / 1024);
+        }
+        return report;
+    }
+
+    /**
+     * Transport networks are stored per feed source as [versionId]_[r5 version]_network.dat. A network is orphaned if
+     * its version is gone or it was built with another version of r5, which can no longer read it.
+     */
+    private StorageUsage collectNetworks(Set<String> feedSourceIds, Set<String> versionIds, boolean delete) {
+        StorageUsage usage = new StorageUsage();
+        File[] directories = FeedStore.basePath.listFiles(File::isDirectory);
+        if (directories == null) return usage;
+        long cutoff = System.currentTimeMillis() - minAgeMillis;
+        for (File directory : directories) {
+            File[] networks = directory.listFiles((dir, name) -> name.endsWith("_network.dat"));
+            if (networks == null || networks.length == 0) continue;
+            for (File network : networks) {
+                long size = network.length();
+                usage.stored(size);
+                String name = network.getName();
+                boolean current = feedSourceIds.contains(directory.getName())
+                        && name.endsWith(FeedVersion.NETWORK_FILE_SUFFIX)
+                        && versionIds.contains(name.substring(0, name.length() - FeedVersion.NETWORK_FILE_SUFFIX.length()));
+                if (current || network.lastModified() >= cutoff) continue;
+                usage.orphaned(size);
+                if (delete && network.delete()) {
+                    usage.deleted(size);
+                    LOG.info("Deleted orphaned network {}", network);
+                }
+            }
+            if (delete && !feedSourceIds.contains(directory.getName())) {
+                // Removes the directory of a deleted feed source once its networks are gone, but nothing else.
+                String[] remaining = directory.list();
+                if (remaining != null && remaining.length == 0) directory.delete();
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * OSM extracts are shared by all versions with the same bounds. An extract is orphaned if no version has its
+     * bounds and it has not been written for a while, as it may be needed again when a similar feed is loaded.
+     */
+    private StorageUsage collectOsmExtracts(Set<String> liveDirectories, boolean delete) {
+        StorageUsage usage = new StorageUsage();
+        File[] directories = FeedVersion.OSM_BASE_PATH.listFiles(File::isDirectory);
+        if (directories == null) return usage;
+        long cutoff = System.currentTimeMillis() - Math.max(osmMaxAgeMillis, minAgeMillis);
+        for (File directory : directories) {
+            long size = FileUtils.sizeOfDirectory(directory);
+            usage.stored(size);
+            if (liveDirectories.contains(directory.getName()) || lastModified(directory) >= cutoff) continue;
+            usage.orphaned(size);
+            if (delete) {
+                try {
+                    FileUtils.deleteDirectory(directory);
+                    usage.deleted(size);
+                    LOG.info("Deleted unused OSM extract {}", directory);
+                } catch (IOException e) {
+                    LOG.error("Could not delete OSM extract {}", directory, e);
+                }
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Temporary files are normally deleted by the job that created them, but are left behind when a job fails or the
+     * server stops while it runs. They are orphaned once they are older than the minimum age.
+     */
+    private StorageUsage collectTempFiles(boolean delete) {
+        StorageUsage usage = new StorageUsage();
+        File[] files = new File(System.getProperty("java.io.tmpdir"))
+                .listFiles(file -> file.isFile() && TEMP_FILE_PATTERN.matcher(file.getName()).matches());
+        if (files == null) return usage;
+        long cutoff = System.currentTimeMillis() - minAgeMillis;
+        for (File file : files) {
+            long size = file.length();
+            usage.stored(size);
+            if (file.lastModified() >= cutoff) continue;
+            usage.orphaned(size);
+            if (delete && file.delete()) usage.deleted(size);
+        }
+        return usage;
+    }
+
+    /**
+     * Reconcile the feed bucket objects under the given prefix, which are orphaned if their name (the key without the
+     * prefix) is not among the given names.
+     */
+    private StorageUsage collectS3(String prefix, Set<String> liveNames, boolean delete) {
+        StorageUsage usage = new StorageUsage();
+        BlobStore blobStore = FeedStore.blobStore(DataManager.feedBucket);
+        long cutoff = System.currentTimeMillis() - minAgeMillis;
+        List<String> orphanedKeys = new ArrayList<>();
+        try {
+            for (BlobInfo blob : blobStore.list(prefix).join()) {
+                usage.stored(blob.size);
+                String name = blob.key.substring(prefix.length());
+                // Skip "directory" placeholders and anything nested more deeply than this application stores.
+                if (name.isEmpty() || name.contains("/")) continue;
+                if (liveNames.contains(name) || blob.lastModified >= cutoff) continue;
+                usage.orphaned(blob.size);
+                orphanedKeys.add(blob.key);
+                if (delete) usage.deleted(blob.size);
+            }
+            if (delete) {
+                if (!orphanedKeys.isEmpty()) blobStore.delete(orphanedKeys.toArray(new String[0])).join();
+                if (!orphanedKeys.isEmpty()) LOG.info("Deleted {} orphaned objects under {}", orphanedKeys.size(), prefix);
+            }
+        } catch (CompletionException e) {
+            LOG.error("Could not reconcile objects under {} in bucket {}", prefix, DataManager.feedBucket, e.getCause());
+            usage.deletedFiles = 0;
+            usage.deletedBytes = 0;
+        }
+        return usage;
+    }
+
+    /** The most recent modification time of a directory or anything in it */
+    private static long lastModified(File directory) {
+        long lastModified = directory.lastModified();
+        File[] files = directory.listFiles();
+        if (files == null) return lastModified;
+        return Arrays.stream(files).mapToLong(File::lastModified).reduce(lastModified, Math::max);
+    }
+
+    private static long getLongConfigProperty(String name, long defaultValue) {
+        return DataManager.hasConfigProperty(name) ? DataManager.getConfigProperty(name).asLong() : defaultValue;
+    }
+
+    private static boolean getBooleanConfigProperty(String name, boolean defaultValue) {
+        return DataManager.hasConfigProperty(name) ? DataManager.getConfigProperty(name).asBoolean() : defaultValue;
+    }
+}
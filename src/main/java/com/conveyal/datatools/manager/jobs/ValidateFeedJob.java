@@ -16,6 +16,8 @@ public class ValidateFeedJob extends MonitorableJob {
     public static final Logger LOG = LoggerFactory.getLogger(ValidateFeedJob.class);
 
     private FeedVersion feedVersion;
+    /** Whether the version was validated and stored by an earlier attempt at processing it (see JobQueue) */
+    private boolean alreadyStored = false;
 
     public ValidateFeedJob(FeedVersion version, String owner) {
         super(owner, "Validating Feed", JobType.VALIDATE_FEED);
@@ -26,13 +28,23 @@ public class ValidateFeedJob extends MonitorableJob {
     @Override
     public void jobLogic () {
         LOG.info("Running ValidateFeedJob for {}", feedVersion.id);
+        if (JobType.PROCESS_FEED.equals(parentJobType)) {
+            FeedVersion stored = Persistence.feedVersions.getById(feedVersion.id);
+            if (stored != null && stored.validationSummary != null) {
+                LOG.info("Version {} already validated, skipping validation", feedVersion.id);
+                feedVersion.validationResult = stored.retrieveValidationResult();
+                feedVersion.validationSummary = stored.validationSummary;
+                alreadyStored = true;
+                return;
+            }
+        }
         feedVersion.validate(status);
     }
 
     @Override
     public void jobFinished () {
         if (!status.error) {
-            if (parentJobId != null && JobType.PROCESS_FEED.equals(parentJobType)) {
+            if (parentJobId != null && JobType.PROCESS_FEED.equals(parentJobType) && !alreadyStored) {
                 // Validate stage is happening as part of an overall process feed job.
                 // At this point all GTFS data has been loaded and validated, so we record
                 // the FeedVersion into mongo.
@@ -40,6 +52,9 @@ public class ValidateFeedJob extends MonitorableJob {
                 // such as BuildTransportNetwork, to finish. If those subsequent jobs fail,
                 // the version won't get loaded into the database (even though it exists in postgres).
                 feedVersion.storeUser(owner);
+                // Number the version now rather than when it was created, as other versions of the feed source may
+                // have been stored in the meantime. Jobs on a feed source run one at a time, so this is not racy.
+                feedVersion.version = feedVersion.parentFeedSource().feedVersionCount() + 1;
                 Persistence.feedVersions.create(feedVersion);
             }
             // TODO: If ValidateFeedJob is called without a parent job (e.g., to "re-validate" a feed), we should handle
@@ -0,0 +1,52 @@
+package com.conveyal.datatools.manager.jobs;
+
+import com.conveyal.datatools.common.status.JobScheduler;
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.models.FeedValidationResultSummary;
+import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.persistence.Persistence;
+import com.mongodb.client.model.Projections;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.ne;
+
+/**
+ * One-off migration storing the validation summary of feed versions validated before summaries were stored alongside
+ * the validation result. Run in the background on startup; once every version has a summary there is nothing to do.
+ */
+public class ValidationSummaryBackfill implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(ValidationSummaryBackfill.class);
+
+    public static void schedule() {
+        DataManager.jobScheduler.submit(new ValidationSummaryBackfill(),
+                JobScheduler.Pool.IO, JobScheduler.Priority.BACKGROUND, "migration");
+    }
+
+    public void run() {
+        try {
+            List<FeedVersion> versions = Persistence.feedVersions.getFiltered(
+                    and(eq("validationSummary", null), ne("validationResult", null)), null, Projections.include("_id"));
+            if (versions.isEmpty()) return;
+            LOG.info("Storing validation summaries of {} feed versions", versions.size());
+            int stored = 0;
+            for (FeedVersion version : versions) {
+                // Load the full results one version at a time, they can be large.
+                FeedVersion withResult = Persistence.feedVersions.getOneFiltered(eq(version.id), null,
+                        Projections.include("validationResult", "feedLoadResult"));
+                if (withResult == null || withResult.validationResult == null) continue;
+                FeedValidationResultSummary summary =
+                        new FeedValidationResultSummary(withResult.validationResult, withResult.feedLoadResult);
+                Persistence.feedVersions.updateField(version.id, "validationSummary", summary);
+                stored++;
+            }
+            LOG.info("Stored validation summaries of {} feed versions", stored);
+        } catch (Exception e) {
+            LOG.error("Could not store validation summaries of feed versions", e);
+        }
+    }
+}
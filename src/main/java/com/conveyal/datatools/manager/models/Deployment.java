@@ -1,5 +1,6 @@
 package com.conveyal.datatools.manager.models;
 
+import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.persistence.Persistence;
 import com.conveyal.datatools.manager.utils.StringUtils;
@@ -30,14 +31,20 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+
 /**
  * A deployment of (a given version of) OTP on a given set of feeds.
  * @author mattwigway
@@ -88,12 +95,18 @@ public class Deployment extends Model implements Serializable {
 
         ArrayList<SummarizedFeedVersion> ret = new ArrayList<>(feedVersionIds.size());
 
+        // Fetch all versions in one query, leaving out the full validation results (only the summaries are needed).
+        Map<String, FeedVersion> versionsById = new HashMap<>();
+        for (FeedVersion v : Persistence.feedVersions.getFiltered(in("_id", feedVersionIds), null, FeedVersion.WITHOUT_VALIDATION_RESULT)) {
+            versionsById.put(v.id, v);
+        }
+
         for (String id : feedVersionIds) {
-            FeedVersion v = Persistence.feedVersions.getById(id);
+            FeedVersion v = versionsById.get(id);
 
             // should never happen but can if someone monkeyed around with dump/restore
             if (v != null)
-                ret.add(new SummarizedFeedVersion(Persistence.feedVersions.getById(id)));
+                ret.add(new SummarizedFeedVersion(v));
             else
                 LOG.error("Reference integrity error for deployment {} ({}), feed version {} does not exist", this.name, this.id, id);
         }
@@ -216,12 +229,18 @@ public class Deployment extends Model implements Serializable {
         // do nothing.
     }
 
+    public void dump (File output, boolean includeManifest, boolean includeOsm, boolean includeOtpConfig) throws IOException {
+        dump(output, includeManifest, includeOsm, includeOtpConfig, null);
+    }
+
     /** Dump this deployment to the given file
      * @param output the output file
      * @param includeOsm should an osm.pbf file be included in the dump?
      * @param includeOtpConfig should OTP build-config.json and router-config.json be included?
+     * @param status optional status of the job dumping the deployment, checked for cancellation between files
      */
-    public void dump (File output, boolean includeManifest, boolean includeOsm, boolean includeOtpConfig) throws IOException {
+    public void dump (File output, boolean includeManifest, boolean includeOsm, boolean includeOtpConfig,
+                      MonitorableJob.Status status) throws IOException {
         // create the zipfile
         ZipOutputStream out;
         try {
@@ -250,6 +269,7 @@ public class Deployment extends Model implements Serializable {
 
         // write each of the GTFS feeds
         for (FeedVersion v : this.retrieveFullFeedVersions()) {
+            checkCancelled(status, out);
             File feed = v.retrieveGtfsFile();
 
             FileInputStream in;
@@ -298,6 +318,7 @@ public class Deployment extends Model implements Serializable {
         }
 
         if (includeOsm) {
+            checkCancelled(status, out);
             // extract OSM and insert it into the deployment bundle
             ZipEntry e = new ZipEntry("osm.pbf");
             out.putNextEntry(e);
@@ -349,6 +370,14 @@ public class Deployment extends Model implements Serializable {
         out.close();
     }
 
+    /** Stop dumping (closing the unfinished output) if the job dumping the deployment has been cancelled. */
+    private static void checkCancelled (MonitorableJob.Status status, ZipOutputStream out) throws IOException {
+        if (status != null && status.cancelled) {
+            out.close();
+            status.checkCancelled();
+        }
+    }
+
     // Get OSM extract
     public static InputStream downloadOsmExtract(Rectangle2D bounds) {
         // call vex server
@@ -457,15 +486,8 @@ public class Deployment extends Model implements Serializable {
      * Get the deployment currently deployed to a particular server.
      */
     public static Deployment retrieveDeploymentForServerAndRouterId(String server, String routerId) {
-        for (Deployment d : Persistence.deployments.getAll()) {
-            if (d.deployedTo != null && d.deployedTo.equals(server)) {
-                if ((routerId != null && routerId.equals(d.routerId)) || d.routerId == routerId) {
-                    return d;
-                }
-            }
-        }
-
-        return null;
+        // a null router ID matches deployments with no router ID
+        return Persistence.deployments.getOneFiltered(and(eq("deployedTo", server), eq("routerId", routerId)), null);
     }
 
     @JsonProperty("organizationId")
@@ -487,7 +509,7 @@ public class Deployment extends Model implements Serializable {
         public int version;
 
         public SummarizedFeedVersion (FeedVersion version) {
-            this.validationResult = new FeedValidationResultSummary(version.validationResult, version.feedLoadResult);
+            this.validationResult = version.validationSummary();
             this.feedSource = version.parentFeedSource();
             this.updated = version.updated;
             this.id = version.id;
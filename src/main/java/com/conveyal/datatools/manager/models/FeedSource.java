@@ -1,37 +1,58 @@
 package com.conveyal.datatools.manager.models;
 
-import com.amazonaws.services.s3.model.CannedAccessControlList;
-import com.amazonaws.services.s3.model.DeleteObjectsRequest;
-import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.editor.datastore.GlobalTx;
 import com.conveyal.datatools.editor.datastore.VersionedDataStore;
+import com.conveyal.datatools.common.status.JobScheduler;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.jobs.NotifyUsersForSubscriptionJob;
+import com.conveyal.datatools.manager.persistence.BlobInfo;
+import com.conveyal.datatools.manager.persistence.BlobStore;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import com.conveyal.datatools.manager.persistence.Persistence;
-import com.conveyal.datatools.manager.utils.HashUtils;
-import com.conveyal.gtfs.validator.ValidationResult;
+import com.conveyal.datatools.manager.utils.FeedFetcher;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonView;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static com.conveyal.datatools.manager.utils.StringUtils.getCleanName;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.pullAll;
 import static com.mongodb.client.model.Updates.set;
 
 /**
@@ -60,10 +81,83 @@ public class FeedSource extends Model implements Cloneable {
 
     @JsonProperty("organizationId")
     public String organizationId () {
+        if (computedFieldsLoaded) return loadedOrganizationId;
         Project project = retrieveProject();
         return project == null ? null : project.organizationId;
     }
 
+    /**
+     * Values for the computed JSON fields, filled in for a whole list of feed sources at once by loadComputedFields.
+     * Otherwise each feed source would query Mongo several times when serialized. Only meaningful when
+     * computedFieldsLoaded is true, and not kept up to date afterwards.
+     */
+    private transient boolean computedFieldsLoaded;
+    private transient String loadedOrganizationId;
+    private transient FeedVersion loadedLatest;
+    private transient int loadedFeedVersionCount;
+    private transient List<ExternalFeedSourceProperty> loadedExternalProperties;
+
+    /**
+     * Load the computed fields shown in the UI (organization, latest version, version count and external properties)
+     * for the given feed sources with a fixed number of queries, rather than several queries per feed source. Call
+     * this before serializing a list of feed sources.
+     */
+    public static void loadComputedFields (Collection<FeedSource> feedSources) {
+        if (feedSources.isEmpty()) return;
+        Set<String> ids = feedSources.stream().map(fs -> fs.id).collect(Collectors.toSet());
+        Set<String> projectIds = feedSources.stream()
+                .map(fs -> fs.projectId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        // These queries don't depend on one another, so issue them all at once and wait only for the slowest. The
+        // latest versions are fetched as soon as the aggregation that identifies them completes.
+        CompletableFuture<List<Project>> projectsFuture = Persistence.asyncProjects
+                .getFiltered(in("_id", projectIds), null, Projections.include("organizationId"));
+        // Find the latest version and version count of every feed source in a single aggregation. The sort can use
+        // the (feedSourceId, version) index.
+        CompletableFuture<List<Document>> versionGroupsFuture = Persistence.asyncFeedVersions.aggregate(Arrays.asList(
+                Aggregates.match(in("feedSourceId", ids)),
+                Aggregates.sort(Sorts.orderBy(Sorts.ascending("feedSourceId"), Sorts.descending("version"))),
+                Aggregates.group("$feedSourceId",
+                        Accumulators.first("latestVersionId", "$_id"),
+                        Accumulators.sum("count", 1))
+        ));
+        CompletableFuture<List<FeedVersion>> latestVersionsFuture = versionGroupsFuture.thenCompose(groups ->
+                Persistence.asyncFeedVersions.getFiltered(
+                        in("_id", groups.stream().map(group -> group.getString("latestVersionId")).collect(Collectors.toList())),
+                        null, FeedVersion.WITHOUT_VALIDATION_RESULT));
+        CompletableFuture<List<ExternalFeedSourceProperty>> propertiesFuture = Persistence.asyncExternalFeedSourceProperties
+                .getFiltered(in("feedSourceId", ids), null, null);
+
+        Map<String, String> organizationIdByProject = new HashMap<>();
+        for (Project project : projectsFuture.join()) {
+            organizationIdByProject.put(project.id, project.organizationId);
+        }
+
+        Map<String, String> latestVersionIdByFeedSource = new HashMap<>();
+        Map<String, Integer> versionCountByFeedSource = new HashMap<>();
+        for (Document group : versionGroupsFuture.join()) {
+            latestVersionIdByFeedSource.put(group.getString("_id"), group.getString("latestVersionId"));
+            versionCountByFeedSource.put(group.getString("_id"), group.getInteger("count"));
+        }
+        Map<String, FeedVersion> latestVersionById = new HashMap<>();
+        for (FeedVersion version : latestVersionsFuture.join()) {
+            latestVersionById.put(version.id, version);
+        }
+
+        Map<String, List<ExternalFeedSourceProperty>> propertiesByFeedSource = propertiesFuture.join().stream()
+                .collect(Collectors.groupingBy(prop -> prop.feedSourceId));
+
+        for (FeedSource fs : feedSources) {
+            fs.loadedOrganizationId = organizationIdByProject.get(fs.projectId);
+            fs.loadedLatest = latestVersionById.get(latestVersionIdByFeedSource.get(fs.id));
+            fs.loadedFeedVersionCount = versionCountByFeedSource.getOrDefault(fs.id, 0);
+            fs.loadedExternalProperties = propertiesByFeedSource.getOrDefault(fs.id, Collections.emptyList());
+            fs.computedFieldsLoaded = true;
+        }
+    }
+
     // TODO: Add back in regions once they have been refactored
 //    public List<Region> retrieveRegionList () {
 //        return Region.retrieveAll().stream().filter(r -> Arrays.asList(regions).contains(r.id)).collect(Collectors.toList());
@@ -138,7 +232,7 @@ public class FeedSource extends Model implements Cloneable {
      * @return the fetched FeedVersion if a new version is available or null if nothing needs to be updated.
      */
     public FeedVersion fetch (MonitorableJob.Status status, String fetchUser) {
-        status.message = "Downloading file";
+        status.update("Downloading file", status.percentComplete);
 
         FeedVersion latest = retrieveLatest();
 
@@ -152,10 +246,9 @@ public class FeedSource extends Model implements Cloneable {
         URL url = this.url;
         LOG.info("Fetching from {}", url.toString());
 
-        // make the request, using the proper HTTP caching headers to prevent refetch, if applicable
-        HttpURLConnection conn;
+        HttpGet request;
         try {
-            conn = (HttpURLConnection) url.openConnection();
+            request = new HttpGet(url.toURI());
         } catch (Exception e) {
             String message = String.format("Unable to open connection to %s; not fetching feed %s", url, this.name);
             LOG.error(message);
@@ -164,69 +257,78 @@ public class FeedSource extends Model implements Cloneable {
             return null;
         }
 
-        conn.setDefaultUseCaches(true);
-
+        // Make the request conditional on the feed having changed since the latest version was fetched, if applicable.
         // lastFetched is set to null when the URL changes and when latest feed version is deleted
-        if (latest != null && this.lastFetched != null)
-            conn.setIfModifiedSince(Math.min(latest.updated.getTime(), this.lastFetched.getTime()));
+        if (latest != null && this.lastFetched != null) {
+            if (latest.fetchETag != null) request.setHeader(HttpHeaders.IF_NONE_MATCH, latest.fetchETag);
+            // Servers compare If-Modified-Since with their Last-Modified, so send it back as is where known.
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, latest.fetchLastModified != null
+                    ? latest.fetchLastModified
+                    : DateUtils.formatDate(new Date(Math.min(latest.updated.getTime(), this.lastFetched.getTime()))));
+        }
 
         File newGtfsFile;
+        String eTag;
+        String lastModified;
 
-        try {
-            conn.connect();
+        try (CloseableHttpResponse response = FeedFetcher.execute(request)) {
+            StatusLine statusLine = response.getStatusLine();
+            eTag = headerValue(response, HttpHeaders.ETAG);
+            lastModified = headerValue(response, HttpHeaders.LAST_MODIFIED);
             String message;
-            switch (conn.getResponseCode()) {
-                case HttpURLConnection.HTTP_NOT_MODIFIED:
+            switch (statusLine.getStatusCode()) {
+                case HttpStatus.SC_NOT_MODIFIED:
                     message = String.format("Feed %s has not been modified", this.name);
                     LOG.warn(message);
                     status.update(false, message, 100.0);
                     return null;
-                case HttpURLConnection.HTTP_OK:
-                case HttpURLConnection.HTTP_MOVED_TEMP:
-                case HttpURLConnection.HTTP_MOVED_PERM:
+                case HttpStatus.SC_OK:
                     message = String.format("Saving %s feed.", this.name);
                     LOG.info(message);
                     status.update(false, message, 75.0);
-                    newGtfsFile = version.newGtfsFile(conn.getInputStream());
+                    // The feed is hashed as it is downloaded, so that an unchanged feed is not stored at all.
+                    newGtfsFile = version.newGtfsFileIfChanged(response.getEntity().getContent(),
+                            latest != null ? latest.hash : null);
                     break;
                 default:
-                    message = String.format("HTTP status (%d: %s) retrieving %s feed", conn.getResponseCode(), conn.getResponseMessage(), this.name);
+                    message = String.format("HTTP status (%d: %s) retrieving %s feed", statusLine.getStatusCode(), statusLine.getReasonPhrase(), this.name);
                     LOG.error(message);
                     status.update(true, message, 100.0);
                     return null;
             }
         } catch (IOException e) {
             String message = String.format("Unable to connect to %s; not fetching %s feed", url, this.name);
-            LOG.error(message);
+            LOG.error(message, e);
             status.update(true, message, 100.0);
-            e.printStackTrace();
             return null;
         }
 
         // note that anything other than a new feed fetched successfully will have already returned from the function
-//        version.hash();
-        version.hash = HashUtils.hashFile(newGtfsFile);
 
-
-        if (latest != null && version.hash.equals(latest.hash)) {
-            // If new version hash equals the hash for the latest version, do not error. Simply indicate that server
-            // operators should add If-Modified-Since support to avoid wasting bandwidth.
+        if (newGtfsFile == null) {
+            // The feed has the same hash as the latest version. Do not error; keep the validators it was served with,
+            // which may let the server answer the next fetch without sending the feed.
+            if (eTag != null || lastModified != null) {
+                Persistence.feedVersions.update(latest.id, combine(set("fetchETag", eTag), set("fetchLastModified", lastModified)));
+            }
             String message = String.format("Feed %s was fetched but has not changed; server operators should add If-Modified-Since support to avoid wasting bandwidth", this.name);
             LOG.warn(message);
-            newGtfsFile.delete();
             status.update(false, message, 100.0, true);
             return null;
         }
         else {
             version.userId = this.userId;
+            version.fetchETag = eTag;
+            version.fetchLastModified = lastModified;
 
             // FIXME: Does this work?
             Persistence.feedSources.updateField(this.id, "lastFetched", version.updated);
 
-            // Set file timestamp according to last modified header from connection
-            version.fileTimestamp = conn.getLastModified();
+            // Set file timestamp according to last modified header from response
+            Date lastModifiedDate = lastModified != null ? DateUtils.parseDate(lastModified) : null;
+            version.fileTimestamp = lastModifiedDate != null ? lastModifiedDate.getTime() : 0;
             NotifyUsersForSubscriptionJob notifyFeedJob = new NotifyUsersForSubscriptionJob("feed-updated", this.id, "New feed version created for " + this.name);
-            DataManager.lightExecutor.execute(notifyFeedJob);
+            DataManager.jobScheduler.submit(notifyFeedJob, JobScheduler.Pool.LIGHT, JobScheduler.Priority.BACKGROUND, "notifications");
 
             String message = String.format("Fetch complete for %s", this.name);
             LOG.info(message);
@@ -235,6 +337,11 @@ public class FeedSource extends Model implements Cloneable {
         }
     }
 
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
     public int compareTo(FeedSource o) {
         return this.name.compareTo(o.name);
     }
@@ -249,8 +356,8 @@ public class FeedSource extends Model implements Cloneable {
      */
     @JsonIgnore
     public FeedVersion retrieveLatest() {
-        FeedVersion newestVersion = Persistence.feedVersions
-                .getOneFiltered(eq("feedSourceId", this.id), Sorts.descending("version"));
+        FeedVersion newestVersion = Persistence.feedVersions.getOneFiltered(eq("feedSourceId", this.id),
+                Sorts.descending("version"), FeedVersion.WITHOUT_VALIDATION_RESULT);
         if (newestVersion == null) {
             // Is this what happens if there are none?
             return null;
@@ -262,7 +369,7 @@ public class FeedSource extends Model implements Cloneable {
     @JsonView(JsonViews.UserInterface.class)
     @JsonProperty("latestVersionId")
     public String latestVersionId() {
-        FeedVersion latest = retrieveLatest();
+        FeedVersion latest = computedFieldsLoaded ? loadedLatest : retrieveLatest();
         return latest != null ? latest.id : null;
     }
 
@@ -276,7 +383,7 @@ public class FeedSource extends Model implements Cloneable {
     @JsonView(JsonViews.UserInterface.class)
     @JsonProperty("lastUpdated")
     public Date lastUpdated() {
-        FeedVersion latest = retrieveLatest();
+        FeedVersion latest = computedFieldsLoaded ? loadedLatest : retrieveLatest();
         return latest != null ? latest.updated : null;
     }
 
@@ -285,9 +392,8 @@ public class FeedSource extends Model implements Cloneable {
     @JsonView(JsonViews.UserInterface.class)
     @JsonProperty("latestValidation")
     public FeedValidationResultSummary latestValidation() {
-        FeedVersion latest = retrieveLatest();
-        ValidationResult result = latest != null ? latest.validationResult : null;
-        return result != null ?new FeedValidationResultSummary(result, latest.feedLoadResult) : null;
+        FeedVersion latest = computedFieldsLoaded ? loadedLatest : retrieveLatest();
+        return latest != null ? latest.validationSummary() : null;
     }
 
     // TODO: figure out some way to indicate whether feed has been edited since last snapshot (i.e, there exist changes)
@@ -310,13 +416,15 @@ public class FeedSource extends Model implements Cloneable {
     public Map<String, Map<String, String>> externalProperties() {
 
         Map<String, Map<String, String>> resourceTable = new HashMap<>();
+        List<ExternalFeedSourceProperty> properties = computedFieldsLoaded
+                ? loadedExternalProperties
+                : Persistence.externalFeedSourceProperties.getFiltered(eq("feedSourceId", this.id));
 
         for(String resourceType : DataManager.feedResources.keySet()) {
             Map<String, String> propTable = new HashMap<>();
 
-            // FIXME: use mongo filters instead
-            Persistence.externalFeedSourceProperties.getAll().stream()
-                    .filter(prop -> prop.feedSourceId.equals(this.id))
+            properties.stream()
+                    .filter(prop -> resourceType.equals(prop.resourceType))
                     .forEach(prop -> propTable.put(prop.name, prop.value));
 
             resourceTable.put(resourceType, propTable);
@@ -340,13 +448,14 @@ public class FeedSource extends Model implements Cloneable {
      */
     @JsonIgnore
     public Collection<FeedVersion> retrieveFeedVersions() {
-        return Persistence.feedVersions.getFiltered(eq("feedSourceId", this.id));
+        return Persistence.feedVersions.getFiltered(eq("feedSourceId", this.id), null, FeedVersion.WITHOUT_VALIDATION_RESULT);
     }
 
     @JsonView(JsonViews.UserInterface.class)
     @JsonProperty("feedVersionCount")
     public int feedVersionCount() {
-        return retrieveFeedVersions().size();
+        if (computedFieldsLoaded) return loadedFeedVersionCount;
+        return (int) Persistence.feedVersions.count(eq("feedSourceId", this.id));
     }
 
     @JsonView(JsonViews.UserInterface.class)
@@ -368,44 +477,46 @@ public class FeedSource extends Model implements Cloneable {
         // only deploy to public if storing feeds on s3 (no mechanism for downloading/publishing
         // them otherwise)
         if (DataManager.useS3) {
-            boolean sourceExists = FeedStore.s3Client.doesObjectExist(DataManager.feedBucket, sourceKey);
-            ObjectMetadata sourceMetadata = sourceExists
-                    ? FeedStore.s3Client.getObjectMetadata(DataManager.feedBucket, sourceKey)
-                    : null;
-            boolean latestExists = FeedStore.s3Client.doesObjectExist(DataManager.feedBucket, latestVersionKey);
-            ObjectMetadata latestVersionMetadata = latestExists
-                    ? FeedStore.s3Client.getObjectMetadata(DataManager.feedBucket, latestVersionKey)
-                    : null;
-            boolean latestVersionMatchesSource = sourceMetadata != null &&
-                    latestVersionMetadata != null &&
-                    sourceMetadata.getETag().equals(latestVersionMetadata.getETag());
-            if (sourceExists && latestVersionMatchesSource) {
+            BlobStore blobStore = FeedStore.blobStore(DataManager.feedBucket);
+            CompletableFuture<BlobInfo> source = blobStore.head(sourceKey);
+            CompletableFuture<BlobInfo> latestVersion = blobStore.head(latestVersionKey);
+            BlobInfo sourceInfo = source.join();
+            BlobInfo latestVersionInfo = latestVersion.join();
+            boolean latestVersionMatchesSource = sourceInfo != null &&
+                    latestVersionInfo != null &&
+                    sourceInfo.eTag.equals(latestVersionInfo.eTag);
+            if (latestVersionMatchesSource) {
                 LOG.info("copying feed {} to s3 public folder", this);
-                FeedStore.s3Client.setObjectAcl(DataManager.feedBucket, sourceKey, CannedAccessControlList.PublicRead);
-                FeedStore.s3Client.copyObject(DataManager.feedBucket, sourceKey, DataManager.feedBucket, publicKey);
-                FeedStore.s3Client.setObjectAcl(DataManager.feedBucket, publicKey, CannedAccessControlList.PublicRead);
+                CompletableFuture.allOf(
+                        blobStore.setPublic(sourceKey, true),
+                        blobStore.copy(sourceKey, publicKey).thenCompose(v -> blobStore.setPublic(publicKey, true))
+                ).join();
             } else {
                 LOG.warn("Latest feed source {} on s3 at {} does not exist or does not match latest version. Using latest version instead.", this, sourceKey);
-                if (FeedStore.s3Client.doesObjectExist(DataManager.feedBucket, latestVersionKey)) {
+                if (latestVersionInfo != null) {
                     LOG.info("copying feed version {} to s3 public folder", versionId);
-                    FeedStore.s3Client.setObjectAcl(DataManager.feedBucket, latestVersionKey, CannedAccessControlList.PublicRead);
-                    FeedStore.s3Client.copyObject(DataManager.feedBucket, latestVersionKey, DataManager.feedBucket, publicKey);
-                    FeedStore.s3Client.setObjectAcl(DataManager.feedBucket, publicKey, CannedAccessControlList.PublicRead);
-
-                    // also copy latest version to feedStore latest
-                    FeedStore.s3Client.copyObject(DataManager.feedBucket, latestVersionKey, DataManager.feedBucket, sourceKey);
+                    CompletableFuture.allOf(
+                            blobStore.setPublic(latestVersionKey, true),
+                            blobStore.copy(latestVersionKey, publicKey).thenCompose(v -> blobStore.setPublic(publicKey, true)),
+                            // also copy latest version to feedStore latest
+                            blobStore.copy(latestVersionKey, sourceKey)
+                    ).join();
                 }
             }
         }
     }
 
     public void makePrivate() {
+        if (!DataManager.useS3) return;
         String sourceKey = FeedStore.s3Prefix + this.id + ".zip";
         String publicKey = toPublicKey();
-        if (FeedStore.s3Client.doesObjectExist(DataManager.feedBucket, sourceKey)) {
+        BlobStore blobStore = FeedStore.blobStore(DataManager.feedBucket);
+        if (blobStore.head(sourceKey).join() != null) {
             LOG.info("removing feed {} from s3 public folder", this);
-            FeedStore.s3Client.setObjectAcl(DataManager.feedBucket, sourceKey, CannedAccessControlList.AuthenticatedRead);
-            FeedStore.s3Client.deleteObject(DataManager.feedBucket, publicKey);
+            CompletableFuture.allOf(
+                    blobStore.setPublic(sourceKey, false),
+                    blobStore.delete(publicKey)
+            ).join();
         }
     }
 
@@ -413,11 +524,14 @@ public class FeedSource extends Model implements Cloneable {
     // FIXME for a brief moment feed version numbers are incoherent. Do this in a single operation or eliminate feed version numbers.
     public void renumberFeedVersions() {
         int i = 1;
-        for (FeedVersion feedVersion : Persistence.feedVersions.getMongoCollection().find(eq("feedSourceId", this.id)).sort(Sorts.ascending("updated"))) {
-            // Yes it's ugly to pass in a string, but we need to change the parameter type of update to take a Document.
-            Persistence.feedVersions.update(feedVersion.id, String.format("{version:%d}", i));
+        Map<String, Bson> updatesById = new HashMap<>();
+        for (FeedVersion feedVersion : Persistence.feedVersions.getFiltered(eq("feedSourceId", this.id),
+                Sorts.ascending("updated"), Projections.include("version"))) {
+            // Only versions after a deleted one need a new number.
+            if (feedVersion.version != i) updatesById.put(feedVersion.id, set("version", i));
             i += 1;
         }
+        Persistence.feedVersions.bulkUpdate(updatesById);
     }
 
     /**
@@ -433,13 +547,26 @@ public class FeedSource extends Model implements Cloneable {
      * Delete this feed source and everything that it contains.
      */
     public void delete() {
-        retrieveFeedVersions().forEach(FeedVersion::delete);
+        // Delete the versions all at once rather than with FeedVersion.delete, which renumbers the remaining versions
+        // after each one.
+        Collection<FeedVersion> feedVersions = retrieveFeedVersions();
+        for (FeedVersion feedVersion : feedVersions) {
+            try {
+                feedVersion.deleteFiles();
+            } catch (Exception e) {
+                LOG.warn("Error deleting files for version {}", feedVersion.id, e);
+            }
+        }
+        List<String> feedVersionIds = feedVersions.stream().map(v -> v.id).collect(Collectors.toList());
+        Persistence.deployments.updateMany(eq("projectId", this.projectId),
+                pullAll("feedVersionIds", feedVersionIds));
+        Persistence.feedVersions.removeFiltered(eq("feedSourceId", this.id));
 
         // delete latest copy of feed source
         if (DataManager.useS3) {
-            DeleteObjectsRequest delete = new DeleteObjectsRequest(DataManager.feedBucket);
-            delete.withKeys("public/" + this.name + ".zip", FeedStore.s3Prefix + this.id + ".zip");
-            FeedStore.s3Client.deleteObjects(delete);
+            FeedStore.blobStore(DataManager.feedBucket)
+                    .delete("public/" + this.name + ".zip", FeedStore.s3Prefix + this.id + ".zip")
+                    .join();
         }
 
         // Delete editor feed mapdb
@@ -453,10 +580,7 @@ public class FeedSource extends Model implements Cloneable {
             gtx.commit();
         }
 
-        // FIXME use Mongo filters instead
-        Persistence.externalFeedSourceProperties.getAll().stream()
-                .filter(prop -> prop.feedSourceId.equals(this.id))
-                .forEach(prop -> Persistence.externalFeedSourceProperties.removeById(prop.id));
+        Persistence.externalFeedSourceProperties.removeFiltered(eq("feedSourceId", this.id));
 
         // TODO: add delete for osm extract and r5 network (maybe that goes with version)
         Persistence.feedSources.removeById(this.id);
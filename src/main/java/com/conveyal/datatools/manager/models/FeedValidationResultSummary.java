@@ -43,6 +43,11 @@ public class FeedValidationResultSummary implements Serializable {
     @JsonInclude(Include.ALWAYS)
     public Bounds bounds;
 
+    /**
+     * No-arg constructor for serialization.
+     */
+    public FeedValidationResultSummary () {}
+
     /**
      * Construct a summarized version of the given FeedValidationResult.
      * @param validationResult
@@ -10,6 +10,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
@@ -21,7 +28,6 @@ import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.persistence.FeedStore;
 import com.conveyal.datatools.manager.persistence.Persistence;
-import com.conveyal.datatools.manager.utils.HashUtils;
 import com.conveyal.gtfs.BaseGTFSCache;
 import com.conveyal.gtfs.GTFS;
 import com.conveyal.gtfs.GTFSFeed;
@@ -35,8 +41,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.exception.ExceptionUtils;
-import org.bson.codecs.pojo.annotations.BsonProperty;
+import com.mongodb.client.model.Projections;
+import org.bson.conversions.Bson;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
@@ -63,9 +69,19 @@ public class FeedVersion extends Model implements Serializable {
     private static final String VERSION_ID_DATE_FORMAT = "yyyyMMdd'T'HHmmssX";
     private static final String HUMAN_READABLE_TIMESTAMP_FORMAT = "MM/dd/yyyy H:mm";
     private static final Logger LOG = LoggerFactory.getLogger(FeedVersion.class);
+    /** Directory holding OSM extracts, one subdirectory per set of feed bounds */
+    public static final File OSM_BASE_PATH = new File(FeedStore.basePath.getAbsolutePath(), "osm");
+    /** Suffix of the file names of transport networks built with the current version of r5 */
+    public static final String NETWORK_FILE_SUFFIX = "_" + R5Version.describe + "_network.dat";
     // FIXME: move this out of FeedVersion (also, it should probably not be public)?
     public static FeedStore feedStore = new FeedStore();
 
+    /**
+     * Projection for loading feed versions without their full validation result, which can run to many megabytes for
+     * a large feed. Use this wherever only the validation summary is needed (listings, deployments, etc.).
+     */
+    public static final Bson WITHOUT_VALIDATION_RESULT = Projections.exclude("validationResult");
+
     /**
      * We generate IDs manually, but we need a bit of information to do so
      */
@@ -113,7 +129,7 @@ public class FeedVersion extends Model implements Serializable {
 
     public FeedVersion previousVersion() {
         return Persistence.feedVersions.getOneFiltered(and(
-                eq("version", this.version - 1), eq("feedSourceId", this.id)), null);
+                eq("version", this.version - 1), eq("feedSourceId", this.id)), null, WITHOUT_VALIDATION_RESULT);
     }
 
     @JsonView(JsonViews.UserInterface.class)
@@ -126,7 +142,7 @@ public class FeedVersion extends Model implements Serializable {
     // TODO check that this filter is functional
     public FeedVersion nextVersion() {
         return Persistence.feedVersions.getOneFiltered(and(
-                eq("version", this.version + 1), eq("feedSourceId", this.id)), null);
+                eq("version", this.version + 1), eq("feedSourceId", this.id)), null, WITHOUT_VALIDATION_RESULT);
     }
 
     @JsonView(JsonViews.UserInterface.class)
@@ -148,22 +164,32 @@ public class FeedVersion extends Model implements Serializable {
 
     public File newGtfsFile(InputStream inputStream) {
         File file = feedStore.newFeed(id, inputStream, parentFeedSource());
-        // fileSize field will not be stored until new FeedVersion is stored in MongoDB (usually in
-        // the final steps of ValidateFeedJob).
+        // fileSize and hash fields will not be stored until new FeedVersion is stored in MongoDB (usually in
+        // the final steps of ValidateFeedJob). The feed store hashes the feed as it is written.
         this.fileSize = file.length();
+        this.hash = feedStore.getFeedHash(id);
+        LOG.info("New GTFS file saved: {}", id);
+        return file;
+    }
+    /**
+     * Store the GTFS file for this version, unless it is identical to the feed with the given hash (e.g., that of the
+     * latest version), in which case nothing is stored.
+     * @return the new file, or null if the feed was unchanged
+     */
+    public File newGtfsFileIfChanged(InputStream inputStream, String previousHash) throws IOException {
+        File file = feedStore.newFeedIfChanged(id, inputStream, parentFeedSource(), previousHash);
+        if (file == null) return null;
+        this.fileSize = file.length();
+        this.hash = feedStore.getFeedHash(id);
         LOG.info("New GTFS file saved: {}", id);
         return file;
     }
     public File newGtfsFile(InputStream inputStream, Long lastModified) {
         File file = newGtfsFile(inputStream);
         // fileTimestamp field will not be stored until new FeedVersion is stored in MongoDB (usually in
-        // the final steps of ValidateFeedJob).
-        if (lastModified != null) {
-            this.fileTimestamp = lastModified;
-            file.setLastModified(lastModified);
-        } else {
-            this.fileTimestamp = file.lastModified();
-        }
+        // the final steps of ValidateFeedJob). The file itself is left alone: it may be a link to content shared with
+        // other versions, whose modification time is not this version's to change.
+        this.fileTimestamp = lastModified != null ? lastModified : FeedStore.lastModified(file);
         return file;
     }
     // FIXME return sql-loader Feed object.
@@ -176,15 +202,62 @@ public class FeedVersion extends Model implements Serializable {
         }
     }
 
-    /** The results of validating this feed */
+    /**
+     * Whether this version's GTFS has already been loaded into the relational database, e.g. by an earlier attempt at
+     * processing it that was interrupted (see JobQueue).
+     */
+    @JsonIgnore
+    public boolean loadedIntoDatabase() {
+        if (feedLoadResult == null || feedLoadResult.uniqueIdentifier == null) return false;
+        try (Connection connection = DataManager.GTFS_DATA_SOURCE.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "select 1 from information_schema.schemata where schema_name = ?")) {
+            statement.setString(1, feedLoadResult.uniqueIdentifier);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not check whether version {} is loaded", id, e);
+            return false;
+        }
+    }
+
+    /**
+     * The results of validating this feed. This is null if the version was retrieved with WITHOUT_VALIDATION_RESULT,
+     * use retrieveValidationResult() to load it when the individual issues are needed.
+     */
     public ValidationResult validationResult;
 
     public FeedLoadResult feedLoadResult;
 
+    /**
+     * Summary of the validation result, stored alongside it so that it's available without loading the full result.
+     * Set when the feed is validated.
+     */
+    public FeedValidationResultSummary validationSummary;
+
+    /**
+     * Get the full validation result, loading it from the database if this version was retrieved without it.
+     */
+    public ValidationResult retrieveValidationResult() {
+        if (validationResult == null && id != null) {
+            FeedVersion withResult = Persistence.feedVersions
+                    .getOneFiltered(eq(id), null, Projections.include("validationResult"));
+            if (withResult != null) validationResult = withResult.validationResult;
+        }
+        return validationResult;
+    }
+
     @JsonView(JsonViews.UserInterface.class)
-    @BsonProperty("validationSummary")
+    @JsonProperty("validationSummary")
     public FeedValidationResultSummary validationSummary() {
-        return new FeedValidationResultSummary(validationResult, feedLoadResult);
+        if (validationSummary == null) {
+            // Versions validated before the summary was stored don't have one until ValidationSummaryBackfill has
+            // stored it, so compute it from the full result in the meantime.
+            ValidationResult result = retrieveValidationResult();
+            if (result != null) return new FeedValidationResultSummary(result, feedLoadResult);
+        }
+        return validationSummary;
     }
 
 
@@ -203,6 +276,15 @@ public class FeedVersion extends Model implements Serializable {
     /** The last modified timestamp of the original GTFS file uploaded/fetched */
     public Long fileTimestamp;
 
+    /**
+     * The ETag and Last-Modified headers the feed was served with, if fetched. They are sent back when fetching the
+     * feed again, so that the server can answer that it is unchanged instead of sending it again.
+     */
+    @JsonView(JsonViews.DataDump.class)
+    public String fetchETag;
+    @JsonView(JsonViews.DataDump.class)
+    public String fetchLastModified;
+
     /** SQL namespace for GTFS data */
     public String namespace;
 
@@ -250,6 +332,8 @@ public class FeedVersion extends Model implements Serializable {
             return;
         }
 
+        status.checkCancelled();
+
         // STEP 2. Upload GTFS to S3 (storage on local machine is done when feed is fetched/uploaded)
         if (DataManager.useS3) {
             try {
@@ -271,6 +355,8 @@ public class FeedVersion extends Model implements Serializable {
                     // make feed version public... this shouldn't take very long
                     fs.makePublic();
                 }
+            } catch (MonitorableJob.CancelledException e) {
+                throw e;
             } catch (Exception e) {
                 LOG.error("Could not upload version {} to s3 bucket", this.id);
                 e.printStackTrace();
@@ -293,6 +379,7 @@ public class FeedVersion extends Model implements Serializable {
 
         // Sometimes this method is called when no status object is available.
         if (status == null) status = new MonitorableJob.Status();
+        status.checkCancelled();
 
         // VALIDATE GTFS feed
         try {
@@ -300,6 +387,7 @@ public class FeedVersion extends Model implements Serializable {
             // run validation on feed version
             // FIXME: pass status to validate? Or somehow listen to events?
             validationResult = GTFS.validate(feedLoadResult.uniqueIdentifier, DataManager.GTFS_DATA_SOURCE);
+            validationSummary = new FeedValidationResultSummary(validationResult, feedLoadResult);
         } catch (Exception e) {
             String message = String.format("Unable to validate feed %s", this.id);
             LOG.error(message, e);
@@ -307,6 +395,7 @@ public class FeedVersion extends Model implements Serializable {
             // FIXME create validation result with new constructor?
             validationResult = new ValidationResult();
             validationResult.fatalException = "failure!";
+            validationSummary = new FeedValidationResultSummary(validationResult, feedLoadResult);
             return;
         }
     }
@@ -316,12 +405,13 @@ public class FeedVersion extends Model implements Serializable {
     }
 
     public void hash () {
-        this.hash = HashUtils.hashFile(retrieveGtfsFile());
+        this.hash = feedStore.getFeedHash(id);
     }
 
     public TransportNetwork buildTransportNetwork(MonitorableJob.Status status) {
         // return null if validation result is null (probably means something went wrong with validation, plus we won't have feed bounds).
-        if (this.validationResult == null || validationResult.fatalException != null) {
+        FeedValidationResultSummary summary = validationSummary();
+        if (summary == null || summary.loadStatus != LoadStatus.SUCCESS) {
             return null;
         }
 
@@ -332,7 +422,7 @@ public class FeedVersion extends Model implements Serializable {
         status.update(false, "Fetching OSM extract...", 10);
 
         // FIXME: don't convert to Rectangle2D?
-        Rectangle2D bounds = this.validationResult.fullBounds.toRectangle2D();
+        Rectangle2D bounds = summary.bounds.toRectangle2D();
 
         if (bounds == null) {
             String message = String.format("Could not build network for %s because feed bounds are unknown.", this.id);
@@ -355,6 +445,7 @@ public class FeedVersion extends Model implements Serializable {
         }
 
         // Create/save r5 network
+        status.checkCancelled();
         status.update(false, "Creating transport network...", 50);
 
         // FIXME: fix sql-loader integration to work with r5 TransportNetwork. Currently it provides an empty list of
@@ -376,15 +467,17 @@ public class FeedVersion extends Model implements Serializable {
             } catch (IOException e1) {
                 LOG.error("Could not delete OSM dir", e);
             }
-            status.update(true, message, 100);
-            status.exceptionType = e.getMessage();
-            status.exceptionDetails = ExceptionUtils.getStackTrace(e);
+            status.fail(message, e);
             return null;
         }
         tn.transitLayer.buildDistanceTables(null);
         File tnFile = transportNetworkPath();
+        // Write to a temporary file first, so that an interrupted write does not leave behind a network that looks
+        // complete (see BuildTransportNetworkJob).
+        File partialFile = new File(tnFile.getPath() + ".tmp");
         try {
-            tn.write(tnFile);
+            tn.write(partialFile);
+            Files.move(partialFile.toPath(), tnFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
             return transportNetwork;
         } catch (IOException e) {
             e.printStackTrace();
@@ -392,11 +485,17 @@ public class FeedVersion extends Model implements Serializable {
         return null;
     }
 
+    /**
+     * Directory holding the OSM extract for the given bounds, which is shared by all versions with the same bounds.
+     */
+    public static File osmExtractDirectory(Rectangle2D bounds) {
+        return new File(String.format("%s/%.6f_%.6f_%.6f_%.6f", OSM_BASE_PATH, bounds.getMaxX(), bounds.getMaxY(), bounds.getMinX(), bounds.getMinY()));
+    }
+
     @JsonIgnore
     private static File downloadOSMFile(Rectangle2D bounds) {
         if (bounds != null) {
-            String baseDir = FeedStore.basePath.getAbsolutePath() + File.separator + "osm";
-            File osmPath = new File(String.format("%s/%.6f_%.6f_%.6f_%.6f", baseDir, bounds.getMaxX(), bounds.getMaxY(), bounds.getMinX(), bounds.getMinY()));
+            File osmPath = osmExtractDirectory(bounds);
             if (!osmPath.exists()) {
                 osmPath.mkdirs();
             }
@@ -418,8 +517,8 @@ public class FeedVersion extends Model implements Serializable {
      */
     public boolean hasCriticalErrors() {
         return hasCriticalErrorsExceptingDate() ||
-                validationResult.lastCalendarDate == null ||
-                (LocalDate.now()).isAfter(validationResult.lastCalendarDate);
+                validationSummary().endDate == null ||
+                (LocalDate.now()).isAfter(validationSummary().endDate);
     }
 
     /**
@@ -427,10 +526,11 @@ public class FeedVersion extends Model implements Serializable {
      * @return whether feed version has critical errors (outside of expiration)
      */
     private boolean hasCriticalErrorsExceptingDate() {
-        if (validationResult == null)
+        FeedValidationResultSummary summary = validationSummary();
+        if (summary == null)
             return true;
 
-        return validationResult.fatalException != null ||
+        return summary.loadStatus != LoadStatus.SUCCESS ||
             feedLoadResult.stopTimes.rowCount == 0 ||
             feedLoadResult.trips.rowCount == 0 ||
             feedLoadResult.agency.rowCount == 0;
@@ -496,21 +596,45 @@ public class FeedVersion extends Model implements Serializable {
                 // TODO instead, set it to the fetch time of the previous feed version
                 Persistence.feedSources.update(fs.id, "{lastFetched:null}");
             }
-            feedStore.deleteFeed(id);
+            deleteFiles();
             // Remove this FeedVersion from all Deployments associated with this FeedVersion's FeedSource's Project
             // TODO TEST THOROUGHLY THAT THIS UPDATE EXPRESSION IS CORRECT
             // Although outright deleting the feedVersion from deployments could be surprising and shouldn't be done anyway.
-            Persistence.deployments.getMongoCollection().updateMany(eq("projectId", this.parentFeedSource().projectId),
+            Persistence.deployments.updateMany(eq("projectId", fs.projectId),
                     pull("feedVersionIds", this.id));
-            transportNetworkPath().delete();
             Persistence.feedVersions.removeById(this.id);
-            this.parentFeedSource().renumberFeedVersions();
+            fs.renumberFeedVersions();
             LOG.info("Version {} deleted", id);
         } catch (Exception e) {
             LOG.warn("Error deleting version", e);
         }
     }
 
+    /**
+     * Delete what processing stored for a version that was never saved (e.g., because processing was cancelled): its
+     * GTFS file, transport network and the schema its GTFS was loaded into.
+     */
+    public void deleteUnsaved() {
+        LOG.info("Deleting unsaved feed version {}", id);
+        deleteFiles();
+        if (namespace != null) {
+            try (Connection connection = DataManager.GTFS_DATA_SOURCE.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute(String.format("drop schema if exists %s cascade", namespace));
+            } catch (SQLException e) {
+                LOG.error("Could not drop schema {} of unsaved version {}", namespace, id, e);
+            }
+        }
+    }
+
+    /**
+     * Delete the GTFS file and transport network for this version, without touching the database.
+     */
+    void deleteFiles() {
+        feedStore.deleteFeed(id);
+        transportNetworkPath().delete();
+    }
+
     @JsonIgnore
     private String r5Path() {
         // r5 networks MUST be stored in separate directories (in this case under feed source ID
@@ -524,6 +648,6 @@ public class FeedVersion extends Model implements Serializable {
 
     @JsonIgnore
     public File transportNetworkPath() {
-        return new File(String.join(File.separator, r5Path(), id + "_" + R5Version.describe + "_network.dat"));
+        return new File(String.join(File.separator, r5Path(), id + NETWORK_FILE_SUFFIX));
     }
 }
@@ -0,0 +1,51 @@
+package com.conveyal.datatools.manager.models;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The persisted state of a queued or running job, from which the job can be recreated if the server running it stops
+ * (see JobQueue). The ID of the record is the ID of the job. Records are removed when their job finishes.
+ */
+public class JobRecord extends Model {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum State {
+        QUEUED,
+        RUNNING
+    }
+
+    /** Name of the MonitorableJob.JobType */
+    public String type;
+    public String name;
+    /** The user the job runs for */
+    public String owner;
+    /** Name of the JobScheduler.Priority the job was submitted with */
+    public String priority;
+    public State state;
+    /** What the job needs to be recreated, e.g. the ID of the feed source to fetch */
+    public Map<String, String> parameters;
+    /** The feed version being processed, for jobs processing a version that is not yet stored */
+    public FeedVersion feedVersion;
+    /** Names of the sub-jobs that have completed, so that a recreated job can skip their work */
+    public List<String> completedSteps = new ArrayList<>();
+    /** How many times a server has started the job */
+    public int attempts;
+    /** The server running the job, which updates the heartbeat while it is alive */
+    public String serverId;
+    /**
+     * The host whose local storage holds files the job needs (e.g., an uploaded feed not yet stored in s3), or null if
+     * any server can recreate the job
+     */
+    public String host;
+    public Date heartbeat;
+
+    public JobRecord() { }
+
+    public JobRecord(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+}
@@ -0,0 +1,45 @@
+package com.conveyal.datatools.manager.models;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A record of a finished job, kept for a while after the job itself is removed from memory (see JobHistory), so
+ * that users can look back at the outcome of their jobs and admins can see where processing time goes. The ID of the
+ * summary is the ID of the job.
+ */
+public class JobSummary extends Model {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Name of the MonitorableJob.JobType */
+    public String type;
+    public String name;
+    /** The user the job ran for */
+    public String owner;
+    public boolean error;
+    public boolean cancelled;
+    /** The final status message of the job */
+    public String message;
+    public String exceptionType;
+    public Date started;
+    public Date finished;
+    public long durationMillis;
+    /** The job's own logic followed by each of its sub-jobs, in the order they were added */
+    public List<Stage> stages = new ArrayList<>();
+
+    public JobSummary() { }
+
+    /** Timing of one stage of a job */
+    public static class Stage {
+        /** Name of the MonitorableJob.JobType of the stage */
+        public String type;
+        public String name;
+        public boolean error;
+        public Date started;
+        public long durationMillis;
+
+        public Stage() { }
+    }
+}
@@ -0,0 +1,44 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.conveyal.datatools.manager.models.Model;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Read-only counterpart to TypedPersistence whose queries return immediately with a CompletableFuture, so that a
+ * request handler can issue several independent queries at once and wait only as long as the slowest of them, rather
+ * than the sum of all of them. The queries run on the same store (and so the same MongoDB connection pool) as
+ * TypedPersistence, on a small shared executor (see Persistence); the request thread still blocks while it waits on
+ * the futures, so this saves latency, not request threads.
+ *
+ * Objects are read with the same codecs as TypedPersistence, but bypass its cache. All writes should still go through
+ * TypedPersistence so that its cache is invalidated.
+ */
+public class AsyncTypedPersistence<T extends Model> {
+
+    private final CollectionStore<T> store;
+    private final Executor executor;
+
+    public AsyncTypedPersistence(CollectionStore<T> store, Executor executor) {
+        this.store = store;
+        this.executor = executor;
+    }
+
+    /**
+     * Get all objects satisfying the supplied Mongo filter. The sort and projection may be null.
+     */
+    public CompletableFuture<List<T>> getFiltered (Bson filter, Bson sortBy, Bson projection) {
+        return CompletableFuture.supplyAsync(() -> store.find(filter, sortBy, projection, 0), executor);
+    }
+
+    /**
+     * Run an aggregation pipeline on the collection, returning the raw result documents.
+     */
+    public CompletableFuture<List<Document>> aggregate (List<? extends Bson> pipeline) {
+        return CompletableFuture.supplyAsync(() -> store.aggregate(pipeline), executor);
+    }
+}
@@ -0,0 +1,25 @@
+package com.conveyal.datatools.manager.persistence;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Description of an object in a BlobStore.
+ */
+public class BlobInfo {
+    public final String key;
+    public final long size;
+    /** Changes whenever the content of the object changes. For objects uploaded in a single part, the MD5 hash. */
+    public final String eTag;
+    public final long lastModified;
+    /** User metadata stored with the object */
+    public final Map<String, String> metadata;
+
+    public BlobInfo(String key, long size, String eTag, long lastModified, Map<String, String> metadata) {
+        this.key = key;
+        this.size = size;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.metadata = metadata != null ? metadata : Collections.emptyMap();
+    }
+}
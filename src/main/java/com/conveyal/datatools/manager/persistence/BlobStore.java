@@ -0,0 +1,53 @@
+package com.conveyal.datatools.manager.persistence;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Object storage for one bucket, e.g. feeds, deployment bundles and public pages. S3BlobStore keeps objects on s3,
+ * LocalBlobStore keeps them in a directory on the local file system, so that storage-heavy jobs can be run (e.g., for
+ * benchmarks) without s3. Get a store with {@link FeedStore#blobStore(String)}.
+ *
+ * All operations are asynchronous. Operations on a missing object complete with null (for get and head) rather than an
+ * error; any other failure completes the future exceptionally.
+ */
+public interface BlobStore {
+
+    /**
+     * Get a local file holding the content of the object, or null if there is no such object. The file belongs to the
+     * store (e.g., it may be cached or be the stored object itself) and must not be modified or deleted.
+     */
+    CompletableFuture<File> get (String key);
+
+    /**
+     * Store the file under the given key, replacing any existing object.
+     * @param metadata optional user metadata to store with the object
+     * @param progress optional listener for the percentage of the upload completed
+     */
+    CompletableFuture<Void> put (String key, File file, Map<String, String> metadata, DoubleConsumer progress);
+
+    default CompletableFuture<Void> put (String key, File file) {
+        return put(key, file, null, null);
+    }
+
+    /** Copy an object (with its metadata) within the store. */
+    CompletableFuture<Void> copy (String sourceKey, String destinationKey);
+
+    /** @return a description of the object, or null if there is no such object */
+    CompletableFuture<BlobInfo> head (String key);
+
+    /** @return all objects whose keys start with the given prefix */
+    CompletableFuture<List<BlobInfo>> list (String prefix);
+
+    /** Delete the objects with the given keys, any number of them. Keys without an object are ignored. */
+    CompletableFuture<Void> delete (String... keys);
+
+    /**
+     * Make an object publicly readable, or remove public access to it. This has no effect where the store is not
+     * publicly accessible (e.g., on the local file system).
+     */
+    CompletableFuture<Void> setPublic (String key, boolean isPublic);
+}
@@ -0,0 +1,54 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.conveyal.datatools.manager.models.Model;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The storage operations TypedPersistence needs for one collection of objects. MongoCollectionStore keeps the objects
+ * in MongoDB, InMemoryCollectionStore keeps them in memory so that the application can run without a database (e.g.,
+ * for benchmarks).
+ *
+ * Filters, sorts, projections and updates are expressed with the Mongo driver's builders (Filters, Sorts, Projections,
+ * Updates). A null filter matches everything, a null sort or projection is ignored.
+ */
+public interface CollectionStore<T extends Model> {
+
+    void insertOne (T item);
+
+    void insertMany (List<T> items);
+
+    /**
+     * Find objects matching the filter.
+     * @param limit maximum number of objects to return, or zero for no limit
+     */
+    List<T> find (Bson filter, Bson sort, Bson projection, int limit);
+
+    long count (Bson filter);
+
+    /**
+     * Apply the update to the first object matching the filter.
+     * @return the updated object, or null if nothing matched
+     */
+    T findOneAndUpdate (Bson filter, Bson update);
+
+    /** @return the number of objects modified */
+    long updateMany (Bson filter, Bson update);
+
+    /**
+     * Apply an update to each of many objects, keyed on object ID.
+     * @return the number of objects modified
+     */
+    long bulkUpdate (Map<String, Bson> updatesById);
+
+    /** @return the number of objects deleted */
+    long deleteMany (Bson filter);
+
+    List<Document> aggregate (List<? extends Bson> pipeline);
+
+    /** @return the name of the index */
+    String createIndex (Bson keys);
+}
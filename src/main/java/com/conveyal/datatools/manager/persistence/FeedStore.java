@@ -1,27 +1,33 @@
 package com.conveyal.datatools.manager.persistence;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.*;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
-import com.amazonaws.services.s3.transfer.Upload;
+import com.conveyal.datatools.common.status.MonitorableJob;
 import com.conveyal.datatools.manager.DataManager;
 import com.conveyal.datatools.manager.controllers.api.GtfsApiController;
 import com.conveyal.datatools.manager.models.FeedSource;
-import gnu.trove.list.TLongList;
-import gnu.trove.list.array.TLongArrayList;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import com.conveyal.datatools.manager.utils.HashUtils;
 
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
@@ -30,6 +36,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Store a feed on the file system or s3
+ *
+ * Locally, the content of each feed is stored once, in a blobs subdirectory under the SHA-256 hash of the content.
+ * Feeds (versions, and the latest version of a feed source) are symbolic links to those blobs, so storing a feed that
+ * is identical to one already stored (e.g., a republished or unchanged feed, or the copy to [feedSourceId].zip) costs
+ * only a link. Blobs that are no longer linked to are removed by {@link #collectGarbage(boolean)}.
  * @author mattwigway
  *
  */
@@ -40,13 +51,29 @@ public class FeedStore {
     /** Local file storage path if working offline */
     public static final File basePath = new File(DataManager.getConfigPropertyAsText("application.data.gtfs"));
     private final File path;
+    /** Local directory holding feed contents, named by content hash */
+    private final File blobPath;
+    private static final String BLOB_DIRECTORY = "blobs";
+    /**
+     * Unlinked blobs and temporary files younger than this are not collected, so that the temporary file of a feed
+     * being written is not removed from under it.
+     */
+    private static final long GC_GRACE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** Blob store metadata key under which the SHA-256 hash of a feed is stored */
+    private static final String HASH_METADATA_KEY = "sha256";
     /** An optional AWS S3 bucket to store the feeds */
     private static String s3Bucket;
 
     public static final String s3Prefix = "gtfs/";
 
     // FIXME: this should not be static most likely
-    public static AmazonS3 s3Client;
+    private static AmazonS3 s3Client;
+    /** Blob stores by bucket name, see {@link #blobStore(String)} */
+    private static final Map<String, BlobStore> blobStores = new HashMap<>();
+    /** Runs blob store operations, one thread per s3 connection */
+    private static ExecutorService blobStoreExecutor;
+    /** Store for feeds when storing on s3 */
+    private static BlobStore feedBlobStore;
     /** An AWS credentials file to use when uploading to S3 */
     private static final String S3_CREDENTIALS_FILENAME = DataManager.getConfigPropertyAsText("application.data.s3_credentials_file");
     private static final String S3_CONFIG_FILENAME = DataManager.getConfigPropertyAsText("application.data.s3_credentials_file");
@@ -60,38 +87,88 @@ public class FeedStore {
      * @param subdir
      */
     public FeedStore(String subdir) {
-
         // even with s3 storage, we keep a local copy, so we'll still set path.
-        String pathString = basePath.getAbsolutePath();
-        if (subdir != null) pathString += File.separator + subdir;
-        path = getPath(pathString);
+        this(getPath(basePath.getAbsolutePath() + (subdir != null ? File.separator + subdir : "")));
+    }
+
+    /** Create a feed store in the given (existing) directory rather than under the configured base path. */
+    FeedStore(File path) {
+        this.path = path;
+        blobPath = new File(path, BLOB_DIRECTORY);
+        if (!blobPath.exists() && !blobPath.mkdirs()) {
+            throw new IllegalArgumentException("Could not create blob directory " + blobPath);
+        }
     }
 
     static {
         // s3 storage
         if (DataManager.useS3 || GtfsApiController.extensionType.equals("mtc")){
             s3Bucket = DataManager.getConfigPropertyAsText("application.data.gtfs_s3_bucket");
-            AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
-                    .withCredentials(getAWSCreds());
-
-            // if region configuration string is provided, use that
-            // otherwise default to ~/.aws/config
-            // NOTE: if this is missing
-            String s3Region = DataManager.getConfigPropertyAsText("application.data.s3_region");
-            if (s3Region != null) {
-                LOG.info("Using S3 region {}", s3Region);
-                builder.withRegion(s3Region);
-            }
-            try {
-                s3Client = builder.build();
-            } catch (SdkClientException e) {
-                LOG.error("S3 client not initialized correctly.  Must provide config property application.data.s3_region or specify region in ~/.aws/config", e);
-            }
             // TODO: check for this??
-            if (s3Client == null || s3Bucket == null) {
+            if (s3Bucket == null) {
                 throw new IllegalArgumentException("Fatal error initializing s3Bucket or s3Client");
             }
+            feedBlobStore = blobStore(s3Bucket);
+        }
+    }
+
+    /**
+     * Get the store for objects in the given bucket (feeds, deployment bundles, public pages, etc.). Objects are kept on
+     * s3, unless application.data.blob_store is set to "local", in which case each bucket is a directory under
+     * application.data.blob_store_dir. This allows running storage-heavy jobs without s3, e.g. for benchmarks.
+     *
+     * Storage performance is tuned here: application.data.s3_max_connections limits the number of concurrent s3
+     * requests and application.data.s3_multipart_threshold_mb sets the size above which uploads are split in parts.
+     */
+    public static synchronized BlobStore blobStore (String bucket) {
+        BlobStore store = blobStores.get(bucket);
+        if (store != null) return store;
+        int maxConnections = (int) getLongConfigProperty("application.data.s3_max_connections", 50);
+        if (blobStoreExecutor == null) blobStoreExecutor = Executors.newFixedThreadPool(maxConnections);
+        if ("local".equals(DataManager.getConfigPropertyAsText("application.data.blob_store"))) {
+            String directory = DataManager.hasConfigProperty("application.data.blob_store_dir")
+                    ? DataManager.getConfigPropertyAsText("application.data.blob_store_dir")
+                    : System.getProperty("java.io.tmpdir") + File.separator + "datatools-blob-store";
+            store = new LocalBlobStore(new File(directory, bucket), blobStoreExecutor);
+        } else {
+            AmazonS3 client = getS3Client(maxConnections);
+            String cacheDir = DataManager.hasConfigProperty("application.data.s3_cache_dir")
+                    ? DataManager.getConfigPropertyAsText("application.data.s3_cache_dir")
+                    : System.getProperty("java.io.tmpdir") + File.separator + "datatools-s3-cache";
+            long cacheSizeBytes = getLongConfigProperty("application.data.s3_cache_max_size_mb", 10 * 1024) * 1024 * 1024;
+            long multipartThresholdBytes = getLongConfigProperty("application.data.s3_multipart_threshold_mb", 16) * 1024 * 1024;
+            S3FeedCache cache = new S3FeedCache(client, bucket, new File(cacheDir, bucket), cacheSizeBytes);
+            store = new S3BlobStore(client, bucket, cache, multipartThresholdBytes, blobStoreExecutor);
         }
+        blobStores.put(bucket, store);
+        return store;
+    }
+
+    private static AmazonS3 getS3Client (int maxConnections) {
+        if (s3Client != null) return s3Client;
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+                .withCredentials(getAWSCreds())
+                .withClientConfiguration(new ClientConfiguration().withMaxConnections(maxConnections));
+
+        // if region configuration string is provided, use that
+        // otherwise default to ~/.aws/config
+        // NOTE: if this is missing
+        String s3Region = DataManager.getConfigPropertyAsText("application.data.s3_region");
+        if (s3Region != null) {
+            LOG.info("Using S3 region {}", s3Region);
+            builder.withRegion(s3Region);
+        }
+        try {
+            s3Client = builder.build();
+        } catch (SdkClientException e) {
+            LOG.error("S3 client not initialized correctly.  Must provide config property application.data.s3_region or specify region in ~/.aws/config", e);
+            throw new IllegalArgumentException("Fatal error initializing s3Bucket or s3Client", e);
+        }
+        return s3Client;
+    }
+
+    private static long getLongConfigProperty (String name, long defaultValue) {
+        return DataManager.hasConfigProperty(name) ? DataManager.getConfigProperty(name).asLong() : defaultValue;
     }
 
     private static File getPath (String pathString) {
@@ -112,6 +189,7 @@ public class FeedStore {
         // local storage
         else {
             for (File file : path.listFiles()) {
+                if (file.equals(blobPath)) continue;
                 ret.add(file.getName());
             }
         }
@@ -122,18 +200,32 @@ public class FeedStore {
     public Long getFeedLastModified (String id) {
         // s3 storage
         if (DataManager.useS3){
-            return s3Client.doesObjectExist(s3Bucket, getS3Key(id)) ? s3Client.getObjectMetadata(s3Bucket, getS3Key(id)).getLastModified().getTime() : null;
+            BlobInfo info = feedBlobStore.head(getS3Key(id)).join();
+            return info != null ? info.lastModified : null;
         }
         else {
             File feed = getFeed(id);
-            return feed != null ? feed.lastModified() : null;
+            return feed != null ? lastModified(feed) : null;
+        }
+    }
+
+    /**
+     * @return when the feed file was stored. Feeds linked to their content share it with other feeds, so this is the
+     * time of the link itself rather than of the content it points to.
+     */
+    public static Long lastModified(File feed) {
+        try {
+            return Files.getLastModifiedTime(feed.toPath(), LinkOption.NOFOLLOW_LINKS).toMillis();
+        } catch (IOException e) {
+            LOG.warn("Unable to read modification time of feed {}", feed, e);
+            return null;
         }
     }
 
     public void deleteFeed (String id) {
         // s3 storage
         if (DataManager.useS3){
-            s3Client.deleteObject(s3Bucket, getS3Key(id));
+            feedBlobStore.delete(getS3Key(id)).join();
         }
         else {
             File feed = getFeed(id);
@@ -145,7 +237,8 @@ public class FeedStore {
     public Long getFeedSize (String id) {
         // s3 storage
         if (DataManager.useS3) {
-            return s3Client.doesObjectExist(s3Bucket, getS3Key(id)) ? s3Client.getObjectMetadata(s3Bucket, getS3Key(id)).getContentLength() : null;
+            BlobInfo info = feedBlobStore.head(getS3Key(id)).join();
+            return info != null ? info.size : null;
         }
         else {
             File feed = getFeed(id);
@@ -182,18 +275,10 @@ public class FeedStore {
         if (DataManager.useS3) {
             String key = getS3Key(id);
             try {
-                LOG.info("Downloading feed from s3://{}/{}", s3Bucket, key);
-                S3Object object = s3Client.getObject(
-                        new GetObjectRequest(s3Bucket, key));
-                InputStream objectData = object.getObjectContent();
-
-                // FIXME: Figure out how to manage temp files created here. Currently, deleteOnExit is called in createTempFile
-                return createTempFile(id, objectData);
-            } catch (AmazonServiceException ase) {
-                LOG.error("Error downloading s3://{}/{}", s3Bucket, key);
-                ase.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
+                // The file belongs to the blob store (e.g., a cached download), so callers must not modify or delete it.
+                return feedBlobStore.get(key).join();
+            } catch (CompletionException e) {
+                LOG.error("Error downloading {} from bucket {}", key, s3Bucket, e.getCause());
             }
         }
         return null;
@@ -206,117 +291,227 @@ public class FeedStore {
         // For s3 storage (store locally and let gtfsCache handle loading feed to s3)
         return storeFeedLocally(id, inputStream, feedSource);
     }
+
+    /**
+     * Create a new feed with the given ID, unless its content has the given hash (e.g., that of the latest version of
+     * the feed source). The stream is hashed as it is written, so an unchanged feed is discarded without being stored
+     * or linked to.
+     * @return the new feed, or null if its content was unchanged
+     */
+    public File newFeedIfChanged (String id, InputStream inputStream, FeedSource feedSource, String previousHash)
+            throws IOException {
+        return storeFeed(id, inputStream, feedSource, previousHash);
+    }
+
     private File storeFeedLocally(String id, InputStream inputStream, FeedSource feedSource) {
-        File feed = null;
         try {
-            // write feed to specified ID.
             // NOTE: depending on the feed store, there may not be a feedSource provided (e.g., gtfsplus)
-            feed = writeFileUsingInputStream(id, inputStream);
+            return storeFeed(id, inputStream, feedSource, null);
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.error("Unable to store feed {}", id, e);
+            return null;
         }
+    }
+
+    private File linkFeed(String id, String hash, FeedSource feedSource) throws IOException {
+        File feed = linkToBlob(id, hash);
         if (feedSource != null && !DataManager.useS3) {
             // Store latest as feed-source-id.zip if feedSource provided and if not using s3
             try {
-                copyVersionToLatest(feed, feedSource);
-            } catch (Exception e) {
-                e.printStackTrace();
+                linkToBlob(feedSource.id + ".zip", hash);
+                LOG.info("Linked version to latest {}", feedSource);
+            } catch (IOException e) {
+                LOG.error("Unable to save latest at {}", feedSource, e);
             }
         }
         return feed;
     }
 
-    private void copyVersionToLatest(File version, FeedSource feedSource) {
-        File latest = new File(String.valueOf(path), feedSource.id + ".zip");
-        try {
-            FileUtils.copyFile(version, latest, true);
-            LOG.info("Copying version to latest {}", feedSource);
+    /**
+     * Write the stream to the blob directory, hashing it along the way, then link the feed with the given ID to the
+     * content. If the content has the given hash to skip (which may be null), the new copy is discarded and nothing is
+     * linked. If a blob with the same content already exists, the new copy is discarded and the feed linked to it.
+     * @return the new feed, or null if its content has the hash to skip
+     */
+    private File storeFeed(String id, InputStream inputStream, FeedSource feedSource, String skipHash)
+            throws IOException {
+        File temp = File.createTempFile("incoming", ".tmp", blobPath);
+        String hash;
+        try (OutputStream output = new FileOutputStream(temp)) {
+            hash = HashUtils.copyAndHash(inputStream, output);
         } catch (IOException e) {
-            e.printStackTrace();
-            LOG.error("Unable to save latest at {}", feedSource);
+            temp.delete();
+            throw e;
+        } finally {
+            inputStream.close();
+        }
+        if (hash.equals(skipHash)) {
+            temp.delete();
+            return null;
+        }
+        // Garbage collection holds the same lock, so an existing blob cannot be collected between being found here
+        // and being linked to, however long it has been unlinked.
+        synchronized (this) {
+            File blob = new File(blobPath, hash);
+            if (blob.exists()) {
+                LOG.info("Feed content {} is already stored", hash);
+                temp.delete();
+            } else {
+                LOG.info("Writing feed content to {}", blob);
+                Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return linkFeed(id, hash, feedSource);
         }
     }
 
-    private File writeFileUsingInputStream(String filename, InputStream inputStream) throws IOException {
-        File out = new File(path, filename);
-        LOG.info("Writing file to {}/{}", path, filename);
-        try (OutputStream output = new FileOutputStream(out)) {
-            byte[] buf = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buf)) > 0) {
-                output.write(buf, 0, bytesRead);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            inputStream.close();
+    /**
+     * Point the given file name in the store at a blob, replacing anything already stored under that name. Where the
+     * file system does not support symbolic links, the blob is copied instead.
+     */
+    private File linkToBlob(String filename, String hash) throws IOException {
+        Path link = new File(path, filename).toPath();
+        Files.deleteIfExists(link);
+        try {
+            // Relative link, so that the store can be moved.
+            createLink(link, Paths.get(BLOB_DIRECTORY, hash));
+        } catch (UnsupportedOperationException | IOException e) {
+            LOG.warn("Unable to link {} to feed content, copying instead", filename);
+            Files.copy(new File(blobPath, hash).toPath(), link, StandardCopyOption.REPLACE_EXISTING);
         }
-        return out;
+        return link.toFile();
     }
 
-    private File createTempFile (String name, InputStream in) throws IOException {
-        final File tempFile = new File(new File(System.getProperty("java.io.tmpdir")), name);
-        tempFile.deleteOnExit();
-        try (FileOutputStream out = new FileOutputStream(tempFile)) {
-            IOUtils.copy(in, out);
-        } catch (Exception e) {
-            e.printStackTrace();
+    /** Create a symbolic link, overridden in tests to simulate file systems without them. */
+    void createLink(Path link, Path target) throws IOException {
+        Files.createSymbolicLink(link, target);
+    }
+
+    /**
+     * @return the SHA-256 hash of the stored feed, or null if there is no such feed. For feeds linked to their
+     * content this is read from the link, otherwise the file is hashed.
+     */
+    public String getFeedHash(String id) {
+        File file = getFeed(id);
+        return file != null ? hashOf(file) : null;
+    }
+
+    private static String hashOf(File feed) {
+        if (Files.isSymbolicLink(feed.toPath())) {
+            try {
+                return Files.readSymbolicLink(feed.toPath()).getFileName().toString();
+            } catch (IOException e) {
+                LOG.warn("Unable to read link for feed {}", feed, e);
+            }
+        }
+        try {
+            return HashUtils.hashFile(feed);
+        } catch (IOException e) {
+            LOG.warn("Unable to hash feed {}", feed, e);
+            return null;
         }
-        return tempFile;
     }
 
-    public boolean uploadToS3 (File gtfsFile, String s3FileName, FeedSource feedSource) {
-        if (s3Bucket != null) {
+    /**
+     * Find feeds in this store that are not among the given IDs, e.g. because their versions have been deleted or
+     * failed to load, and optionally delete them. Only feeds linked to their content are considered: other files in
+     * the store directory (feeds stored before content linking, networks, OSM extracts) are left alone. Deleting a
+     * feed only removes its link; the content is removed by the next {@link #collectGarbage(boolean)}.
+     * @param minAgeMillis feeds stored more recently than this are never orphaned, as their records may not be saved yet
+     */
+    public StorageUsage reconcile(Set<String> liveIds, long minAgeMillis, boolean delete) {
+        StorageUsage usage = new StorageUsage();
+        File[] files = path.listFiles();
+        if (files == null) return usage;
+        long cutoff = System.currentTimeMillis() - minAgeMillis;
+        for (File file : files) {
+            Path feed = file.toPath();
+            if (!Files.isSymbolicLink(feed)) continue;
+            long size = file.length();
+            usage.stored(size);
             try {
-                LOG.info("Uploading feed {} to S3 from {}", s3FileName, gtfsFile.getAbsolutePath());
-                TransferManager tm = TransferManagerBuilder.standard().withS3Client(s3Client).build();
-                PutObjectRequest request = new PutObjectRequest(s3Bucket, getS3Key(s3FileName), gtfsFile);
-                // Subscribe to the event and provide event handler.
-                TLongList transferredBytes = new TLongArrayList();
-                long totalBytes = gtfsFile.length();
-                LOG.info("Total kilobytes: {}", totalBytes / 1000);
-                request.setGeneralProgressListener(progressEvent -> {
-                    if (transferredBytes.size() == 75) {
-                        LOG.info("Each dot is {} kilobytes",transferredBytes.sum() / 1000);
-                    }
-                    if (transferredBytes.size() % 75 == 0) {
-                        System.out.print(".");
-                    }
-//                    LOG.info("Uploaded {}/{}", transferredBytes.sum(), totalBytes);
-                    transferredBytes.add(progressEvent.getBytesTransferred());
-                });
-                // TransferManager processes all transfers asynchronously,
-                // so this call will return immediately.
-                Upload upload = tm.upload(request);
-
-                try {
-                    // You can block and wait for the upload to finish
-                    upload.waitForCompletion();
-                } catch (AmazonClientException | InterruptedException e) {
-                    LOG.error("Unable to upload file, upload aborted.", e);
-                    return false;
+                if (liveIds.contains(file.getName())
+                        || Files.getLastModifiedTime(feed, LinkOption.NOFOLLOW_LINKS).toMillis() >= cutoff) continue;
+                usage.orphaned(size);
+                if (delete) {
+                    Files.delete(feed);
+                    usage.deleted(size);
+                    LOG.info("Deleted orphaned feed {}", feed);
                 }
+            } catch (IOException e) {
+                LOG.error("Unable to reconcile feed {}", feed, e);
+            }
+        }
+        return usage;
+    }
 
-                // Shutdown the Transfer Manager, but don't shut down the underlying S3 client.
-                // The default behavior for shutdownNow shut's down the underlying s3 client
-                // which will cause any following s3 operations to fail.
-                tm.shutdownNow(false);
-
-                if (feedSource != null){
-                    LOG.info("Copying feed on s3 to latest version");
+    /**
+     * Find blobs that are no longer linked to by any feed in this store, e.g. because the feed versions using them
+     * have been deleted or uploaded to s3, and optionally delete them. Abandoned temporary files from failed writes
+     * are collected as well. Storing a feed holds the same lock from finding or writing its blob until linking to it.
+     * @return usage of the blob directory
+     */
+    public synchronized StorageUsage collectGarbage(boolean delete) {
+        StorageUsage usage = new StorageUsage();
+        Set<String> linkedHashes = new HashSet<>();
+        File[] files = path.listFiles();
+        if (files == null) return usage;
+        for (File file : files) {
+            Path feed = file.toPath();
+            if (!Files.isSymbolicLink(feed)) continue;
+            try {
+                linkedHashes.add(Files.readSymbolicLink(feed).getFileName().toString());
+            } catch (IOException e) {
+                // Without knowing what this feed links to, nothing can safely be collected.
+                LOG.error("Unable to read link for {}, skipping garbage collection", feed, e);
+                return usage;
+            }
+        }
+        long cutoff = System.currentTimeMillis() - GC_GRACE_PERIOD_MILLIS;
+        File[] blobs = blobPath.listFiles();
+        if (blobs == null) return usage;
+        for (File blob : blobs) {
+            long size = blob.length();
+            usage.stored(size);
+            if (linkedHashes.contains(blob.getName()) || blob.lastModified() >= cutoff) continue;
+            usage.orphaned(size);
+            if (delete && blob.delete()) usage.deleted(size);
+        }
+        if (usage.deletedFiles > 0) LOG.info("Deleted {} unreferenced blobs from {}", usage.deletedFiles, blobPath);
+        return usage;
+    }
 
-                    // copy to [feedSourceId].zip
-                    String copyKey = s3Prefix + feedSource.id + ".zip";
-                    CopyObjectRequest copyObjRequest = new CopyObjectRequest(
-                            s3Bucket, getS3Key(s3FileName), s3Bucket, copyKey);
-                    s3Client.copyObject(copyObjRequest);
+    public boolean uploadToS3 (File gtfsFile, String s3FileName, FeedSource feedSource) {
+        if (feedBlobStore == null) return false;
+        String key = getS3Key(s3FileName);
+        try {
+            String hash = hashOf(gtfsFile);
+            String latestKey = feedSource != null ? s3Prefix + feedSource.id + ".zip" : null;
+            if (hash != null && latestKey != null) {
+                BlobInfo latest = feedBlobStore.head(latestKey).join();
+                if (latest != null && hash.equals(latest.metadata.get(HASH_METADATA_KEY))) {
+                    // The feed source's latest feed on s3 has the same contents (e.g., GTFS+ was republished without
+                    // changes), so copy it on s3 rather than uploading the file again. Latest is already up to date.
+                    LOG.info("Feed {} is identical to {}, copying on s3 instead of uploading", s3FileName, latestKey);
+                    feedBlobStore.copy(latestKey, key).join();
+                    return true;
                 }
-                return true;
-            } catch (AmazonServiceException e) {
-                LOG.error("Error uploading feed to S3", e);
-                return false;
             }
+            LOG.info("Uploading feed {} ({} kilobytes) to S3 from {}", s3FileName, gtfsFile.length() / 1000,
+                    gtfsFile.getAbsolutePath());
+            // Store the hash with the object so that identical feeds can later be recognized without downloading.
+            // Aborted if the job uploading the feed is cancelled.
+            MonitorableJob.await(feedBlobStore.put(key, gtfsFile,
+                    hash != null ? Collections.singletonMap(HASH_METADATA_KEY, hash) : null, null));
+
+            if (feedSource != null){
+                LOG.info("Copying feed on s3 to latest version");
+                // copy to [feedSourceId].zip (object metadata, including the hash, is copied along)
+                feedBlobStore.copy(key, latestKey).join();
+            }
+            return true;
+        } catch (CompletionException e) {
+            LOG.error("Error uploading feed to S3", e.getCause());
+            return false;
         }
-        return false;
     }
 }
\ No newline at end of file
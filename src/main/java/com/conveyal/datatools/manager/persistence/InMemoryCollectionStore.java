@@ -0,0 +1,561 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.conveyal.datatools.manager.models.Model;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a collection of objects in memory, so that the application can run without MongoDB (e.g., for reproducible
+ * benchmarks of the API on a single machine). Nothing survives a restart.
+ *
+ * Objects are stored in BSON form, encoded with the same codecs used for MongoDB, so every read returns a fresh copy
+ * just as it would from the database. Only the parts of the query language the application uses are supported:
+ * equality, $ne, $in, $nin, $gt/$gte/$lt/$lte and $exists filters combined with $and/$or; sorts; inclusion or
+ * exclusion projections, also of fields of embedded documents; $set, $unset, $inc, $push, $pull and $pullAll updates;
+ * and $match, $sort, $limit and $group (with $first, $last and $sum) aggregation stages. Anything else throws
+ * UnsupportedOperationException rather than silently returning the wrong result.
+ */
+public class InMemoryCollectionStore<T extends Model> implements CollectionStore<T> {
+
+    private final CodecRegistry codecRegistry;
+    private final Codec<T> codec;
+    private final Codec<Document> documentCodec;
+    /** Documents keyed on ID, in insertion order. Stored documents are replaced on update, never modified. */
+    private final Map<String, BsonDocument> documents = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public InMemoryCollectionStore(Class<T> clazz, CodecRegistry codecRegistry) {
+        this.codecRegistry = codecRegistry;
+        this.codec = codecRegistry.get(clazz);
+        this.documentCodec = codecRegistry.get(Document.class);
+    }
+
+    @Override
+    public void insertOne (T item) {
+        BsonDocument document = encode(item);
+        lock.writeLock().lock();
+        try {
+            insert(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void insertMany (List<T> items) {
+        List<BsonDocument> encoded = items.stream().map(this::encode).collect(Collectors.toList());
+        lock.writeLock().lock();
+        try {
+            encoded.forEach(this::insert);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert (BsonDocument document) {
+        String id = document.getString("_id").getValue();
+        if (documents.containsKey(id)) {
+            throw new IllegalStateException("Duplicate key " + id);
+        }
+        documents.put(id, document);
+    }
+
+    @Override
+    public List<T> find (Bson filter, Bson sort, Bson projection, int limit) {
+        List<BsonDocument> results = matching(toBson(filter));
+        if (sort != null) results.sort(comparator(toBson(sort)));
+        if (limit > 0 && results.size() > limit) results = results.subList(0, limit);
+        BsonDocument projectionDocument = toBson(projection);
+        return results.stream()
+                .map(document -> decode(project(document, projectionDocument)))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long count (Bson filter) {
+        return matching(toBson(filter)).size();
+    }
+
+    @Override
+    public T findOneAndUpdate (Bson filter, Bson update) {
+        BsonDocument filterDocument = toBson(filter);
+        BsonDocument updateDocument = toBson(update);
+        lock.writeLock().lock();
+        try {
+            for (BsonDocument document : candidates(filterDocument)) {
+                if (matches(document, filterDocument)) {
+                    BsonDocument updated = applyUpdate(document, updateDocument);
+                    documents.put(updated.getString("_id").getValue(), updated);
+                    return decode(updated);
+                }
+            }
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long updateMany (Bson filter, Bson update) {
+        BsonDocument filterDocument = toBson(filter);
+        BsonDocument updateDocument = toBson(update);
+        long modified = 0;
+        lock.writeLock().lock();
+        try {
+            for (BsonDocument document : candidates(filterDocument)) {
+                if (matches(document, filterDocument)) {
+                    modified += replace(document, applyUpdate(document, updateDocument));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return modified;
+    }
+
+    @Override
+    public long bulkUpdate (Map<String, Bson> updatesById) {
+        long modified = 0;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Bson> entry : updatesById.entrySet()) {
+                BsonDocument document = documents.get(entry.getKey());
+                if (document != null) modified += replace(document, applyUpdate(document, toBson(entry.getValue())));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return modified;
+    }
+
+    /** Store the updated version of a document, returning 1 if it changed and 0 otherwise. */
+    private int replace (BsonDocument document, BsonDocument updated) {
+        if (updated.equals(document)) return 0;
+        documents.put(updated.getString("_id").getValue(), updated);
+        return 1;
+    }
+
+    @Override
+    public long deleteMany (Bson filter) {
+        BsonDocument filterDocument = toBson(filter);
+        long deleted = 0;
+        lock.writeLock().lock();
+        try {
+            Iterator<BsonDocument> iterator = documents.values().iterator();
+            while (iterator.hasNext()) {
+                if (matches(iterator.next(), filterDocument)) {
+                    iterator.remove();
+                    deleted++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<Document> aggregate (List<? extends Bson> pipeline) {
+        List<BsonDocument> results = matching(null);
+        for (Bson stage : pipeline) {
+            BsonDocument stageDocument = toBson(stage);
+            String operator = stageDocument.getFirstKey();
+            BsonValue argument = stageDocument.get(operator);
+            switch (operator) {
+                case "$match":
+                    results = results.stream()
+                            .filter(document -> matches(document, argument.asDocument()))
+                            .collect(Collectors.toCollection(ArrayList::new));
+                    break;
+                case "$sort":
+                    results.sort(comparator(argument.asDocument()));
+                    break;
+                case "$limit":
+                    int limit = argument.asNumber().intValue();
+                    if (results.size() > limit) results = new ArrayList<>(results.subList(0, limit));
+                    break;
+                case "$group":
+                    results = group(results, argument.asDocument());
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Aggregation stage " + operator);
+            }
+        }
+        return results.stream()
+                .map(document -> documentCodec.decode(new BsonDocumentReader(document), DecoderContext.builder().build()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public String createIndex (Bson keys) {
+        // Every query scans the collection anyway.
+        return toBson(keys).keySet().stream().collect(Collectors.joining("_"));
+    }
+
+    /** Copy the documents matching the filter (or all documents if null) under the read lock. */
+    private List<BsonDocument> matching (BsonDocument filter) {
+        lock.readLock().lock();
+        try {
+            if (filter == null) return new ArrayList<>(documents.values());
+            List<BsonDocument> results = new ArrayList<>();
+            for (BsonDocument document : candidates(filter)) {
+                if (matches(document, filter)) results.add(document);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The documents that could match the filter. When the filter is on a single ID (as in getById) this is just that
+     * document, so lookups by ID don't scan the collection. Must be called with a lock held.
+     */
+    private List<BsonDocument> candidates (BsonDocument filter) {
+        BsonValue id = filter != null ? filter.get("_id") : null;
+        if (id != null && id.isString()) {
+            BsonDocument document = documents.get(id.asString().getValue());
+            List<BsonDocument> results = new ArrayList<>(1);
+            if (document != null) results.add(document);
+            return results;
+        }
+        return new ArrayList<>(documents.values());
+    }
+
+    private static boolean matches (BsonDocument document, BsonDocument filter) {
+        if (filter == null) return true;
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            BsonValue condition = entry.getValue();
+            switch (key) {
+                case "$and":
+                    for (BsonValue clause : condition.asArray()) {
+                        if (!matches(document, clause.asDocument())) return false;
+                    }
+                    break;
+                case "$or":
+                    if (condition.asArray().stream().noneMatch(clause -> matches(document, clause.asDocument()))) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (key.startsWith("$")) throw new UnsupportedOperationException("Query operator " + key);
+                    if (!fieldMatches(get(document, key), condition)) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean fieldMatches (BsonValue value, BsonValue condition) {
+        if (!isOperatorDocument(condition)) return valueEquals(value, condition);
+        for (Map.Entry<String, BsonValue> entry : condition.asDocument().entrySet()) {
+            BsonValue argument = entry.getValue();
+            boolean matches;
+            switch (entry.getKey()) {
+                case "$eq":
+                    matches = valueEquals(value, argument);
+                    break;
+                case "$ne":
+                    matches = !valueEquals(value, argument);
+                    break;
+                case "$in":
+                    matches = argument.asArray().stream().anyMatch(candidate -> valueEquals(value, candidate));
+                    break;
+                case "$nin":
+                    matches = argument.asArray().stream().noneMatch(candidate -> valueEquals(value, candidate));
+                    break;
+                case "$gt":
+                    matches = comparable(value, argument) && compareValues(value, argument) > 0;
+                    break;
+                case "$gte":
+                    matches = comparable(value, argument) && compareValues(value, argument) >= 0;
+                    break;
+                case "$lt":
+                    matches = comparable(value, argument) && compareValues(value, argument) < 0;
+                    break;
+                case "$lte":
+                    matches = comparable(value, argument) && compareValues(value, argument) <= 0;
+                    break;
+                case "$exists":
+                    matches = (value != null) == argument.asBoolean().getValue();
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Query operator " + entry.getKey());
+            }
+            if (!matches) return false;
+        }
+        return true;
+    }
+
+    private static boolean isOperatorDocument (BsonValue value) {
+        return value.isDocument() && !value.asDocument().isEmpty() && value.asDocument().getFirstKey().startsWith("$");
+    }
+
+    /** Equality as Mongo defines it: null matches a missing field, and a value matches any element of an array. */
+    private static boolean valueEquals (BsonValue value, BsonValue target) {
+        if (target == null || target.isNull()) return value == null || value.isNull();
+        if (value == null) return false;
+        if (value.isArray() && !target.isArray()) {
+            return value.asArray().stream().anyMatch(element -> valueEquals(element, target));
+        }
+        if (value.isNumber() && target.isNumber()) return compareValues(value, target) == 0;
+        return value.equals(target);
+    }
+
+    private static boolean comparable (BsonValue a, BsonValue b) {
+        return a != null && typeRank(a) == typeRank(b);
+    }
+
+    /** Order values as Mongo sorts them: by type first (missing and null lowest), then by value. */
+    private static int compareValues (BsonValue a, BsonValue b) {
+        int rankA = typeRank(a);
+        int rankB = typeRank(b);
+        if (rankA != rankB) return Integer.compare(rankA, rankB);
+        if (a == null || a.isNull()) return 0;
+        if (a.isNumber()) return Double.compare(a.asNumber().doubleValue(), b.asNumber().doubleValue());
+        if (a.isString()) return a.asString().getValue().compareTo(b.asString().getValue());
+        if (a.isBoolean()) return Boolean.compare(a.asBoolean().getValue(), b.asBoolean().getValue());
+        if (a.isDateTime()) return Long.compare(a.asDateTime().getValue(), b.asDateTime().getValue());
+        if (a.isObjectId()) return a.asObjectId().getValue().compareTo(b.asObjectId().getValue());
+        return 0;
+    }
+
+    private static int typeRank (BsonValue value) {
+        if (value == null || value.isNull()) return 0;
+        if (value.isNumber()) return 1;
+        if (value.isString()) return 2;
+        if (value.isDocument()) return 3;
+        if (value.isArray()) return 4;
+        if (value.isObjectId()) return 5;
+        if (value.isBoolean()) return 6;
+        if (value.isDateTime()) return 7;
+        return 8;
+    }
+
+    private static Comparator<BsonDocument> comparator (BsonDocument sort) {
+        return (a, b) -> {
+            for (Map.Entry<String, BsonValue> entry : sort.entrySet()) {
+                int direction = entry.getValue().asNumber().intValue();
+                int result = compareValues(get(a, entry.getKey()), get(b, entry.getKey())) * direction;
+                if (result != 0) return result;
+            }
+            return 0;
+        };
+    }
+
+    /** Get a (possibly dotted) field from a document, or null if it is missing. */
+    private static BsonValue get (BsonDocument document, String path) {
+        BsonValue value = document;
+        for (String part : path.split("\\.")) {
+            if (value == null || !value.isDocument()) return null;
+            value = value.asDocument().get(part);
+        }
+        return value;
+    }
+
+    /** Apply an inclusion or exclusion projection, whose fields may be dotted paths into embedded documents. */
+    private static BsonDocument project (BsonDocument document, BsonDocument projection) {
+        if (projection == null || projection.isEmpty()) return document;
+        boolean inclusion = projection.entrySet().stream()
+                .anyMatch(entry -> !entry.getKey().equals("_id") && isTruthy(entry.getValue()));
+        if (inclusion) {
+            BsonDocument projected = new BsonDocument();
+            BsonValue idRule = projection.get("_id");
+            if (document.containsKey("_id") && (idRule == null || isTruthy(idRule))) {
+                projected.put("_id", document.get("_id"));
+            }
+            for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+                if (entry.getKey().equals("_id") || !isTruthy(entry.getValue())) continue;
+                BsonValue value = get(document, entry.getKey());
+                if (value != null) set(projected, entry.getKey(), value);
+            }
+            return projected;
+        }
+        BsonDocument projected = document.clone();
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            if (isTruthy(entry.getValue())) continue;
+            BsonDocument parent = parentOf(projected, entry.getKey(), false);
+            if (parent != null) parent.remove(lastPart(entry.getKey()));
+        }
+        return projected;
+    }
+
+    private static boolean isTruthy (BsonValue value) {
+        if (value.isBoolean()) return value.asBoolean().getValue();
+        if (value.isNumber()) return value.asNumber().intValue() != 0;
+        throw new UnsupportedOperationException("Projection " + value);
+    }
+
+    /** Apply an update to a copy of the document, leaving the stored document untouched. */
+    private static BsonDocument applyUpdate (BsonDocument document, BsonDocument update) {
+        BsonDocument updated = document.clone();
+        for (Map.Entry<String, BsonValue> operation : update.entrySet()) {
+            String operator = operation.getKey();
+            for (Map.Entry<String, BsonValue> field : operation.getValue().asDocument().entrySet()) {
+                String path = field.getKey();
+                BsonValue argument = field.getValue();
+                switch (operator) {
+                    case "$set":
+                        set(updated, path, argument);
+                        break;
+                    case "$unset":
+                        BsonDocument parent = parentOf(updated, path, false);
+                        if (parent != null) parent.remove(lastPart(path));
+                        break;
+                    case "$inc":
+                        BsonValue current = get(updated, path);
+                        set(updated, path, add(current != null ? current : new BsonInt32(0), argument));
+                        break;
+                    case "$push":
+                        BsonArray pushTo = arrayAt(updated, path);
+                        if (isOperatorDocument(argument) && argument.asDocument().containsKey("$each")) {
+                            pushTo.addAll(argument.asDocument().getArray("$each"));
+                        } else {
+                            pushTo.add(argument);
+                        }
+                        break;
+                    case "$pull":
+                        // $pull takes either a value to remove or a condition on the elements
+                        arrayAt(updated, path).removeIf(element -> fieldMatches(element, argument));
+                        break;
+                    case "$pullAll":
+                        BsonArray pullFrom = arrayAt(updated, path);
+                        for (BsonValue value : argument.asArray()) {
+                            pullFrom.removeIf(element -> valueEquals(element, value));
+                        }
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Update operator " + operator);
+                }
+            }
+        }
+        return updated;
+    }
+
+    private static void set (BsonDocument document, String path, BsonValue value) {
+        parentOf(document, path, true).put(lastPart(path), value);
+    }
+
+    private static BsonArray arrayAt (BsonDocument document, String path) {
+        BsonValue value = get(document, path);
+        if (value == null) {
+            BsonArray array = new BsonArray();
+            set(document, path, array);
+            return array;
+        }
+        if (!value.isArray()) throw new IllegalArgumentException("Field " + path + " is not an array");
+        return value.asArray();
+    }
+
+    /** Find the document holding the last part of a dotted path, creating intermediate documents if requested. */
+    private static BsonDocument parentOf (BsonDocument document, String path, boolean create) {
+        String[] parts = path.split("\\.");
+        BsonDocument parent = document;
+        for (int i = 0; i < parts.length - 1; i++) {
+            BsonValue child = parent.get(parts[i]);
+            if (child == null || child.isNull()) {
+                if (!create) return null;
+                child = new BsonDocument();
+                parent.put(parts[i], child);
+            }
+            if (!child.isDocument()) throw new UnsupportedOperationException("Path through non-document field " + path);
+            parent = child.asDocument();
+        }
+        return parent;
+    }
+
+    private static String lastPart (String path) {
+        return path.substring(path.lastIndexOf('.') + 1);
+    }
+
+    private static List<BsonDocument> group (List<BsonDocument> documents, BsonDocument spec) {
+        BsonValue idExpression = spec.get("_id");
+        Map<BsonValue, BsonDocument> groups = new LinkedHashMap<>();
+        for (BsonDocument document : documents) {
+            BsonValue key = evaluate(document, idExpression);
+            BsonDocument group = groups.computeIfAbsent(key, k -> new BsonDocument("_id", k));
+            for (Map.Entry<String, BsonValue> field : spec.entrySet()) {
+                if (field.getKey().equals("_id")) continue;
+                BsonDocument accumulator = field.getValue().asDocument();
+                String operator = accumulator.getFirstKey();
+                BsonValue value = evaluate(document, accumulator.get(operator));
+                switch (operator) {
+                    case "$first":
+                        if (!group.containsKey(field.getKey())) group.put(field.getKey(), value);
+                        break;
+                    case "$last":
+                        group.put(field.getKey(), value);
+                        break;
+                    case "$sum":
+                        BsonValue sum = group.containsKey(field.getKey()) ? group.get(field.getKey()) : new BsonInt32(0);
+                        group.put(field.getKey(), value.isNumber() ? add(sum, value) : sum);
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Accumulator " + operator);
+                }
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /** Evaluate a field path ("$field") or constant expression against a document. */
+    private static BsonValue evaluate (BsonDocument document, BsonValue expression) {
+        if (expression.isString() && expression.asString().getValue().startsWith("$")) {
+            BsonValue value = get(document, expression.asString().getValue().substring(1));
+            return value != null ? value : BsonNull.VALUE;
+        }
+        if (expression.isDocument()) throw new UnsupportedOperationException("Expression " + expression);
+        return expression;
+    }
+
+    /** Add two numbers, keeping the narrowest type that can hold the result (as Mongo does). */
+    private static BsonValue add (BsonValue a, BsonValue b) {
+        if (!a.isNumber() || !b.isNumber()) throw new IllegalArgumentException("Cannot add non-numeric values");
+        if (a.isDouble() || b.isDouble()) {
+            return new BsonDouble(a.asNumber().doubleValue() + b.asNumber().doubleValue());
+        }
+        long sum = a.asNumber().longValue() + b.asNumber().longValue();
+        if (a.isInt32() && b.isInt32() && sum >= Integer.MIN_VALUE && sum <= Integer.MAX_VALUE) {
+            return new BsonInt32((int) sum);
+        }
+        return new BsonInt64(sum);
+    }
+
+    private BsonDocument toBson (Bson bson) {
+        return bson != null ? bson.toBsonDocument(BsonDocument.class, codecRegistry) : null;
+    }
+
+    private BsonDocument encode (T item) {
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), item,
+                EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+        return document;
+    }
+
+    private T decode (BsonDocument document) {
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+}
@@ -0,0 +1,248 @@
+package com.conveyal.datatools.manager.persistence;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stands in for s3 by keeping the objects of a bucket as files in a local directory, with keys as relative paths
+ * (e.g., "gtfs/abc" is stored at [directory]/gtfs/abc). User metadata is kept in a properties file next to the object.
+ * ETags are the MD5 hash of the content, like those of objects uploaded to s3 in a single part. The hash is computed
+ * as an object is stored and kept in its properties file, so that listing objects does not read them all.
+ *
+ * Objects are written to a temporary file and moved into place, so readers never see a partly written object.
+ */
+public class LocalBlobStore implements BlobStore {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalBlobStore.class);
+
+    private static final String METADATA_SUFFIX = ".metadata";
+    private static final String TEMP_SUFFIX = ".part";
+    /** Properties holding the ETag and the size and modification time of the file it was computed for */
+    private static final String ETAG_PROPERTY = "blobstore.etag";
+    private static final String ETAG_STAMP_PROPERTY = "blobstore.etag-stamp";
+
+    private final File directory;
+    private final ExecutorService executor;
+    /** Held while replacing an object's properties file, so that concurrent updates don't lose each other's changes */
+    private final Object metadataLock = new Object();
+
+    public LocalBlobStore(File directory, ExecutorService executor) {
+        this.directory = directory;
+        this.executor = executor;
+        try {
+            FileUtils.forceMkdir(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to create blob store directory " + directory, e);
+        }
+        LOG.info("Storing objects in {}", directory);
+    }
+
+    @Override
+    public CompletableFuture<File> get (String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            File file = fileFor(key);
+            return file.isFile() ? file : null;
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> put (String key, File file, Map<String, String> metadata, DoubleConsumer progress) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                store(key, file, metadata);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (progress != null) progress.accept(100);
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> copy (String sourceKey, String destinationKey) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                store(destinationKey, fileFor(sourceKey), userMetadata(readProperties(sourceKey)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /** Copy the file to a temporary file next to the object, hashing it along the way, and move it into place. */
+    private void store (String key, File file, Map<String, String> metadata) throws IOException {
+        File destination = fileFor(key);
+        FileUtils.forceMkdir(destination.getParentFile());
+        Path temp = Files.createTempFile(destination.getParentFile().toPath(), destination.getName(), TEMP_SUFFIX);
+        try {
+            String md5;
+            try (DigestInputStream in = new DigestInputStream(new FileInputStream(file), DigestUtils.getMd5Digest());
+                 OutputStream out = new FileOutputStream(temp.toFile())) {
+                IOUtils.copy(in, out);
+                md5 = Hex.encodeHexString(in.getMessageDigest().digest());
+            }
+            synchronized (metadataLock) {
+                Files.move(temp, destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Properties properties = new Properties();
+                if (metadata != null) properties.putAll(metadata);
+                properties.setProperty(ETAG_PROPERTY, md5);
+                properties.setProperty(ETAG_STAMP_PROPERTY, stamp(destination));
+                writeProperties(key, properties);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public CompletableFuture<BlobInfo> head (String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            File file = fileFor(key);
+            if (!file.isFile()) return null;
+            try {
+                return describe(key, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<List<BlobInfo>> list (String prefix) {
+        return CompletableFuture.supplyAsync(() -> {
+            Path root = directory.toPath();
+            List<BlobInfo> blobs = new ArrayList<>();
+            try (Stream<Path> paths = Files.walk(root)) {
+                List<Path> files = paths
+                        .filter(Files::isRegularFile)
+                        .filter(path -> !path.toString().endsWith(METADATA_SUFFIX) && !path.toString().endsWith(TEMP_SUFFIX))
+                        .collect(Collectors.toList());
+                for (Path path : files) {
+                    String key = root.relativize(path).toString().replace(File.separatorChar, '/');
+                    if (key.startsWith(prefix)) blobs.add(describe(key, path.toFile()));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return blobs;
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> delete (String... keys) {
+        return CompletableFuture.runAsync(() -> {
+            for (String key : keys) {
+                fileFor(key).delete();
+                metadataFileFor(key).delete();
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> setPublic (String key, boolean isPublic) {
+        LOG.debug("Objects in a local blob store cannot be made public, ignoring {}", key);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Describe an object, using the ETag stored with it if the file has not changed since. Objects stored by an older
+     * version of this class (or modified directly on disk) are hashed once and their ETag stored.
+     */
+    private BlobInfo describe (String key, File file) throws IOException {
+        String stamp = stamp(file);
+        Properties properties = readProperties(key);
+        String eTag = properties.getProperty(ETAG_PROPERTY);
+        if (eTag == null || !stamp.equals(properties.getProperty(ETAG_STAMP_PROPERTY))) {
+            try (InputStream in = new FileInputStream(file)) {
+                eTag = DigestUtils.md5Hex(in);
+            }
+            synchronized (metadataLock) {
+                // Only store the hash if the object has not been replaced in the meantime.
+                if (stamp.equals(stamp(file))) {
+                    properties = readProperties(key);
+                    properties.setProperty(ETAG_PROPERTY, eTag);
+                    properties.setProperty(ETAG_STAMP_PROPERTY, stamp);
+                    writeProperties(key, properties);
+                }
+            }
+        }
+        return new BlobInfo(key, file.length(), eTag, file.lastModified(), userMetadata(properties));
+    }
+
+    /** Identifies the content of a file well enough to tell whether its stored ETag is still valid */
+    private static String stamp (File file) {
+        return file.length() + "-" + file.lastModified();
+    }
+
+    private File fileFor (String key) {
+        File file = new File(directory, key);
+        // Don't let keys escape the directory.
+        if (!file.toPath().normalize().startsWith(directory.toPath().normalize())) {
+            throw new IllegalArgumentException("Invalid key " + key);
+        }
+        return file;
+    }
+
+    private File metadataFileFor (String key) {
+        return fileFor(key + METADATA_SUFFIX);
+    }
+
+    /** Replace the properties file of an object, writing it to a temporary file first. */
+    private void writeProperties (String key, Properties properties) throws IOException {
+        File metadataFile = metadataFileFor(key);
+        Path temp = Files.createTempFile(metadataFile.getParentFile().toPath(), metadataFile.getName(), TEMP_SUFFIX);
+        try {
+            try (OutputStream out = new FileOutputStream(temp.toFile())) {
+                properties.store(out, null);
+            }
+            Files.move(temp, metadataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Properties readProperties (String key) throws IOException {
+        Properties properties = new Properties();
+        File metadataFile = metadataFileFor(key);
+        if (!metadataFile.isFile()) return properties;
+        try (InputStream in = new FileInputStream(metadataFile)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    /** @return the user metadata among an object's properties */
+    private static Map<String, String> userMetadata (Properties properties) {
+        Map<String, String> metadata = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.equals(ETAG_PROPERTY) && !name.equals(ETAG_STAMP_PROPERTY)) {
+                metadata.put(name, properties.getProperty(name));
+            }
+        }
+        return metadata;
+    }
+}
@@ -0,0 +1,95 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.conveyal.datatools.manager.models.Model;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Stores a collection of objects in MongoDB.
+ */
+public class MongoCollectionStore<T extends Model> implements CollectionStore<T> {
+
+    private final MongoCollection<T> mongoCollection;
+    // return document should match document after update, not before
+    private final FindOneAndUpdateOptions findOneAndUpdateOptions =
+            new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER);
+
+    public MongoCollectionStore(MongoCollection<T> mongoCollection) {
+        this.mongoCollection = mongoCollection;
+    }
+
+    public MongoCollection<T> getMongoCollection () {
+        return mongoCollection;
+    }
+
+    @Override
+    public void insertOne (T item) {
+        mongoCollection.insertOne(item);
+    }
+
+    @Override
+    public void insertMany (List<T> items) {
+        mongoCollection.insertMany(items, new InsertManyOptions().ordered(false));
+    }
+
+    @Override
+    public List<T> find (Bson filter, Bson sort, Bson projection, int limit) {
+        FindIterable<T> results = mongoCollection.find(filter != null ? filter : new Document());
+        if (sort != null) results = results.sort(sort);
+        if (projection != null) results = results.projection(projection);
+        if (limit > 0) results = results.limit(limit);
+        return results.into(new ArrayList<>());
+    }
+
+    @Override
+    public long count (Bson filter) {
+        return mongoCollection.count(filter != null ? filter : new Document());
+    }
+
+    @Override
+    public T findOneAndUpdate (Bson filter, Bson update) {
+        return mongoCollection.findOneAndUpdate(filter, update, findOneAndUpdateOptions);
+    }
+
+    @Override
+    public long updateMany (Bson filter, Bson update) {
+        return mongoCollection.updateMany(filter, update).getModifiedCount();
+    }
+
+    @Override
+    public long bulkUpdate (Map<String, Bson> updatesById) {
+        List<UpdateOneModel<T>> requests = new ArrayList<>(updatesById.size());
+        for (Map.Entry<String, Bson> entry : updatesById.entrySet()) {
+            requests.add(new UpdateOneModel<>(eq(entry.getKey()), entry.getValue()));
+        }
+        return mongoCollection.bulkWrite(requests, new BulkWriteOptions().ordered(false)).getModifiedCount();
+    }
+
+    @Override
+    public long deleteMany (Bson filter) {
+        return mongoCollection.deleteMany(filter).getDeletedCount();
+    }
+
+    @Override
+    public List<Document> aggregate (List<? extends Bson> pipeline) {
+        return mongoCollection.aggregate(pipeline, Document.class).into(new ArrayList<>());
+    }
+
+    @Override
+    public String createIndex (Bson keys) {
+        return mongoCollection.createIndex(keys);
+    }
+}
@@ -9,6 +9,9 @@ import com.conveyal.datatools.manager.models.ExternalFeedSourceProperty;
 import com.conveyal.datatools.manager.models.FeedDownloadToken;
 import com.conveyal.datatools.manager.models.FeedSource;
 import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobRecord;
+import com.conveyal.datatools.manager.models.JobSummary;
+import com.conveyal.datatools.manager.models.Model;
 import com.conveyal.datatools.manager.models.Note;
 import com.conveyal.datatools.manager.models.Organization;
 import com.conveyal.datatools.manager.models.Project;
@@ -23,6 +26,12 @@ import org.bson.codecs.pojo.PojoCodecProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
@@ -34,6 +43,14 @@ public class Persistence {
     private static final Logger LOG = LoggerFactory.getLogger(Persistence.class);
     private static final String MONGO_URI = "MONGO_URI";
     private static final String MONGO_DB_NAME = "MONGO_DB_NAME";
+    /** Where to keep application data, either "mongo" (the default) or "memory" */
+    private static final String PERSISTENCE_BACKEND = "PERSISTENCE_BACKEND";
+    private static final String CACHE_ENABLED = "application.cache.enabled";
+    private static final String CACHE_MAX_SIZE = "application.cache.max_size";
+    private static final String CACHE_FEED_VERSION_MAX_SIZE = "application.cache.feed_version_max_size";
+    private static final String CACHE_TTL_SECONDS = "application.cache.ttl_seconds";
+    /** Queries issued at once by a request (see AsyncTypedPersistence) are few, so a few threads can overlap them. */
+    private static final int QUERY_THREADS = 8;
 
     private static MongoClient mongo;
     private static MongoDatabase mongoDatabase;
@@ -48,26 +65,59 @@ public class Persistence {
     public static TypedPersistence<Organization> organizations;
     public static TypedPersistence<ExternalFeedSourceProperty> externalFeedSourceProperties;
     public static TypedPersistence<FeedDownloadToken> tokens;
+    public static TypedPersistence<JobRecord> jobs;
+    public static TypedPersistence<JobSummary> jobSummaries;
+
+    // Overlapping read access to the collections queried by the busiest endpoints
+    public static AsyncTypedPersistence<FeedSource> asyncFeedSources;
+    public static AsyncTypedPersistence<Project> asyncProjects;
+    public static AsyncTypedPersistence<FeedVersion> asyncFeedVersions;
+    public static AsyncTypedPersistence<ExternalFeedSourceProperty> asyncExternalFeedSourceProperties;
 
     public static void initialize () {
 
-        PojoCodecProvider pojoCodecProvider = PojoCodecProvider.builder()
-                .register("com.conveyal.datatools.manager.models")
-                .register("com.conveyal.gtfs.loader")
-                .register("com.conveyal.gtfs.validator")
-                .automatic(true)
-                .build();
+        pojoCodecRegistry = buildCodecRegistry();
 
-        // Register our custom codecs which cannot be properly auto-built by reflection
-        CodecRegistry customRegistry = CodecRegistries.fromCodecs(
-                new IntArrayCodec(),
-                new URLCodec(),
-                new LocalDateCodec());
+        if (DataManager.hasConfigProperty(PERSISTENCE_BACKEND) &&
+                "memory".equals(DataManager.getConfigPropertyAsText(PERSISTENCE_BACKEND))) {
+            initializeInMemory();
+        } else {
+            initializeMongo();
+        }
 
-        pojoCodecRegistry = fromRegistries(MongoClient.getDefaultCodecRegistry(),
-                customRegistry,
-                fromProviders(pojoCodecProvider));
+        ExecutorService queryExecutor = Executors.newFixedThreadPool(QUERY_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "persistence-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+        asyncFeedSources = new AsyncTypedPersistence<>(feedSources.getStore(), queryExecutor);
+        asyncProjects = new AsyncTypedPersistence<>(projects.getStore(), queryExecutor);
+        asyncFeedVersions = new AsyncTypedPersistence<>(feedVersions.getStore(), queryExecutor);
+        asyncExternalFeedSourceProperties = new AsyncTypedPersistence<>(externalFeedSourceProperties.getStore(), queryExecutor);
+
+        // Index the fields used to look up related objects, so that these lookups don't scan whole collections.
+        // Creating an index that already exists is a no-op.
+        projects.createIndex(Indexes.ascending("organizationId"));
+        feedSources.createIndex(Indexes.ascending("projectId"));
+        feedVersions.createIndex(Indexes.compoundIndex(Indexes.ascending("feedSourceId"), Indexes.descending("version")));
+        deployments.createIndex(Indexes.ascending("projectId"));
+        deployments.createIndex(Indexes.ascending("deployedTo", "routerId"));
+        externalFeedSourceProperties.createIndex(Indexes.ascending("feedSourceId"));
 
+        // Feed sources, projects and feed versions are looked up by ID (often repeatedly) for permission checks and
+        // to find parent objects on nearly every request.
+        if (DataManager.hasConfigProperty(CACHE_ENABLED) && "true".equals(DataManager.getConfigPropertyAsText(CACHE_ENABLED))) {
+            long maxSize = getConfigPropertyAsLong(CACHE_MAX_SIZE, 1000);
+            long ttlSeconds = getConfigPropertyAsLong(CACHE_TTL_SECONDS, 30);
+            feedSources.enableCache(maxSize, ttlSeconds, pojoCodecRegistry);
+            projects.enableCache(maxSize, ttlSeconds, pojoCodecRegistry);
+            // Feed versions retrieved by ID include their full validation results, which can be large, so keep fewer.
+            feedVersions.enableCache(getConfigPropertyAsLong(CACHE_FEED_VERSION_MAX_SIZE, 100), ttlSeconds, pojoCodecRegistry);
+        }
+    }
+
+    /** Connect to MongoDB (local unless MONGO_URI is set) and store each class of objects in its own collection. */
+    private static void initializeMongo () {
         MongoClientOptions.Builder builder = MongoClientOptions.builder()
 //                .sslEnabled(true)
                 .codecRegistry(pojoCodecRegistry);
@@ -90,11 +140,67 @@ public class Persistence {
         organizations = new TypedPersistence(mongoDatabase, Organization.class);
         externalFeedSourceProperties = new TypedPersistence(mongoDatabase, ExternalFeedSourceProperty.class);
         tokens = new TypedPersistence(mongoDatabase, FeedDownloadToken.class);
+        jobs = new TypedPersistence(mongoDatabase, JobRecord.class);
+        jobSummaries = new TypedPersistence(mongoDatabase, JobSummary.class);
+    }
+
+    /**
+     * Keep all objects in memory instead of MongoDB, so that the application can run (e.g., for benchmarks) without a
+     * database. Nothing is saved across restarts.
+     */
+    private static void initializeInMemory () {
+        LOG.warn("Keeping application data in memory, nothing will be saved across restarts");
+        feedSources = inMemory(FeedSource.class);
+        projects = inMemory(Project.class);
+        feedVersions = inMemory(FeedVersion.class);
+        deployments = inMemory(Deployment.class);
+        notes = inMemory(Note.class);
+        organizations = inMemory(Organization.class);
+        externalFeedSourceProperties = inMemory(ExternalFeedSourceProperty.class);
+        tokens = inMemory(FeedDownloadToken.class);
+        jobs = inMemory(JobRecord.class);
+        jobSummaries = inMemory(JobSummary.class);
+    }
+
+    /** The codecs used to store the models, whether in MongoDB or in memory. */
+    static CodecRegistry buildCodecRegistry () {
+        PojoCodecProvider pojoCodecProvider = PojoCodecProvider.builder()
+                .register("com.conveyal.datatools.manager.models")
+                .register("com.conveyal.gtfs.loader")
+                .register("com.conveyal.gtfs.validator")
+                .automatic(true)
+                .build();
 
-        // TODO: Set up indexes on feed versions by feedSourceId, version #? deployments, feedSources by projectId.
-//        deployments.getMongoCollection().createIndex(Indexes.descending("projectId"));
-//        feedSources.getMongoCollection().createIndex(Indexes.descending("projectId"));
-//        feedVersions.getMongoCollection().createIndex(Indexes.descending("feedSourceId", "version"));
+        // Register our custom codecs which cannot be properly auto-built by reflection
+        CodecRegistry customRegistry = CodecRegistries.fromCodecs(
+                new IntArrayCodec(),
+                new URLCodec(),
+                new LocalDateCodec());
+
+        return fromRegistries(MongoClient.getDefaultCodecRegistry(),
+                customRegistry,
+                fromProviders(pojoCodecProvider));
+    }
+
+    private static <T extends Model> TypedPersistence<T> inMemory (Class<T> clazz) {
+        return new TypedPersistence<>(new InMemoryCollectionStore<>(clazz, pojoCodecRegistry), clazz);
+    }
+
+    private static long getConfigPropertyAsLong (String name, long defaultValue) {
+        return DataManager.hasConfigProperty(name) ? DataManager.getConfigProperty(name).asLong(defaultValue) : defaultValue;
+    }
+
+    /**
+     * Cache metrics for each collection that has caching enabled, keyed on collection name.
+     */
+    public static Map<String, Map<String, Object>> cacheMetrics () {
+        Map<String, Map<String, Object>> metrics = new HashMap<>();
+        for (TypedPersistence<?> collection : Arrays.asList(feedSources, projects, feedVersions, deployments, notes,
+                organizations, externalFeedSourceProperties, tokens)) {
+            Map<String, Object> collectionMetrics = collection.cacheMetrics();
+            if (collectionMetrics != null) metrics.put(collection.getCollectionName(), collectionMetrics);
+        }
+        return metrics;
     }
     
 }
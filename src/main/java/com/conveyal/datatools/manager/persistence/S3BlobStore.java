@@ -0,0 +1,171 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.services.s3.transfer.Upload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Stores objects in an s3 bucket. Reads go through an S3FeedCache, so repeated reads of an object are served from
+ * local disk. Uploads go through a TransferManager, which uploads large files in parallel parts.
+ */
+public class S3BlobStore implements BlobStore {
+    private static final Logger LOG = LoggerFactory.getLogger(S3BlobStore.class);
+
+    private static final int NOT_FOUND = 404;
+    /** s3 allows deleting at most this many objects per request */
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+
+    private final AmazonS3 s3Client;
+    private final String bucket;
+    private final S3FeedCache cache;
+    private final TransferManager transferManager;
+    /** Runs the (blocking) s3 client calls */
+    private final ExecutorService executor;
+
+    /**
+     * @param multipartThresholdBytes files at least this large are uploaded in parallel parts
+     */
+    public S3BlobStore(AmazonS3 s3Client, String bucket, S3FeedCache cache, long multipartThresholdBytes,
+                       ExecutorService executor) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.cache = cache;
+        this.executor = executor;
+        this.transferManager = TransferManagerBuilder.standard()
+                .withS3Client(s3Client)
+                .withMultipartUploadThreshold(multipartThresholdBytes)
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<File> get (String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                // null if there is no such object
+                return cache.get(key);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> put (String key, File file, Map<String, String> metadata, DoubleConsumer progress) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (result.isCancelled()) return;
+            ObjectMetadata objectMetadata = new ObjectMetadata();
+            if (metadata != null) objectMetadata.setUserMetadata(metadata);
+            PutObjectRequest request = new PutObjectRequest(bucket, key, file).withMetadata(objectMetadata);
+            LOG.info("Uploading {} to s3://{}/{}", file, bucket, key);
+            try {
+                Upload upload = transferManager.upload(request);
+                if (progress != null) {
+                    upload.addProgressListener((ProgressListener) progressEvent ->
+                            progress.accept(upload.getProgress().getPercentTransferred()));
+                }
+                // Cancelling the returned future (e.g., when the job waiting on it is cancelled) aborts the upload.
+                result.whenComplete((done, error) -> {
+                    if (result.isCancelled()) {
+                        LOG.info("Aborting upload of {} to s3://{}/{}", file, bucket, key);
+                        upload.abort();
+                    }
+                });
+                upload.waitForCompletion();
+                cache.invalidate(key);
+                result.complete(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Void> copy (String sourceKey, String destinationKey) {
+        return CompletableFuture.runAsync(() -> {
+            s3Client.copyObject(new CopyObjectRequest(bucket, sourceKey, bucket, destinationKey));
+            cache.invalidate(destinationKey);
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<BlobInfo> head (String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ObjectMetadata metadata = s3Client.getObjectMetadata(bucket, key);
+                return new BlobInfo(key, metadata.getContentLength(), metadata.getETag(),
+                        metadata.getLastModified().getTime(), metadata.getUserMetadata());
+            } catch (AmazonServiceException e) {
+                if (e.getStatusCode() == NOT_FOUND) return null;
+                throw e;
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<List<BlobInfo>> list (String prefix) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<BlobInfo> blobs = new ArrayList<>();
+            ObjectListing listing = s3Client.listObjects(bucket, prefix);
+            while (true) {
+                for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                    // user metadata is not included in listings
+                    blobs.add(new BlobInfo(summary.getKey(), summary.getSize(), summary.getETag(),
+                            summary.getLastModified().getTime(), null));
+                }
+                if (!listing.isTruncated()) break;
+                listing = s3Client.listNextBatchOfObjects(listing);
+            }
+            return blobs;
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> delete (String... keys) {
+        return CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < keys.length; i += MAX_KEYS_PER_DELETE) {
+                String[] batch = Arrays.copyOfRange(keys, i, Math.min(i + MAX_KEYS_PER_DELETE, keys.length));
+                s3Client.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(batch));
+                for (String key : batch) cache.invalidate(key);
+            }
+        }, executor);
+    }
+
+    /**
+     * Public objects are readable by anyone. Removing public access leaves an object readable by authenticated
+     * AWS users, as the application has always done.
+     */
+    @Override
+    public CompletableFuture<Void> setPublic (String key, boolean isPublic) {
+        return CompletableFuture.runAsync(() -> s3Client.setObjectAcl(bucket, key, isPublic
+                ? CannedAccessControlList.PublicRead
+                : CannedAccessControlList.AuthenticatedRead), executor);
+    }
+}
@@ -0,0 +1,342 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local disk cache of objects downloaded from s3, used by FeedStore when feeds are stored on s3 so that jobs that
+ * repeatedly read the same feeds (merging, deploying, GTFS+) do not download them again each time.
+ *
+ * - The total size of the cached files is kept under a budget by evicting the least recently used files.
+ * - Concurrent requests for the same object share a single download.
+ * - Large objects are downloaded in parallel byte ranges.
+ * - A cached file is only used if its ETag still matches the object's, and downloads are checked against the ETag.
+ *
+ * Each object is cached as <directory>/<hash of key>/<last part of key>, so that the file has the same name as the
+ * object (e.g., the feed version ID) for callers that name downloads or zip entries after it.
+ *
+ * Callers get the cached file itself and are not asked to release it, so a file handed out is pinned for LEASE_MILLIS
+ * after the last request for it: it is not evicted in that time, and if it goes stale or is invalidated, deleting it is
+ * put off until the lease runs out. Callers are expected to open the file straight away (an open file is unaffected
+ * by its deletion). Pinned files can take the cache over its size budget for a while.
+ *
+ * Objects that do not exist on s3 are reported as null, to every caller waiting for the same download.
+ *
+ * The cache does not survive restarts: its directory is emptied when it is created.
+ */
+public class S3FeedCache {
+    private static final Logger LOG = LoggerFactory.getLogger(S3FeedCache.class);
+
+    /** Objects at least this large are downloaded in parallel ranges */
+    private static final long RANGED_DOWNLOAD_THRESHOLD = 32 * 1024 * 1024;
+    private static final long RANGE_SIZE = 8 * 1024 * 1024;
+    private static final int NOT_FOUND = 404;
+    /**
+     * Shared by all ranged downloads, so that concurrent downloads do not open an unbounded number of connections.
+     * The threads are daemons so that idle range threads do not keep the JVM from exiting.
+     */
+    private static final ExecutorService rangeExecutor = Executors.newFixedThreadPool(8, runnable -> {
+        Thread thread = new Thread(runnable, "s3-cache-range");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** How long a file handed out to a caller is kept after the last request for it */
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final AmazonS3 s3Client;
+    private final String bucket;
+    private final File directory;
+    private final long maxSizeBytes;
+    private final long leaseMillis;
+
+    /** Cached objects by s3 key, in access order so that the eldest entry is the least recently used */
+    private final LinkedHashMap<String, CachedObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSizeBytes = 0;
+    /** Downloads in progress by s3 key, so that concurrent requests for a key wait for the same download */
+    private final Map<String, CompletableFuture<File>> downloads = new ConcurrentHashMap<>();
+    /** Files no longer in the cache but still leased to callers, with the time their lease runs out */
+    private final Map<File, Long> retired = new HashMap<>();
+
+    private static class CachedObject {
+        final File file;
+        final String eTag;
+        final long size;
+        /** Until when the file is pinned for callers it has been handed out to */
+        long leasedUntil;
+
+        CachedObject(File file, String eTag, long size) {
+            this.file = file;
+            this.eTag = eTag;
+            this.size = size;
+        }
+    }
+
+    public S3FeedCache(AmazonS3 s3Client, String bucket, File directory, long maxSizeBytes) {
+        this(s3Client, bucket, directory, maxSizeBytes, LEASE_MILLIS);
+    }
+
+    /** Create a cache that keeps files handed out for the given time, rather than LEASE_MILLIS (e.g., in tests). */
+    S3FeedCache(AmazonS3 s3Client, String bucket, File directory, long maxSizeBytes, long leaseMillis) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.leaseMillis = leaseMillis;
+        try {
+            FileUtils.forceMkdir(directory);
+            FileUtils.cleanDirectory(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to set up s3 cache directory " + directory, e);
+        }
+        LOG.info("Caching up to {} MB of s3 objects in {}", maxSizeBytes / 1024 / 1024, directory);
+    }
+
+    /**
+     * Get a local copy of an s3 object, downloading it if it is not cached or has changed on s3 since it was cached.
+     * The returned file is owned by the cache and must not be modified or deleted. It is kept for at least LEASE_MILLIS,
+     * so callers should open it right away.
+     * @return the cached file, or null if there is no object with the given key
+     */
+    public File get (String key) throws IOException {
+        CompletableFuture<File> download = new CompletableFuture<>();
+        CompletableFuture<File> existing = downloads.putIfAbsent(key, download);
+        if (existing != null) {
+            LOG.info("Waiting for download of s3://{}/{} already in progress", bucket, key);
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                // fail the same way as the request that did the download
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IOException("Download of s3://" + bucket + "/" + key + " failed", e.getCause());
+            }
+        }
+        try {
+            File file = getOrDownload(key);
+            download.complete(file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            download.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(key, download);
+        }
+    }
+
+    private File getOrDownload (String key) throws IOException {
+        ObjectMetadata metadata;
+        try {
+            metadata = s3Client.getObjectMetadata(bucket, key);
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() != NOT_FOUND) throw e;
+            // deleted from s3, so any cached copy is stale
+            invalidate(key);
+            return null;
+        }
+        String eTag = metadata.getETag();
+        synchronized (this) {
+            CachedObject cached = entries.get(key);
+            if (cached != null) {
+                if (cached.eTag.equals(eTag) && cached.file.exists()) {
+                    LOG.info("Using cached copy of s3://{}/{}", bucket, key);
+                    cached.leasedUntil = System.currentTimeMillis() + leaseMillis;
+                    return cached.file;
+                }
+                // stale or deleted from under the cache
+                remove(key);
+            }
+        }
+
+        File file = cacheFile(key);
+        File partial = new File(file.getParentFile(), file.getName() + ".part");
+        Files.createDirectories(file.getParentFile().toPath());
+        long size = metadata.getContentLength();
+        LOG.info("Downloading s3://{}/{} ({} bytes)", bucket, key, size);
+        try {
+            if (size >= RANGED_DOWNLOAD_THRESHOLD) {
+                downloadRanges(key, eTag, size, partial);
+            } else {
+                download(key, eTag, 0, size - 1, partial);
+            }
+            verify(partial, eTag);
+            synchronized (this) {
+                // The stale copy this replaces may still be leased, but a caller that has it open keeps reading the
+                // old content, and one that has not opened it yet will read the new content.
+                retired.remove(file);
+                Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(partial.toPath());
+        }
+
+        synchronized (this) {
+            CachedObject cached = new CachedObject(file, eTag, size);
+            cached.leasedUntil = System.currentTimeMillis() + leaseMillis;
+            entries.put(key, cached);
+            totalSizeBytes += size;
+            evict();
+        }
+        return file;
+    }
+
+    /** Download the object in fixed-size ranges in parallel, each written directly to its place in the file. */
+    private void downloadRanges (String key, String eTag, long size, File partial) throws IOException {
+        // Allocate the whole file up front, as a channel cannot write beyond the end of a file.
+        try (RandomAccessFile file = new RandomAccessFile(partial, "rw")) {
+            file.setLength(size);
+        }
+        List<Future<?>> ranges = new ArrayList<>();
+        for (long start = 0; start < size; start += RANGE_SIZE) {
+            long rangeStart = start;
+            long rangeEnd = Math.min(start + RANGE_SIZE, size) - 1;
+            ranges.add(rangeExecutor.submit(() -> {
+                download(key, eTag, rangeStart, rangeEnd, partial);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> range : ranges) range.get();
+        } catch (InterruptedException e) {
+            for (Future<?> range : ranges) range.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Ranged download of s3://" + bucket + "/" + key + " interrupted", e);
+        } catch (ExecutionException e) {
+            for (Future<?> range : ranges) range.cancel(true);
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Ranged download of s3://" + bucket + "/" + key + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Download the given byte range (inclusive) of the object into the same position in the file. The download is
+     * constrained to the expected ETag, so that ranges cannot come from different versions of the object.
+     */
+    private void download (String key, String eTag, long start, long end, File file) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, key).withMatchingETagConstraint(eTag);
+        if (end >= start) request.setRange(start, end);
+        S3Object object;
+        try {
+            object = s3Client.getObject(request);
+        } catch (AmazonClientException e) {
+            throw new IOException("Unable to download s3://" + bucket + "/" + key, e);
+        }
+        if (object == null) {
+            // ETag constraint not met
+            throw new IOException("s3://" + bucket + "/" + key + " changed during download");
+        }
+        try (ReadableByteChannel in = Channels.newChannel(object.getObjectContent());
+             FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long length = end - start + 1;
+            long written = 0;
+            while (written < length) {
+                long transferred = out.transferFrom(in, start + written, length - written);
+                if (transferred <= 0) break;
+                written += transferred;
+            }
+            if (end >= start && written != length) {
+                throw new IOException(String.format("Short read of s3://%s/%s bytes %d-%d", bucket, key, start, end));
+            }
+        }
+    }
+
+    /**
+     * The ETag of an object uploaded in a single part is the MD5 hash of its content. Multipart ETags (containing a
+     * dash) are not a hash of the content and cannot be checked this way.
+     */
+    private void verify (File file, String eTag) throws IOException {
+        if (eTag == null || eTag.contains("-")) return;
+        String md5;
+        try (InputStream in = new FileInputStream(file)) {
+            md5 = DigestUtils.md5Hex(in);
+        }
+        if (!md5.equalsIgnoreCase(eTag.replace("\"", ""))) {
+            throw new IOException(String.format("Downloaded file %s does not match ETag %s", file, eTag));
+        }
+    }
+
+    /**
+     * Evict least recently used files until the cache is within its size budget, skipping files that are still leased
+     * (including the one just downloaded), and delete retired files whose lease has run out.
+     */
+    private synchronized void evict () {
+        long now = System.currentTimeMillis();
+        retired.entrySet().removeIf(entry -> {
+            if (entry.getValue() > now) return false;
+            delete(entry.getKey());
+            return true;
+        });
+        Iterator<Map.Entry<String, CachedObject>> iterator = entries.entrySet().iterator();
+        while (totalSizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, CachedObject> entry = iterator.next();
+            if (entry.getValue().leasedUntil > now) continue;
+            LOG.info("Evicting s3://{}/{} from cache", bucket, entry.getKey());
+            iterator.remove();
+            totalSizeBytes -= entry.getValue().size;
+            delete(entry.getValue().file);
+        }
+        if (totalSizeBytes > maxSizeBytes) {
+            LOG.warn("s3 cache holds {} MB, over its budget, as files in use cannot be evicted yet",
+                    totalSizeBytes / 1024 / 1024);
+        }
+    }
+
+    /** Remove an entry, deleting its file unless it is still leased, in which case it is deleted once the lease ends. */
+    private synchronized void remove (String key) {
+        CachedObject cached = entries.remove(key);
+        if (cached != null) {
+            totalSizeBytes -= cached.size;
+            if (cached.leasedUntil > System.currentTimeMillis()) retired.put(cached.file, cached.leasedUntil);
+            else delete(cached.file);
+        }
+    }
+
+    /** Remove an object from the cache, e.g. because it has been deleted from s3. */
+    public synchronized void invalidate (String key) {
+        remove(key);
+        evict();
+    }
+
+    private static void delete (File file) {
+        // The per-key directory is left in place, as a download of the same key may be about to use it.
+        file.delete();
+    }
+
+    /** @return where the object with the given key is cached: a directory per key, holding a file named as the object */
+    private File cacheFile (String key) {
+        String name = key.substring(key.lastIndexOf('/') + 1);
+        return new File(new File(directory, DigestUtils.sha1Hex(key)), name);
+    }
+}
@@ -0,0 +1,38 @@
+package com.conveyal.datatools.manager.persistence;
+
+/**
+ * Counts of the files (or objects) in one category of storage, as found by the storage garbage collector: everything
+ * stored, what is no longer referenced by any record (orphaned), and what of that was deleted.
+ */
+public class StorageUsage {
+    public long files;
+    public long bytes;
+    public long orphanedFiles;
+    public long orphanedBytes;
+    public long deletedFiles;
+    public long deletedBytes;
+
+    public void stored (long size) {
+        files++;
+        bytes += size;
+    }
+
+    public void orphaned (long size) {
+        orphanedFiles++;
+        orphanedBytes += size;
+    }
+
+    public void deleted (long size) {
+        deletedFiles++;
+        deletedBytes += size;
+    }
+
+    public void add (StorageUsage other) {
+        files += other.files;
+        bytes += other.bytes;
+        orphanedFiles += other.orphanedFiles;
+        orphanedBytes += other.orphanedBytes;
+        deletedFiles += other.deletedFiles;
+        deletedBytes += other.deletedBytes;
+    }
+}
@@ -2,19 +2,32 @@ package com.conveyal.datatools.manager.persistence;
 
 import com.conveyal.datatools.manager.auth.Auth0UserProfile;
 import com.conveyal.datatools.manager.models.Model;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.FindOneAndUpdateOptions;
-import com.mongodb.client.model.ReturnDocument;
-import com.mongodb.client.result.DeleteResult;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
 import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Constructor;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Updates.set;
@@ -47,24 +60,98 @@ public class TypedPersistence<T extends Model> {
 
     private static final Logger LOG = LoggerFactory.getLogger(TypedPersistence.class);
 
+    private final CollectionStore<T> store;
+    /** The underlying Mongo collection, or null if objects are kept in memory. */
     private MongoCollection<T> mongoCollection;
     private Constructor<T> noArgConstructor;
+    private final Class<T> clazz;
     private String collectionName;
-    private final FindOneAndUpdateOptions findOneAndUpdateOptions = new FindOneAndUpdateOptions();
+    /**
+     * Objects recently retrieved by ID, in BSON form, or null if caching is not enabled for this collection (see
+     * enableCache).
+     */
+    private Cache<String, BsonDocument> cache;
+    private Codec<T> codec;
+    /** Incremented on each invalidation, so that a lookup can tell whether a write happened while it was loading. */
+    private final AtomicLong invalidations = new AtomicLong();
 
     public TypedPersistence(MongoDatabase mongoDatabase, Class<T> clazz) {
-        mongoCollection = mongoDatabase.getCollection(clazz.getSimpleName(), clazz);
+        this(new MongoCollectionStore<>(mongoDatabase.getCollection(clazz.getSimpleName(), clazz)), clazz);
+        mongoCollection = ((MongoCollectionStore<T>) store).getMongoCollection();
+        // TODO: can we merge update and create into createOrUpdate function using upsert option?
+    }
+
+    /**
+     * Store objects of the given class in the supplied store, e.g. an InMemoryCollectionStore.
+     */
+    public TypedPersistence(CollectionStore<T> store, Class<T> clazz) {
+        this.store = store;
+        this.clazz = clazz;
         collectionName = clazz.getSimpleName();
         try {
             noArgConstructor = clazz.getConstructor(new Class<?>[0]);
         } catch (NoSuchMethodException ex) {
             throw new RuntimeException("Could not get no-arg constructor for class " + clazz.getName(), ex);
         }
-        // set options for findOneAndUpdate (return document should match document after update, not before)
-        findOneAndUpdateOptions.returnDocument(ReturnDocument.AFTER);
+    }
 
-        // TODO: can we merge update and create into createOrUpdate function using upsert option?
-//        findOneAndUpdateOptions.upsert(true);
+    /**
+     * Keep objects retrieved with getById in memory, holding at most maximumSize objects for at most ttlSeconds.
+     *
+     * Writes made through this class on this node remove the object from the cache. Writes made on other nodes, or
+     * directly through getMongoCollection() without a call to invalidate(), are only seen once the cached copy
+     * expires, so the TTL should be kept short. Objects are cached in BSON form (encoded with the given codecs) and
+     * each hit decodes a fresh copy, so callers may modify the objects they get just as they would uncached ones.
+     */
+    public void enableCache (long maximumSize, long ttlSeconds, CodecRegistry codecRegistry) {
+        codec = codecRegistry.get(clazz);
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        LOG.info("Caching up to {} {} objects for {} seconds", maximumSize, collectionName, ttlSeconds);
+    }
+
+    /**
+     * Remove an object from the cache, if there is one. Call this after modifying an object directly through the
+     * MongoCollection.
+     */
+    public void invalidate (String id) {
+        if (cache != null && id != null) {
+            invalidations.incrementAndGet();
+            cache.invalidate(id);
+        }
+    }
+
+    private void invalidateAll () {
+        if (cache != null) {
+            invalidations.incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Hit/miss counts and size of the cache, or null if caching is not enabled for this collection.
+     */
+    public Map<String, Object> cacheMetrics () {
+        if (cache == null) return null;
+        CacheStats stats = cache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("size", cache.size());
+        metrics.put("hitCount", stats.hitCount());
+        metrics.put("missCount", stats.missCount());
+        metrics.put("hitRate", stats.hitRate());
+        metrics.put("evictionCount", stats.evictionCount());
+        return metrics;
+    }
+
+    public String getCollectionName () {
+        return collectionName;
+    }
+
+    CollectionStore<T> getStore () {
+        return store;
     }
 
     public T create (String updateJson) {
@@ -76,7 +163,8 @@ public class TypedPersistence<T extends Model> {
         } catch (Exception ex) {
             throw new RuntimeException("Could not use no-arg constructor to instantiate class.", ex);
         }
-        mongoCollection.insertOne(item);
+        store.insertOne(item);
+        invalidate(item.id);
         T updatedItem = update(item.id, updateJson);
         return updatedItem;
     }
@@ -86,29 +174,115 @@ public class TypedPersistence<T extends Model> {
      */
     public void create (T newObject) {
         // What happens if an object already exists with the same ID?
-        mongoCollection.insertOne(newObject);
+        store.insertOne(newObject);
+        invalidate(newObject.id);
+    }
+
+    /**
+     * Insert many new objects in a single round trip to the database.
+     */
+    public void bulkInsert (List<T> newObjects) {
+        if (newObjects.isEmpty()) return;
+        store.insertMany(newObjects);
+        newObjects.forEach(item -> invalidate(item.id));
+        LOG.info("Inserted {} objects of type {}", newObjects.size(), collectionName);
+    }
+
+    /**
+     * Apply an update (e.g., Updates.set("version", 2)) to each of many objects, keyed on object ID, in a single
+     * round trip to the database.
+     * @return the number of objects that were modified
+     */
+    public int bulkUpdate (Map<String, Bson> updatesById) {
+        if (updatesById.isEmpty()) return 0;
+        long modified = store.bulkUpdate(updatesById);
+        updatesById.keySet().forEach(this::invalidate);
+        return (int) modified;
     }
 
     public T update (String id, String updateJson) {
         Document updateDocument = Document.parse(updateJson);
 
         // TODO set lastUpdated when update is called?
-        return mongoCollection.findOneAndUpdate(eq(id), new Document("$set", updateDocument), findOneAndUpdateOptions);
+        return update(id, new Document("$set", updateDocument));
+    }
+
+    /**
+     * Apply an update built with the Mongo Updates builders (e.g., Updates.push("noteIds", noteId)) to one object.
+     * @return the updated object
+     */
+    public T update (String id, Bson updates) {
+        T updatedItem = store.findOneAndUpdate(eq(id), updates);
+        invalidate(id);
+        return updatedItem;
+    }
+
+    /**
+     * Atomically apply an update to the first object satisfying the supplied Mongo filter, e.g. to claim it.
+     * @return the updated object, or null if no object satisfied the filter
+     */
+    public T findOneAndUpdate (Bson filter, Bson updates) {
+        T updatedItem = store.findOneAndUpdate(filter, updates);
+        if (updatedItem != null) invalidate(updatedItem.id);
+        return updatedItem;
+    }
+
+    /**
+     * Apply an update to all objects satisfying the supplied Mongo filter.
+     * @return the number of objects modified
+     */
+    public long updateMany (Bson filter, Bson updates) {
+        long modified = store.updateMany(filter, updates);
+        // We don't know which IDs matched the filter.
+        invalidateAll();
+        return modified;
     }
 
     public T updateField (String id, String fieldName, Object value) {
         // TODO set lastUpdated when update is called?
-        return mongoCollection.findOneAndUpdate(eq(id), set(fieldName, value), findOneAndUpdateOptions);
+        return update(id, set(fieldName, value));
     }
 
     public T updateUser (String id, Auth0UserProfile profile) {
         String updateJson = String.format("{userId: %s, userEmail: %s}", profile.getUser_id(), profile.getEmail());
         Document updateDocument = Document.parse(updateJson);
-        return mongoCollection.findOneAndUpdate(eq(id), new Document("$set", updateDocument), findOneAndUpdateOptions);
+        return update(id, new Document("$set", updateDocument));
     }
 
+    /**
+     * Get an object by ID, from the cache if it is enabled and holds the object.
+     */
     public T getById (String id) {
-        return mongoCollection.find(eq(id)).first();
+        if (cache == null || id == null) return first(store.find(eq(id), null, null, 1));
+        long invalidationsBefore = invalidations.get();
+        BsonDocument document;
+        try {
+            // Concurrent lookups of the same ID wait for a single load.
+            document = cache.get(id, () -> {
+                T item = first(store.find(eq(id), null, null, 1));
+                // Returning null tells the cache not to store anything: missing objects are not cached, the next
+                // request for the same ID will go to the database again.
+                return item == null ? null : encode(item);
+            });
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            return null;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException("Could not retrieve " + collectionName + " " + id, e.getCause());
+        }
+        // Invalidating an object while it is being loaded does not stop the load from being cached, so if anything
+        // was invalidated in the meantime, what was loaded may predate a write: drop it.
+        if (invalidations.get() != invalidationsBefore) cache.invalidate(id);
+        return decode(document);
+    }
+
+    private BsonDocument encode (T item) {
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), item, EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+        return document;
+    }
+
+    private T decode (BsonDocument document) {
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
     }
 
     /**
@@ -116,7 +290,7 @@ public class TypedPersistence<T extends Model> {
      * TODO: Always use iterators / streams, always perform selection of subsets on the Mongo server side ("where clause").
      */
     public List<T> getAll () {
-        return mongoCollection.find().into(new ArrayList<>());
+        return store.find(null, null, null, 0);
     }
 
     /**
@@ -125,16 +299,55 @@ public class TypedPersistence<T extends Model> {
      * We should really have a bit more abstraction here.
      */
     public List<T> getFiltered (Bson filter) {
-        return mongoCollection.find(filter).into(new ArrayList<T>());
+        return store.find(filter, null, null, 0);
     }
 
     /**
-     * Expose the internal MongoCollection to the caller.
-     * This ties our persistence directly to Mongo for now but is expedient.
-     * We will write all the queries we need in the calling methods, then make an abstraction here on TypedPersistence
-     * once we see everything we need to support.
+     * Get all objects satisfying the supplied Mongo filter, sorted on the Mongo server side.
+     */
+    public List<T> getFiltered (Bson filter, Bson sortBy) {
+        return store.find(filter, sortBy, null, 0);
+    }
+
+    /**
+     * Get all objects satisfying the supplied Mongo filter, returning only the fields selected by the projection
+     * (e.g., Projections.exclude of a large nested field). Fields left out by the projection will be null in the
+     * returned objects, so these must never be written back to the database as a whole. The sort may be null.
+     */
+    public List<T> getFiltered (Bson filter, Bson sortBy, Bson projection) {
+        return store.find(filter, sortBy, projection, 0);
+    }
+
+    /**
+     * Get at most the given number of objects satisfying the supplied Mongo filter, in the given order.
+     */
+    public List<T> getFiltered (Bson filter, Bson sortBy, int limit) {
+        return store.find(filter, sortBy, null, limit);
+    }
+
+    /**
+     * Count the objects satisfying the supplied Mongo filter, without retrieving them.
+     */
+    public long count (Bson filter) {
+        return store.count(filter);
+    }
+
+    /**
+     * Run an aggregation pipeline built with the Mongo Aggregates builders, returning the raw result documents.
+     */
+    public List<Document> aggregate (List<? extends Bson> pipeline) {
+        return store.aggregate(pipeline);
+    }
+
+    /**
+     * Expose the internal MongoCollection to the caller. There is none when objects are kept in memory (see
+     * Persistence.initialize), so prefer the methods on this class, which work with either store.
+     * @throws UnsupportedOperationException if objects are kept in memory
      */
     public MongoCollection<T> getMongoCollection () {
+        if (mongoCollection == null) {
+            throw new UnsupportedOperationException(collectionName + " objects are kept in memory, not in MongoDB");
+        }
         return this.mongoCollection;
     }
 
@@ -144,18 +357,37 @@ public class TypedPersistence<T extends Model> {
      * We should really have a bit more abstraction here.
      */
     public T getOneFiltered (Bson filter, Bson sortBy) {
-        if (sortBy != null)
-            return mongoCollection.find(filter).sort(sortBy).first();
-        else
-            return mongoCollection.find(filter).first();
+        return first(store.find(filter, sortBy, null, 1));
+    }
+
+    /**
+     * Get the first object satisfying the supplied Mongo filter, returning only the fields selected by the projection.
+     * See getFiltered(Bson, Bson, Bson) for the caveats about partially loaded objects.
+     */
+    public T getOneFiltered (Bson filter, Bson sortBy, Bson projection) {
+        return first(store.find(filter, sortBy, projection, 1));
+    }
+
+    private static <T> T first (List<T> results) {
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * Create an index on the given keys, if it does not already exist. Any field used in a filter or sort on a
+     * collection that can grow large should be indexed, otherwise every such query scans the whole collection.
+     */
+    public void createIndex (Bson keys) {
+        String indexName = store.createIndex(keys);
+        LOG.info("Ensured index {} on {}", indexName, collectionName);
     }
 
     public boolean removeById (String id) {
-        DeleteResult result = mongoCollection.deleteOne(eq(id));
-        if (result.getDeletedCount() == 1) {
+        long deletedCount = store.deleteMany(eq(id));
+        invalidate(id);
+        if (deletedCount == 1) {
             LOG.info("Deleted object id={} type={}", id, collectionName);
             return true;
-        } else if (result.getDeletedCount() > 1) {
+        } else if (deletedCount > 1) {
             LOG.error("Deleted more than one {} for ID {}",collectionName, id);
         } else {
             LOG.error("Could not delete {}: {}", collectionName, id);
@@ -164,8 +396,9 @@ public class TypedPersistence<T extends Model> {
     }
 
     public boolean removeFiltered (Bson filter) {
-        DeleteResult result = mongoCollection.deleteMany(filter);
-        long count = result.getDeletedCount();
+        long count = store.deleteMany(filter);
+        // We don't know which IDs matched the filter.
+        invalidateAll();
         if (count >= 1) {
             LOG.info("Deleted {} objects of type {}", count, collectionName);
             return true;
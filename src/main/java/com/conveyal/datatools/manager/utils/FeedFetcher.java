@@ -0,0 +1,61 @@
+package com.conveyal.datatools.manager.utils;
+
+import com.conveyal.datatools.manager.DataManager;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP client used to fetch feeds. Connections are pooled and kept alive between fetches, so that fetching many
+ * feeds from the same agency servers (e.g., when fetching all feeds of a project) does not connect anew each time.
+ *
+ * - At most application.fetch.max_connections_per_host (4 by default) fetches run against the same host at once, so
+ *   that a project fetch does not overwhelm an agency server; further fetches wait for a connection, for at most
+ *   application.fetch.connection_request_timeout_seconds (120 by default). At most application.fetch.max_connections
+ *   (50 by default) connections are open in total.
+ * - Connecting times out after application.fetch.connect_timeout_seconds (30 by default), and a response that stops
+ *   sending data for application.fetch.read_timeout_seconds (60 by default) is abandoned.
+ */
+public class FeedFetcher {
+
+    private static final long IDLE_CONNECTION_SECONDS = 60;
+
+    private static final CloseableHttpClient client = createClient();
+
+    private static CloseableHttpClient createClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(getIntConfigProperty("application.fetch.max_connections", 50));
+        connectionManager.setDefaultMaxPerRoute(getIntConfigProperty("application.fetch.max_connections_per_host", 4));
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout((int) TimeUnit.SECONDS.toMillis(
+                        getIntConfigProperty("application.fetch.connection_request_timeout_seconds", 120)))
+                .setConnectTimeout((int) TimeUnit.SECONDS.toMillis(
+                        getIntConfigProperty("application.fetch.connect_timeout_seconds", 30)))
+                .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(
+                        getIntConfigProperty("application.fetch.read_timeout_seconds", 60)))
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Send the request, following redirects. The response must be closed once its body has been read, which returns
+     * the connection to the pool.
+     */
+    public static CloseableHttpResponse execute(HttpGet request) throws IOException {
+        return client.execute(request);
+    }
+
+    private static int getIntConfigProperty(String name, int defaultValue) {
+        return DataManager.hasConfigProperty(name) ? DataManager.getConfigProperty(name).asInt() : defaultValue;
+    }
+}
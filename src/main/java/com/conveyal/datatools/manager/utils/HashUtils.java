@@ -5,13 +5,19 @@ import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 
 public class HashUtils {
 
+    /** Size of the blocks read when hashing or copying a file */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     public static String hashString(String input)  {
 
         try {
@@ -27,51 +33,56 @@ public class HashUtils {
         }
     }
 
-
-    public static String hashFile(File file)  {
-
-        try {
-
-            MessageDigest md = MessageDigest.getInstance("MD5");
-
-            FileInputStream fis = new FileInputStream(file);
-
-            DigestInputStream dis = new DigestInputStream(fis, md);
-
-
-            // hash the size
-            dis.read(ByteBuffer.allocate(8).putLong(file.length()).array());
-
-
-            // hash first 1000 bytes
-            int i = 0;
-            while (dis.read() != -1 && i < 1000) {
-                i++;
-            };
-
-            // hash  5000 bytes starting in the middle or the remainder of the file if under 10000
-            if(file.length() > 10000) {
-                dis.skip(file.length() / 2);
-
-                i = 0;
-                while (dis.read() != -1 && i < 5000) {
-                    i++;
-                };
-            }
-            else {
-                while (dis.read() != -1) {
-                };
+    /**
+     * Compute the SHA-256 hash of the full content of a file. Where a file is being written from a stream, prefer
+     * hashing it as it is written (see {@link #hashingInputStream} and {@link #copyAndHash}) to reading it again.
+     * @throws IOException if the file can't be read
+     */
+    public static String hashFile(File file) throws IOException {
+        try (DigestInputStream dis = hashingInputStream(new FileInputStream(file))) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (dis.read(buf) != -1) {
+                // digest is updated as blocks are read
             }
+            return hex(dis);
+        }
+    }
 
-            dis.close();
-
-            return new String(Hex.encodeHex(md.digest()));
+    /**
+     * Wrap a stream so that the SHA-256 hash of everything read through it is computed along the way. Once the stream
+     * has been consumed, the hash can be retrieved with {@link #hex}.
+     */
+    public static DigestInputStream hashingInputStream(InputStream inputStream) {
+        return new DigestInputStream(inputStream, sha256());
+    }
 
+    /** @return the hex-encoded hash of everything read so far through a stream from {@link #hashingInputStream} */
+    public static String hex(DigestInputStream hashingStream) {
+        return new String(Hex.encodeHex(hashingStream.getMessageDigest().digest()));
+    }
 
+    /**
+     * Copy a stream to an output stream in blocks, computing the SHA-256 hash of the content as it is copied. Neither
+     * stream is closed.
+     * @return the hex-encoded hash of the copied content
+     */
+    public static String copyAndHash(InputStream inputStream, OutputStream outputStream) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buf)) != -1) {
+            md.update(buf, 0, bytesRead);
+            outputStream.write(buf, 0, bytesRead);
         }
-        catch(Exception e) {
+        return new String(Hex.encodeHex(md.digest()));
+    }
 
-            return "";
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
         }
     }
 
@@ -0,0 +1,166 @@
+package com.conveyal.datatools.common.status;
+
+import com.conveyal.datatools.common.status.JobScheduler.Pool;
+import com.conveyal.datatools.common.status.JobScheduler.Priority;
+import com.conveyal.datatools.manager.DataManager;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the order in which the scheduler starts jobs. Each test blocks the threads of a pool before submitting the
+ * jobs whose order is checked, so that they are all waiting when the pool starts taking them.
+ */
+public class JobSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+    private Runnable record(String name, CountDownLatch done) {
+        return () -> {
+            started.add(name);
+            done.countDown();
+        };
+    }
+
+    private static Runnable waitFor(CountDownLatch latch) {
+        return () -> {
+            try {
+                latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Test
+    public void startsByPriorityTakingTurnsBetweenKeys() throws InterruptedException {
+        JobScheduler scheduler = new JobScheduler(1, 1, 1, 0);
+        CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.submit(waitFor(blocker), Pool.PROCESSING, Priority.INTERACTIVE, "blocker");
+
+        CountDownLatch done = new CountDownLatch(7);
+        scheduler.submit(record("background", done), Pool.PROCESSING, Priority.BACKGROUND, "maintenance");
+        scheduler.submit(record("alice-1", done), Pool.PROCESSING, Priority.SCHEDULED, "alice");
+        scheduler.submit(record("alice-2", done), Pool.PROCESSING, Priority.SCHEDULED, "alice");
+        scheduler.submit(record("alice-3", done), Pool.PROCESSING, Priority.SCHEDULED, "alice");
+        scheduler.submit(record("bob-1", done), Pool.PROCESSING, Priority.SCHEDULED, "bob");
+        scheduler.submit(record("bob-2", done), Pool.PROCESSING, Priority.SCHEDULED, "bob");
+        scheduler.submit(record("interactive", done), Pool.PROCESSING, Priority.INTERACTIVE, "carol");
+        blocker.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("interactive", "alice-1", "bob-1", "alice-2", "bob-2", "alice-3", "background"),
+                started);
+    }
+
+    @Test
+    public void reservedThreadsRunInteractiveJobsOnly() throws InterruptedException {
+        JobScheduler scheduler = new JobScheduler(2, 1, 1, 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.submit(waitFor(blocker), Pool.PROCESSING, Priority.SCHEDULED, "blocker");
+
+        CountDownLatch scheduledDone = new CountDownLatch(1);
+        CountDownLatch interactiveDone = new CountDownLatch(1);
+        scheduler.submit(record("scheduled", scheduledDone), Pool.PROCESSING, Priority.SCHEDULED, "alice");
+        scheduler.submit(record("interactive", interactiveDone), Pool.PROCESSING, Priority.INTERACTIVE, "bob");
+
+        // The interactive job runs on the reserved thread, the scheduled one waits for the shared thread.
+        assertTrue(interactiveDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(scheduledDone.await(200, TimeUnit.MILLISECONDS));
+        blocker.countDown();
+        assertTrue(scheduledDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sharedThreadIsKeptWhenAllWouldBeReserved() throws InterruptedException {
+        JobScheduler scheduler = new JobScheduler(1, 1, 1, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit(record("background", done), Pool.PROCESSING, Priority.BACKGROUND, "maintenance");
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runsJobsWithSameConflictKeyInTurn() throws InterruptedException {
+        JobScheduler scheduler = new JobScheduler(1, 1, 4, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        TestJob first = new TestJob("first", "feed-1", release);
+        TestJob second = new TestJob("second", "feed-1", null);
+        TestJob other = new TestJob("other", "feed-2", null);
+        assertSame(first, scheduler.submit(first, Priority.INTERACTIVE));
+        assertSame(second, scheduler.submit(second, Priority.INTERACTIVE));
+        assertSame(other, scheduler.submit(other, Priority.INTERACTIVE));
+
+        // A job under another key runs while the first job holds its key.
+        assertTrue(other.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(first.running.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(second.running.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(second.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(started.indexOf("first") < started.indexOf("second"));
+    }
+
+    @Test
+    public void followsDuplicateJobs() throws InterruptedException {
+        JobScheduler scheduler = new JobScheduler(1, 1, 2, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        TestJob first = new TestJob("fetch", "feed-1", release);
+        TestJob duplicate = new TestJob("fetch", "feed-1", null);
+        scheduler.submit(first, Priority.INTERACTIVE);
+        assertSame(first, scheduler.submit(duplicate, Priority.INTERACTIVE));
+
+        release.countDown();
+        assertTrue(first.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("fetch"), started);
+        // The owner of the duplicate sees the job that did the work in its place.
+        assertTrue(DataManager.userJobsMap.get("test-user").contains(first));
+        assertFalse(DataManager.userJobsMap.get("test-user").contains(duplicate));
+    }
+
+    /** A job in the light pool that records when it starts and, if given a latch, holds its key until released. */
+    private class TestJob extends MonitorableJob {
+        final String conflictKey;
+        final CountDownLatch release;
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        TestJob(String name, String conflictKey, CountDownLatch release) {
+            super("test-user", name, JobType.UNKNOWN_TYPE);
+            this.conflictKey = conflictKey;
+            this.release = release;
+        }
+
+        @Override
+        public String getConflictKey() {
+            return conflictKey;
+        }
+
+        @Override
+        public boolean duplicates(MonitorableJob other) {
+            return name.equals(other.name);
+        }
+
+        @Override
+        public void jobLogic() {
+            started.add(name);
+            running.countDown();
+            if (release != null) waitFor(release).run();
+        }
+
+        @Override
+        public void jobFinished() {
+            finished.countDown();
+        }
+    }
+}
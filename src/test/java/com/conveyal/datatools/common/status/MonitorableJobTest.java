@@ -0,0 +1,176 @@
+package com.conveyal.datatools.common.status;
+
+import com.conveyal.datatools.common.status.JobScheduler.Pool;
+import com.conveyal.datatools.common.status.JobScheduler.Priority;
+import com.conveyal.datatools.manager.DataManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how a job runs its sub-jobs: concurrently where their dependencies allow, in the parent's thread when the
+ * job scheduler has no thread free, and stopping them when a dependency fails or the job is cancelled.
+ */
+public class MonitorableJobTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private JobScheduler previousScheduler;
+
+    @Before
+    public void setUp() {
+        previousScheduler = DataManager.jobScheduler;
+        DataManager.jobScheduler = new JobScheduler(1, 1, 2, 0);
+    }
+
+    @After
+    public void tearDown() {
+        DataManager.jobScheduler = previousScheduler;
+    }
+
+    @Test
+    public void runsIndependentSubJobsConcurrently() {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        boolean[] sawOther = new boolean[2];
+        TestJob parent = new TestJob("parent", job -> { });
+        for (int i = 0; i < 2; i++) {
+            int index = i;
+            parent.addSubJob(new TestJob("sub-" + i, job -> {
+                bothRunning.countDown();
+                sawOther[index] = await(bothRunning);
+            }));
+        }
+        parent.run();
+
+        assertTrue(sawOther[0]);
+        assertTrue(sawOther[1]);
+        assertTrue(parent.status.completed);
+        assertFalse(parent.status.error);
+    }
+
+    @Test
+    public void failedDependencyCancelsDependents() {
+        TestJob parent = new TestJob("parent", job -> { });
+        TestJob failing = new TestJob("failing", job -> {
+            throw new IllegalStateException("Failed");
+        });
+        TestJob dependent = new TestJob("dependent", job -> { });
+        TestJob indirectDependent = new TestJob("indirect", job -> { });
+        TestJob independent = new TestJob("independent", job -> { });
+        parent.addSubJob(failing);
+        parent.addSubJob(dependent, failing);
+        parent.addSubJob(indirectDependent, dependent);
+        parent.addSubJob(independent);
+        parent.run();
+
+        assertTrue(failing.ran);
+        assertTrue(failing.status.error);
+        for (TestJob cancelled : new TestJob[] { dependent, indirectDependent }) {
+            assertFalse(cancelled.ran);
+            assertTrue(cancelled.status.completed);
+            assertTrue(cancelled.status.error);
+            assertEquals("Task cancelled due to error in TestJob task", cancelled.status.message);
+        }
+        assertTrue(independent.ran);
+        assertFalse(independent.status.error);
+        assertTrue(parent.status.error);
+    }
+
+    @Test
+    public void cancelWhileWaitingForSubJobs() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        TestJob parent = new TestJob("parent", job -> { });
+        // Runs in the pool until the job is cancelled.
+        TestJob blocking = new TestJob("blocking", job -> {
+            await(release);
+            job.status.checkCancelled();
+        });
+        // Runs in the parent's thread, which then waits for the blocking sub-job.
+        TestJob quick = new TestJob("quick", job -> await(blocking.running));
+        parent.addSubJob(quick);
+        parent.addSubJob(blocking);
+        Thread thread = new Thread(parent);
+        thread.start();
+
+        assertTrue(await(quick.finished));
+        assertTrue(parent.requestCancellation());
+        thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertFalse(thread.isAlive());
+
+        assertTrue(blocking.status.cancelled);
+        assertTrue(blocking.status.completed);
+        assertFalse(blocking.didFinish());
+        assertTrue(parent.status.cancelled);
+        assertTrue(parent.status.completed);
+        assertEquals("Job cancelled", parent.status.message);
+    }
+
+    @Test
+    public void runsSubJobsInOwnThreadWhenPoolIsBusy() {
+        DataManager.jobScheduler = new JobScheduler(1, 1, 1, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        DataManager.jobScheduler.submit(() -> await(release), Pool.LIGHT, Priority.INTERACTIVE, "blocker");
+        try {
+            Thread[] threads = new Thread[2];
+            TestJob parent = new TestJob("parent", job -> { });
+            for (int i = 0; i < 2; i++) {
+                int index = i;
+                parent.addSubJob(new TestJob("sub-" + i, job -> threads[index] = Thread.currentThread()));
+            }
+            parent.run();
+
+            assertTrue(parent.status.completed);
+            assertFalse(parent.status.error);
+            assertSame(Thread.currentThread(), threads[0]);
+            assertSame(Thread.currentThread(), threads[1]);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** A job in the light pool running the given logic, which records whether it ran and finished. */
+    private static class TestJob extends MonitorableJob {
+        final Consumer<TestJob> logic;
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean ran;
+
+        TestJob(String name, Consumer<TestJob> logic) {
+            super("test-user", name, JobType.UNKNOWN_TYPE);
+            this.logic = logic;
+        }
+
+        @Override
+        public void jobLogic() {
+            ran = true;
+            running.countDown();
+            logic.accept(this);
+        }
+
+        @Override
+        public void jobFinished() {
+            finished.countDown();
+        }
+
+        boolean didFinish() {
+            return finished.getCount() == 0;
+        }
+    }
+}
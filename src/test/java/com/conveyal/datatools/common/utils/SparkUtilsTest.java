@@ -0,0 +1,99 @@
+package com.conveyal.datatools.common.utils;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static com.conveyal.datatools.common.utils.SparkUtils.UNSATISFIABLE;
+import static com.conveyal.datatools.common.utils.SparkUtils.byteRange;
+import static com.conveyal.datatools.common.utils.SparkUtils.matchesETag;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SparkUtilsTest {
+    private static final long LENGTH = 1000;
+    private static final long LAST_MODIFIED = 1500000000123L;
+    private static final String ETAG = "\"15d3ef79a7b-3e8\"";
+
+    private static long[] range(String range) {
+        return byteRange(range, null, LENGTH, ETAG, LAST_MODIFIED);
+    }
+
+    @Test
+    public void closedRange() {
+        assertArrayEquals(new long[] { 0, 499 }, range("bytes=0-499"));
+        assertArrayEquals(new long[] { 999, 999 }, range("bytes=999-999"));
+        // the end is clamped to the end of the file
+        assertArrayEquals(new long[] { 500, 999 }, range("bytes=500-5000"));
+    }
+
+    @Test
+    public void openRange() {
+        assertArrayEquals(new long[] { 500, 999 }, range("bytes=500-"));
+        assertArrayEquals(new long[] { 0, 999 }, range("bytes=0-"));
+    }
+
+    @Test
+    public void suffixRange() {
+        assertArrayEquals(new long[] { 900, 999 }, range("bytes=-100"));
+        // a suffix longer than the file is the whole file
+        assertArrayEquals(new long[] { 0, 999 }, range("bytes=-2000"));
+    }
+
+    @Test
+    public void unsatisfiableRange() {
+        assertSame(UNSATISFIABLE, range("bytes=-0"));
+        assertSame(UNSATISFIABLE, range("bytes=1000-"));
+        assertSame(UNSATISFIABLE, range("bytes=1000-1100"));
+    }
+
+    @Test
+    public void emptyFile() {
+        assertNull(byteRange(null, null, 0, ETAG, LAST_MODIFIED));
+        assertSame(UNSATISFIABLE, byteRange("bytes=0-", null, 0, ETAG, LAST_MODIFIED));
+        assertSame(UNSATISFIABLE, byteRange("bytes=-10", null, 0, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void ignoredRange() {
+        assertNull(range(null));
+        // multiple ranges are not supported, the whole file is sent
+        assertNull(range("bytes=0-99,200-299"));
+        // invalid ranges are ignored
+        assertNull(range("bytes=500-100"));
+        assertNull(range("bytes=-"));
+        assertNull(range("items=0-99"));
+        assertNull(range("bytes=99999999999999999999-"));
+    }
+
+    @Test
+    public void ifRange() {
+        assertArrayEquals(new long[] { 500, 999 }, byteRange("bytes=500-", ETAG, LENGTH, ETAG, LAST_MODIFIED));
+        // the client's copy has changed, send the whole file
+        assertNull(byteRange("bytes=500-", "\"other\"", LENGTH, ETAG, LAST_MODIFIED));
+        assertNull(byteRange("bytes=500-", "W/" + ETAG, LENGTH, ETAG, LAST_MODIFIED));
+
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(LAST_MODIFIED).atOffset(ZoneOffset.UTC));
+        assertArrayEquals(new long[] { 500, 999 }, byteRange("bytes=500-", lastModified, LENGTH, ETAG, LAST_MODIFIED));
+        String earlier = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(LAST_MODIFIED - 60000).atOffset(ZoneOffset.UTC));
+        assertNull(byteRange("bytes=500-", earlier, LENGTH, ETAG, LAST_MODIFIED));
+        assertNull(byteRange("bytes=500-", "yesterday", LENGTH, ETAG, LAST_MODIFIED));
+        // an unsatisfiable range for a changed file is not an error, the whole file is sent
+        assertNull(byteRange("bytes=5000-", "\"other\"", LENGTH, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void ifNoneMatch() {
+        assertTrue(matchesETag(ETAG, ETAG));
+        assertTrue(matchesETag("\"other\", " + ETAG, ETAG));
+        assertTrue(matchesETag("W/" + ETAG, ETAG));
+        assertTrue(matchesETag("*", ETAG));
+        assertFalse(matchesETag("\"other\"", ETAG));
+        assertFalse(matchesETag(null, ETAG));
+    }
+}
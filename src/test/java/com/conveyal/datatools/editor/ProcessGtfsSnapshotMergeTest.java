@@ -4,11 +4,15 @@ import com.conveyal.datatools.LoadFeedTest;
 import com.conveyal.datatools.editor.datastore.FeedTx;
 import com.conveyal.datatools.editor.datastore.VersionedDataStore;
 import com.conveyal.datatools.editor.jobs.ProcessGtfsSnapshotMerge;
+import com.conveyal.gtfs.model.StopTime;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -19,6 +23,39 @@ public class ProcessGtfsSnapshotMergeTest extends LoadFeedTest {
     static ProcessGtfsSnapshotMerge snapshotMerge;
     private static boolean setUpIsDone = false;
 
+    @Test
+    public void groupTripsIntoPatterns() {
+        ProcessGtfsSnapshotMerge.TripPatternGrouper grouper = new ProcessGtfsSnapshotMerge.TripPatternGrouper();
+        assertEquals(0, grouper.add("t1", "r1", stopTimes("t1", "a", "b", "c")));
+        // same route and stops
+        assertEquals(0, grouper.add("t2", "r1", stopTimes("t2", "a", "b", "c")));
+        // same stops in another order
+        assertEquals(1, grouper.add("t3", "r1", stopTimes("t3", "c", "b", "a")));
+        // same stops on another route
+        assertEquals(2, grouper.add("t4", "r2", stopTimes("t4", "a", "b", "c")));
+        // a subset of the stops
+        assertEquals(3, grouper.add("t5", "r1", stopTimes("t5", "a", "b")));
+        assertEquals(1, grouper.add("t6", "r1", stopTimes("t6", "c", "b", "a")));
+
+        assertEquals(4, grouper.patternCount());
+        // each pattern is built from the first trip grouped into it
+        assertEquals("t1", grouper.firstTripIds.get(0));
+        assertEquals("t3", grouper.firstTripIds.get(1));
+        assertEquals("t1", grouper.firstTripStopTimes.get(0).get(0).trip_id);
+    }
+
+    private static List<StopTime> stopTimes(String tripId, String... stopIds) {
+        List<StopTime> stopTimes = new ArrayList<>();
+        for (int i = 0; i < stopIds.length; i++) {
+            StopTime stopTime = new StopTime();
+            stopTime.trip_id = tripId;
+            stopTime.stop_id = stopIds[i];
+            stopTime.stop_sequence = i + 1;
+            stopTimes.add(stopTime);
+        }
+        return stopTimes;
+    }
+
     // TODO: add back in test once editor load is working
 //    @Before
 //    public void setUp() {
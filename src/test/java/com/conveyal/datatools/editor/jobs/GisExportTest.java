@@ -0,0 +1,114 @@
+package com.conveyal.datatools.editor.jobs;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.geotools.feature.SchemaException;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes stops of two feeds through each output format, without the editor database.
+ */
+public class GisExportTest {
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /** Writes two stops for each feed, named after the feed. */
+    private static void writeStops (String feedId, GisExport.FeatureSink sink) throws IOException {
+        try {
+            SimpleFeatureType featureType = GisExport.stopType();
+            for (int i = 0; i < 2; i++) {
+                SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+                builder.add(geometryFactory.createPoint(new Coordinate(-122.4 + i, 37.8)));
+                builder.add(feedId + "-stop-" + i);
+                builder.add("code");
+                builder.add("desc");
+                builder.add(feedId + "-" + i);
+                builder.add(feedId + " transit");
+                sink.write(builder.buildFeature(null));
+            }
+        } catch (SchemaException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] export (GisExport.Format format, GisExport.FeedWriter feedWriter) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GisExport.writeZip(format, GisExport.stopType(), "stops", Arrays.asList("a", "b"), feedWriter, out);
+        return out.toByteArray();
+    }
+
+    private static List<String> entryNames (byte[] zip) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) names.add(entry.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void geoJsonSeq() throws Exception {
+        byte[] zip = export(GisExport.Format.GEOJSON_SEQ, GisExportTest::writeStops);
+        List<String> lines = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            assertEquals("stops.geojsonl", in.getNextEntry().getName());
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) lines.add(line);
+        }
+        // one feature per line, from both feeds, in whatever order the feeds were read
+        assertEquals(4, lines.size());
+        Set<String> names = new HashSet<>();
+        for (String line : lines) {
+            assertTrue(line.startsWith("{\"type\":\"Feature\""));
+            for (String name : Arrays.asList("a-stop-0", "a-stop-1", "b-stop-0", "b-stop-1")) {
+                if (line.contains("\"" + name + "\"")) names.add(name);
+            }
+        }
+        assertEquals(4, names.size());
+    }
+
+    @Test
+    public void shapefile() throws Exception {
+        List<String> names = entryNames(export(GisExport.Format.SHAPEFILE, GisExportTest::writeStops));
+        assertTrue(names.containsAll(Arrays.asList("stops.shp", "stops.shx", "stops.dbf", "stops.prj")));
+    }
+
+    @Test
+    public void geoPackage() throws Exception {
+        assertTrue(entryNames(export(GisExport.Format.GEOPACKAGE, GisExportTest::writeStops)).contains("stops.gpkg"));
+    }
+
+    @Test
+    public void failedExportWritesNothing() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            GisExport.writeZip(GisExport.Format.SHAPEFILE, GisExport.stopType(), "stops", Arrays.asList("a", "b"),
+                    (feedId, sink) -> {
+                        if (feedId.equals("b")) throw new IOException("Feed b is broken");
+                        writeStops(feedId, sink);
+                    }, out);
+            fail("The export should have failed");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(0, out.size());
+    }
+}
@@ -0,0 +1,160 @@
+package com.conveyal.datatools.editor.jobs;
+
+import com.conveyal.datatools.editor.models.transit.EditorFeed;
+import com.conveyal.datatools.editor.models.transit.Stop;
+import com.google.common.io.Files;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.Transaction;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.shapefile.ShapefileDataStoreFactory;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads stops from small shapefiles written at test time, without the editor database.
+ */
+public class ProcessGisUploadTest {
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private File tempDir;
+
+    @Before
+    public void setUp() {
+        tempDir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        tempDir.delete();
+    }
+
+    /** Write a shapefile of the given geometries, named "stop-i" with code "code-i", and zip it with a readme. */
+    private File zipShapefile (String geometryType, Geometry... geometries) throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("Stop",
+                "the_geom:" + geometryType + ":srid=4326,name:String,code:String");
+        File shp = new File(tempDir, "stops.shp");
+        Map<String, Serializable> params = new HashMap<>();
+        params.put("url", shp.toURI().toURL());
+        ShapefileDataStore store = (ShapefileDataStore) new ShapefileDataStoreFactory().createNewDataStore(params);
+        try {
+            store.createSchema(type);
+            List<SimpleFeature> features = new ArrayList<>();
+            for (int i = 0; i < geometries.length; i++) {
+                features.add(SimpleFeatureBuilder.build(type, new Object[] { geometries[i], "stop-" + i, "code-" + i }, null));
+            }
+            Transaction transaction = new DefaultTransaction();
+            try {
+                SimpleFeatureStore featureStore = (SimpleFeatureStore) store.getFeatureSource(store.getTypeNames()[0]);
+                featureStore.setTransaction(transaction);
+                featureStore.addFeatures(new ListFeatureCollection(type, features));
+                transaction.commit();
+            } finally {
+                transaction.close();
+            }
+        } finally {
+            store.dispose();
+        }
+
+        File[] parts = tempDir.listFiles((dir, name) -> name.startsWith("stops."));
+        return zip(parts, true);
+    }
+
+    private File zip (File[] files, boolean withReadme) throws IOException {
+        File zip = new File(tempDir, "upload.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (File file : files) {
+                out.putNextEntry(new ZipEntry("export/" + file.getName()));
+                java.nio.file.Files.copy(file.toPath(), out);
+                out.closeEntry();
+            }
+            if (withReadme) {
+                out.putNextEntry(new ZipEntry("readme.txt"));
+                out.write("Stop inventory".getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static List<Stop> readStops (File zip) throws Exception {
+        // "#1" and "#2" are the name and code attributes, after the geometry
+        return new ProcessGisUpload(zip, "feed", "#1", "#2", null, "test-user").readStops(new EditorFeed("feed"));
+    }
+
+    @Test
+    public void readsPointsAsStops() throws Exception {
+        File zip = zipShapefile("Point",
+                geometryFactory.createPoint(new Coordinate(-122.4, 37.8)),
+                geometryFactory.createPoint(new Coordinate(-122.3, 37.7)));
+        List<Stop> stops = readStops(zip);
+        // stops are converted in parallel, so their order is not guaranteed
+        stops.sort(Comparator.comparing(stop -> stop.stopName));
+
+        assertEquals(2, stops.size());
+        for (int i = 0; i < 2; i++) {
+            Stop stop = stops.get(i);
+            assertEquals("stop-" + i, stop.stopName);
+            assertEquals("code-" + i, stop.gtfsStopId);
+            assertEquals("feed", stop.feedId);
+        }
+        assertEquals(37.8, stops.get(0).getLat(), 1e-6);
+        assertEquals(-122.4, stops.get(0).getLon(), 1e-6);
+        assertEquals(37.7, stops.get(1).getLat(), 1e-6);
+        assertEquals(-122.3, stops.get(1).getLon(), 1e-6);
+    }
+
+    @Test
+    public void rejectsLines() throws Exception {
+        File zip = zipShapefile("LineString", geometryFactory.createLineString(new Coordinate[] {
+                new Coordinate(-122.4, 37.8), new Coordinate(-122.3, 37.7)
+        }));
+        try {
+            readStops(zip);
+            fail("Lines should not be imported as stops");
+        } catch (IllegalArgumentException e) {
+            // shapefiles store lines as multi-lines
+            assertEquals("Shapefile must contain points, found MultiLineString", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsZipWithoutShapefile() throws Exception {
+        File zip = zip(new File[0], true);
+        try {
+            readStops(zip);
+            fail("A zip without a shapefile should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Zip didn't contain a valid shapefile.", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.utils.HashUtils;
+import com.conveyal.datatools.manager.utils.json.JsonUtil;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that identical feeds share their content, that feeds are copied where links are unsupported, and that
+ * garbage collection only removes content no feed links to.
+ */
+public class FeedStoreTest {
+    private File directory;
+    private FeedStore store;
+
+    @BeforeClass
+    public static void configureBasePath() {
+        // FeedStore reads its base path when it is loaded, even though these tests use directories of their own.
+        if (!DataManager.hasConfigProperty("application.data.gtfs")) {
+            ObjectNode config = DataManager.config instanceof ObjectNode
+                    ? (ObjectNode) DataManager.config
+                    : JsonUtil.objectMapper.createObjectNode();
+            config.with("application").with("data").put("gtfs", System.getProperty("java.io.tmpdir"));
+            DataManager.config = config;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+        store = new FeedStore(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static ByteArrayInputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File[] blobs() {
+        return new File(directory, "blobs").listFiles();
+    }
+
+    /** Make every blob look older than the garbage collection grace period. */
+    private void ageBlobs() {
+        long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        for (File blob : blobs()) assertTrue(blob.setLastModified(old));
+    }
+
+    @Test
+    public void identicalFeedsShareContent() throws IOException {
+        File first = store.newFeed("first.zip", content("feed"), null);
+        File second = store.newFeed("second.zip", content("feed"), null);
+
+        assertTrue(java.nio.file.Files.isSymbolicLink(first.toPath()));
+        assertTrue(java.nio.file.Files.isSymbolicLink(second.toPath()));
+        assertEquals(1, blobs().length);
+        String hash = HashUtils.hashFile(first);
+        assertEquals(hash, blobs()[0].getName());
+        assertEquals(hash, store.getFeedHash("second.zip"));
+        assertEquals("feed", FileUtils.readFileToString(second, StandardCharsets.UTF_8));
+
+        // an unchanged feed is neither stored nor linked
+        assertNull(store.newFeedIfChanged("third.zip", content("feed"), null, hash));
+        assertNull(store.getFeed("third.zip"));
+        assertEquals(1, blobs().length);
+    }
+
+    @Test
+    public void copiesContentWhereLinksAreUnsupported() throws IOException {
+        FeedStore copyingStore = new FeedStore(directory) {
+            @Override
+            void createLink(Path link, Path target) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        File feed = copyingStore.newFeed("feed.zip", content("feed"), null);
+
+        assertFalse(java.nio.file.Files.isSymbolicLink(feed.toPath()));
+        assertArrayEquals("feed".getBytes(StandardCharsets.UTF_8), java.nio.file.Files.readAllBytes(feed.toPath()));
+        assertEquals(HashUtils.hashFile(feed), copyingStore.getFeedHash("feed.zip"));
+
+        // the copy does not need its blob
+        ageBlobs();
+        assertEquals(1, copyingStore.collectGarbage(true).deletedFiles);
+        assertEquals("feed", FileUtils.readFileToString(feed, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void collectsOnlyOldUnlinkedContent() throws IOException {
+        store.newFeed("deleted.zip", content("deleted"), null);
+        File kept = store.newFeed("kept.zip", content("kept"), null);
+        store.deleteFeed("deleted.zip");
+
+        // recent content is kept for a while, in case it is about to be linked to
+        StorageUsage usage = store.collectGarbage(true);
+        assertEquals(2, usage.files);
+        assertEquals(0, usage.deletedFiles);
+
+        ageBlobs();
+        usage = store.collectGarbage(true);
+        assertEquals(1, usage.orphanedFiles);
+        assertEquals(1, usage.deletedFiles);
+        assertEquals(1, blobs().length);
+        assertEquals("kept", FileUtils.readFileToString(kept, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void relinkedContentIsNotCollected() throws IOException {
+        store.newFeed("deleted.zip", content("feed"), null);
+        store.deleteFeed("deleted.zip");
+        ageBlobs();
+
+        // the old, unlinked content is reused by a new feed with the same content
+        File feed = store.newFeed("new.zip", content("feed"), null);
+        assertEquals(0, store.collectGarbage(true).deletedFiles);
+        assertEquals("feed", FileUtils.readFileToString(feed, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,214 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.conveyal.datatools.manager.models.Bounds;
+import com.conveyal.datatools.manager.models.FeedValidationResultSummary;
+import com.conveyal.datatools.manager.models.FeedVersion;
+import com.conveyal.datatools.manager.models.JobSummary;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.pullAll;
+import static com.mongodb.client.model.Updates.push;
+import static com.mongodb.client.model.Updates.set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the in-memory store answers the queries and updates the application makes as MongoDB would.
+ */
+public class InMemoryCollectionStoreTest {
+    private InMemoryCollectionStore<JobSummary> store;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryCollectionStore<>(JobSummary.class, Persistence.buildCodecRegistry());
+        store.insertMany(Arrays.asList(
+                summary("a", "alice", "FETCH", 300),
+                summary("b", "bob", "VALIDATE", 100),
+                summary("c", "alice", "VALIDATE", 200),
+                summary("d", "carol", "FETCH", 400)));
+    }
+
+    private static JobSummary summary(String id, String owner, String type, long durationMillis) {
+        JobSummary summary = new JobSummary();
+        summary.id = id;
+        summary.owner = owner;
+        summary.type = type;
+        summary.durationMillis = durationMillis;
+        return summary;
+    }
+
+    private static List<String> ids(List<JobSummary> summaries) {
+        return summaries.stream().map(summary -> summary.id).collect(Collectors.toList());
+    }
+
+    @Test
+    public void filterOnEquality() {
+        assertEquals(Arrays.asList("a", "c"), ids(store.find(eq("owner", "alice"), null, null, 0)));
+        assertEquals(Arrays.asList("b"), ids(store.find(eq("b"), null, null, 0)));
+        assertEquals(0, store.count(eq("owner", "dave")));
+        // null matches a missing field
+        assertEquals(4, store.count(eq("name", null)));
+    }
+
+    @Test
+    public void filterOnIn() {
+        assertEquals(Arrays.asList("b", "d"), ids(store.find(in("owner", "bob", "carol"), null, null, 0)));
+        assertEquals(Arrays.asList("a", "d"), ids(store.find(in("_id", "a", "d", "z"), null, null, 0)));
+    }
+
+    @Test
+    public void filterOnLessThan() {
+        assertEquals(Arrays.asList("b", "c"), ids(store.find(lt("durationMillis", 300), null, null, 0)));
+        // values of another type never compare
+        assertEquals(0, store.count(lt("durationMillis", "300")));
+        assertEquals(Arrays.asList("c"),
+                ids(store.find(and(eq("owner", "alice"), lt("durationMillis", 300)), null, null, 0)));
+    }
+
+    @Test
+    public void sortAndLimit() {
+        assertEquals(Arrays.asList("d", "a", "c", "b"),
+                ids(store.find(null, Sorts.descending("durationMillis"), null, 0)));
+        assertEquals(Arrays.asList("d", "a", "c", "b"),
+                ids(store.find(null, Sorts.orderBy(Sorts.ascending("type"), Sorts.descending("durationMillis")), null, 0)));
+        assertEquals(Arrays.asList("b", "c"), ids(store.find(null, Sorts.ascending("durationMillis"), null, 2)));
+    }
+
+    @Test
+    public void project() {
+        JobSummary included = store.find(eq("a"), null, Projections.include("owner"), 0).get(0);
+        assertEquals("a", included.id);
+        assertEquals("alice", included.owner);
+        assertNull(included.type);
+        assertEquals(0, included.durationMillis);
+
+        JobSummary excluded = store.find(eq("a"), null, Projections.exclude("owner"), 0).get(0);
+        assertEquals("a", excluded.id);
+        assertNull(excluded.owner);
+        assertEquals("FETCH", excluded.type);
+    }
+
+    @Test
+    public void projectEmbeddedFields() {
+        InMemoryCollectionStore<FeedVersion> versions =
+                new InMemoryCollectionStore<>(FeedVersion.class, Persistence.buildCodecRegistry());
+        FeedVersion version = new FeedVersion();
+        version.id = "v";
+        version.name = "Version 1";
+        version.validationSummary = new FeedValidationResultSummary();
+        version.validationSummary.routeCount = 12;
+        version.validationSummary.bounds = new Bounds();
+        version.validationSummary.bounds.north = 45.5;
+        versions.insertOne(version);
+
+        FeedVersion included = versions.find(eq("v"), null, Projections.include("validationSummary.bounds"), 0).get(0);
+        assertEquals("v", included.id);
+        assertNull(included.name);
+        assertEquals(45.5, included.validationSummary.bounds.north, 0);
+        assertEquals(0, included.validationSummary.routeCount);
+
+        FeedVersion excluded = versions.find(eq("v"), null, Projections.exclude("validationSummary.bounds"), 0).get(0);
+        assertEquals("Version 1", excluded.name);
+        assertNull(excluded.validationSummary.bounds);
+        assertEquals(12, excluded.validationSummary.routeCount);
+    }
+
+    @Test
+    public void setAndInc() {
+        JobSummary updated = store.findOneAndUpdate(eq("a"), combine(set("name", "Fetch feed"), inc("durationMillis", 50)));
+        assertEquals("Fetch feed", updated.name);
+        assertEquals(350, updated.durationMillis);
+        assertEquals(350, store.find(eq("a"), null, null, 0).get(0).durationMillis);
+
+        assertEquals(2, store.updateMany(eq("type", "FETCH"), inc("durationMillis", 1)));
+        assertEquals(401, store.find(eq("d"), null, null, 0).get(0).durationMillis);
+        // an update that changes nothing does not count as a modification
+        assertEquals(0, store.updateMany(eq("owner", "bob"), set("owner", "bob")));
+    }
+
+    @Test
+    public void pushAndPullAll() {
+        store.findOneAndUpdate(eq("a"), push("noteIds", "n1"));
+        store.findOneAndUpdate(eq("a"), push("noteIds", "n2"));
+        store.findOneAndUpdate(eq("a"), push("noteIds", "n3"));
+        assertEquals(Arrays.asList("n1", "n2", "n3"), store.find(eq("a"), null, null, 0).get(0).noteIds);
+        // elements of an array field match equality filters
+        assertEquals(Arrays.asList("a"), ids(store.find(eq("noteIds", "n2"), null, null, 0)));
+
+        JobSummary updated = store.findOneAndUpdate(eq("a"), pullAll("noteIds", Arrays.asList("n1", "n3", "n4")));
+        assertEquals(Arrays.asList("n2"), updated.noteIds);
+    }
+
+    @Test
+    public void findOneAndUpdateClaimsFirstMatch() {
+        JobSummary claimed = store.findOneAndUpdate(and(eq("owner", "alice"), eq("error", false)), set("error", true));
+        assertEquals("a", claimed.id);
+        claimed = store.findOneAndUpdate(and(eq("owner", "alice"), eq("error", false)), set("error", true));
+        assertEquals("c", claimed.id);
+        assertNull(store.findOneAndUpdate(and(eq("owner", "alice"), eq("error", false)), set("error", true)));
+    }
+
+    @Test
+    public void updatesDoNotLeakIntoReturnedObjects() {
+        JobSummary before = store.find(eq("a"), null, null, 0).get(0);
+        before.owner = "mallory";
+        assertEquals("alice", store.find(eq("a"), null, null, 0).get(0).owner);
+    }
+
+    @Test
+    public void group() {
+        List<Document> results = store.aggregate(Arrays.asList(
+                Aggregates.match(lt("durationMillis", 400)),
+                Aggregates.sort(Sorts.ascending("durationMillis")),
+                Aggregates.group("$owner",
+                        Accumulators.sum("count", 1),
+                        Accumulators.sum("totalMillis", "$durationMillis"),
+                        Accumulators.first("firstType", "$type"),
+                        Accumulators.last("lastType", "$type"))));
+        assertEquals(2, results.size());
+        // groups are in order of their first document
+        Document bob = results.get(0);
+        assertEquals("bob", bob.getString("_id"));
+        assertEquals(1, bob.getInteger("count").intValue());
+        Document alice = results.get(1);
+        assertEquals("alice", alice.getString("_id"));
+        assertEquals(2, alice.getInteger("count").intValue());
+        assertEquals(500L, alice.getLong("totalMillis").longValue());
+        assertEquals("VALIDATE", alice.getString("firstType"));
+        assertEquals("FETCH", alice.getString("lastType"));
+    }
+
+    @Test
+    public void deleteMany() {
+        assertEquals(2, store.deleteMany(eq("type", "FETCH")));
+        assertEquals(Arrays.asList("b", "c"), ids(store.find(null, null, null, 0)));
+        assertTrue(store.find(eq("a"), null, null, 0).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectDuplicateIds() {
+        store.insertOne(summary("a", "dave", "FETCH", 0));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectUnsupportedOperators() {
+        store.find(new Document("owner", new Document("$regex", "^a")), null, null, 0);
+    }
+}
@@ -2,8 +2,10 @@ package com.conveyal.datatools.manager.persistence;
 
 import com.conveyal.datatools.DatatoolsTest;
 import com.conveyal.datatools.manager.DataManager;
+import com.conveyal.datatools.manager.models.Bounds;
 import com.conveyal.datatools.manager.models.Deployment;
 import com.conveyal.datatools.manager.models.FeedSource;
+import com.conveyal.datatools.manager.models.FeedValidationResultSummary;
 import com.conveyal.datatools.manager.models.FeedVersion;
 import com.conveyal.datatools.manager.models.Note;
 import com.conveyal.datatools.manager.models.Organization;
@@ -16,11 +18,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.util.Date;
 
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Updates.set;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 /**
  * Created by landon on 9/6/17.
@@ -51,6 +55,32 @@ public class PersistenceTest extends DatatoolsTest {
         assertEquals("Found FeedSource ID should equal inserted ID.", retrievedId, id);
     }
 
+    @Test
+    public void storeValidationSummary() {
+        FeedVersion feedVersion = new FeedVersion();
+        FeedValidationResultSummary summary = new FeedValidationResultSummary();
+        summary.errorCount = 3;
+        summary.routeCount = 12;
+        summary.startDate = LocalDate.of(2017, 1, 1);
+        summary.endDate = LocalDate.of(2017, 12, 31);
+        summary.bounds = new Bounds();
+        summary.bounds.north = 37.8;
+        summary.bounds.south = 37.2;
+        summary.bounds.east = -121.8;
+        summary.bounds.west = -122.5;
+        feedVersion.validationSummary = summary;
+        Persistence.feedVersions.create(feedVersion);
+
+        FeedValidationResultSummary retrieved = Persistence.feedVersions.getById(feedVersion.id).validationSummary;
+        assertNotNull("Validation summary should be stored with the feed version.", retrieved);
+        assertEquals(3, retrieved.errorCount);
+        assertEquals(12, retrieved.routeCount);
+        assertEquals(summary.startDate, retrieved.startDate);
+        assertEquals(summary.endDate, retrieved.endDate);
+        assertEquals(37.8, retrieved.bounds.north, 0);
+        assertEquals(-122.5, retrieved.bounds.west, 0);
+    }
+
 //    @Test
 //    public void createOrganization() {
 //        Organization organization = new Organization();
@@ -0,0 +1,163 @@
+package com.conveyal.datatools.manager.persistence;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.io.Files;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the ETag check, eviction and leases of the s3 cache against an in-memory stand-in for s3.
+ */
+public class S3FeedCacheTest {
+    private static final String BUCKET = "feeds";
+
+    private final FakeS3 s3 = new FakeS3();
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private S3FeedCache cache(long maxSizeBytes, long leaseMillis) {
+        return new S3FeedCache(s3, BUCKET, directory, maxSizeBytes, leaseMillis);
+    }
+
+    private static String read(File file) throws IOException {
+        return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void reusesCopyUntilETagChanges() throws IOException {
+        S3FeedCache cache = cache(1024, 0);
+        s3.put("versions/a.zip", "first");
+        File file = cache.get("versions/a.zip");
+        assertEquals("a.zip", file.getName());
+        assertEquals("first", read(file));
+        assertEquals("first", read(cache.get("versions/a.zip")));
+        assertEquals(1, s3.downloads("versions/a.zip"));
+
+        s3.put("versions/a.zip", "second");
+        assertEquals("second", read(cache.get("versions/a.zip")));
+        assertEquals(2, s3.downloads("versions/a.zip"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        // room for two of the ten byte objects
+        S3FeedCache cache = cache(20, 0);
+        for (String key : Arrays.asList("a", "b", "c")) s3.put(key, "0123456789");
+        File a = cache.get("a");
+        File b = cache.get("b");
+        cache.get("a");
+        File c = cache.get("c");
+
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertTrue(c.exists());
+        cache.get("a");
+        assertEquals(1, s3.downloads("a"));
+    }
+
+    @Test
+    public void keepsLeasedFilesOverBudget() throws IOException {
+        // room for one of the ten byte objects, but both are leased
+        S3FeedCache cache = cache(10, TimeUnit.MINUTES.toMillis(1));
+        for (String key : Arrays.asList("a", "b")) s3.put(key, "0123456789");
+        File a = cache.get("a");
+        File b = cache.get("b");
+
+        assertTrue(a.exists());
+        assertTrue(b.exists());
+    }
+
+    @Test
+    public void missingObjectIsNull() throws IOException {
+        S3FeedCache cache = cache(1024, 0);
+        assertNull(cache.get("missing"));
+
+        // an object deleted from s3 is no longer served from the cache
+        s3.put("a", "content");
+        File file = cache.get("a");
+        s3.objects.remove("a");
+        assertNull(cache.get("a"));
+        assertFalse(file.exists());
+    }
+
+    /** Holds objects in memory, with the MD5 of their content as their ETag, and counts downloads by key. */
+    private static class FakeS3 extends AbstractAmazonS3 {
+        final Map<String, byte[]> objects = new HashMap<>();
+        final Map<String, Integer> downloads = new HashMap<>();
+
+        void put(String key, String content) {
+            objects.put(key, content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int downloads(String key) {
+            return downloads.getOrDefault(key, 0);
+        }
+
+        private byte[] object(String key) {
+            byte[] content = objects.get(key);
+            if (content == null) {
+                AmazonS3Exception e = new AmazonS3Exception("Not Found");
+                e.setStatusCode(404);
+                throw e;
+            }
+            return content;
+        }
+
+        @Override
+        public synchronized ObjectMetadata getObjectMetadata(String bucketName, String key) {
+            byte[] content = object(key);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(content.length);
+            metadata.setHeader(Headers.ETAG, DigestUtils.md5Hex(content));
+            return metadata;
+        }
+
+        @Override
+        public synchronized S3Object getObject(GetObjectRequest request) {
+            byte[] content = object(request.getKey());
+            if (!request.getMatchingETagConstraints().isEmpty()
+                    && !request.getMatchingETagConstraints().contains(DigestUtils.md5Hex(content))) {
+                return null;
+            }
+            downloads.merge(request.getKey(), 1, Integer::sum);
+            long[] range = request.getRange();
+            S3Object object = new S3Object();
+            object.setKey(request.getKey());
+            object.setObjectContent(range == null
+                    ? new ByteArrayInputStream(content)
+                    : new ByteArrayInputStream(content, (int) range[0], (int) (range[1] - range[0] + 1)));
+            return object;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.conveyal.datatools.manager.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HashUtilsTest {
+    /** SHA-256 of "abc", from FIPS 180-2 */
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Test
+    public void hashFile() throws IOException {
+        File file = File.createTempFile("hash", ".txt");
+        try {
+            Files.write(file.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+            assertEquals(ABC_SHA256, HashUtils.hashFile(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void hashMissingFile() throws IOException {
+        HashUtils.hashFile(new File("does-not-exist.zip"));
+    }
+
+    @Test
+    public void copyAndHash() throws IOException {
+        byte[] content = "abc".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(ABC_SHA256, HashUtils.copyAndHash(new ByteArrayInputStream(content), out));
+        assertArrayEquals(content, out.toByteArray());
+    }
+}